@@ -221,7 +221,7 @@ public class Query implements QueryElement, Serializable
       Query rhs = (Query)obj;
 
       return new EqualsBuilder().append(source, rhs.source).append(constraint, rhs.constraint).append(columns,
-         rhs.columns).append(limits, rhs.limits).isEquals();
+         rhs.columns).append(limits, rhs.limits).append(orderings, rhs.orderings).isEquals();
    }
 
    /**
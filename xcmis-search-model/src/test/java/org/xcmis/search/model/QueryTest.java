@@ -135,6 +135,24 @@ public class QueryTest
       assertThat(query.getColumns(), is(sameInstance(columns)));
    }
 
+   @Test
+   public void testShouldNotBeEqualWithDifferentOrderings()
+   {
+      source = new Selector(selector("nt:unstructured"));
+      Query ascending =
+         new Query(source, null, Collections.singletonList(new Ordering(new NodeName(selector("selector1")),
+            Order.ASCENDING)), null, null);
+      Query descending =
+         new Query(source, null, Collections.singletonList(new Ordering(new NodeName(selector("selector1")),
+            Order.DESCENDING)), null, null);
+      Query same =
+         new Query(source, null, Collections.singletonList(new Ordering(new NodeName(selector("selector1")),
+            Order.ASCENDING)), null, null);
+      assertThat(ascending.equals(descending), is(false));
+      assertThat(ascending.equals(same), is(true));
+      assertThat(ascending.hashCode(), is(same.hashCode()));
+   }
+
    @Test
    public void testShouldConstructReadableString()
    {
@@ -30,11 +30,16 @@ import org.xcmis.search.content.command.query.ProcessQueryCommand;
 import org.xcmis.search.content.interceptors.ContentReaderInterceptor;
 import org.xcmis.search.content.interceptors.InterceptorChain;
 import org.xcmis.search.content.interceptors.QueryProcessorInterceptor;
+import org.xcmis.search.content.interceptors.QueryResultCacheInterceptor;
 import org.xcmis.search.content.interceptors.QueryableIndexStorage;
 import org.xcmis.search.model.Query;
+import org.xcmis.search.query.QueryCache;
 import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.QueryKey;
+import org.xcmis.search.query.QueryResultCache;
 import org.xcmis.search.query.Searcher;
-import org.xcmis.search.query.optimize.CriteriaBasedOptimizer;
+import org.xcmis.search.query.optimize.CostBasedOptimizer;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
 import org.xcmis.search.query.plan.SimplePlaner;
 import org.xcmis.search.result.ScoredRow;
 
@@ -61,6 +66,16 @@ public class SearchService implements Startable, ContentModificationListener, Se
 
    private final InterceptorChain interceptorChain;
 
+   /**
+    * Cache of the optimized query plans.
+    */
+   private final QueryCache<QueryKey, QueryExecutionPlan> queryPlanCache;
+
+   /**
+    * Cache of the query results.
+    */
+   private final QueryResultCache queryResultCache;
+
    /**
     * Default invocation context.
     */
@@ -81,11 +96,38 @@ public class SearchService implements Startable, ContentModificationListener, Se
 
       addQueryableIndexStorageInterceptor(interceptorChain);
 
+      this.queryPlanCache = new QueryCache<QueryKey, QueryExecutionPlan>();
       interceptorChain.addBeforeInterceptor(new QueryProcessorInterceptor(new SimplePlaner(),
-         new CriteriaBasedOptimizer()), QueryableIndexStorage.class);
+         new CostBasedOptimizer(), queryPlanCache), QueryableIndexStorage.class);
+
+      this.queryResultCache = new QueryResultCache();
+      interceptorChain.addBeforeInterceptor(new QueryResultCacheInterceptor(queryResultCache),
+         QueryProcessorInterceptor.class);
 
    }
 
+   /**
+    * Cache of the optimized query plans keyed by query and values of the bind
+    * variables. Cache should be cleared if schema is changed.
+    * 
+    * @return the query plan cache
+    */
+   public QueryCache<QueryKey, QueryExecutionPlan> getQueryPlanCache()
+   {
+      return queryPlanCache;
+   }
+
+   /**
+    * Cache of the query results. Cached results are invalidated by any
+    * modification of the index made through this service.
+    * 
+    * @return the query result cache
+    */
+   public QueryResultCache getQueryResultCache()
+   {
+      return queryResultCache;
+   }
+
    /**
     * Execute query.
     * 
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.config;
+
+/**
+ * Limits of the text extraction from the binary content of one MIME type.
+ */
+public class ExtractionLimits
+{
+   /**
+    * What to do with the text of the content which exceeds limits.
+    */
+   public enum OverflowPolicy {
+      /**
+       * Index text extracted before limit was reached.
+       */
+      TRUNCATE,
+
+      /**
+       * Don't index the text of the content.
+       */
+      SKIP
+   }
+
+   /**
+    * Default limits: 10M characters extracted within one minute, truncate
+    * longer text.
+    */
+   public static final ExtractionLimits DEFAULT =
+      new ExtractionLimits(10 * 1024 * 1024, 60 * 1000, OverflowPolicy.TRUNCATE);
+
+   /**
+    * Max number of the characters extracted from the content.
+    */
+   private final int maxChars;
+
+   /**
+    * Max time in milliseconds of extraction.
+    */
+   private final long timeout;
+
+   private final OverflowPolicy overflowPolicy;
+
+   /**
+    * @param maxChars max number of the characters extracted from the content,
+    *           must be positive
+    * @param timeout max time in milliseconds of extraction, must be positive
+    * @param overflowPolicy what to do if any limit is exceeded
+    */
+   public ExtractionLimits(int maxChars, long timeout, OverflowPolicy overflowPolicy)
+   {
+      if (maxChars <= 0)
+      {
+         throw new IllegalArgumentException("The maxChars argument must be positive");
+      }
+      if (timeout <= 0)
+      {
+         throw new IllegalArgumentException("The timeout argument must be positive");
+      }
+      if (overflowPolicy == null)
+      {
+         throw new IllegalArgumentException("The overflowPolicy argument may not be null");
+      }
+      this.maxChars = maxChars;
+      this.timeout = timeout;
+      this.overflowPolicy = overflowPolicy;
+   }
+
+   /**
+    * @return the max number of the characters extracted from the content
+    */
+   public int getMaxChars()
+   {
+      return maxChars;
+   }
+
+   /**
+    * @return the max time in milliseconds of extraction
+    */
+   public long getTimeout()
+   {
+      return timeout;
+   }
+
+   /**
+    * @return the overflow policy
+    */
+   public OverflowPolicy getOverflowPolicy()
+   {
+      return overflowPolicy;
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "maxChars=" + maxChars + ", timeout=" + timeout + ", overflowPolicy=" + overflowPolicy;
+   }
+}
@@ -22,8 +22,12 @@ import org.apache.tika.config.TikaConfig;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.mime.MimeTypeException;
 import org.xcmis.search.content.interceptors.QueryableIndexStorage;
+import org.xcmis.search.lucene.index.DirectoryType;
+import org.xcmis.search.lucene.index.merge.TieredAggregatePolicy;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Search service index configuration
@@ -61,6 +65,52 @@ public class IndexConfiguration
     */
    private final String queryableIndexStorage;
 
+   /**
+    * Number of the threads which extract text from the binary content.
+    */
+   private int extractionThreads = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * Number of the threads which rebuild the index.
+    */
+   private int reindexThreads = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * Allowed number of segments per tier of the persisted index.
+    */
+   private double segmentsPerTier = TieredAggregatePolicy.DEFAULT_SEGMENTS_PER_TIER;
+
+   /**
+    * Maximum size in bytes of segment merged in background.
+    */
+   private long maxMergedSegmentSize = TieredAggregatePolicy.DEFAULT_MAX_MERGED_SEGMENT_SIZE;
+
+   /**
+    * Write rate of segments merge in Mb per second, 0 - not limited.
+    */
+   private double maxMergeWriteRate = TieredAggregatePolicy.DEFAULT_MAX_MERGE_WRITE_RATE;
+
+   /**
+    * Implementation of the directory of the persisted index.
+    */
+   private DirectoryType directoryType = DirectoryType.DEFAULT;
+
+   /**
+    * Size in bytes of the merged in memory chain after which it is stored in
+    * memory mapped temporary directory instead of heap, 0 - always in heap.
+    */
+   private long memoryChainSpillSize = 0;
+
+   /**
+    * Limits of the text extraction by MIME type.
+    */
+   private final Map<String, ExtractionLimits> extractionLimits = new ConcurrentHashMap<String, ExtractionLimits>();
+
+   /**
+    * Limits of the text extraction for MIME types without own limits.
+    */
+   private ExtractionLimits defaultExtractionLimits = ExtractionLimits.DEFAULT;
+
    /**
     * In memory index storage with default Tika configuration
     * 
@@ -147,4 +197,155 @@ public class IndexConfiguration
       return tikaConfiguration;
    }
 
+   /**
+    * @return the number of the threads which extract text from the binary
+    *         content
+    */
+   public int getExtractionThreads()
+   {
+      return extractionThreads;
+   }
+
+   /**
+    * @param extractionThreads the number of the threads which extract text
+    *           from the binary content
+    */
+   public void setExtractionThreads(int extractionThreads)
+   {
+      this.extractionThreads = extractionThreads;
+   }
+
+   /**
+    * @return the number of the threads which rebuild the index
+    */
+   public int getReindexThreads()
+   {
+      return reindexThreads;
+   }
+
+   /**
+    * @param reindexThreads the number of the threads which rebuild the index
+    */
+   public void setReindexThreads(int reindexThreads)
+   {
+      this.reindexThreads = reindexThreads;
+   }
+
+   /**
+    * @return the allowed number of segments per tier of the persisted index
+    */
+   public double getSegmentsPerTier()
+   {
+      return segmentsPerTier;
+   }
+
+   /**
+    * @param segmentsPerTier the allowed number of segments per tier of the
+    *           persisted index
+    */
+   public void setSegmentsPerTier(double segmentsPerTier)
+   {
+      this.segmentsPerTier = segmentsPerTier;
+   }
+
+   /**
+    * @return the maximum size in bytes of segment merged in background
+    */
+   public long getMaxMergedSegmentSize()
+   {
+      return maxMergedSegmentSize;
+   }
+
+   /**
+    * @param maxMergedSegmentSize the maximum size in bytes of segment merged
+    *           in background
+    */
+   public void setMaxMergedSegmentSize(long maxMergedSegmentSize)
+   {
+      this.maxMergedSegmentSize = maxMergedSegmentSize;
+   }
+
+   /**
+    * @return the write rate of segments merge in Mb per second, 0 - not
+    *         limited
+    */
+   public double getMaxMergeWriteRate()
+   {
+      return maxMergeWriteRate;
+   }
+
+   /**
+    * @param maxMergeWriteRate the write rate of segments merge in Mb per
+    *           second, 0 - not limited
+    */
+   public void setMaxMergeWriteRate(double maxMergeWriteRate)
+   {
+      this.maxMergeWriteRate = maxMergeWriteRate;
+   }
+
+   /**
+    * @return the implementation of the directory of the persisted index
+    */
+   public DirectoryType getDirectoryType()
+   {
+      return directoryType;
+   }
+
+   /**
+    * @param directoryType the implementation of the directory of the
+    *           persisted index
+    */
+   public void setDirectoryType(DirectoryType directoryType)
+   {
+      this.directoryType = directoryType;
+   }
+
+   /**
+    * @return the size in bytes of the merged in memory chain after which it
+    *         is stored in memory mapped temporary directory, 0 - always in
+    *         heap
+    */
+   public long getMemoryChainSpillSize()
+   {
+      return memoryChainSpillSize;
+   }
+
+   /**
+    * @param memoryChainSpillSize the size in bytes of the merged in memory
+    *           chain after which it is stored in memory mapped temporary
+    *           directory, 0 - always in heap
+    */
+   public void setMemoryChainSpillSize(long memoryChainSpillSize)
+   {
+      this.memoryChainSpillSize = memoryChainSpillSize;
+   }
+
+   /**
+    * @param mimeType the MIME type of the content
+    * @return the limits of the text extraction for the MIME type
+    */
+   public ExtractionLimits getExtractionLimits(String mimeType)
+   {
+      ExtractionLimits limits = mimeType == null ? null : extractionLimits.get(mimeType);
+      return limits == null ? defaultExtractionLimits : limits;
+   }
+
+   /**
+    * @param mimeType the MIME type of the content
+    * @param limits the limits of the text extraction for the MIME type
+    */
+   public void setExtractionLimits(String mimeType, ExtractionLimits limits)
+   {
+      extractionLimits.put(mimeType, limits);
+   }
+
+   /**
+    * @param limits the limits of the text extraction for MIME types without
+    *           own limits
+    */
+   public void setDefaultExtractionLimits(ExtractionLimits limits)
+   {
+      this.defaultExtractionLimits = limits;
+   }
+
 }
@@ -50,6 +50,11 @@ public class ContentEntry
     */
    private final Property[] properties;
 
+   /**
+    * Path of the entry. Entries without path are ordered by score.
+    */
+   private final String path;
+
    /**
     * @param name String name
     * @param tableNames String[]
@@ -59,6 +64,20 @@ public class ContentEntry
     */
    public ContentEntry(String name, String[] tableNames, String identifer, String[] parentIdentifiers,
       Property[] properties)
+   {
+      this(name, tableNames, identifer, parentIdentifiers, properties, null);
+   }
+
+   /**
+    * @param name String name
+    * @param tableNames String[]
+    * @param identifier String
+    * @param parentIdentifiers String[]
+    * @param properties Property[]
+    * @param path String path which defines document order, may be null
+    */
+   public ContentEntry(String name, String[] tableNames, String identifer, String[] parentIdentifiers,
+      Property[] properties, String path)
    {
       Validate.notNull(name, "The value argument may not be null");
       Validate.notEmpty(tableNames, "The tableNames may not be empty");
@@ -68,6 +87,7 @@ public class ContentEntry
       this.identifier = identifer;
       this.parentIdentifiers = parentIdentifiers;
       this.properties = properties;
+      this.path = path;
    }
 
    /**
@@ -110,4 +130,12 @@ public class ContentEntry
       return properties;
    }
 
+   /**
+    * @return the path or null if entry has no path
+    */
+   public String getPath()
+   {
+      return path;
+   }
+
 }
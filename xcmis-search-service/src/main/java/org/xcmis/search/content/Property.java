@@ -179,10 +179,26 @@ public class Property<V>
 
       private final long length;
 
+      private final boolean unchanged;
+
       /**
        * @param value
        */
       public BinaryValue(InputStream value, String mimeType, String encoding, long length)
+      {
+         this(value, mimeType, encoding, length, false);
+      }
+
+      /**
+       * @param value content stream
+       * @param mimeType mime type of content
+       * @param encoding encoding of content
+       * @param length length of content
+       * @param unchanged <code>true</code> if content was not changed since
+       *           entry was indexed last time, then text extracted before may
+       *           be reused instead of reading the stream
+       */
+      public BinaryValue(InputStream value, String mimeType, String encoding, long length, boolean unchanged)
       {
          super(length);
          Validate.notNull(value, "The value argument may not be null");
@@ -190,6 +206,16 @@ public class Property<V>
          this.mimeType = mimeType;
          this.encoding = encoding;
          this.length = length;
+         this.unchanged = unchanged;
+      }
+
+      /**
+       * @return <code>true</code> if content was not changed since entry was
+       *         indexed last time
+       */
+      public boolean isUnchanged()
+      {
+         return unchanged;
       }
 
       /**
@@ -22,6 +22,7 @@ import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.content.command.VisitableCommand;
 import org.xcmis.search.content.command.index.ModifyIndexCommand;
 import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
+import org.xcmis.search.content.command.query.GetCardinalityEstimatorCommand;
 import org.xcmis.search.content.command.query.ProcessQueryCommand;
 import org.xcmis.search.content.command.read.GetChildEntriesCommand;
 import org.xcmis.search.content.command.read.GetContentEntryCommand;
@@ -86,6 +87,16 @@ public class AbstractVisitor implements Visitor
       return handleDefault(ctx, command);
    }
 
+   /**
+    * @see org.xcmis.search.content.interceptors.Visitor#visitGetCardinalityEstimatorCommand(org.xcmis.search.content.command.InvocationContext,
+    *      org.xcmis.search.content.command.query.GetCardinalityEstimatorCommand)
+    */
+   public Object visitGetCardinalityEstimatorCommand(InvocationContext ctx, GetCardinalityEstimatorCommand command)
+      throws Throwable
+   {
+      return handleDefault(ctx, command);
+   }
+
    /**
     * A default handler for all commands visited. This is called for any visit
     * method called, unless a visit command is appropriately overridden.
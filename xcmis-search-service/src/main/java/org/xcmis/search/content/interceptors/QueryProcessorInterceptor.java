@@ -20,30 +20,50 @@ package org.xcmis.search.content.interceptors;
 
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.Validate;
+import org.xcmis.search.content.ContentEntry;
 import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.search.content.command.index.ModifyIndexCommand;
 import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
+import org.xcmis.search.content.command.query.GetCardinalityEstimatorCommand;
 import org.xcmis.search.content.command.query.ProcessQueryCommand;
+import org.xcmis.search.content.command.read.GetContentEntryCommand;
 import org.xcmis.search.model.Limit;
 import org.xcmis.search.model.Query;
 import org.xcmis.search.model.constraint.Constraint;
 import org.xcmis.search.model.ordering.Ordering;
+import org.xcmis.search.model.source.Join;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.QueryCache;
 import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.QueryExecutionException;
 import org.xcmis.search.query.QueryExecutionExceptions;
+import org.xcmis.search.query.QueryKey;
 import org.xcmis.search.query.Statistics;
+import org.xcmis.search.query.join.ContentEntryReader;
+import org.xcmis.search.query.join.JoinKeys;
+import org.xcmis.search.query.join.JoinProcessor;
+import org.xcmis.search.query.plan.CardinalityEstimator;
+import org.xcmis.search.query.plan.JoinAlgorithm;
 import org.xcmis.search.query.plan.Optimizer;
 import org.xcmis.search.query.plan.QueryExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlaner;
 import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.LimitExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.NestedExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.ProjectExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.SelectorExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.SortExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.WhereExecutionPlan;
 import org.xcmis.search.result.ScoredRow;
+import org.xcmis.spi.utils.Logger;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A query engine that is able to execute formal queries expressed in the
@@ -51,10 +71,30 @@ import java.util.List;
  */
 public class QueryProcessorInterceptor extends CommandInterceptor
 {
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(QueryProcessorInterceptor.class);
+
    private final QueryExecutionPlaner planner;
 
    private final Optimizer optimizer;
 
+   /**
+    * Optimized plans of the recently executed queries. Optimizer choices
+    * depend on the values of the bind variables, so plans are cached per
+    * values. Cached plans are shared between concurrent executions and must
+    * not be modified.
+    */
+   private final QueryCache<QueryKey, QueryExecutionPlan> planCache;
+
+   /**
+    * Incremented before and after each modification of the index. Join
+    * algorithm and build side of the cached plans are chosen by the index
+    * statistics, so plans of joins are cached per generation.
+    */
+   private final AtomicLong indexGeneration = new AtomicLong();
+
    /**
     * Create a new query engine given the {@link QueryExecutionPlaner planner},
     * {@link Optimizer optimizer}, {@link QueryProcessor processor}.
@@ -69,11 +109,38 @@ public class QueryProcessorInterceptor extends CommandInterceptor
     *            if the processor reference is null
     */
    public QueryProcessorInterceptor(QueryExecutionPlaner planner, Optimizer optimizer)
+   {
+      this(planner, optimizer, new QueryCache<QueryKey, QueryExecutionPlan>());
+   }
+
+   /**
+    * Create a new query engine what reuses optimized plans of the queries
+    * from the cache.
+    * 
+    * @param planner
+    *           the planner that should be used to generate canonical query
+    *           plans for the queries;
+    * @param optimizer
+    *           the optimizer that should be used to optimize the canonical
+    *           query plan
+    * @param planCache
+    *           the cache of the optimized plans
+    */
+   public QueryProcessorInterceptor(QueryExecutionPlaner planner, Optimizer optimizer,
+      QueryCache<QueryKey, QueryExecutionPlan> planCache)
    {
       super();
       this.planner = planner;
       this.optimizer = optimizer;
+      this.planCache = planCache;
+   }
 
+   /**
+    * @return the cache of the optimized query plans
+    */
+   public QueryCache<QueryKey, QueryExecutionPlan> getPlanCache()
+   {
+      return planCache;
    }
 
    /**
@@ -85,10 +152,13 @@ public class QueryProcessorInterceptor extends CommandInterceptor
    {
 
       QueryExecutionExceptions executionExceptions = new QueryExecutionExceptions();
+      // statistics is used only to choose join algorithm
+      CardinalityEstimator cardinalityEstimator =
+         command.getQuery().getSource() instanceof Join ? getCardinalityEstimator(ctx) : null;
       try
       {
          return execute(ctx, new QueryExecutionContext(ctx.getSchema(), executionExceptions, command
-            .getBindVariablesValues()), command.getQuery());
+            .getBindVariablesValues(), cardinalityEstimator), command.getQuery());
       }
       finally
       {
@@ -100,6 +170,43 @@ public class QueryProcessorInterceptor extends CommandInterceptor
 
    }
 
+   /**
+    * @see org.xcmis.search.content.interceptors.AbstractVisitor#visitModifyIndexCommand(org.xcmis.search.content.command.InvocationContext,
+    *      org.xcmis.search.content.command.index.ModifyIndexCommand)
+    */
+   @Override
+   public Object visitModifyIndexCommand(InvocationContext ctx, ModifyIndexCommand command) throws Throwable
+   {
+      indexGeneration.incrementAndGet();
+      try
+      {
+         return invokeNextInterceptor(ctx, command);
+      }
+      finally
+      {
+         indexGeneration.incrementAndGet();
+      }
+   }
+
+   /**
+    * Request index statistics from the next interceptors of the chain.
+    * 
+    * @param ctx
+    * @return the estimator or null if statistics is not available
+    */
+   private CardinalityEstimator getCardinalityEstimator(InvocationContext ctx)
+   {
+      try
+      {
+         return (CardinalityEstimator)invokeNextInterceptor(ctx, new GetCardinalityEstimatorCommand());
+      }
+      catch (Throwable e)
+      {
+         LOG.warn("Index statistics is not available: " + e.getLocalizedMessage());
+      }
+      return null;
+   }
+
    /**
     * Execute the supplied query by planning, optimizing, and then processing it.
     * @param ctx 
@@ -114,65 +221,79 @@ public class QueryProcessorInterceptor extends CommandInterceptor
       Validate.notNull(context, "The context argument may not be null");
       Validate.notNull(query, "The query argument may not be null");
 
-      // Create the plan ...
-      long start = System.currentTimeMillis();
-      QueryExecutionPlan executionPlan = planner.createPlan(context, query);
-      long duration = System.currentTimeMillis() - start;
-      Statistics stats = new Statistics(duration);
-      if (!context.getExecutionExceptions().hasProblems())
+      Statistics stats;
+      QueryKey key =
+         query.getSource() instanceof Join ? new QueryKey(query, context.getVariables(), indexGeneration.get())
+            : new QueryKey(query, context.getVariables());
+      QueryExecutionPlan optimizedPlan = planCache.get(key);
+      if (optimizedPlan == null)
       {
+         // Create the plan ...
+         long start = System.currentTimeMillis();
+         QueryExecutionPlan executionPlan = planner.createPlan(context, query);
+         long duration = System.currentTimeMillis() - start;
+         stats = new Statistics(duration);
+         if (context.getExecutionExceptions().hasProblems())
+         {
+            return Collections.emptyList();
+         }
          // Optimize the plan ...
          start = System.currentTimeMillis();
-         QueryExecutionPlan optimizedPlan = optimizer.optimize(context, executionPlan);
-
+         optimizedPlan = optimizer.optimize(context, executionPlan);
          duration = System.currentTimeMillis() - start;
          stats = stats.withOptimizationTime(duration);
-         if (!context.getExecutionExceptions().hasProblems())
+         if (context.getExecutionExceptions().hasProblems())
          {
+            return Collections.emptyList();
+         }
+         planCache.put(key, optimizedPlan);
+      }
+      else
+      {
+         stats = new Statistics(0);
+      }
 
-            // Execute the plan ...
-            try
-            {
-               start = System.currentTimeMillis();
-               return execute(ctx, context, query, stats, optimizedPlan);
-            }
-            finally
-            {
-               duration = System.currentTimeMillis() - start;
-               stats = stats.withOptimizationTime(duration);
-            }
+      // Execute the plan ...
+      QueryExecuteableComponent component = createQueryExecuteableComponent(optimizedPlan);
+      long start = System.currentTimeMillis();
+      try
+      {
+         return component.executeComponent(ctx, context);
+      }
+      finally
+      {
+         long duration = System.currentTimeMillis() - start;
+         stats = component.appendStatistics(stats.withExecutionTime(duration));
+         if (LOG.isDebugEnabled())
+         {
+            LOG.debug("Query " + query + " executed in " + stats + ", " + planCache);
          }
       }
-      return Collections.emptyList();
    }
 
    /**
-    * Execute the supplied query by plan.
-    * @param ctx 
-    * @param context
-    * @param query
-    * @param stats
-    * @param queryPlan
+    * Create component for execution.
+    * @param queryExecutionPlan
+    * @return
     */
-   private List<ScoredRow> execute(InvocationContext ctx, QueryExecutionContext context, Query query, Statistics stats,
-      QueryExecutionPlan queryPlan)
+   private QueryExecuteableComponent createQueryExecuteableComponent(QueryExecutionPlan queryExecutionPlan)
    {
-      QueryExecuteableComponent component = createQueryExecuteableComponent(queryPlan);
-      return component.executeComponent(ctx, context);
-   };
+      return createQueryExecuteableComponent(queryExecutionPlan, new ArrayList<WhereExecutionPlan>(), null);
+   }
 
    /**
     * Create component for execution.
     * @param queryExecutionPlan
+    * @param constraintsPlan constraints pushed down from the parent join
+    * @param sortPlan sorting pushed down from the parent join
     * @return
     */
-   private QueryExecuteableComponent createQueryExecuteableComponent(QueryExecutionPlan queryExecutionPlan)
+   private QueryExecuteableComponent createQueryExecuteableComponent(QueryExecutionPlan queryExecutionPlan,
+      List<WhereExecutionPlan> constraintsPlan, SortExecutionPlan sortPlan)
    {
 
       LimitExecutionPlan limitPlan = null;
-      SortExecutionPlan sortPlan = null;
       ProjectExecutionPlan projectPlan = null;
-      List<WhereExecutionPlan> constraintsPlan = new ArrayList<WhereExecutionPlan>();
       QueryExecutionPlan nextPlan = queryExecutionPlan;
       do
       {
@@ -196,19 +317,66 @@ public class QueryProcessorInterceptor extends CommandInterceptor
                   constraintsPlan, sortPlan, limitPlan);
             case JOIN :
                JoinExecutionPlan joinPlan = (JoinExecutionPlan)nextPlan;
-               QueryExecuteableComponent left = createQueryExecuteableComponent(joinPlan.getLeftPlan());
-               QueryExecuteableComponent right = createQueryExecuteableComponent(joinPlan.getRightPlan());
-               return new JoinExecutionComponent(this, joinPlan, left, right, projectPlan, constraintsPlan, sortPlan,
-                  limitPlan);
+               Set<SelectorName> leftSelectors = joinPlan.getLeftPlan().getSelectors();
+               Set<SelectorName> rightSelectors = joinPlan.getRightPlan().getSelectors();
+               // push down constraints what reference only one source of the join
+               List<WhereExecutionPlan> leftConstraints = new ArrayList<WhereExecutionPlan>();
+               List<WhereExecutionPlan> rightConstraints = new ArrayList<WhereExecutionPlan>();
+               List<WhereExecutionPlan> joinConstraints = new ArrayList<WhereExecutionPlan>();
+               for (WhereExecutionPlan constraintPlan : constraintsPlan)
+               {
+                  Set<SelectorName> referenced = constraintPlan.getSelectors();
+                  if (leftSelectors.containsAll(referenced))
+                  {
+                     leftConstraints.add(constraintPlan);
+                  }
+                  else if (rightSelectors.containsAll(referenced))
+                  {
+                     rightConstraints.add(constraintPlan);
+                  }
+                  else
+                  {
+                     joinConstraints.add(constraintPlan);
+                  }
+               }
+               // push down sorting if it reference only one source of the join
+               SortExecutionPlan leftSort = null;
+               SortExecutionPlan rightSort = null;
+               SortExecutionPlan joinSort = null;
+               if (sortPlan != null)
+               {
+                  if (leftSelectors.containsAll(sortPlan.getSelectors()))
+                  {
+                     leftSort = sortPlan;
+                  }
+                  else if (rightSelectors.containsAll(sortPlan.getSelectors()))
+                  {
+                     rightSort = sortPlan;
+                  }
+                  else
+                  {
+                     joinSort = sortPlan;
+                  }
+               }
+               QueryExecuteableComponent left =
+                  createQueryExecuteableComponent(joinPlan.getLeftPlan(), leftConstraints, leftSort);
+               QueryExecuteableComponent right =
+                  createQueryExecuteableComponent(joinPlan.getRightPlan(), rightConstraints, rightSort);
+               // probe the sorted source to keep the order
+               boolean buildLeft = rightSort != null || (leftSort == null && joinPlan.isBuildLeft());
+               return new JoinExecutionComponent(this, joinPlan, left, right, projectPlan, joinConstraints, joinSort,
+                  limitPlan, buildLeft, leftSort != null || rightSort != null);
             default :
                throw new NotImplementedException("Execution for plan " + queryExecutionPlan.getType().toString()
                   + " not implemented");
          }
 
-         nextPlan = nextPlan.next();
+         // don't use iterator of the plan, it may be walked only once
+         nextPlan = ((NestedExecutionPlan)nextPlan).getChildPlan();
       }
       while (nextPlan != null);
-      return null;
+      throw new NotImplementedException("Execution plan " + queryExecutionPlan.getType().toString()
+         + " has no source");
    }
 
    /**
@@ -314,6 +482,16 @@ public class QueryProcessorInterceptor extends CommandInterceptor
       }
 
       public abstract List<ScoredRow> executeComponent(InvocationContext ctx, QueryExecutionContext context);
+
+      /**
+       * Add information about execution of this component to the statistics.
+       * @param stats
+       * @return updated statistics
+       */
+      public Statistics appendStatistics(Statistics stats)
+      {
+         return stats;
+      }
    }
 
    /**
@@ -374,18 +552,41 @@ public class QueryProcessorInterceptor extends CommandInterceptor
 
       private final JoinExecutionPlan joinPlan;
 
+      private final QueryExecuteableComponent left;
+
+      private final QueryExecuteableComponent right;
+
+      /**
+       * Build hash table over left source to keep order of the right source.
+       */
+      private final boolean buildLeft;
+
+      /**
+       * Keep order of the source which sorting was pushed down to.
+       */
+      private final boolean keepOrder;
+
+      private JoinAlgorithm usedAlgorithm;
+
       /**
        * @param projectPlan
        * @param constraintsPlan
        * @param sortPlan
        * @param limitPlan
+       * @param buildLeft
+       * @param keepOrder
        */
       public JoinExecutionComponent(CommandInterceptor interceptor, JoinExecutionPlan joinPlan,
          QueryExecuteableComponent left, QueryExecuteableComponent right, ProjectExecutionPlan projectPlan,
-         List<WhereExecutionPlan> constraintsPlan, SortExecutionPlan sortPlan, LimitExecutionPlan limitPlan)
+         List<WhereExecutionPlan> constraintsPlan, SortExecutionPlan sortPlan, LimitExecutionPlan limitPlan,
+         boolean buildLeft, boolean keepOrder)
       {
          super(interceptor, projectPlan, constraintsPlan, sortPlan, limitPlan);
          this.joinPlan = joinPlan;
+         this.left = left;
+         this.right = right;
+         this.buildLeft = buildLeft;
+         this.keepOrder = keepOrder;
       }
 
       /**
@@ -395,7 +596,60 @@ public class QueryProcessorInterceptor extends CommandInterceptor
       @Override
       public List<ScoredRow> executeComponent(InvocationContext ctx, QueryExecutionContext context)
       {
-         throw new NotImplementedException("Method not implemented");
+         if (!getConstraintsPlan().isEmpty())
+         {
+            context.getExecutionExceptions().addException(
+               new NotImplementedException("Constraints " + getConstraints()
+                  + " what reference both sources of the join are not supported"));
+            return null;
+         }
+         if (getSortPlan() != null)
+         {
+            context.getExecutionExceptions().addException(
+               new NotImplementedException("Orderings " + getOrder()
+                  + " what reference both sources of the join are not supported"));
+            return null;
+         }
+
+         List<ScoredRow> leftRows = left.executeComponent(ctx, context);
+         if (leftRows == null)
+         {
+            return null;
+         }
+         List<ScoredRow> rightRows = right.executeComponent(ctx, context);
+         if (rightRows == null)
+         {
+            return null;
+         }
+         try
+         {
+            JoinKeys joinKeys =
+               JoinKeys.create(joinPlan.getJoinCondition(), joinPlan.getLeftPlan().getSelectors(),
+                  new InterceptorContentEntryReader(ctx, getInterceptor()));
+            JoinProcessor processor = new JoinProcessor(joinKeys, joinPlan.getJoinType());
+            List<ScoredRow> result = processor.join(leftRows, rightRows, joinPlan.getJoinAlgorithm(), buildLeft, keepOrder);
+            usedAlgorithm = processor.getUsedAlgorithm();
+            return applyLimit(result, getLimit());
+         }
+         catch (QueryExecutionException e)
+         {
+            context.getExecutionExceptions().addException(e);
+         }
+         return null;
+      }
+
+      /**
+       * @see org.xcmis.search.content.interceptors.QueryProcessorInterceptor.QueryExecuteableComponent#appendStatistics(org.xcmis.search.query.Statistics)
+       */
+      @Override
+      public Statistics appendStatistics(Statistics stats)
+      {
+         stats = right.appendStatistics(left.appendStatistics(stats));
+         if (usedAlgorithm != null)
+         {
+            stats = stats.withJoinAlgorithm(usedAlgorithm);
+         }
+         return stats;
       }
 
       /**
@@ -406,5 +660,58 @@ public class QueryProcessorInterceptor extends CommandInterceptor
          return joinPlan;
       }
 
+      private List<ScoredRow> applyLimit(List<ScoredRow> rows, Limit limit)
+      {
+         if (limit.isUnlimited())
+         {
+            return rows;
+         }
+         int from = Math.min(limit.getOffset(), rows.size());
+         int to = (int)Math.min((long)from + limit.getRowLimit(), rows.size());
+         return new ArrayList<ScoredRow>(rows.subList(from, to));
+      }
+
+   }
+
+   /**
+    * Read content entries through the next interceptors of the chain. Entries
+    * are cached, so every entry is read only once during the join.
+    */
+   private static class InterceptorContentEntryReader implements ContentEntryReader
+   {
+      private final InvocationContext ctx;
+
+      private final CommandInterceptor interceptor;
+
+      private final Map<String, ContentEntry> cache;
+
+      InterceptorContentEntryReader(InvocationContext ctx, CommandInterceptor interceptor)
+      {
+         this.ctx = ctx;
+         this.interceptor = interceptor;
+         this.cache = new HashMap<String, ContentEntry>();
+      }
+
+      /**
+       * @see org.xcmis.search.query.join.ContentEntryReader#read(java.lang.String)
+       */
+      public ContentEntry read(String identifier) throws QueryExecutionException
+      {
+         if (cache.containsKey(identifier))
+         {
+            return cache.get(identifier);
+         }
+         try
+         {
+            ContentEntry entry =
+               (ContentEntry)interceptor.invokeNextInterceptor(ctx, new GetContentEntryCommand(identifier));
+            cache.put(identifier, entry);
+            return entry;
+         }
+         catch (Throwable e)
+         {
+            throw new QueryExecutionException(e.getLocalizedMessage(), e);
+         }
+      }
    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.content.interceptors;
+
+import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.search.content.command.index.ModifyIndexCommand;
+import org.xcmis.search.content.command.query.ProcessQueryCommand;
+import org.xcmis.search.query.QueryResultCache;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Interceptor what returns results of the recently executed queries from the
+ * {@link QueryResultCache} while index is not modified. Should be placed before
+ * the {@link QueryProcessorInterceptor} and see all the
+ * {@link ModifyIndexCommand}'s of the chain.
+ */
+public class QueryResultCacheInterceptor extends CommandInterceptor
+{
+   private final QueryResultCache resultCache;
+
+   /**
+    * Generation of the index, changed before and after each modification. So
+    * results of the queries executed concurrently with modification are never
+    * returned from the cache. Generation is odd while modification is in
+    * progress.
+    */
+   private final AtomicLong indexGeneration = new AtomicLong();
+
+   /**
+    * @param resultCache the cache of the query results
+    */
+   public QueryResultCacheInterceptor(QueryResultCache resultCache)
+   {
+      super();
+      this.resultCache = resultCache;
+   }
+
+   /**
+    * @return the cache of the query results
+    */
+   public QueryResultCache getResultCache()
+   {
+      return resultCache;
+   }
+
+   /**
+    * @see org.xcmis.search.content.interceptors.AbstractVisitor#visitProcessQueryCommand(org.xcmis.search.content.command.InvocationContext,
+    *      org.xcmis.search.content.command.query.ProcessQueryCommand)
+    */
+   @Override
+   @SuppressWarnings("unchecked")
+   public Object visitProcessQueryCommand(InvocationContext ctx, ProcessQueryCommand command) throws Throwable
+   {
+      long generation = indexGeneration.get();
+      List<ScoredRow> rows = resultCache.get(command.getQuery(), command.getBindVariablesValues(), generation);
+      if (rows == null)
+      {
+         rows = (List<ScoredRow>)invokeNextInterceptor(ctx, command);
+         // result read during modification may miss part of it
+         if (rows != null && generation % 2 == 0)
+         {
+            rows = resultCache.put(command.getQuery(), command.getBindVariablesValues(), generation, rows);
+         }
+      }
+      return rows;
+   }
+
+   /**
+    * @see org.xcmis.search.content.interceptors.AbstractVisitor#visitModifyIndexCommand(org.xcmis.search.content.command.InvocationContext,
+    *      org.xcmis.search.content.command.index.ModifyIndexCommand)
+    */
+   @Override
+   public Object visitModifyIndexCommand(InvocationContext ctx, ModifyIndexCommand command) throws Throwable
+   {
+      indexGeneration.incrementAndGet();
+      try
+      {
+         return invokeNextInterceptor(ctx, command);
+      }
+      finally
+      {
+         indexGeneration.incrementAndGet();
+      }
+   }
+}
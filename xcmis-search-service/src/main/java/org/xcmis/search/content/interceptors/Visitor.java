@@ -22,6 +22,7 @@ import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.content.command.VisitableCommand;
 import org.xcmis.search.content.command.index.ModifyIndexCommand;
 import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
+import org.xcmis.search.content.command.query.GetCardinalityEstimatorCommand;
 import org.xcmis.search.content.command.query.ProcessQueryCommand;
 import org.xcmis.search.content.command.read.GetChildEntriesCommand;
 import org.xcmis.search.content.command.read.GetContentEntryCommand;
@@ -84,4 +85,13 @@ public interface Visitor
     * @throws Throwable
     */
    Object visitGetUnfiledEntriesCommand(InvocationContext ctx, GetUnfiledEntriesCommand command) throws Throwable;
+
+   /**
+    * @param ctx
+    * @param getCardinalityEstimatorCommand
+    * @return
+    * @throws Throwable
+    */
+   Object visitGetCardinalityEstimatorCommand(InvocationContext ctx, GetCardinalityEstimatorCommand command)
+      throws Throwable;
 }
@@ -21,32 +21,35 @@ package org.xcmis.search.lucene;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang.Validate;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
-import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.TermQuery;
 import org.xcmis.search.VisitException;
 import org.xcmis.search.Visitors;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
 import org.xcmis.search.config.SearchServiceConfiguration;
-import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.Schema;
 import org.xcmis.search.content.command.InvocationContext;
 import org.xcmis.search.content.command.index.ModifyIndexCommand;
 import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
+import org.xcmis.search.content.command.query.GetCardinalityEstimatorCommand;
 import org.xcmis.search.content.interceptors.QueryableIndexStorage;
 import org.xcmis.search.lucene.content.VirtualTableResolver;
 import org.xcmis.search.lucene.index.FieldNames;
@@ -54,7 +57,6 @@ import org.xcmis.search.lucene.index.IndexException;
 import org.xcmis.search.lucene.index.IndexTransactionException;
 import org.xcmis.search.lucene.index.LuceneIndexTransaction;
 import org.xcmis.search.lucene.index.LuceneIndexer;
-import org.xcmis.search.lucene.search.UUIDFieldSelector;
 import org.xcmis.search.model.Limit;
 import org.xcmis.search.model.constraint.Constraint;
 import org.xcmis.search.model.operand.FullTextSearchScore;
@@ -67,9 +69,13 @@ import org.xcmis.search.model.operand.PropertyValue;
 import org.xcmis.search.model.operand.UpperCase;
 import org.xcmis.search.model.ordering.Order;
 import org.xcmis.search.model.ordering.Ordering;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.plan.CardinalityEstimator;
 import org.xcmis.search.result.ScoredRow;
 import org.xcmis.search.value.NameConverter;
 import org.xcmis.search.value.PathSplitter;
+import org.xcmis.search.value.PropertyType;
 import org.xcmis.spi.utils.Logger;
 
 /**
@@ -85,10 +91,17 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
    private static final Logger LOG = Logger.getLogger(AbstractLuceneQueryableIndexStorage.class);
 
    /**
-    * The upper limit for the initial fetch size.
+    * The upper limit for the initial fetch size. More hits are fetched on
+    * demand when results are consumed.
     */
    protected static final int MAX_FETCH_SIZE = 32 * 1024;
 
+   /**
+    * Fraction of the index assumed to be matched by query which selectivity
+    * can't be estimated from the term statistics.
+    */
+   protected static final double DEFAULT_SELECTIVITY = 0.1;
+
    /**
     * Convert one Sting name to other String name.
     */
@@ -114,6 +127,16 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
     */
    protected IndexConfiguration indexConfuguration;
 
+   /**
+    * Generation of the index, changed after each modification.
+    */
+   private final AtomicLong indexGeneration = new AtomicLong();
+
+   /**
+    * Searcher shared by queries of the same index generation.
+    */
+   private final SearcherManager searcherManager;
+
    /**
     * @param serviceConfiguration
     * @throws IndexException
@@ -144,18 +167,48 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       this.indexConfuguration = serviceConfiguration.getIndexConfuguration();
 
       this.nodeIndexer = new LuceneIndexer(indexConfuguration);
+      this.searcherManager = new SearcherManager()
+      {
+         @Override
+         protected long getGeneration()
+         {
+            return getIndexGeneration();
+         }
 
+         @Override
+         protected IndexReader openIndexReader() throws IndexException
+         {
+            return acquireIndexReader();
+         }
+      };
    }
 
    public Query getConstrainQuery(Constraint constraint, Map<String, Object> bindVariablesValues)
       throws VisitException, IndexException
+   {
+      return getConstrainQuery(constraint, bindVariablesValues, getIndexReader());
+   }
+
+   private Query getConstrainQuery(Constraint constraint, Map<String, Object> bindVariablesValues,
+      IndexReader indexReader) throws VisitException, IndexException
    {
       LuceneQueryBuilder luceneQueryBuilder =
-         new LuceneQueryBuilder(getIndexReader(), nameConverter, pathSplitter, bindVariablesValues, indexConfuguration);
+         new LuceneQueryBuilder(indexReader, nameConverter, pathSplitter, bindVariablesValues, indexConfuguration);
       Visitors.visit(constraint, luceneQueryBuilder);
       return luceneQueryBuilder.getQuery();
    }
 
+   /**
+    * @see org.xcmis.search.content.interceptors.CommandInterceptor#stop()
+    */
+   @Override
+   public void stop()
+   {
+      searcherManager.close();
+      nodeIndexer.shutdown();
+      super.stop();
+   }
+
    /**
     * @see org.xcmis.search.content.interceptors.QueryableIndexStorage#visitExecuteSelectorCommand(org.xcmis.search.content.command.InvocationContext,
     *      org.xcmis.search.content.command.query.ExecuteSelectorCommand)
@@ -163,52 +216,30 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
    @Override
    public Object visitExecuteSelectorCommand(InvocationContext ctx, ExecuteSelectorCommand command) throws Throwable
    {
-
-      List<ScoredRow> resultNodes = new ArrayList<ScoredRow>();
-      Query query = (Query)ctx.getTableResolver().resolve(command.getSelector().getName(), true);
-      if (command.getConstrains().size() > 0)
+      IndexSearcher searcher = searcherManager.acquire();
+      if (searcher == null)
       {
-         BooleanQuery booleanQuery = new BooleanQuery();
-
-         for (Constraint constrain : command.getConstrains())
-         {
-            booleanQuery.add(getConstrainQuery(constrain, command.getBindVariablesValues()), Occur.MUST);
-         }
-
-         booleanQuery.add(query, Occur.MUST);
-         query = booleanQuery;
+         return new ArrayList<ScoredRow>();
       }
-      // Open writer
-
-      IndexSearcher searcher = null;
       try
       {
-         // get result
-         IndexReader indexReader = getIndexReader();
-         if (indexReader != null)
+         Query query = (Query)ctx.getTableResolver().resolve(command.getSelector().getName(), true);
+         if (command.getConstrains().size() > 0)
          {
-            searcher = new Searcher(indexReader);
+            BooleanQuery booleanQuery = new BooleanQuery();
 
-            // query
-            Limit limit = command.getLimit();
-            int hits = Math.min(MAX_FETCH_SIZE, limit.getOffset() + limit.getRowLimit());
-            TopFieldDocs topDocs = searcher.search(query, null, hits, getSort(command.getOrderings()));
-
-            resultNodes = new LinkedList<ScoredRow>();
-            for (int i = limit.getOffset(); i < topDocs.scoreDocs.length; i++)
+            for (Constraint constrain : command.getConstrains())
             {
-               // get identifiers
-               final Document doc = searcher.doc(topDocs.scoreDocs[i].doc, new UUIDFieldSelector());
-               final String id = doc.get(FieldNames.UUID);
-               final FieldDoc fieldDoc = (FieldDoc) topDocs.scoreDocs[i];
-               Float score = Float.NaN;
-               if(fieldDoc.fields[0] instanceof Float)
-               {
-                   score = (Float) fieldDoc.fields[0];
-               }
-               resultNodes.add(new ScoredRow(command.getAlias().getName(), id, score));
+               booleanQuery.add(getConstrainQuery(constrain, command.getBindVariablesValues(), searcher
+                  .getIndexReader()), Occur.MUST);
             }
+
+            booleanQuery.add(query, Occur.MUST);
+            query = booleanQuery;
          }
+         return new LuceneScoredRowList(searcher, searcherManager, query, getSort(command.getOrderings(), ctx.getSchema(), command
+            .getSelector(), searcher.getIndexReader()), command
+            .getLimit(), command.getAlias().getName(), MAX_FETCH_SIZE);
       }
       catch (final CorruptIndexException e)
       {
@@ -220,19 +251,31 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       }
       finally
       {
-         try
-         {
-            if (searcher != null)
-            {
-               searcher.close();
-            }
-         }
-         catch (final IOException e)
-         {
-            throw new IndexException(e.getLocalizedMessage(), e);
-         }
+         searcherManager.release(searcher);
+      }
+   }
+
+   /**
+    * @see org.xcmis.search.content.interceptors.AbstractVisitor#visitGetCardinalityEstimatorCommand(org.xcmis.search.content.command.InvocationContext,
+    *      org.xcmis.search.content.command.query.GetCardinalityEstimatorCommand)
+    */
+   @Override
+   public Object visitGetCardinalityEstimatorCommand(InvocationContext ctx, GetCardinalityEstimatorCommand command)
+      throws Throwable
+   {
+      IndexSearcher searcher = searcherManager.acquire();
+      if (searcher == null)
+      {
+         return null;
+      }
+      try
+      {
+         return new IndexCardinalityEstimator(searcher.getIndexReader().numDocs(), ctx.getTableResolver());
+      }
+      finally
+      {
+         searcherManager.release(searcher);
       }
-      return resultNodes;
    }
 
    /**
@@ -242,17 +285,32 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
    @Override
    public Object visitModifyIndexCommand(InvocationContext ctx, ModifyIndexCommand command) throws Throwable
    {
-      Map<String, Document> addedDocuments = new HashMap<String, Document>();
       // indexing content
-      for (ContentEntry entry : command.getAddedDocuments())
+      Map<String, Document> addedDocuments;
+      IndexSearcher searcher = searcherManager.acquire();
+      try
       {
-         addedDocuments.put(entry.getIdentifier(), nodeIndexer.createDocument(entry));
+         IndexReader reader = searcher == null ? null : searcher.getIndexReader();
+         addedDocuments =
+            nodeIndexer.createDocuments(command.getAddedDocuments(), new LuceneIndexer.IndexedTextProvider(reader));
+         nodeIndexer.addAncestors(addedDocuments, new LuceneIndexer.IndexedAncestorsProvider(reader));
+      }
+      finally
+      {
+         searcherManager.release(searcher);
       }
 
       LuceneIndexTransaction indexTransaction =
          new LuceneIndexTransaction(addedDocuments, command.getDeletedDocuments());
 
-      return save(indexTransaction);
+      try
+      {
+         return save(indexTransaction);
+      }
+      finally
+      {
+         indexGeneration.incrementAndGet();
+      }
    }
 
    /**
@@ -260,6 +318,29 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
     */
    protected abstract IndexReader getIndexReader() throws IndexException;
 
+   /**
+    * Reader of the whole index with a reference of the caller, reader is kept
+    * open while the index is modified until caller releases it by
+    * {@link IndexReader#decRef()}.
+    * 
+    * @return the reader
+    * @throws IndexException
+    */
+   protected abstract IndexReader acquireIndexReader() throws IndexException;
+
+   /**
+    * Generation of the index. Reader returned by {@link #getIndexReader()} is
+    * reused by queries until generation is changed. Storage's which change
+    * index not only by {@link #save(LuceneIndexTransaction)} should override
+    * this method.
+    * 
+    * @return generation of the index
+    */
+   protected long getIndexGeneration()
+   {
+      return indexGeneration.get();
+   }
+
    /**
     * @param indexTransaction
     * @return
@@ -273,15 +354,20 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
     * Return lucene sorter by list of orderings.
     * 
     * @param list
+    * @param schema schema of the content, used to resolve property types
+    * @param selector name of the table
+    * @param reader reader of the index
     * @return
     * @throws VisitException
     */
-   private Sort getSort(List<Ordering> list) throws VisitException
+   private Sort getSort(List<Ordering> list, Schema schema, SelectorName selector, IndexReader reader)
+      throws VisitException
    {
       if (list.size() > 0)
       {
          SortField[] fields = new SortField[list.size()];
-         SortFieldVisitor sortVisitor = new SortFieldVisitor();
+         SortFieldVisitor sortVisitor =
+            new SortFieldVisitor(schema == null ? null : schema.getTable(selector), reader);
          int i = 0;
          for (Ordering ordering : list)
          {
@@ -291,16 +377,192 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
          return new Sort(fields);
 
       }
-      return new Sort();
+      // document order, entries without path by relevance
+      return new Sort(new SortField(FieldNames.PATH, SortField.STRING), SortField.FIELD_SCORE);
    }
 
+   /**
+    * Estimate cardinalities by document frequencies of the terms. Estimations
+    * of constraints are cached, so each constraint is converted to Lucene
+    * query only once. Each estimation uses the current searcher of the index.
+    */
+   private class IndexCardinalityEstimator implements CardinalityEstimator
+   {
+      private final long totalCount;
+
+      private final VirtualTableResolver<Query> tableResolver;
+
+      private final Map<Constraint, Long> constraintCardinalities;
+
+      IndexCardinalityEstimator(long totalCount, VirtualTableResolver<Query> tableResolver)
+      {
+         this.totalCount = totalCount;
+         this.tableResolver = tableResolver;
+         this.constraintCardinalities = new HashMap<Constraint, Long>();
+      }
+
+      /**
+       * @see org.xcmis.search.query.plan.CardinalityEstimator#getTotalCount()
+       */
+      public long getTotalCount()
+      {
+         return totalCount;
+      }
+
+      /**
+       * @see org.xcmis.search.query.plan.CardinalityEstimator#estimateTableCardinality(org.xcmis.search.model.source.SelectorName)
+       */
+      public long estimateTableCardinality(SelectorName tableName) throws QueryExecutionException
+      {
+         IndexSearcher searcher = acquire();
+         if (searcher == null)
+         {
+            return 0;
+         }
+         try
+         {
+            return estimate(tableResolver.resolve(tableName.getName(), true), searcher.getIndexReader());
+         }
+         catch (IOException e)
+         {
+            throw new QueryExecutionException(e.getLocalizedMessage(), e);
+         }
+         finally
+         {
+            searcherManager.release(searcher);
+         }
+      }
+
+      /**
+       * @see org.xcmis.search.query.plan.CardinalityEstimator#estimateConstraintCardinality(org.xcmis.search.model.constraint.Constraint,
+       *      java.util.Map)
+       */
+      public long estimateConstraintCardinality(Constraint constraint, Map<String, Object> bindVariablesValues)
+         throws QueryExecutionException
+      {
+         Long cardinality = constraintCardinalities.get(constraint);
+         if (cardinality == null)
+         {
+            IndexSearcher searcher = acquire();
+            if (searcher == null)
+            {
+               return 0;
+            }
+            try
+            {
+               IndexReader indexReader = searcher.getIndexReader();
+               cardinality = estimate(getConstrainQuery(constraint, bindVariablesValues, indexReader), indexReader);
+            }
+            catch (VisitException e)
+            {
+               throw new QueryExecutionException(e.getLocalizedMessage(), e);
+            }
+            catch (IndexException e)
+            {
+               throw new QueryExecutionException(e.getLocalizedMessage(), e);
+            }
+            catch (IOException e)
+            {
+               throw new QueryExecutionException(e.getLocalizedMessage(), e);
+            }
+            finally
+            {
+               searcherManager.release(searcher);
+            }
+            constraintCardinalities.put(constraint, cardinality);
+         }
+         return cardinality;
+      }
+
+      private IndexSearcher acquire() throws QueryExecutionException
+      {
+         try
+         {
+            return searcherManager.acquire();
+         }
+         catch (IndexException e)
+         {
+            throw new QueryExecutionException(e.getLocalizedMessage(), e);
+         }
+      }
+
+      /**
+       * Estimate number of the documents matched by query. Required clauses
+       * of the boolean query are intersected, optional are united and
+       * prohibited are ignored.
+       */
+      private long estimate(Query query, IndexReader indexReader) throws IOException
+      {
+         if (query instanceof TermQuery)
+         {
+            return indexReader.docFreq(((TermQuery)query).getTerm());
+         }
+         else if (query instanceof MatchAllDocsQuery)
+         {
+            return indexReader.numDocs();
+         }
+         else if (query instanceof BooleanQuery)
+         {
+            long required = -1;
+            long optional = -1;
+            for (BooleanClause clause : ((BooleanQuery)query).getClauses())
+            {
+               if (clause.isRequired())
+               {
+                  long cardinality = estimate(clause.getQuery(), indexReader);
+                  required = required < 0 ? cardinality : Math.min(required, cardinality);
+               }
+               else if (!clause.isProhibited())
+               {
+                  optional = Math.max(optional, 0) + estimate(clause.getQuery(), indexReader);
+               }
+            }
+            if (required >= 0)
+            {
+               return required;
+            }
+            if (optional >= 0)
+            {
+               return Math.min(optional, indexReader.numDocs());
+            }
+            return indexReader.numDocs();
+         }
+         return (long)Math.ceil(indexReader.numDocs() * DEFAULT_SELECTIVITY);
+      }
+   }
+
+   /**
+    * Maps orderings to sort fields. Properties are sorted by the typed sort
+    * field of the property type. Index without sort field is sorted by
+    * property terms as strings.
+    */
    private class SortFieldVisitor extends Visitors.AbstractModelVisitor
    {
 
+      private final Schema.Table table;
+
+      private final IndexReader reader;
+
       private Order order;
 
       private SortField sortField;
 
+      /**
+       * Case function applied to the next property value, <code>null</code>
+       * if none.
+       */
+      private Class<?> caseFunction;
+
+      /**
+       * @param table table of the selector, may be <code>null</code>
+       * @param reader reader of the index
+       */
+      public SortFieldVisitor(Schema.Table table, IndexReader reader)
+      {
+         this.table = table;
+         this.reader = reader;
+      }
+
       public SortField getSortField()
       {
          return sortField;
@@ -322,7 +584,11 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(Length node) throws VisitException
       {
-         throw new NotImplementedException();
+         String lengthField = FieldNames.createFieldLengthName(node.getPropertyValue().getPropertyName());
+         String sortName = FieldNames.createSortFieldName(lengthField);
+         sortField =
+            hasTerms(sortName) ? new SortField(sortName, SortField.LONG, isReverse()) : new SortField(lengthField,
+               SortField.STRING, isReverse());
       }
 
       /**
@@ -331,7 +597,7 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(LowerCase node) throws VisitException
       {
-         throw new NotImplementedException();
+         caseFunction = LowerCase.class;
       }
 
       /**
@@ -340,7 +606,7 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(NodeDepth depth) throws VisitException
       {
-         throw new NotImplementedException();
+         sortField = new SortField(FieldNames.DEPTH, SortField.INT, isReverse());
       }
 
       /**
@@ -349,7 +615,7 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(NodeLocalName node) throws VisitException
       {
-         super.visit(node);
+         sortField = new SortField(FieldNames.LABEL, SortField.STRING, isReverse());
       }
 
       /**
@@ -358,7 +624,7 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(NodeName node) throws VisitException
       {
-         throw new NotImplementedException();
+         sortField = new SortField(FieldNames.LABEL, SortField.STRING, isReverse());
       }
 
       /**
@@ -368,6 +634,7 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       public void visit(Ordering node) throws VisitException
       {
          order = node.getOrder();
+         caseFunction = null;
       }
 
       /**
@@ -376,10 +643,45 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(PropertyValue node) throws VisitException
       {
-        //AUTO mode was removed since version 3.0. Therefore we will used STRING type as sort type.
-         sortField =
-            new SortField(FieldNames.createPropertyFieldName(node.getPropertyName()), 
-                    SortField.STRING, order == Order.DESCENDING);
+         String propertyName = node.getPropertyName();
+         Schema.Column column = table == null ? null : table.getColumn(propertyName);
+         PropertyType type = column == null ? null : column.getPropertyType();
+
+         String sortName;
+         int sortType;
+         if (type == PropertyType.LONG || type == PropertyType.DATE)
+         {
+            sortName = FieldNames.createSortFieldName(propertyName);
+            sortType = SortField.LONG;
+         }
+         else if (type == PropertyType.DOUBLE)
+         {
+            sortName = FieldNames.createSortFieldName(propertyName);
+            sortType = SortField.DOUBLE;
+         }
+         else if (caseFunction != null)
+         {
+            // upper case order differs from lower case only for few
+            // punctuation characters between letters
+            sortName = FieldNames.createLowerCaseSortFieldName(propertyName);
+            sortType = SortField.STRING;
+         }
+         else
+         {
+            sortName = FieldNames.createSortFieldName(propertyName);
+            sortType = SortField.STRING;
+         }
+
+         if (type != null && hasTerms(sortName))
+         {
+            sortField = new SortField(sortName, sortType, isReverse());
+         }
+         else
+         {
+            // index built without sort fields
+            sortField =
+               new SortField(FieldNames.createPropertyFieldName(propertyName), SortField.STRING, isReverse());
+         }
       }
 
       /**
@@ -388,7 +690,35 @@ public abstract class AbstractLuceneQueryableIndexStorage extends QueryableIndex
       @Override
       public void visit(UpperCase node) throws VisitException
       {
-         throw new NotImplementedException();
+         caseFunction = UpperCase.class;
+      }
+
+      private boolean isReverse()
+      {
+         return order == Order.DESCENDING;
+      }
+
+      /**
+       * @return <code>true</code> if some document has term of the field
+       */
+      private boolean hasTerms(String field) throws VisitException
+      {
+         try
+         {
+            TermEnum terms = reader.terms(new Term(field, ""));
+            try
+            {
+               return terms.term() != null && terms.term().field().equals(field);
+            }
+            finally
+            {
+               terms.close();
+            }
+         }
+         catch (IOException e)
+         {
+            throw new VisitException(e.getLocalizedMessage());
+         }
       }
    }
 }
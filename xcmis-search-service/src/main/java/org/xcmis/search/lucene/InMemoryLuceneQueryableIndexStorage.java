@@ -18,7 +18,6 @@
  */
 package org.xcmis.search.lucene;
 
-import org.apache.lucene.analysis.SimpleAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
@@ -26,7 +25,6 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.IndexWriter.MaxFieldLength;
-import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Version;
 import org.xcmis.search.config.SearchServiceConfiguration;
@@ -35,11 +33,19 @@ import org.xcmis.search.lucene.index.FieldNames;
 import org.xcmis.search.lucene.index.IndexException;
 import org.xcmis.search.lucene.index.IndexTransactionException;
 import org.xcmis.search.lucene.index.LuceneIndexTransaction;
+import org.xcmis.spi.utils.Logger;
 
 import java.io.IOException;
 import java.util.Map.Entry;
 
 /**
+ * In memory index storage. One writer is kept open for the whole life of the
+ * storage, readers are taken from the writer (near-real-time), so changes are
+ * visible to queries without commit. Index is not persisted, so changes are
+ * never committed. Reader is reopened by the writer after each transaction and
+ * published to queries, so queries never wait for the writer and never see
+ * part of the changes.
+ * 
  * @author <a href="mailto:Sergey.Kabashnyuk@gmail.com">Sergey Kabashnyuk</a>
  * @version $Id: InMemoryLuceneQueryableIndexStorage.java 34360 2009-07-22 23:58:59Z
  *          aheritier $
@@ -47,12 +53,31 @@ import java.util.Map.Entry;
  */
 public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryableIndexStorage
 {
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(InMemoryLuceneQueryableIndexStorage.class);
+
    /**
     * Lucene in memory index directory.
     */
    private final RAMDirectory ramDirectory;
 
-   private IndexReader indexReader;
+   /**
+    * Writer of the index.
+    */
+   private final IndexWriter indexWriter;
+
+   /**
+    * Monitor of the writer. Only one transaction is applied at a time.
+    */
+   private final Object writeMonitor = new Object();
+
+   /**
+    * Reader of the last applied transaction. Replaced under the monitor of the
+    * writer, read without locking.
+    */
+   private volatile IndexReader indexReader;
 
    /**
     * @param serviceConfuguration
@@ -62,54 +87,76 @@ public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryable
    {
       super(serviceConfuguration);
       this.ramDirectory = new RAMDirectory();
-      initDirectory();
+      try
+      {
+         this.indexWriter =
+            new IndexWriter(ramDirectory, new StandardAnalyzer(Version.LUCENE_35), true, MaxFieldLength.UNLIMITED);
+         indexWriter.commit();
+         this.indexReader = IndexReader.open(indexWriter, true);
+      }
+      catch (IOException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
    }
 
    /**
-    * @throws IndexException
+    * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#stop()
     */
-   private void initDirectory() throws IndexException
+   @Override
+   public void stop()
    {
+      super.stop();
       try
       {
-         IndexWriter.MaxFieldLength fieldLength = new IndexWriter.MaxFieldLength(IndexWriter.DEFAULT_MAX_FIELD_LENGTH);
-         IndexWriter iw = new IndexWriter(ramDirectory, new SimpleAnalyzer(), true, fieldLength);
-         iw.close();
+         synchronized (writeMonitor)
+         {
+            if (indexReader != null)
+            {
+               // queries which still use the reader keep it open
+               indexReader.decRef();
+               indexReader = null;
+            }
+            indexWriter.close();
+         }
       }
       catch (IOException e)
       {
-         throw new IndexException(e.getLocalizedMessage(), e);
+         LOG.error(e.getLocalizedMessage(), e);
       }
    }
 
    /**
-    * @throws IndexException
     * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#getIndexReader()
     */
    @Override
    protected IndexReader getIndexReader() throws IndexException
    {
-      try
+      return indexReader;
+   }
+
+   /**
+    * Reader of the last applied transaction, the writer is not locked.
+    * 
+    * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#acquireIndexReader()
+    */
+   @Override
+   protected IndexReader acquireIndexReader() throws IndexException
+   {
+      while (true)
       {
-         // reopen if need
-         if (this.indexReader == null)
+         final IndexReader reader = indexReader;
+         if (reader == null)
          {
-            this.indexReader = IndexReader.open(this.ramDirectory);
+            // stopped
+            return null;
          }
-         else if (!this.indexReader.isCurrent())
+         if (reader.tryIncRef())
          {
-            this.indexReader = this.indexReader.reopen();
+            return reader;
          }
+         // reader was replaced and released just now
       }
-      catch (CorruptIndexException e)
-      {
-         throw new IndexException(e.getLocalizedMessage(), e);
-      }
-      catch (IOException e)
-      {
-         throw new IndexException(e.getLocalizedMessage(), e);
-      }
-      return indexReader;
    }
 
    /**
@@ -117,37 +164,42 @@ public class InMemoryLuceneQueryableIndexStorage extends AbstractLuceneQueryable
     * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#save(org.xcmis.search.lucene.index.LuceneIndexTransaction)
     */
    @Override
-   protected synchronized Object save(LuceneIndexTransaction indexTransaction) throws IndexException,
-      IndexTransactionException
+   protected Object save(LuceneIndexTransaction indexTransaction) throws IndexException, IndexTransactionException
    {
-
       try
       {
-         IndexWriter writer = new IndexWriter(ramDirectory, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
-
-         // removed
-         for (final String uuid : indexTransaction.getRemovedDocuments())
+         synchronized (writeMonitor)
          {
-            writer.deleteDocuments(new Term(FieldNames.UUID, uuid));
-         }
+            // removed, replaced documents are deleted by update
+            for (final String uuid : indexTransaction.getRemovedDocuments())
+            {
+               if (!indexTransaction.getAddedDocuments().containsKey(uuid))
+               {
+                  indexWriter.deleteDocuments(new Term(FieldNames.UUID, uuid));
+               }
+            }
 
-         // added
-         for (final Entry<String, Document> entry : indexTransaction.getAddedDocuments().entrySet())
-         {
-            writer.updateDocument(new Term(FieldNames.UUID, entry.getKey()), entry.getValue());
-         }
+            // added
+            for (final Entry<String, Document> entry : indexTransaction.getAddedDocuments().entrySet())
+            {
+               indexWriter.updateDocument(new Term(FieldNames.UUID, entry.getKey()), entry.getValue());
+            }
 
-         writer.commit();
-         writer.close();
+            // reader is reopened only when whole transaction is applied
+            IndexReader newReader = IndexReader.openIfChanged(indexReader, indexWriter, true);
+            if (newReader != null)
+            {
+               IndexReader oldReader = indexReader;
+               indexReader = newReader;
+               // queries which still use the old reader keep it open
+               oldReader.decRef();
+            }
+         }
       }
       catch (CorruptIndexException e)
       {
          throw new IndexModificationException(e.getLocalizedMessage(), e);
       }
-      catch (LockObtainFailedException e)
-      {
-         throw new IndexModificationException(e.getLocalizedMessage(), e);
-      }
       catch (IOException e)
       {
          throw new IndexModificationException(e.getLocalizedMessage(), e);
@@ -25,17 +25,38 @@ import org.xcmis.search.content.ContentEntry;
 import org.xcmis.search.content.command.read.GetChildEntriesCommand;
 import org.xcmis.search.content.command.read.GetContentEntryCommand;
 import org.xcmis.search.content.command.read.GetUnfiledEntriesCommand;
+import org.xcmis.search.lucene.index.FieldNames;
 import org.xcmis.search.lucene.index.IndexException;
 import org.xcmis.search.lucene.index.IndexTransactionException;
 import org.xcmis.search.lucene.index.LuceneIndexTransaction;
 import org.xcmis.search.lucene.index.LuceneIndexer;
 import org.xcmis.spi.utils.Logger;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Tools for index recovering. 
@@ -53,6 +74,29 @@ public class IndexRecoveryTool
     */
    public static final int BUFFER_MAX_SIZE = 1000;
 
+   /**
+    * Number of recovered documents between progress reports.
+    */
+   public static final int REPORT_INTERVAL = 10 * BUFFER_MAX_SIZE;
+
+   /**
+    * Name of the file with progress of recovering in the index directory.
+    */
+   public static final String CHECKPOINT_FILE = "reindexCheckpoint";
+
+   /**
+    * Name of the file with format of the index in the index directory. It is
+    * written when all content is recovered.
+    */
+   public static final String FORMAT_FILE = "indexFormat";
+
+   /**
+    * Current format of the index documents. Documents of format 1 have
+    * {@link FieldNames#ANCESTOR} field. Index of older format is recovered on
+    * start.
+    */
+   public static final int INDEX_FORMAT = 1;
+
    /**
     * Convert {@link ContentEntry} to {@link Document}.
     */
@@ -110,6 +154,8 @@ public class IndexRecoveryTool
             {
 
                Document doc = nodeIndexer.createDocument(contentEntry);
+               nodeIndexer.addAncestors(Collections.singletonMap(nodeUuid, doc),
+                  new LuceneIndexer.IndexedAncestorsProvider(reader));
 
                if (indexStorage.getDocument(nodeUuid, reader) != null)
                {
@@ -142,29 +188,25 @@ public class IndexRecoveryTool
    }
 
    /**
-    * Recover all content.
+    * Recover all content. Branches of the content tree are indexed in
+    * parallel. Progress is saved in the checkpoint file of the index
+    * directory, so interrupted recovering is resumed from the checkpoint.
     * @throws IndexException
     */
    public void recoverAll() throws IndexException
    {
-      Map<String, Document> documentBuffer = new HashMap<String, Document>();
-      final HashSet<String> removedDocuments = new HashSet<String>();
       try
       {
          GetContentEntryCommand getCommand = new GetContentEntryCommand(indexConfiguration.getRootUuid());
          final ContentEntry rootEntry = (ContentEntry)indexStorage.invokeNextInterceptor(null, getCommand);
          if (rootEntry != null)
          {
-            restoreBranch(rootEntry, documentBuffer, removedDocuments);
+            new ParallelRecovery(readCheckpoint()).recover(rootEntry);
          }
          else
          {
             LOG.warn("Root element with id " + indexConfiguration.getRootUuid() + " not found ");
          }
-         if (documentBuffer.size() > 0)
-         {
-            flash(documentBuffer, removedDocuments);
-         }
          //recover unfiled documents.
          GetUnfiledEntriesCommand getUnfiledEntriesCommand = new GetUnfiledEntriesCommand();
          Iterator<String> uuids = (Iterator<String>)indexStorage.invokeNextInterceptor(null, getUnfiledEntriesCommand);
@@ -172,7 +214,12 @@ public class IndexRecoveryTool
          {
             recover(uuids);
          }
-
+         clearCheckpoint();
+         writeFormat();
+      }
+      catch (IndexException e)
+      {
+         throw e;
       }
       catch (Throwable e)
       {
@@ -180,6 +227,86 @@ public class IndexRecoveryTool
       }
    }
 
+   /**
+    * @return <code>true</code> if interrupted recovering saved its progress
+    */
+   public boolean hasCheckpoint()
+   {
+      File checkpoint = getCheckpointFile();
+      return checkpoint != null && checkpoint.exists();
+   }
+
+   /**
+    * Remove progress of previous recovering.
+    * @throws IndexException if checkpoint file can't be removed
+    */
+   public void clearCheckpoint() throws IndexException
+   {
+      File checkpoint = getCheckpointFile();
+      if (checkpoint != null && checkpoint.exists() && !checkpoint.delete())
+      {
+         throw new IndexException("Can't remove reindex checkpoint " + checkpoint.getAbsolutePath());
+      }
+   }
+
+   /**
+    * @return <code>true</code> if all documents of index have current format,
+    *         i.e. index is not persisted or it was recovered with current
+    *         format
+    * @see #INDEX_FORMAT
+    */
+   public boolean isCurrentFormat()
+   {
+      if (indexConfiguration.getIndexDir() == null)
+      {
+         return true;
+      }
+      File format = new File(indexConfiguration.getIndexDir(), FORMAT_FILE);
+      if (!format.exists())
+      {
+         return false;
+      }
+      try
+      {
+         BufferedReader reader = new BufferedReader(new FileReader(format));
+         try
+         {
+            String line = reader.readLine();
+            return line != null && Integer.toString(INDEX_FORMAT).equals(line.trim());
+         }
+         finally
+         {
+            reader.close();
+         }
+      }
+      catch (IOException e)
+      {
+         LOG.warn("Unable read index format " + format.getAbsolutePath() + ". " + e.getLocalizedMessage());
+         return false;
+      }
+   }
+
+   /**
+    * Record that index has current format.
+    * @throws IOException
+    */
+   private void writeFormat() throws IOException
+   {
+      if (indexConfiguration.getIndexDir() != null)
+      {
+         Writer writer = new FileWriter(new File(indexConfiguration.getIndexDir(), FORMAT_FILE));
+         try
+         {
+            writer.write(Integer.toString(INDEX_FORMAT));
+            writer.write('\n');
+         }
+         finally
+         {
+            writer.close();
+         }
+      }
+   }
+
    /**
     * 
     * @param documentBuffer
@@ -207,40 +334,316 @@ public class IndexRecoveryTool
    }
 
    /**
-    * Restore content of branch starting from branchUuid.
-    * 
-    * @param branchUuid
-    *           - Uuid of root element of branch.
-    * @param documentBuffer
-    * @param removedDocuments 
-    * @throws Throwable
+    * @return file with identifiers of entries which children are indexed or
+    *         null if index is not persisted
+    */
+   private File getCheckpointFile()
+   {
+      return indexConfiguration.getIndexDir() == null ? null : new File(indexConfiguration.getIndexDir(),
+         CHECKPOINT_FILE);
+   }
+
+   /**
+    * @return identifiers of entries which children were indexed by
+    *         interrupted recovering
+    * @throws IOException
     */
-   private void restoreBranch(ContentEntry branchRoot, Map<String, Document> documentBuffer,
-      HashSet<String> removedDocuments) throws Throwable
+   private Set<String> readCheckpoint() throws IOException
    {
-      // add root.
+      Set<String> indexed = new HashSet<String>();
+      if (hasCheckpoint())
+      {
+         BufferedReader reader = new BufferedReader(new FileReader(getCheckpointFile()));
+         try
+         {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+               if (line.length() > 0)
+               {
+                  indexed.add(line);
+               }
+            }
+         }
+         finally
+         {
+            reader.close();
+         }
+      }
+      return indexed;
+   }
+
+   /**
+    * Recovering of the content tree. Every task indexes children of one entry
+    * and submits tasks for each child, so the tree is split between threads
+    * as it is walked. Each thread collects documents in own buffer.
+    * Identifiers of entries which children are saved to the index are
+    * appended to the checkpoint file.
+    * <p>
+    * Checkpoint records only entries which children are indexed, not whole
+    * subtrees, so resumed recovering still walks the whole tree and fetches
+    * children of every entry. It only skips creating and saving documents of
+    * children which are already indexed. Cost of resume is therefore one
+    * {@link GetChildEntriesCommand} per entry, but not text extraction and
+    * index writes of the recovered part.
+    */
+   private class ParallelRecovery
+   {
+      /**
+       * Entries which children were indexed before.
+       */
+      private final Set<String> indexed;
+
+      /**
+       * Documents which exist in index must be replaced.
+       */
+      private final boolean resume;
+
+      private final ExecutorService executor;
+
+      private final List<RecoveryBuffer> buffers = new CopyOnWriteArrayList<RecoveryBuffer>();
+
+      private final ThreadLocal<RecoveryBuffer> buffer = new ThreadLocal<RecoveryBuffer>()
+      {
+         @Override
+         protected RecoveryBuffer initialValue()
+         {
+            RecoveryBuffer result = new RecoveryBuffer();
+            buffers.add(result);
+            return result;
+         }
+      };
+
+      private final AtomicInteger pendingTasks = new AtomicInteger();
+
+      private final AtomicLong documentCount = new AtomicLong();
+
+      private final long startTime = System.currentTimeMillis();
+
+      private volatile Throwable failure;
+
+      /**
+       * Ancestors of entries which children are not indexed yet.
+       */
+      private final Map<String, Set<String>> ancestors = new ConcurrentHashMap<String, Set<String>>();
+
+      /**
+       * Ancestors of entries indexed by this recovering or stored in the index
+       * before.
+       */
+      private final LuceneIndexer.AncestorsProvider ancestorsProvider = new LuceneIndexer.AncestorsProvider()
+      {
+         public Set<String> getAncestors(String identifier) throws IndexException
+         {
+            Set<String> result = ancestors.get(identifier);
+            if (result == null)
+            {
+               result =
+                  new LuceneIndexer.IndexedAncestorsProvider(indexStorage.getIndexReader()).getAncestors(identifier);
+            }
+            return result;
+         }
+      };
+
+      private Writer checkpoint;
 
-      documentBuffer.put(branchRoot.getIdentifier(), nodeIndexer.createDocument(branchRoot));
-      if (checkFlush(documentBuffer, removedDocuments))
+      ParallelRecovery(Set<String> indexed)
       {
-         flash(documentBuffer, removedDocuments);
+         this.indexed = indexed;
+         this.resume = !indexed.isEmpty();
+         this.executor =
+            Executors.newFixedThreadPool(Math.max(1, indexConfiguration.getReindexThreads()), new ThreadFactory()
+            {
+               private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+               public Thread newThread(Runnable r)
+               {
+                  Thread thread = new Thread(r, "xcmis-index-recovery-" + threadNumber.getAndIncrement());
+                  thread.setDaemon(true);
+                  return thread;
+               }
+            });
       }
 
-      // add childs
-      GetChildEntriesCommand getChildCommand = new GetChildEntriesCommand(branchRoot.getIdentifier());
-      Collection<ContentEntry> childEntries =
-         (Collection<ContentEntry>)indexStorage.invokeNextInterceptor(null, getChildCommand);
-      if (childEntries != null)
+      void recover(ContentEntry rootEntry) throws Throwable
       {
+         if (resume)
+         {
+            LOG.info("Resume index recovering, children of " + indexed.size() + " entries are already indexed.");
+         }
+         File checkpointFile = getCheckpointFile();
+         if (checkpointFile != null)
+         {
+            checkpoint = new BufferedWriter(new FileWriter(checkpointFile, true));
+         }
+         try
+         {
+            RecoveryBuffer rootBuffer = new RecoveryBuffer();
+            rootBuffer.add(Collections.singletonList(rootEntry));
+            rootBuffer.flush();
+
+            submit(rootEntry.getIdentifier());
+            synchronized (pendingTasks)
+            {
+               while (pendingTasks.get() > 0 && failure == null)
+               {
+                  pendingTasks.wait();
+               }
+            }
+            if (failure != null)
+            {
+               throw failure;
+            }
+            // all tasks are done, save rest of documents
+            for (RecoveryBuffer rest : buffers)
+            {
+               rest.flush();
+            }
+            LOG.info("Index recovering finished, " + report());
+         }
+         finally
+         {
+            executor.shutdownNow();
+            if (checkpoint != null)
+            {
+               checkpoint.close();
+            }
+         }
+      }
+
+      private void submit(final String parentIdentifier)
+      {
+         pendingTasks.incrementAndGet();
+         executor.execute(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  if (failure == null)
+                  {
+                     restoreChildren(parentIdentifier);
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failure = e;
+               }
+               finally
+               {
+                  if (pendingTasks.decrementAndGet() == 0 || failure != null)
+                  {
+                     synchronized (pendingTasks)
+                     {
+                        pendingTasks.notifyAll();
+                     }
+                  }
+               }
+            }
+         });
+      }
+
+      /**
+       * Index children of entry and submit tasks for their children. Children
+       * are fetched even if they are indexed by interrupted recovering, since
+       * their own children may be not indexed yet.
+       */
+      private void restoreChildren(String parentIdentifier) throws Throwable
+      {
+         GetChildEntriesCommand getChildCommand = new GetChildEntriesCommand(parentIdentifier);
+         Collection<ContentEntry> childEntries =
+            (Collection<ContentEntry>)indexStorage.invokeNextInterceptor(null, getChildCommand);
+         if (childEntries == null)
+         {
+            LOG.warn("Child elements for element with id " + parentIdentifier + " is not found ");
+            ancestors.remove(parentIdentifier);
+            return;
+         }
+         if (!childEntries.isEmpty() && !indexed.contains(parentIdentifier))
+         {
+            RecoveryBuffer recoveryBuffer = buffer.get();
+            recoveryBuffer.add(childEntries);
+            recoveryBuffer.completed.add(parentIdentifier);
+            if (checkFlush(recoveryBuffer.addedDocuments, recoveryBuffer.removedDocuments))
+            {
+               recoveryBuffer.flush();
+            }
+         }
          for (ContentEntry contentEntry : childEntries)
          {
-            restoreBranch(contentEntry, documentBuffer, removedDocuments);
+            submit(contentEntry.getIdentifier());
+         }
+         ancestors.remove(parentIdentifier);
+      }
+
+      private synchronized void checkpoint(List<String> completed) throws IOException
+      {
+         if (checkpoint != null)
+         {
+            for (int i = 0; i < completed.size(); i++)
+            {
+               checkpoint.write(completed.get(i));
+               checkpoint.write('\n');
+            }
+            checkpoint.flush();
          }
       }
-      else
+
+      private String report()
       {
-         LOG.warn("Child elements for element with id " + branchRoot.getIdentifier() + " is not found ");
+         long count = documentCount.get();
+         long time = Math.max(1, System.currentTimeMillis() - startTime);
+         return count + " documents in " + time / 1000 + " s (" + (count * 1000 / time) + " docs/sec)";
       }
 
+      /**
+       * Documents of one recovering thread.
+       */
+      private class RecoveryBuffer
+      {
+         private final Map<String, Document> addedDocuments = new HashMap<String, Document>();
+
+         private final HashSet<String> removedDocuments = new HashSet<String>();
+
+         /**
+          * Entries which all children are in this buffer.
+          */
+         private final List<String> completed = new ArrayList<String>();
+
+         void add(Collection<ContentEntry> entries) throws IndexException
+         {
+            Map<String, Document> documents = nodeIndexer.createDocuments(entries);
+            nodeIndexer.addAncestors(documents, ancestorsProvider);
+            for (Map.Entry<String, Document> entry : documents.entrySet())
+            {
+               ancestors.put(entry.getKey(), new LinkedHashSet<String>(Arrays.asList(entry.getValue().getValues(
+                  FieldNames.ANCESTOR))));
+            }
+            addedDocuments.putAll(documents);
+            if (resume)
+            {
+               // document may be saved by interrupted recovering
+               removedDocuments.addAll(documents.keySet());
+            }
+         }
+
+         void flush() throws IndexTransactionException, IndexException, IOException
+         {
+            if (addedDocuments.isEmpty() && removedDocuments.isEmpty())
+            {
+               return;
+            }
+            int size = addedDocuments.size();
+            flash(addedDocuments, removedDocuments);
+            checkpoint(completed);
+            completed.clear();
+
+            long count = documentCount.addAndGet(size);
+            if (count / REPORT_INTERVAL != (count - size) / REPORT_INTERVAL)
+            {
+               LOG.info("Index recovering: " + report());
+            }
+         }
+      }
    }
 }
@@ -61,6 +61,7 @@ import org.xcmis.search.lucene.content.ErrorReporterImpl;
 import org.xcmis.search.lucene.index.ExtendedNumberTools;
 import org.xcmis.search.lucene.index.FieldNames;
 import org.xcmis.search.lucene.index.IndexException;
+import org.xcmis.search.lucene.search.AncestorQueryNode;
 import org.xcmis.search.lucene.search.CaseInsensitiveRangeQuery;
 import org.xcmis.search.lucene.search.CaseInsensitiveRegexCapImpl;
 import org.xcmis.search.lucene.search.CaseInsensitiveTermQuery;
@@ -299,8 +300,7 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
       {
          //uuid based absolute path
          Query parentQuery = new TermQuery(new Term(FieldNames.UUID, parentPath.substring(1, parentPath.length() - 1)));
-         Query childNodeQuery = new ChildTraversingQueryNode(parentQuery, true);
-         queryBuilderStack.push(childNodeQuery);
+         queryBuilderStack.push(new AncestorQueryNode(parentQuery));
       }
       else
       {
@@ -314,9 +314,8 @@ public class LuceneQueryBuilder implements QueryObjectModelVisitor
             final Query nameQuery = new TermQuery(new Term(FieldNames.LABEL, stepName));
             descendantQuery = new DescendantQueryNode(nameQuery, descendantQuery);
          }
-         // all childs
-
-         descendantQuery = new ChildTraversingQueryNode(descendantQuery, true);
+         // all descendants
+         descendantQuery = new AncestorQueryNode(descendantQuery);
 
          queryBuilderStack.push(descendantQuery);
       }
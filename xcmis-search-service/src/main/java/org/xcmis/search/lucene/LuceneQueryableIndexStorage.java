@@ -23,15 +23,13 @@ import java.io.IOException;
 import org.apache.commons.lang.Validate;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermDocs;
 import org.xcmis.search.config.SearchServiceConfiguration;
 import org.xcmis.search.content.interceptors.QueryableIndexStorage;
-import org.xcmis.search.lucene.index.FieldNames;
 import org.xcmis.search.lucene.index.IndexException;
 import org.xcmis.search.lucene.index.IndexTransactionException;
 import org.xcmis.search.lucene.index.LuceneIndexTransaction;
 import org.xcmis.search.lucene.index.StartableIndexingService;
+import org.xcmis.search.lucene.index.UUIDDocIdCache;
 import org.xcmis.spi.utils.Logger;
 
 /**
@@ -83,6 +81,18 @@ public class LuceneQueryableIndexStorage extends AbstractLuceneQueryableIndexSto
       this.indexDataManager.stop();
    }
 
+   /**
+    * Merge all segments of the persisted index into one. Segments are merged
+    * in background while index is modified, so it should be called only by
+    * administrator, e.g. after recovering of the index.
+    * 
+    * @throws IndexException
+    */
+   public void optimize() throws IndexException
+   {
+      indexDataManager.optimize();
+   }
+
    /**
     * 
     * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#getIndexReader()
@@ -93,6 +103,27 @@ public class LuceneQueryableIndexStorage extends AbstractLuceneQueryableIndexSto
       return indexDataManager.getIndexReader();
    }
 
+   /**
+    * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#acquireIndexReader()
+    */
+   @Override
+   protected IndexReader acquireIndexReader() throws IndexException
+   {
+      return indexDataManager.acquireIndexReader();
+   }
+
+   /**
+    * Readers of the index data manager become stale also when in memory
+    * chains are merged or flushed.
+    * 
+    * @see org.xcmis.search.lucene.AbstractLuceneQueryableIndexStorage#getIndexGeneration()
+    */
+   @Override
+   protected long getIndexGeneration()
+   {
+      return indexDataManager.getGeneration();
+   }
+
    protected Document getDocument(String uuid, IndexReader reader) throws IndexException
    {
 
@@ -101,15 +132,10 @@ public class LuceneQueryableIndexStorage extends AbstractLuceneQueryableIndexSto
 
          if (reader != null)
          {
-            final TermDocs termDocs = reader.termDocs(new Term(FieldNames.UUID, uuid));
-            if (termDocs.next())
+            final int doc = UUIDDocIdCache.getDocId(reader, uuid);
+            if (doc != -1)
             {
-               final Document document = reader.document(termDocs.doc());
-               if (termDocs.next())
-               {
-                  throw new IndexException("More then one document found for uuid:" + uuid);
-               }
-               return document;
+               return reader.document(doc);
             }
          }
       }
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopFieldDocs;
+import org.xcmis.search.lucene.index.FieldNames;
+import org.xcmis.search.lucene.index.IndexException;
+import org.xcmis.search.lucene.search.UUIDFieldSelector;
+import org.xcmis.search.model.Limit;
+import org.xcmis.search.result.LazyRowList;
+import org.xcmis.search.result.ScoredRow;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Read only list of the query results backed by the Lucene hits. Only top
+ * hits required to access the requested row are collected, the search is
+ * repeated with doubled number of collected hits when row beyond the
+ * collected hits is requested. Identifiers of the content entries are loaded
+ * from the index together with the collected hits.
+ * <p>
+ * List doesn't keep the index reader open. Repeated searches use the current
+ * searcher of the {@link SearcherManager}, so if index was changed meanwhile
+ * rows of the later hits reflect the new state of the index. Entries which
+ * were already returned are skipped by the later searches, and entries which
+ * disappeared from the index are not returned. In this case {@link #size()}
+ * decreases to the number of the remaining rows when the last hits are
+ * collected, {@link #iterator()} returns only existing rows. List is not
+ * thread safe.
+ * </p>
+ */
+public class LuceneScoredRowList extends AbstractList<ScoredRow> implements RandomAccess, LazyRowList
+{
+   private final SearcherManager searcherManager;
+
+   private final Query query;
+
+   private final Sort sort;
+
+   private final String selectorName;
+
+   private final int offset;
+
+   /**
+    * Number of the hits before the end of the result, including hits before
+    * the offset.
+    */
+   private final long lastHit;
+
+   /**
+    * Number of the rows, may decrease if hits disappear from the index.
+    */
+   private int size;
+
+   /**
+    * Rows collected so far, list grows with the fetched hits.
+    */
+   private final List<ScoredRow> rows;
+
+   /**
+    * Identifiers of the entries in {@link #rows}.
+    */
+   private final Set<String> identifiers;
+
+   /**
+    * Number of the hits requested by the last search, including hits before
+    * the offset.
+    */
+   private long fetched;
+
+   /**
+    * Execute query and collect initial hits.
+    * 
+    * @param searcher the searcher acquired from <code>searcherManager</code>
+    *           which is used for the first search
+    * @param searcherManager the manager which provides searchers to collect
+    *           more hits
+    * @param query the query
+    * @param sort the order of the hits
+    * @param limit the offset and maximum size of the result
+    * @param selectorName the name of the selector for rows
+    * @param initialFetchSize the maximum number of the hits collected by the
+    *           first search
+    * @throws IOException if search fails
+    */
+   public LuceneScoredRowList(IndexSearcher searcher, SearcherManager searcherManager, Query query, Sort sort,
+      Limit limit, String selectorName, int initialFetchSize) throws IOException
+   {
+      this.searcherManager = searcherManager;
+      this.query = query;
+      this.sort = sort;
+      this.selectorName = selectorName;
+      this.offset = limit.getOffset();
+
+      int fetchSize = (int)Math.min((long)offset + Math.min(limit.getRowLimit(), initialFetchSize), Integer.MAX_VALUE);
+      fetchSize = Math.max(fetchSize, 1);
+      TopFieldDocs topDocs = searcher.search(query, null, fetchSize, sort);
+      this.size = (int)Math.max(0, Math.min((long)topDocs.totalHits - offset, limit.getRowLimit()));
+      this.lastHit = (long)offset + size;
+      this.rows = new ArrayList<ScoredRow>(Math.min(size, fetchSize));
+      this.identifiers = new HashSet<String>();
+      load(searcher, topDocs.scoreDocs, fetchSize);
+   }
+
+   /**
+    * @see java.util.AbstractList#get(int)
+    */
+   @Override
+   public ScoredRow get(int index)
+   {
+      if (index < 0 || index >= size)
+      {
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      if (!hasRow(index))
+      {
+         throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size
+            + ", hits were removed from the index");
+      }
+      return rows.get(index);
+   }
+
+   /**
+    * @see java.util.AbstractList#iterator()
+    */
+   @Override
+   public Iterator<ScoredRow> iterator()
+   {
+      return new Iterator<ScoredRow>()
+      {
+         private int cursor;
+
+         public boolean hasNext()
+         {
+            return hasRow(cursor);
+         }
+
+         public ScoredRow next()
+         {
+            if (!hasRow(cursor))
+            {
+               throw new NoSuchElementException();
+            }
+            return rows.get(cursor++);
+         }
+
+         public void remove()
+         {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+
+   /**
+    * @see org.xcmis.search.result.LazyRowList#isLoaded()
+    */
+   public boolean isLoaded()
+   {
+      return rows.size() >= size;
+   }
+
+   /**
+    * @see java.util.AbstractCollection#size()
+    */
+   @Override
+   public int size()
+   {
+      return size;
+   }
+
+   /**
+    * Collect hits until the row with specified index is loaded or there are no
+    * more hits.
+    * 
+    * @return <code>true</code> if row exists
+    */
+   private boolean hasRow(int index)
+   {
+      if (index < rows.size())
+      {
+         return true;
+      }
+      try
+      {
+         while (index >= rows.size() && index < size)
+         {
+            fetch(index + 1);
+         }
+      }
+      catch (IOException e)
+      {
+         throw new RuntimeException(e.getLocalizedMessage(), e);
+      }
+      catch (IndexException e)
+      {
+         throw new RuntimeException(e.getLocalizedMessage(), e);
+      }
+      return index < rows.size();
+   }
+
+   /**
+    * Repeat search collecting enough hits for <code>required</code> rows if
+    * index was not changed.
+    */
+   private void fetch(int required) throws IOException, IndexException
+   {
+      long fetchSize = Math.max(fetched * 2, (long)offset + required);
+      fetchSize = Math.min(fetchSize, lastHit);
+      IndexSearcher searcher = searcherManager.acquire();
+      try
+      {
+         ScoreDoc[] hits =
+            searcher == null ? new ScoreDoc[0] : searcher.search(query, null, (int)fetchSize, sort).scoreDocs;
+         load(searcher, hits, fetchSize);
+      }
+      finally
+      {
+         searcherManager.release(searcher);
+      }
+   }
+
+   /**
+    * Create rows of the hits which were not loaded before. Hits are scanned
+    * from the offset, because positions of hits loaded before are changed if
+    * index was modified.
+    */
+   private void load(IndexSearcher searcher, ScoreDoc[] hits, long fetchSize) throws IOException
+   {
+      int to = (int)Math.min(hits.length, lastHit);
+      for (int hit = offset; hit < to && rows.size() < size; hit++)
+      {
+         Document doc = searcher.doc(hits[hit].doc, new UUIDFieldSelector());
+         String identifier = doc.get(FieldNames.UUID);
+         if (!identifiers.add(identifier))
+         {
+            continue;
+         }
+         Float score = hits[hit].score;
+         if (score.isNaN() && hits[hit] instanceof FieldDoc)
+         {
+            Object[] fields = ((FieldDoc)hits[hit]).fields;
+            if (fields != null && fields.length > 0 && fields[0] instanceof Float)
+            {
+               score = (Float)fields[0];
+            }
+         }
+         rows.add(new ScoredRow(selectorName, identifier, score));
+      }
+      fetched = fetchSize;
+      if (hits.length < fetchSize || fetchSize >= lastHit)
+      {
+         // all hits are collected, some of them disappeared from the index
+         size = rows.size();
+      }
+   }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.xcmis.search.lucene.index.IndexException;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares one {@link IndexSearcher} between concurrent queries. The searcher is
+ * refreshed at most once per index generation, so the index reader is opened
+ * and warmed (e.g. field cache used for sorting) only after the index was
+ * changed. Searchers are reference counted: a searcher replaced by the newer
+ * one releases its reader when the last query which acquired it is finished.
+ * 
+ * Each {@link #acquire()} must be followed by {@link #release(IndexSearcher)}.
+ */
+public abstract class SearcherManager
+{
+
+   /**
+    * Searcher which is used by new queries.
+    */
+   private volatile ManagedSearcher current;
+
+   /**
+    * Monitor to open only one searcher per index generation.
+    */
+   private final Object refreshMonitor = new Object();
+
+   /**
+    * Acquire searcher of the current index generation.
+    * 
+    * @return the searcher or null if there is no index
+    * @throws IndexException if reader can't be opened
+    */
+   public IndexSearcher acquire() throws IndexException
+   {
+      while (true)
+      {
+         ManagedSearcher searcher = current;
+         if (searcher == null || searcher.generation != getGeneration())
+         {
+            searcher = refresh();
+            if (searcher == null)
+            {
+               return null;
+            }
+         }
+         if (searcher.tryIncRef())
+         {
+            return searcher;
+         }
+         // searcher was replaced and released just now, try once more
+      }
+   }
+
+   /**
+    * Release searcher acquired by {@link #acquire()}.
+    * 
+    * @param searcher the searcher, may be null
+    */
+   public void release(IndexSearcher searcher)
+   {
+      if (searcher != null)
+      {
+         ((ManagedSearcher)searcher).decRef();
+      }
+   }
+
+   /**
+    * Release the current searcher. Searchers which are in use are released
+    * when queries are finished.
+    */
+   public void close()
+   {
+      synchronized (refreshMonitor)
+      {
+         if (current != null)
+         {
+            current.decRef();
+            current = null;
+         }
+      }
+   }
+
+   /**
+    * @return generation of the index which is changed every time readers
+    *         returned by {@link #openIndexReader()} may become stale
+    */
+   protected abstract long getGeneration();
+
+   /**
+    * @return reader over the whole index with a reference what is passed to
+    *         the manager, or null if there is no index
+    * @throws IndexException if reader can't be opened
+    */
+   protected abstract IndexReader openIndexReader() throws IndexException;
+
+   private ManagedSearcher refresh() throws IndexException
+   {
+      synchronized (refreshMonitor)
+      {
+         // generation is read before the reader is opened, changes made
+         // meanwhile cause one more refresh
+         long generation = getGeneration();
+         if (current == null || current.generation != generation)
+         {
+            IndexReader reader = openIndexReader();
+            if (reader == null)
+            {
+               return null;
+            }
+            ManagedSearcher old = current;
+            current = new ManagedSearcher(reader, generation);
+            if (old != null)
+            {
+               old.decRef();
+            }
+         }
+         return current;
+      }
+   }
+
+   /**
+    * Searcher with reference counter. Manager holds one reference while the
+    * searcher is current.
+    */
+   private static class ManagedSearcher extends Searcher
+   {
+      private final long generation;
+
+      private final IndexReader reader;
+
+      private final AtomicInteger refCount;
+
+      ManagedSearcher(IndexReader reader, long generation)
+      {
+         super(reader);
+         // rows keep the score also when hits are sorted by fields
+         setDefaultFieldSortScoring(true, false);
+         // reference of the reader is released when searcher is not used any more
+         this.reader = reader;
+         this.generation = generation;
+         this.refCount = new AtomicInteger(1);
+      }
+
+      boolean tryIncRef()
+      {
+         int count;
+         do
+         {
+            count = refCount.get();
+            if (count <= 0)
+            {
+               return false;
+            }
+         }
+         while (!refCount.compareAndSet(count, count + 1));
+         return true;
+      }
+
+      void decRef()
+      {
+         if (refCount.decrementAndGet() == 0)
+         {
+            try
+            {
+               reader.decRef();
+            }
+            catch (IOException e)
+            {
+               throw new RuntimeException(e.getLocalizedMessage(), e);
+            }
+         }
+      }
+   }
+}
@@ -33,15 +33,19 @@ import org.xcmis.search.lucene.index.merge.MaxCandidatsCountAggrigatePolicy;
 import org.xcmis.search.lucene.index.merge.PendingAggregatePolicy;
 import org.xcmis.spi.utils.Logger;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by The eXo Platform SAS.
@@ -95,6 +99,11 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
 
    private final static int DEFAULT_IDLE_TIME = 10 * 1000;
 
+   /**
+    * Directory of memory chains stored in memory mapped files.
+    */
+   private static final String SPILL_DIR = "memoryChains";
+
    /** 
     * If manager isStoped
     */
@@ -107,6 +116,27 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
     * */
    private final Object updateMonitor = new Object();
 
+   /**
+    * Generation of the index. Changed every time readers returned by
+    * {@link #getIndexReader()} may become stale.
+    */
+   private final AtomicLong generation = new AtomicLong();
+
+   /**
+    * Reader of the empty index, used when there are no chains.
+    */
+   private volatile IndexReader emptyIndexReader;
+
+   /**
+    * Immutable state of the memory chains used by readers without locking.
+    * Replaced by writers after every modification of the chains. Snapshot
+    * holds one reference of its reader, which is released when snapshot is
+    * replaced, so reader is closed when the last search what acquired it by
+    * {@link #acquireIndexReader()} releases it.
+    */
+   private final AtomicReference<ChainsSnapshot> snapshot = new AtomicReference<ChainsSnapshot>(
+      new ChainsSnapshot(new ArrayList<LuceneIndexDataManager>(), null));
+
    /**
     * @throws IndexConfigurationException
     * @throws IndexException
@@ -116,7 +146,9 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
    {
       super(indexConfuguration);
 
-      dataKeeperFactory = new InMemoryIndexDataKeeperFactory();
+      dataKeeperFactory =
+         new InMemoryIndexDataKeeperFactory(new File(indexConfuguration.getIndexDir(), SPILL_DIR),
+            indexConfuguration.getMemoryChainSpillSize());
       memoryChains = new ArrayList<LuceneIndexDataManager>();
 
       inMemoryAggregationPolicy = new MaxCandidatsCountAggrigatePolicy(new PendingAggregatePolicy());
@@ -139,6 +171,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
       // dump();
       synchronized (indexes)
       {
+         boolean changed = false;
          if (indexes.size() > 2)
          {
             final Collection<LuceneIndexDataManager> candidats =
@@ -153,6 +186,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
                   indexes.remove(luceneIndexDataManager);
                }
                indexes.add(mergedChain);
+               changed = true;
             }
          }
          final Collection<LuceneIndexDataManager> candidats2Save =
@@ -169,9 +203,14 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
                   ((TransactionableLuceneIndexDataManager)luceneIndexDataManager).getTransactionLog().removeLog();
                   indexes.remove(luceneIndexDataManager);
                }
+               changed = true;
                lastFlushTime = System.currentTimeMillis();
             }
          }
+         if (changed && indexes == memoryChains)
+         {
+            publishSnapshot();
+         }
       }
       return null;
    }
@@ -186,14 +225,15 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
    public long getDirectorySize(final boolean includeInherited)
    {
       long result = 0;
-      if (memoryChains.size() != 0)
+      final List<LuceneIndexDataManager> chains = snapshot.get().chains;
+      if (chains.size() != 0)
       {
 
          if (includeInherited)
          {
             result = super.getDirectorySize(true);
          }
-         for (final LuceneIndexDataManager dm : memoryChains)
+         for (final LuceneIndexDataManager dm : chains)
          {
             result += dm.getDirectorySize(includeInherited);
          }
@@ -209,15 +249,13 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
    public Document getDocument(final String uuid) throws IndexException
    {
       Document doc = null;
-      synchronized (memoryChains)
+      final List<LuceneIndexDataManager> chains = snapshot.get().chains;
+      for (int i = 0; i < chains.size(); i++)
       {
-         for (int i = 0; i < memoryChains.size(); i++)
+         doc = chains.get(i).getDocument(uuid);
+         if (doc != null)
          {
-            doc = memoryChains.get(i).getDocument(uuid);
-            if (doc != null)
-            {
-               break;
-            }
+            break;
          }
       }
       if (doc == null)
@@ -232,7 +270,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
    {
 
       long result = super.getDocumentCount();
-      for (final LuceneIndexDataManager dm : memoryChains)
+      for (final LuceneIndexDataManager dm : snapshot.get().chains)
       {
          result += dm.getDocumentCount();
       }
@@ -241,24 +279,105 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
    }
 
    /**
-    * {@inheritDoc}
+    * {@inheritDoc} Reader of the last published snapshot of the chains is
+    * returned without locking. Reader may be closed as soon as the snapshot
+    * is replaced, searches should use {@link #acquireIndexReader()}.
     * 
     * @throws IndexException
     */
    @Override
    public IndexReader getIndexReader() throws IndexException
    {
+      final ChainsSnapshot current = snapshot.get();
+      if (current.reader != null)
+      {
+         return current.reader;
+      }
+      if (current.chains.size() > 0)
+      {
+         throw new IndexReaderNotFoundException("No readers found");
+      }
+      // not started yet or stopped
+      final IndexReader result = super.getIndexReader();
+      return result != null ? result : getEmptyIndexReader();
+   }
+
+   /**
+    * Reader of the last published snapshot of the chains with a reference of
+    * the caller. Reader is kept open until caller releases it by
+    * {@link IndexReader#decRef()}, even if the snapshot is replaced and the
+    * chains are disposed meanwhile.
+    * 
+    * @return the reader
+    * @throws IndexException
+    */
+   public IndexReader acquireIndexReader() throws IndexException
+   {
+      while (true)
+      {
+         final ChainsSnapshot current = snapshot.get();
+         if (current.reader == null)
+         {
+            final IndexReader result = getIndexReader();
+            result.incRef();
+            return result;
+         }
+         if (current.reader.tryIncRef())
+         {
+            return current.reader;
+         }
+         // snapshot was replaced and its reader released just now
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void start()
+   {
+      super.start();
+      try
+      {
+         publishSnapshot();
+      }
+      catch (final IndexException e)
+      {
+         throw new RuntimeException(e.getLocalizedMessage(), e);
+      }
+   }
 
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void optimize() throws IndexException
+   {
+      super.optimize();
+      publishSnapshot();
+   }
+
+   /**
+    * Build snapshot of the current chains and publish it for readers. Changes
+    * generation of the index. Readers of the chains and of the persisted
+    * index are referenced by the snapshot, so chains may be disposed while
+    * searches still use replaced snapshots.
+    * 
+    * @throws IndexException
+    */
+   protected void publishSnapshot() throws IndexException
+   {
       synchronized (memoryChains)
       {
          synchronized (updateMonitor)
          {
+            final List<LuceneIndexDataManager> chains = new ArrayList<LuceneIndexDataManager>(memoryChains);
             IndexReader result = super.getIndexReader();
 
-            if (memoryChains.size() > 0)
+            if (chains.size() > 0)
             {
-               final List<IndexReader> readers = new ArrayList<IndexReader>(memoryChains.size());
-               final Iterator<LuceneIndexDataManager> it = memoryChains.iterator();
+               final List<IndexReader> readers = new ArrayList<IndexReader>(chains.size());
+               final Iterator<LuceneIndexDataManager> it = chains.iterator();
 
                while (it.hasNext())
                {
@@ -278,19 +397,62 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
                if (readers.size() > 1)
                {
                   final IndexReader[] indexReaders = new IndexReader[readers.size()];
-                  result = new MultiReader(readers.toArray(indexReaders));
+                  // sub readers are referenced and released on close
+                  result = new MultiReader(readers.toArray(indexReaders), false);
                }
                else if (readers.size() == 1)
                {
                   result = readers.get(0);
+                  result.incRef();
                }
                else
                {
-                  throw new IndexReaderNotFoundException("No readers found");
+                  result = null;
                }
 
             }
-            if (result == null)
+            else
+            {
+               if (result == null)
+               {
+                  result = getEmptyIndexReader();
+               }
+               result.incRef();
+            }
+            releaseSnapshot(snapshot.getAndSet(new ChainsSnapshot(chains, result)));
+            generation.incrementAndGet();
+         }
+      }
+   }
+
+   /**
+    * Release reference of the replaced snapshot to its reader.
+    * 
+    * @param replaced the replaced snapshot
+    * @throws IndexException
+    */
+   private void releaseSnapshot(final ChainsSnapshot replaced) throws IndexException
+   {
+      if (replaced.reader != null)
+      {
+         try
+         {
+            replaced.reader.decRef();
+         }
+         catch (final IOException e)
+         {
+            throw new IndexException(e.getLocalizedMessage(), e);
+         }
+      }
+   }
+
+   private IndexReader getEmptyIndexReader() throws IndexException
+   {
+      if (emptyIndexReader == null)
+      {
+         synchronized (updateMonitor)
+         {
+            if (emptyIndexReader == null)
             {
                try
                {
@@ -299,18 +461,16 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
                      new IndexWriter.MaxFieldLength(IndexWriter.DEFAULT_MAX_FIELD_LENGTH);
                   IndexWriter iw = new IndexWriter(directory, new SimpleAnalyzer(), true, fieldLength);
                   iw.close();
-                  result = IndexReader.open(directory);
+                  emptyIndexReader = IndexReader.open(directory);
                }
                catch (IOException e)
                {
                   throw new IndexException("Unable to initialize index: empty index ");
                }
-
             }
-            return result;
          }
       }
-
+      return emptyIndexReader;
    }
 
    /**
@@ -403,9 +563,19 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
          }
       }
       aggregate(memoryChains);
+      publishSnapshot();
       return null;
    }
 
+   /**
+    * @return generation of the index which is changed every time readers
+    *         returned by {@link #getIndexReader()} may become stale
+    */
+   public long getGeneration()
+   {
+      return generation.get();
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -427,9 +597,8 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
          {
             flushTask.cancel();
          }
-         // clear canceled tasks
+         // clear canceled tasks, timer is shared by all managers
          FLUSH_TIMER.purge();
-         FLUSH_TIMER.cancel();
       }
       catch (final ConcurrentModificationException e)
       {
@@ -439,6 +608,14 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
       {
          LOG.error(e.getMessage(), e);
       }
+      try
+      {
+         releaseSnapshot(snapshot.getAndSet(new ChainsSnapshot(new ArrayList<LuceneIndexDataManager>(), null)));
+      }
+      catch (final IndexException e)
+      {
+         LOG.error(e.getMessage(), e);
+      }
       super.stop();
    }
 
@@ -461,6 +638,7 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
 
             }
             memoryChains.clear();
+            publishSnapshot();
             lastFlushTime = System.currentTimeMillis();
          }
       }
@@ -538,4 +716,19 @@ public class CacheableIndexDataManager extends LocalIndexDataManagerProxy
       return changes;
    }
 
+   /**
+    * Memory chains and reader of them together with persisted index.
+    */
+   private static class ChainsSnapshot
+   {
+      private final List<LuceneIndexDataManager> chains;
+
+      private final IndexReader reader;
+
+      ChainsSnapshot(List<LuceneIndexDataManager> chains, IndexReader reader)
+      {
+         this.chains = Collections.unmodifiableList(chains);
+         this.reader = reader;
+      }
+   }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Implementation of the {@link Directory} used to open index on file system.
+ */
+public enum DirectoryType {
+
+   /**
+    * Implementation chosen by Lucene for current platform.
+    */
+   DEFAULT {
+      @Override
+      public Directory open(File path) throws IOException
+      {
+         return FSDirectory.open(path);
+      }
+   },
+
+   /**
+    * Synchronized reads with {@link java.io.RandomAccessFile}.
+    */
+   SIMPLE {
+      @Override
+      public Directory open(File path) throws IOException
+      {
+         return new SimpleFSDirectory(path);
+      }
+   },
+
+   /**
+    * Positional reads with {@link java.nio.channels.FileChannel} without
+    * synchronization.
+    */
+   NIO {
+      @Override
+      public Directory open(File path) throws IOException
+      {
+         return new NIOFSDirectory(path);
+      }
+   },
+
+   /**
+    * Memory mapped files. Requires 64-bit JVM for large indexes. Files are
+    * not unmapped on close, readers of the replaced chains may be still used
+    * by searches, mapped memory is released by GC.
+    */
+   MMAP {
+      @Override
+      public Directory open(File path) throws IOException
+      {
+         return new MMapDirectory(path);
+      }
+   };
+
+   /**
+    * @param path directory of the index
+    * @return directory of the index of this type
+    * @throws IOException
+    */
+   public abstract Directory open(File path) throws IOException;
+}
@@ -21,6 +21,7 @@ package org.xcmis.search.lucene.index;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by The eXo Platform SAS. <br/>
@@ -52,6 +53,18 @@ public class FSIndexTransactionService implements IndexTransactionService
       return storageDir;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   public TransactionLog createTransactionLog(final Set<String> addedDocumentsUuids,
+      final Set<String> removedDocumentsUuids)
+   {
+      return new FileSystemTransactionLog(addedDocumentsUuids, removedDocumentsUuids, this);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
    public List<TransactionLog> getTransactionLogs() throws TransactionLogException
    {
       final List<File> logFileList = this.getFileList(storageDir);
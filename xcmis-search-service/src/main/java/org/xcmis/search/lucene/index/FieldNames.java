@@ -53,24 +53,60 @@ public class FieldNames
     */
    public static final String PROPERTY_PREFIX = "PROP:";
 
+   /**
+    * Prefix for all field names that contain compressed text extracted from
+    * binary property. Field is stored but not indexed.
+    */
+   public static final String EXTRACTED_TEXT_PREFIX = "TEXT:";
+
    /**
     * Name of the field that contains the label of the node. Terms are not
     * tokenized.
     */
    public static final String LENGTH_PREFIX = "LENGTH:";
 
+   /**
+    * Prefix for all field names used to sort by property. Field contains one
+    * term per document, which is parsed by the field cache of the property
+    * type.
+    */
+   public static final String SORT_PREFIX = "SORT:";
+
+   /**
+    * Prefix for all field names used to sort by lower cased string property.
+    */
+   public static final String SORT_LOWER_CASE_PREFIX = "SORT_LC:";
+
    /**
     * Name of the field that contains the UUID of the parent node. Terms are
     * stored and but not tokenized.
     */
    public static final String PARENT = "_:PARENT".intern();
 
+   /**
+    * Name of the field that contains the UUIDs of all ancestors of the node,
+    * including parent. Terms are stored and but not tokenized.
+    */
+   public static final String ANCESTOR = "_:ANCESTOR".intern();
+
    /**
     * Name of the field that contains the label of the node. Terms are not
     * tokenized.
     */
    public static final String LABEL = "_:LABEL".intern();
 
+   /**
+    * Name of the field that contains the path of the node. It is used to sort
+    * results in document order. Terms are not tokenized and not stored.
+    */
+   public static final String PATH = "_:PATH".intern();
+
+   /**
+    * Name of the field that contains the depth of the node in the tree. Terms
+    * are decimal numbers, not tokenized and not stored.
+    */
+   public static final String DEPTH = "_:DEPTH".intern();
+
    /**
     * Name of the field that contains the names of multi-valued properties that
     * hold more than one value. Terms are not tokenized and not stored, only
@@ -130,6 +166,18 @@ public class FieldNames
       return fieldName.substring(0, idx + 1) + FieldNames.FULLTEXT_PREFIX + fieldName.substring(idx + 1);
    }
 
+   /**
+    * Returns a name of the field with text extracted from binary property.
+    * 
+    * @param propertyName the property name
+    * @return extracted text field name
+    */
+   public static String createExtractedTextFieldName(String propertyName)
+   {
+      int idx = propertyName.indexOf(':');
+      return propertyName.substring(0, idx + 1) + FieldNames.EXTRACTED_TEXT_PREFIX + propertyName.substring(idx + 1);
+   }
+
    /**
     * Returns a named value for use as a term in the index. The named value is of
     * the form: <code>fieldName</code> + '\uFFFF' + value
@@ -160,6 +208,31 @@ public class FieldNames
       return propertyName.substring(0, idx + 1) + FieldNames.PROPERTY_PREFIX + propertyName.substring(idx + 1);
    }
 
+   /**
+    * Returns a sort field name.
+    * 
+    * @param fieldName the property name or length field name
+    * @return sort field name
+    */
+   public static String createSortFieldName(String fieldName)
+   {
+      int idx = fieldName.indexOf(':');
+      return fieldName.substring(0, idx + 1) + FieldNames.SORT_PREFIX + fieldName.substring(idx + 1);
+   }
+
+   /**
+    * Returns a lower case sort field name.
+    * 
+    * @param propertyName the property name
+    * @return lower case sort field name
+    */
+   public static String createLowerCaseSortFieldName(String propertyName)
+   {
+      int idx = propertyName.indexOf(':');
+      return propertyName.substring(0, idx + 1) + FieldNames.SORT_LOWER_CASE_PREFIX
+         + propertyName.substring(idx + 1);
+   }
+
    /**
     * Returns the length of the field prefix in <code>namedValue</code>. See also
     * {@link #createNamedValue(String, String)}. If <code>namedValue</code> does
@@ -18,6 +18,7 @@
  */
 package org.xcmis.search.lucene.index;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -48,6 +49,53 @@ public class InMemoryIndexDataKeeperFactory extends LuceneIndexDataKeeperFactory
 
    private static final Logger LOG = Logger.getLogger(InMemoryIndexDataKeeperFactory.class);
 
+   /**
+    * Directory of memory mapped chains, <code>null</code> if chains are
+    * always stored in heap.
+    */
+   private final File spillDir;
+
+   /**
+    * Size in bytes of the merged chain after which it is memory mapped.
+    */
+   private final long spillSize;
+
+   /**
+    * Number of the memory mapped chains created by this factory.
+    */
+   private long spillCounter;
+
+   /**
+    * Factory of the chains stored in heap.
+    */
+   public InMemoryIndexDataKeeperFactory()
+   {
+      this(null, 0);
+   }
+
+   /**
+    * @param spillDir directory of memory mapped chains, contents of it are
+    *           removed
+    * @param spillSize size in bytes of the merged chain after which it is
+    *           stored in memory mapped directory instead of heap, 0 - always
+    *           in heap
+    * @throws IndexException if directory can't be created
+    */
+   public InMemoryIndexDataKeeperFactory(final File spillDir, final long spillSize) throws IndexException
+   {
+      this.spillSize = spillSize;
+      this.spillDir = spillSize > 0 ? spillDir : null;
+      if (this.spillDir != null)
+      {
+         // chains left after crash, they are restored from transaction logs
+         removeRecursive(this.spillDir);
+         if (!this.spillDir.mkdirs())
+         {
+            throw new IndexException("Fail to create directory : " + this.spillDir.getAbsolutePath());
+         }
+      }
+   }
+
    /**
     * {@inheritDoc}
     * 
@@ -71,6 +119,7 @@ public class InMemoryIndexDataKeeperFactory extends LuceneIndexDataKeeperFactory
    {
       final List<TransactionLog> transactionsLogs = new ArrayList<TransactionLog>();
       final List<Directory> mergeDirectorys = new ArrayList<Directory>();
+      long mergeSize = 0;
       final Map<String, Document> documentsBuffer = new HashMap<String, Document>();
       final Map<String, Document> pendingBuffer = new HashMap<String, Document>();
 
@@ -82,10 +131,12 @@ public class InMemoryIndexDataKeeperFactory extends LuceneIndexDataKeeperFactory
          if (reducibleInMemoryIndexDataKeeper.getDocumentCount() > 0)
          {
 
-            final RAMDirectory directory = (RAMDirectory)reducibleInMemoryIndexDataKeeper.getDirectory();
-            if (directory.sizeInBytes() > 0)
+            final Directory directory = reducibleInMemoryIndexDataKeeper.getDirectory();
+            final long size = reducibleInMemoryIndexDataKeeper.getDirectorySize(false);
+            if (size > 0)
             {
                mergeDirectorys.add(directory);
+               mergeSize += size;
             }
             pendingBuffer.putAll(reducibleInMemoryIndexDataKeeper.getPendingDocumentsBuffer());
             documentsBuffer.putAll(reducibleInMemoryIndexDataKeeper.getDocumentsBuffer());
@@ -95,27 +146,29 @@ public class InMemoryIndexDataKeeperFactory extends LuceneIndexDataKeeperFactory
       LuceneIndexDataManager reducibleInMemoryIndexDataKeeper = null;
       try
       {
-         RAMDirectory newDirectory = null;
+         Directory newDirectory = null;
+         File spillLocation = null;
+         if (spillDir != null && mergeSize >= spillSize)
+         {
+            spillLocation = newSpillLocation();
+            newDirectory = DirectoryType.MMAP.open(spillLocation);
+         }
+         else
+         {
+            newDirectory = new RAMDirectory();
+         }
 
+         final IndexWriter newWriter =
+            new IndexWriter(newDirectory, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
          if (mergeDirectorys.size() > 0)
          {
-
-            newDirectory = new RAMDirectory();
-            final IndexWriter newWriter =
-               new IndexWriter(newDirectory, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
             final Directory[] dirsToMerge = new Directory[mergeDirectorys.size()];
             newWriter.addIndexesNoOptimize(mergeDirectorys.toArray(dirsToMerge));
             newWriter.optimize();
-            newWriter.close();
-
-            //
-         }
-         else
-         {
-            newDirectory = new RAMDirectory();
          }
+         newWriter.close();
          reducibleInMemoryIndexDataKeeper =
-            new ReducibleInMemoryIndexDataKeeper(newDirectory, documentsBuffer, pendingBuffer,
+            new ReducibleInMemoryIndexDataKeeper(newDirectory, spillLocation, documentsBuffer, pendingBuffer,
                new CompositeTransactionLog(transactionsLogs));
 
       }
@@ -131,4 +184,25 @@ public class InMemoryIndexDataKeeperFactory extends LuceneIndexDataKeeperFactory
       return reducibleInMemoryIndexDataKeeper;
    }
 
+   private synchronized File newSpillLocation()
+   {
+      return new File(spillDir, "chain" + (spillCounter++));
+   }
+
+   private static void removeRecursive(final File file)
+   {
+      final File[] files = file.listFiles();
+      if (files != null)
+      {
+         for (final File child : files)
+         {
+            removeRecursive(child);
+         }
+      }
+      if (file.exists() && !file.delete())
+      {
+         LOG.warn("Fail to remove " + file.getAbsolutePath());
+      }
+   }
+
 }
@@ -18,6 +18,9 @@
  */
 package org.xcmis.search.lucene.index;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * Created by The eXo Platform SAS.
  * 
@@ -28,5 +31,25 @@ package org.xcmis.search.lucene.index;
  */
 public interface IndexTransactionService
 {
+   /**
+    * Create log of the transaction. Transaction is written to storage by
+    * {@link TransactionLog#log()}.
+    * 
+    * @param addedDocumentsUuids added documents
+    * @param removedDocumentsUuids removed documents
+    * @return log of the transaction
+    */
+   TransactionLog createTransactionLog(Set<String> addedDocumentsUuids, Set<String> removedDocumentsUuids);
+
+   /**
+    * @return logs of the transactions which were not removed from storage.
+    * @throws TransactionLogException
+    */
+   List<TransactionLog> getTransactionLogs() throws TransactionLogException;
+
+   /**
+    * @return <code>true</code> if storage has logs of not removed transactions
+    */
+   boolean hasUncommitedTransactions();
 
 }
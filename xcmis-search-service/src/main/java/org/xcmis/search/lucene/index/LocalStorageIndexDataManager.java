@@ -20,20 +20,17 @@ package org.xcmis.search.lucene.index;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.LockObtainFailedException;
-import org.apache.lucene.util.Version;
 import org.xcmis.search.Startable;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
@@ -66,6 +63,13 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
 
    private final IndexConfiguration indexConfuguration;
 
+   /**
+    * Reader of all chains, built again when reader of any chain is reopened.
+    * References readers of the chains, so they are kept open while it is
+    * used. Guarded by {@link #chains}.
+    */
+   private MultiReader multiReader;
+
    /**
     * @throws IndexConfigurationException
     * @throws IndexException
@@ -90,12 +94,10 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
       }
       else
       {
-         IndexWriter writer = null;
          try
          {
             final PersistedIndex index = chains.get(0);
 
-            writer = new IndexWriter(index.getDirectory(), new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
             final List<Directory> dirs = new ArrayList<Directory>();
             for (final LuceneIndexDataManager luceneIndexDataManager : indexes)
             {
@@ -104,41 +106,59 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
                dirs.add(luceneIndexDataManager.getDirectory());
             }
             final Directory[] dirsToMerge = new Directory[dirs.size()];
-            writer.addIndexesNoOptimize(dirs.toArray(dirsToMerge));
-            writer.optimize();
+            synchronized (index.getDirectory())
+            {
+               final IndexWriter writer = index.getIndexWriter();
+               writer.addIndexesNoOptimize(dirs.toArray(dirsToMerge));
+               writer.commit();
+            }
+            // segments are merged in background, whole index is optimized
+            // only on explicit request
+            index.maybeMerge();
          }
          catch (final CorruptIndexException e)
          {
             throw new IndexException(e.getLocalizedMessage(), e);
          }
-         catch (final LockObtainFailedException e)
-         {
-            throw new IndexException(e.getLocalizedMessage(), e);
-         }
          catch (final IOException e)
          {
             throw new IndexException(e.getLocalizedMessage(), e);
          }
-         finally
-         {
-            if (writer != null)
-            {
-               try
-               {
-                  writer.close();
-               }
-               catch (CorruptIndexException e)
-               {
-                  throw new IndexException(e.getLocalizedMessage(), e);
-               }
-               catch (IOException e)
-               {
-                  throw new IndexException(e.getLocalizedMessage(), e);
-               }
-            }
+      }
+      return null;
+   }
 
+   /**
+    * Merge segments of persisted indexes into one. Should be called only on
+    * explicit request, since whole index is rewritten.
+    * 
+    * @throws IndexException
+    */
+   public void optimize() throws IndexException
+   {
+      synchronized (chains)
+      {
+         final Collection<LuceneIndexDataManager> candidats =
+            indexFactory.getMergePolicy().findIndexDataManagerToOptimize(
+               new ArrayList<LuceneIndexDataManager>(chains));
+         for (final LuceneIndexDataManager index : candidats)
+         {
+            ((PersistedIndex)index).optimize();
          }
       }
+   }
+
+   /**
+    * @return writer of the first persisted index or null if there is no
+    *         persisted indexes
+    * @throws IndexException
+    */
+   protected IndexWriter getIndexWriter() throws IndexException
+   {
+      if (chains.size() != 0)
+      {
+         return chains.get(0).getIndexWriter();
+      }
       return null;
    }
 
@@ -212,8 +232,14 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
                }
                if (readers.size() > 1)
                {
-                  final IndexReader[] indexReaders = new IndexReader[readers.size()];
-                  result = new MultiReader(readers.toArray(indexReaders));
+                  if (multiReader == null || !readers.equals(Arrays.asList(multiReader.getSequentialSubReaders())))
+                  {
+                     final IndexReader[] indexReaders = new IndexReader[readers.size()];
+                     releaseMultiReader();
+                     // sub readers are referenced and released on close
+                     multiReader = new MultiReader(readers.toArray(indexReaders), false);
+                  }
+                  result = multiReader;
                }
                else if (readers.size() == 1)
                {
@@ -295,22 +321,45 @@ public class LocalStorageIndexDataManager implements LuceneIndexDataManager, Ind
     */
    public void stop()
    {
-      for (final PersistedIndex index : chains)
+      synchronized (chains)
       {
          try
          {
-            index.getDirectory().close();
+            releaseMultiReader();
          }
          catch (final IndexException e)
          {
-            LOG.error(e.getMessage(), e);
+            LOG.error(e.getLocalizedMessage(), e);
+         }
+      }
+      for (final PersistedIndex index : chains)
+      {
+         // closes writer, reader and directory
+         index.stop();
+      }
+
+   }
+
+   /**
+    * Release reader of all chains, readers of the chains are released with
+    * it.
+    * 
+    * @throws IndexException
+    */
+   private void releaseMultiReader() throws IndexException
+   {
+      if (multiReader != null)
+      {
+         try
+         {
+            multiReader.decRef();
          }
          catch (final IOException e)
          {
-            LOG.error(e.getMessage(), e);
+            throw new IndexException(e.getLocalizedMessage(), e);
          }
+         multiReader = null;
       }
-
    }
 
    /**
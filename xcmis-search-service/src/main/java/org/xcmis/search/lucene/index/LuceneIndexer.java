@@ -19,29 +19,42 @@
 package org.xcmis.search.lucene.index;
 
 import org.apache.commons.lang.NotImplementedException;
+import org.apache.lucene.document.CompressionTools;
 import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.document.NumberTools;
 import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
-import org.apache.tika.exception.TikaException;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.sax.BodyContentHandler;
+import org.apache.lucene.index.IndexReader;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.content.ContentEntry;
 import org.xcmis.search.content.ContentIndexer;
 import org.xcmis.search.content.Property;
 import org.xcmis.search.content.Property.BinaryValue;
 import org.xcmis.search.content.Property.ContentValue;
+import org.xcmis.search.lucene.content.ErrorReporter;
+import org.xcmis.search.lucene.content.ErrorReporterImpl;
+import org.xcmis.search.value.PropertyType;
 import org.xcmis.spi.utils.Logger;
-import org.xml.sax.SAXException;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
 
 /**
  * Create {@link Document} from {@link ContentEntry}
@@ -51,7 +64,9 @@ public class LuceneIndexer implements ContentIndexer<Document>
 
    private final IndexConfiguration indexConfiguration;
 
-   private final AutoDetectParser parser;
+   private final TextExtractor textExtractor;
+
+   private final ErrorReporter errorReporter;
 
    /**
     * Class logger.
@@ -62,10 +77,21 @@ public class LuceneIndexer implements ContentIndexer<Document>
     * @param extractor
     */
    public LuceneIndexer(IndexConfiguration indexConfiguration)
+   {
+      this(indexConfiguration, new ErrorReporterImpl());
+   }
+
+   /**
+    * @param indexConfiguration index configuration
+    * @param errorReporter receives messages about binary contents which text
+    *           was not extracted or was truncated
+    */
+   public LuceneIndexer(IndexConfiguration indexConfiguration, ErrorReporter errorReporter)
    {
       super();
-      this.parser = new AutoDetectParser(indexConfiguration.getTikaConfiguration());
       this.indexConfiguration = indexConfiguration;
+      this.errorReporter = errorReporter;
+      this.textExtractor = new TextExtractor(indexConfiguration, errorReporter);
    }
 
    /**
@@ -73,6 +99,147 @@ public class LuceneIndexer implements ContentIndexer<Document>
     * @see org.xcmis.search.content.ContentIndexer#createDocument(org.xcmis.search.content.ContentEntry)
     */
    public Document createDocument(ContentEntry contentEntry)
+   {
+      return createDocuments(Collections.singletonList(contentEntry)).get(contentEntry.getIdentifier());
+   }
+
+   /**
+    * Create documents for all entries. Text of binary values of all entries is
+    * extracted in parallel.
+    * 
+    * @param contentEntries entries to index
+    * @return documents mapped by identifiers of entries
+    */
+   public Map<String, Document> createDocuments(Collection<ContentEntry> contentEntries)
+   {
+      return createDocuments(contentEntries, null);
+   }
+
+   /**
+    * Create documents for all entries. Text of unchanged binary values is
+    * requested from the provider, text of others is extracted in parallel.
+    * 
+    * @param contentEntries entries to index
+    * @param textProvider text extracted before, may be <code>null</code>
+    * @return documents mapped by identifiers of entries
+    * @see BinaryValue#isUnchanged()
+    */
+   public Map<String, Document> createDocuments(Collection<ContentEntry> contentEntries,
+      ExtractedTextProvider textProvider)
+   {
+      Map<String, Document> documents = new LinkedHashMap<String, Document>();
+      List<PendingText> pendingTexts = new ArrayList<PendingText>();
+      for (ContentEntry contentEntry : contentEntries)
+      {
+         documents.put(contentEntry.getIdentifier(), createDocument(contentEntry, textProvider, pendingTexts));
+      }
+
+      for (int i = 0; i < pendingTexts.size(); i++)
+      {
+         PendingText pendingText = pendingTexts.get(i);
+         try
+         {
+            // no data - no index
+            String text =
+               textExtractor.getText(pendingText.text, pendingText.identifier, pendingText.propName,
+                  pendingText.value);
+            if (text != null)
+            {
+               addText(pendingText.doc, pendingText.propName, text);
+            }
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+            for (int j = i; j < pendingTexts.size(); j++)
+            {
+               pendingTexts.get(j).text.cancel(true);
+            }
+            throw new RuntimeException("Text extraction is interrupted.", e);
+         }
+      }
+      return documents;
+   }
+
+   /**
+    * Add {@link FieldNames#ANCESTOR} field to documents. Ancestors of parents
+    * which are in the same map are resolved from the map, others are
+    * requested from the provider.
+    * 
+    * @param documents documents mapped by identifiers of entries
+    * @param provider ancestors of entries which are not in the map
+    * @throws IndexException if provider fails
+    */
+   public void addAncestors(Map<String, Document> documents, AncestorsProvider provider) throws IndexException
+   {
+      Map<String, Set<String>> resolved = new HashMap<String, Set<String>>();
+      Set<String> resolving = new HashSet<String>();
+      for (Map.Entry<String, Document> entry : documents.entrySet())
+      {
+         Set<String> ancestors = resolveAncestors(entry.getKey(), documents, provider, resolved, resolving);
+         for (String ancestor : ancestors)
+         {
+            entry.getValue().add(
+               new Field(FieldNames.ANCESTOR, ancestor, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS,
+                  Field.TermVector.NO));
+         }
+      }
+   }
+
+   /**
+    * @return reporter of failed text extractions
+    */
+   public ErrorReporter getErrorReporter()
+   {
+      return errorReporter;
+   }
+
+   /**
+    * Stop text extraction threads.
+    */
+   public void shutdown()
+   {
+      textExtractor.shutdown();
+   }
+
+   private Set<String> resolveAncestors(String identifier, Map<String, Document> documents,
+      AncestorsProvider provider, Map<String, Set<String>> resolved, Set<String> resolving) throws IndexException
+   {
+      Set<String> ancestors = resolved.get(identifier);
+      if (ancestors != null)
+      {
+         return ancestors;
+      }
+      Document doc = documents.get(identifier);
+      if (doc == null)
+      {
+         ancestors = provider.getAncestors(identifier);
+      }
+      else if (!resolving.add(identifier))
+      {
+         LOG.warn("Cycle in parents of entry " + identifier);
+         return Collections.emptySet();
+      }
+      else
+      {
+         ancestors = new LinkedHashSet<String>();
+         String[] parents = doc.getValues(FieldNames.PARENT);
+         for (int i = 0; i < parents.length; i++)
+         {
+            ancestors.add(parents[i]);
+            if (!parents[i].equals(indexConfiguration.getRootParentUuid()))
+            {
+               ancestors.addAll(resolveAncestors(parents[i], documents, provider, resolved, resolving));
+            }
+         }
+         resolving.remove(identifier);
+      }
+      resolved.put(identifier, ancestors);
+      return ancestors;
+   }
+
+   private Document createDocument(ContentEntry contentEntry, ExtractedTextProvider textProvider,
+      List<PendingText> pendingTexts)
    {
       final Document doc = new Document();
 
@@ -102,6 +269,13 @@ public class LuceneIndexer implements ContentIndexer<Document>
                Field.Index.NOT_ANALYZED_NO_NORMS, Field.TermVector.NO));
          }
       }
+      //document order
+      if (contentEntry.getPath() != null)
+      {
+         doc.add(new Field(FieldNames.PATH, contentEntry.getPath(), Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS,
+            Field.TermVector.NO));
+         doc.add(createSortField(FieldNames.DEPTH, Integer.toString(getDepth(contentEntry.getPath()))));
+      }
       //table names
       for (int i = 0; i < contentEntry.getTableNames().length; i++)
       {
@@ -114,89 +288,84 @@ public class LuceneIndexer implements ContentIndexer<Document>
          Property property = contentEntry.getProperties()[i];
          if (isIndexed(property.getName()))
          {
-            addProperty(doc, property);
+            addProperty(doc, property, contentEntry.getIdentifier(), textProvider, pendingTexts);
          }
       }
       return doc;
    }
 
    /**
-    * Extract content of binary value.
+    * @param path path of the entry
+    * @return number of not empty names in the path
+    */
+   private static int getDepth(String path)
+   {
+      int depth = 0;
+      boolean inName = false;
+      for (int i = 0; i < path.length(); i++)
+      {
+         if (path.charAt(i) == '/')
+         {
+            inName = false;
+         }
+         else if (!inName)
+         {
+            inName = true;
+            depth++;
+         }
+      }
+      return depth;
+   }
+
+   /**
+    * Start extraction of binary value content. Text is added to the document
+    * when extraction is finished. Text of unchanged content is taken from the
+    * provider if it is available there.
     * 
     * @param doc
     * @param propName
     * @param data
     */
-   private void addBinaryProperty(final Document doc, String propName, BinaryValue data)
+   private void addBinaryProperty(final Document doc, String identifier, String propName, BinaryValue data,
+      ExtractedTextProvider textProvider, List<PendingText> pendingTexts)
    {
-
       if (data.getMimeType() != null)
       {
-
-         if (parser != null)
+         String text = data.isUnchanged() && textProvider != null ? textProvider.getText(identifier, propName) : null;
+         if (text != null)
          {
-            final InputStream is = data.getValue();
-
             try
             {
-               Metadata metadata = new Metadata();
-               metadata.set(Metadata.CONTENT_TYPE, data.getMimeType());
-               if (data.getEncoding() != null)
-               {
-                  metadata.set(Metadata.CONTENT_ENCODING, data.getEncoding());
-               }
-
-               BodyContentHandler handler = new BodyContentHandler();
-               parser.parse(is, handler, metadata);
-
-               final Field f =
-                  new Field(FieldNames.createFullTextFieldName(propName), handler.toString(), Field.Store.NO,
-                     Field.Index.ANALYZED, Field.TermVector.NO);
-               doc.add(f);
+               data.getValue().close();
             }
             catch (IOException e)
             {
-               // no data - no index
-               if (LOG.isDebugEnabled())
-               {
-                  LOG.warn("Binary value indexer IO error " + e, e);
-               }
-            }
-            catch (SAXException e)
-            {
-               // no data - no index
-               if (LOG.isDebugEnabled())
-               {
-                  LOG.warn("Binary value indexer IO error " + e, e);
-               }
-            }
-            catch (TikaException e)
-            { // no data - no index
-               if (LOG.isDebugEnabled())
-               {
-                  LOG.warn("Binary value indexer IO error " + e, e);
-               }
-            }
-            finally
-            {
-               if (is != null)
-               {
-                  try
-                  {
-                     is.close();
-                  }
-                  catch (IOException e)
-                  {
-                     if (LOG.isDebugEnabled())
-                     {
-                        LOG.warn("Binary value indexer IO error " + e, e);
-                     }
-                  }
-               }
+               LOG.warn("Unable close content stream of " + identifier + ". " + e.getLocalizedMessage());
             }
+            addText(doc, propName, text);
+         }
+         else
+         {
+            pendingTexts.add(new PendingText(doc, identifier, propName, data, textExtractor.extract(identifier,
+               propName, data)));
          }
       }
+   }
 
+   /**
+    * Adds text extracted from binary property. Text is indexed for full text
+    * search and also stored compressed, so it may be reused if entry is
+    * indexed again with unchanged content.
+    * 
+    * @param doc the document
+    * @param propName the name of the property
+    * @param text extracted text
+    */
+   private void addText(final Document doc, final String propName, final String text)
+   {
+      doc.add(new Field(FieldNames.createFullTextFieldName(propName), text, Field.Store.NO, Field.Index.ANALYZED,
+         Field.TermVector.NO));
+      doc.add(new Field(FieldNames.createExtractedTextFieldName(propName), CompressionTools.compressString(text)));
    }
 
    /**
@@ -313,7 +482,8 @@ public class LuceneIndexer implements ContentIndexer<Document>
     *            the repository exception
     */
    @SuppressWarnings("unchecked")
-   private void addProperty(final Document doc, final Property propertyData)
+   private void addProperty(final Document doc, final Property propertyData, String identifier,
+      ExtractedTextProvider textProvider, List<PendingText> pendingTexts)
    {
       final String propName = propertyData.getName();
 
@@ -325,7 +495,7 @@ public class LuceneIndexer implements ContentIndexer<Document>
          switch (propertyData.getType())
          {
             case BINARY :
-               addBinaryProperty(doc, propName, ((BinaryValue)value));
+               addBinaryProperty(doc, identifier, propName, ((BinaryValue)value), textProvider, pendingTexts);
                break;
             case BOOLEAN :
                //property marked as boolean so it should be possible to convert it to boolean
@@ -361,6 +531,10 @@ public class LuceneIndexer implements ContentIndexer<Document>
          // real multi-valued
          addMVPName(doc, propName);
       }
+      if (data.size() > 0)
+      {
+         addSortFields(doc, propertyData.getType(), propName, data.iterator().next());
+      }
    }
 
    /**
@@ -378,6 +552,60 @@ public class LuceneIndexer implements ContentIndexer<Document>
       doc.add(new Field(FieldNames.PROPERTIES_SET, propertyName, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
    }
 
+   /**
+    * Adds the fields used to sort by property. Field cache requires one term
+    * per document, so only the first value of multi-valued property is used.
+    * 
+    * @param doc
+    *           the document.
+    * @param type
+    *           type of the property.
+    * @param propName
+    *           the name of the property.
+    * @param value
+    *           the first value of the property.
+    */
+   private void addSortFields(final Document doc, final PropertyType type, final String propName,
+      final ContentValue value)
+   {
+      String sortValue;
+      switch (type)
+      {
+         case BINARY :
+            sortValue = null;
+            break;
+         case DATE :
+            sortValue = Long.toString(((Calendar)value.getValue()).getTimeInMillis());
+            break;
+         case LONG :
+            sortValue = Long.toString(Long.parseLong(value.getValue().toString()));
+            break;
+         case DOUBLE :
+            sortValue = Double.toString(Double.parseDouble(value.getValue().toString()));
+            break;
+         case BOOLEAN :
+            sortValue = Boolean.toString(Boolean.parseBoolean(value.getValue().toString()));
+            break;
+         default :
+            sortValue = value.getValue().toString();
+            doc.add(createSortField(FieldNames.createLowerCaseSortFieldName(propName), sortValue.toLowerCase()));
+            break;
+      }
+      if (sortValue != null)
+      {
+         doc.add(createSortField(FieldNames.createSortFieldName(propName), sortValue));
+      }
+      doc.add(createSortField(FieldNames.createSortFieldName(FieldNames.createFieldLengthName(propName)), Long
+         .toString(value.getLength())));
+   }
+
+   private Field createSortField(final String fieldName, final String sortValue)
+   {
+      final Field field = new Field(fieldName, sortValue, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS);
+      field.setOmitTermFreqAndPositions(true);
+      return field;
+   }
+
    /**
     * Adds the string value to the document both as the named field and
     * optionally for full text indexing if <code>tokenized</code> is
@@ -447,4 +675,152 @@ public class LuceneIndexer implements ContentIndexer<Document>
       return true;
    }
 
+   /**
+    * Ancestors of entries which are not indexed by the same call of
+    * {@link LuceneIndexer#addAncestors(Map, AncestorsProvider)}.
+    */
+   public interface AncestorsProvider
+   {
+      /**
+       * @param identifier identifier of the entry
+       * @return identifiers of all ancestors of the entry or empty set if
+       *         entry is unknown
+       * @throws IndexException
+       */
+      Set<String> getAncestors(String identifier) throws IndexException;
+   }
+
+   /**
+    * Ancestors stored in {@link FieldNames#ANCESTOR} field of the index.
+    */
+   public static class IndexedAncestorsProvider implements AncestorsProvider
+   {
+      private static final FieldSelector ANCESTOR_SELECTOR = new MapFieldSelector(new String[]{FieldNames.ANCESTOR});
+
+      private final IndexReader reader;
+
+      /**
+       * @param reader reader of the index, may be <code>null</code> if index
+       *           is empty
+       */
+      public IndexedAncestorsProvider(IndexReader reader)
+      {
+         this.reader = reader;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public Set<String> getAncestors(String identifier) throws IndexException
+      {
+         if (reader == null)
+         {
+            return Collections.emptySet();
+         }
+         try
+         {
+            int doc = UUIDDocIdCache.getDocId(reader, identifier);
+            if (doc == -1)
+            {
+               return Collections.emptySet();
+            }
+            return new LinkedHashSet<String>(Arrays.asList(reader.document(doc, ANCESTOR_SELECTOR).getValues(
+               FieldNames.ANCESTOR)));
+         }
+         catch (IOException e)
+         {
+            throw new IndexException(e.getLocalizedMessage(), e);
+         }
+      }
+   }
+
+   /**
+    * Text extracted from binary properties when entries were indexed before.
+    */
+   public interface ExtractedTextProvider
+   {
+      /**
+       * @param identifier identifier of the entry
+       * @param propertyName name of the binary property
+       * @return extracted text or <code>null</code> if it is not available,
+       *         then content is extracted again
+       */
+      String getText(String identifier, String propertyName);
+   }
+
+   /**
+    * Text stored in the extracted text fields of the index.
+    * 
+    * @see FieldNames#createExtractedTextFieldName(String)
+    */
+   public static class IndexedTextProvider implements ExtractedTextProvider
+   {
+      private final IndexReader reader;
+
+      /**
+       * @param reader reader of the index, may be <code>null</code> if index
+       *           is empty
+       */
+      public IndexedTextProvider(IndexReader reader)
+      {
+         this.reader = reader;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public String getText(String identifier, String propertyName)
+      {
+         if (reader == null)
+         {
+            return null;
+         }
+         String fieldName = FieldNames.createExtractedTextFieldName(propertyName);
+         try
+         {
+            int doc = UUIDDocIdCache.getDocId(reader, identifier);
+            if (doc == -1)
+            {
+               return null;
+            }
+            byte[] text = reader.document(doc, new MapFieldSelector(new String[]{fieldName})).getBinaryValue(fieldName);
+            return text == null ? null : CompressionTools.decompressString(text);
+         }
+         catch (IOException e)
+         {
+            LOG.warn("Unable read text of " + identifier + ". " + e.getLocalizedMessage());
+            return null;
+         }
+         catch (DataFormatException e)
+         {
+            LOG.warn("Unable read text of " + identifier + ". " + e.getLocalizedMessage());
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Text of binary property which is being extracted.
+    */
+   private static class PendingText
+   {
+      private final Document doc;
+
+      private final String identifier;
+
+      private final String propName;
+
+      private final BinaryValue value;
+
+      private final Future<String> text;
+
+      PendingText(Document doc, String identifier, String propName, BinaryValue value, Future<String> text)
+      {
+         this.doc = doc;
+         this.identifier = identifier;
+         this.propName = propName;
+         this.value = value;
+         this.text = text;
+      }
+   }
 }
@@ -19,15 +19,11 @@
 
 package org.xcmis.search.lucene.index;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.LockObtainFailedException;
-import org.apache.lucene.util.Version;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
 import org.xcmis.search.lucene.IndexRecoveryTool;
@@ -103,21 +99,16 @@ public class LuceneIndexingService extends TransactionableIndexDataManager
             {
                try
                {
-                  final IndexWriter writer =
-                     new IndexWriter(super.getDirectory(), new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
+                  // deleted segments are dropped by commit
+                  final IndexWriter writer = getIndexWriter();
                   writer.deleteDocuments(new MatchAllDocsQuery());
                   writer.commit();
-                  writer.optimize();
-                  writer.close();
+                  publishSnapshot();
                }
                catch (final CorruptIndexException e)
                {
                   throw new IndexException(e.getLocalizedMessage(), e);
                }
-               catch (final LockObtainFailedException e)
-               {
-                  throw new IndexException(e.getLocalizedMessage(), e);
-               }
                catch (final IOException e)
                {
                   throw new IndexException(e.getLocalizedMessage(), e);
@@ -23,17 +23,15 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.util.Version;
+import org.apache.lucene.store.FSDirectory;
 import org.xcmis.search.Startable;
+import org.xcmis.search.lucene.index.merge.TieredAggregatePolicy;
 import org.xcmis.spi.utils.Logger;
 
 /**
@@ -52,20 +50,108 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
    private final Directory indexDirectiry;
 
    /**
-    * Index storage.
+    * Index storage. Reference of this index is released when reader is
+    * reopened, so callers which keep reader must take own reference by
+    * {@link IndexReader#incRef()}. Guarded by {@link #indexDirectiry}.
     */
    private IndexReader indexReader;
 
    private long lastModifedTime;
 
+   /**
+    * Policy of segments merge.
+    */
+   private final TieredAggregatePolicy mergePolicy;
+
+   /**
+    * Writer of the index, merges segments in background.
+    */
+   private IndexWriter indexWriter;
+
    public PersistedIndex(final Directory directory)
+   {
+      this(directory, new TieredAggregatePolicy());
+   }
+
+   public PersistedIndex(final Directory directory, final TieredAggregatePolicy mergePolicy)
    {
       super();
       this.indexDirectiry = directory;
+      this.mergePolicy = mergePolicy;
       this.lastModifedTime = System.currentTimeMillis();
 
    }
 
+   /**
+    * @return writer of the index, opened once and shared by all modifications.
+    * @throws IndexException
+    */
+   public IndexWriter getIndexWriter() throws IndexException
+   {
+      synchronized (this.indexDirectiry)
+      {
+         if (this.indexWriter == null)
+         {
+            try
+            {
+               if (this.mergePolicy.getMaxMergeWriteRate() > 0 && this.indexDirectiry instanceof FSDirectory)
+               {
+                  ((FSDirectory)this.indexDirectiry).setMaxMergeWriteMBPerSec(this.mergePolicy
+                     .getMaxMergeWriteRate());
+               }
+               this.indexWriter = new IndexWriter(this.indexDirectiry, this.mergePolicy.createIndexWriterConfig());
+            }
+            catch (final CorruptIndexException e)
+            {
+               throw new IndexException(e.getLocalizedMessage(), e);
+            }
+            catch (final IOException e)
+            {
+               throw new IndexException(e.getLocalizedMessage(), e);
+            }
+         }
+         return this.indexWriter;
+      }
+   }
+
+   /**
+    * Start merge of segments selected by merge policy. Merge is done in
+    * background.
+    * 
+    * @throws IndexException
+    */
+   public void maybeMerge() throws IndexException
+   {
+      try
+      {
+         getIndexWriter().maybeMerge();
+      }
+      catch (final IOException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
+   }
+
+   /**
+    * Merge all segments into one. Rewrites whole index, so should be called
+    * only on explicit request.
+    * 
+    * @throws IndexException
+    */
+   public void optimize() throws IndexException
+   {
+      try
+      {
+         final IndexWriter writer = getIndexWriter();
+         writer.optimize();
+         writer.commit();
+      }
+      catch (final IOException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -102,9 +188,15 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
    public Document getDocument(final String uuid) throws IndexException
    {
 
-      final IndexReader reader = this.getIndexReader();
-
-      return this.getDocument(uuid, reader);
+      final IndexReader reader = this.acquireIndexReader();
+      try
+      {
+         return this.getDocument(uuid, reader);
+      }
+      finally
+      {
+         this.releaseIndexReader(reader);
+      }
    }
 
    /**
@@ -114,7 +206,15 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
    {
       try
       {
-         return this.getIndexReader().numDocs();
+         final IndexReader reader = this.acquireIndexReader();
+         try
+         {
+            return reader.numDocs();
+         }
+         finally
+         {
+            this.releaseIndexReader(reader);
+         }
       }
       catch (final IndexException e)
       {
@@ -128,26 +228,35 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
     */
    public IndexReader getIndexReader() throws IndexException
    {
-      try
+      synchronized (this.indexDirectiry)
       {
-         if (this.indexReader == null)
+         try
          {
-            this.indexReader = IndexReader.open(this.indexDirectiry);
+            if (this.indexReader == null)
+            {
+               this.indexReader = IndexReader.open(this.indexDirectiry);
+            }
+            else if (!this.indexReader.isCurrent())
+            {
+               final IndexReader reopened = this.indexReader.reopen();
+               if (reopened != this.indexReader)
+               {
+                  // closed when the last reader which shares it releases it
+                  this.indexReader.decRef();
+                  this.indexReader = reopened;
+               }
+            }
          }
-         else if (!this.indexReader.isCurrent())
+         catch (final CorruptIndexException e)
          {
-            this.indexReader = this.indexReader.reopen();
+            throw new IndexException(e.getLocalizedMessage(), e);
          }
+         catch (final IOException e)
+         {
+            throw new IndexException(e.getLocalizedMessage(), e);
+         }
+         return this.indexReader;
       }
-      catch (final CorruptIndexException e)
-      {
-         throw new IndexException(e.getLocalizedMessage(), e);
-      }
-      catch (final IOException e)
-      {
-         throw new IndexException(e.getLocalizedMessage(), e);
-      }
-      return this.indexReader;
    }
 
    /**
@@ -202,7 +311,7 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
                   reader = this.getIndexReader();
                }
 
-               if (this.getDocument(removedUuid, reader) != null)
+               if (this.hasDocument(removedUuid, reader))
                {
                   removedDocuments.add(removedUuid);
                }
@@ -211,7 +320,7 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
             if (removedDocuments.size() > 0 || changes.getAddedDocuments().size() > 0)
             {
 
-               writer = new IndexWriter(this.indexDirectiry, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
+               writer = this.getIndexWriter();
 
                // removed
                for (final String uuid : removedDocuments)
@@ -231,7 +340,6 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
                }
 
                writer.commit();
-               writer.close();
 
                this.lastModifedTime = System.currentTimeMillis();
             }
@@ -265,7 +373,23 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
    {
       try
       {
-         this.indexReader.close();
+         synchronized (this.indexDirectiry)
+         {
+            if (this.indexWriter != null)
+            {
+               // wait for running merges
+               this.indexWriter.close();
+               this.indexWriter = null;
+            }
+         }
+         synchronized (this.indexDirectiry)
+         {
+            if (this.indexReader != null)
+            {
+               this.indexReader.decRef();
+               this.indexReader = null;
+            }
+         }
          this.indexDirectiry.close();
       }
       catch (final IOException e)
@@ -274,29 +398,55 @@ public class PersistedIndex implements LuceneIndexDataManager, Startable
       }
    }
 
-   private Document getDocument(final String uuid, final IndexReader reader) throws IndexException
+   /**
+    * @return current reader with reference of the caller
+    * @throws IndexException
+    */
+   private IndexReader acquireIndexReader() throws IndexException
    {
+      synchronized (this.indexDirectiry)
+      {
+         final IndexReader reader = this.getIndexReader();
+         reader.incRef();
+         return reader;
+      }
+   }
 
+   private void releaseIndexReader(final IndexReader reader) throws IndexException
+   {
       try
       {
+         reader.decRef();
+      }
+      catch (final IOException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
+   }
 
-         final TermDocs termDocs = reader.termDocs(new Term(FieldNames.UUID, uuid));
-         if (termDocs.next())
-         {
-            final Document document = reader.document(termDocs.doc());
-            if (termDocs.next())
-            {
-               throw new IndexException("More then one document found for uuid:" + uuid);
-            }
-            return document;
-         }
+   private Document getDocument(final String uuid, final IndexReader reader) throws IndexException
+   {
+      try
+      {
+         final int doc = UUIDDocIdCache.getDocId(reader, uuid);
+         return doc == -1 ? null : reader.document(doc);
+      }
+      catch (final IOException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
+   }
 
+   private boolean hasDocument(final String uuid, final IndexReader reader) throws IndexException
+   {
+      try
+      {
+         return UUIDDocIdCache.getDocId(reader, uuid) != -1;
       }
       catch (final IOException e)
       {
          throw new IndexException(e.getLocalizedMessage(), e);
       }
-      return null;
    }
 
 }
@@ -24,15 +24,12 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriter.MaxFieldLength;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.util.Version;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.IndexConfigurationException;
+import org.xcmis.search.lucene.index.merge.TieredAggregatePolicy;
 import org.xcmis.spi.utils.Logger;
 
 /**
@@ -55,6 +52,11 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
 
    private final IndexConfiguration indexConfuguration;
 
+   /**
+    * Policy of segments merge in persisted indexes.
+    */
+   private final TieredAggregatePolicy mergePolicy;
+
    /**
     * @throws IndexException
     * @throws IndexConfigurationException
@@ -78,6 +80,11 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
 
       indexNames = new IndexInfo("indexes");
 
+      mergePolicy = new TieredAggregatePolicy();
+      mergePolicy.setSegmentsPerTier(indexConfuguration.getSegmentsPerTier());
+      mergePolicy.setMaxMergedSegmentSize(indexConfuguration.getMaxMergedSegmentSize());
+      mergePolicy.setMaxMergeWriteRate(indexConfuguration.getMaxMergeWriteRate());
+
    }
 
    /**
@@ -87,10 +94,10 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
       throws IndexException
    {
       final String newIndexName = indexNames.newName();
-      FSDirectory dir;
+      Directory dir;
       try
       {
-         dir = FSDirectory.open(new File(indexDir, newIndexName));
+         dir = indexConfuguration.getDirectoryType().open(new File(indexDir, newIndexName));
          indexNames.addName(newIndexName);
          indexNames.write(indexDir);
       }
@@ -99,12 +106,20 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
          throw new IndexException(e.getLocalizedMessage(), e);
       }
 
-      final PersistedIndex persistedIndex = new PersistedIndex(dir);
+      final PersistedIndex persistedIndex = new PersistedIndex(dir, mergePolicy);
       persistedIndex.save(changes);
 
       return persistedIndex;
    }
 
+   /**
+    * @return policy of segments merge in persisted indexes.
+    */
+   public TieredAggregatePolicy getMergePolicy()
+   {
+      return mergePolicy;
+   }
+
    public File getIndexDir()
    {
       return indexDir;
@@ -134,8 +149,8 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
          }
          try
          {
-            final FSDirectory dir = FSDirectory.open(sub);
-            result.add(new PersistedIndex(dir));
+            final Directory dir = indexConfuguration.getDirectoryType().open(sub);
+            result.add(new PersistedIndex(dir, mergePolicy));
          }
          catch (final IOException e)
          {
@@ -154,8 +169,8 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
       try
       {
          final String newIndexName = indexNames.newName();
-         dir = FSDirectory.open(new File(indexDir, newIndexName));
-         final IndexWriter writer = new IndexWriter(dir, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
+         dir = indexConfuguration.getDirectoryType().open(new File(indexDir, newIndexName));
+         final IndexWriter writer = new IndexWriter(dir, mergePolicy.createIndexWriterConfig());
          final List<Directory> dirs = new ArrayList<Directory>();
          for (final LuceneIndexDataManager luceneIndexDataManager : chains)
          {
@@ -165,7 +180,8 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
          }
          final Directory[] dirsToMerge = new Directory[dirs.size()];
          writer.addIndexesNoOptimize(dirs.toArray(dirsToMerge));
-         writer.optimize();
+         writer.maybeMerge();
+         // waits for merges
          writer.close();
          indexNames.addName(newIndexName);
          indexNames.write(indexDir);
@@ -174,7 +190,7 @@ public class PersistentIndexDataKeeperFactory extends LuceneIndexDataKeeperFacto
       {
          throw new IndexException(e.getLocalizedMessage(), e);
       }
-      return new PersistedIndex(dir);
+      return new PersistedIndex(dir, mergePolicy);
    }
 
 }
@@ -18,6 +18,7 @@
  */
 package org.xcmis.search.lucene.index;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,7 +57,13 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
    /**
     * Index storage.
     */
-   public final RAMDirectory indexDirectiry;
+   public final Directory indexDirectiry;
+
+   /**
+    * Temporary file system location of the index storage, <code>null</code>
+    * if index is stored in heap.
+    */
+   private final File spillLocation;
 
    public long lastModifedTime;
 
@@ -103,6 +110,7 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
    {
       // this.changes = changes;
       this.indexDirectiry = new RAMDirectory();
+      this.spillLocation = null;
       this.transactionLog = changes.getTransactionLog();
       this.isStarted = false;
       this.isPendingCommited = false;
@@ -116,8 +124,25 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
    public ReducibleInMemoryIndexDataKeeper(final RAMDirectory indexDirectiry,
       final Map<String, Document> documentsBuffer, final Map<String, Document> pendingDocumentsBuffer,
       final TransactionLog transactionLog)
+   {
+      this(indexDirectiry, null, documentsBuffer, pendingDocumentsBuffer, transactionLog);
+   }
+
+   /**
+    * @param indexDirectiry index storage
+    * @param spillLocation temporary file system location of the index
+    *           storage, removed on stop, <code>null</code> if index is
+    *           stored in heap
+    * @param documentsBuffer documents of the index
+    * @param pendingDocumentsBuffer documents not written to the storage yet
+    * @param transactionLog log of the transactions of the index
+    */
+   public ReducibleInMemoryIndexDataKeeper(final Directory indexDirectiry, final File spillLocation,
+      final Map<String, Document> documentsBuffer, final Map<String, Document> pendingDocumentsBuffer,
+      final TransactionLog transactionLog)
    {
       this.indexDirectiry = indexDirectiry;
+      this.spillLocation = spillLocation;
       this.documentsBuffer = documentsBuffer;
       this.pendingDocumentsBuffer = pendingDocumentsBuffer;
       this.transactionLog = transactionLog;
@@ -145,8 +170,23 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
     */
    public long getDirectorySize(final boolean includeInherited)
    {
-
-      return this.indexDirectiry.sizeInBytes();
+      if (this.indexDirectiry instanceof RAMDirectory)
+      {
+         return ((RAMDirectory)this.indexDirectiry).sizeInBytes();
+      }
+      long size = 0;
+      try
+      {
+         for (final String file : this.indexDirectiry.listAll())
+         {
+            size += this.indexDirectiry.fileLength(file);
+         }
+      }
+      catch (final IOException e)
+      {
+         LOG.error(e.getLocalizedMessage(), e);
+      }
+      return size;
    }
 
    /**
@@ -197,7 +237,13 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
          }
          else if (!this.indexReader.isCurrent())
          {
-            this.indexReader = this.indexReader.reopen();
+            final IndexReader newReader = this.indexReader.reopen();
+            if (newReader != this.indexReader)
+            {
+               // snapshots which still use the old reader keep it open
+               this.indexReader.close();
+               this.indexReader = newReader;
+            }
          }
       }
       catch (final CorruptIndexException e)
@@ -337,7 +383,41 @@ public class ReducibleInMemoryIndexDataKeeper implements TransactionableLuceneIn
     */
    public void stop() throws IndexException
    {
-      this.indexDirectiry.close();
+      try
+      {
+         if (this.indexReader != null)
+         {
+            // release own reference, reader is closed when the snapshots
+            // what still use it release it too
+            this.indexReader.close();
+         }
+         if (this.spillLocation != null)
+         {
+            // mapped files stay readable after removal
+            this.indexDirectiry.close();
+         }
+         // heap directory is left open for the readers of the snapshots,
+         // memory is released by GC
+      }
+      catch (final IOException e)
+      {
+         throw new IndexException(e.getLocalizedMessage(), e);
+      }
+      if (this.spillLocation != null)
+      {
+         final File[] files = this.spillLocation.listFiles();
+         if (files != null)
+         {
+            for (final File file : files)
+            {
+               file.delete();
+            }
+         }
+         if (!this.spillLocation.delete())
+         {
+            LOG.warn("Fail to remove temporary index directory " + this.spillLocation.getAbsolutePath());
+         }
+      }
       this.isStoped = true;
    }
 
@@ -0,0 +1,660 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import org.xcmis.spi.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only transaction log split into segments. Records of concurrent
+ * transactions are written to the current segment and share one fsync (group
+ * commit). Every record is protected by CRC32. Removing of a transaction
+ * appends a small remove record, segments are deleted from the head of the log
+ * when all their transactions are removed.
+ * <p>
+ * Record format: length of body (int), CRC32 of body (long), body: type of
+ * record (byte), transaction id (long), added and removed uuids.
+ */
+public class SegmentedIndexTransactionService implements IndexTransactionService
+{
+   /**
+    * Maximum size of segment, 16Mb.
+    */
+   public static final long DEFAULT_MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(SegmentedIndexTransactionService.class);
+
+   private static final String SEGMENT_SUFFIX = ".log";
+
+   private static final byte LOG_RECORD = 1;
+
+   private static final byte REMOVE_RECORD = 2;
+
+   /**
+    * Type and transaction id.
+    */
+   private static final int BODY_HEADER_SIZE = 9;
+
+   private final File storageDir;
+
+   private final long maxSegmentSize;
+
+   /**
+    * Guards segments and transactions.
+    */
+   private final Object writeLock = new Object();
+
+   /**
+    * Guards sync state.
+    */
+   private final Object syncMonitor = new Object();
+
+   /**
+    * Not removed transactions by segment number.
+    */
+   private final SortedMap<Long, Set<Long>> liveTransactions = new TreeMap<Long, Set<Long>>();
+
+   /**
+    * Segment number by transaction id.
+    */
+   private final Map<Long, Long> transactionSegments = new HashMap<Long, Long>();
+
+   /**
+    * Not removed transactions found on start.
+    */
+   private final Map<Long, TransactionLog> recoveredTransactions = new LinkedHashMap<Long, TransactionLog>();
+
+   private long nextTransactionId;
+
+   private long segmentNumber;
+
+   private FileOutputStream segmentStream;
+
+   private FileChannel segmentChannel;
+
+   private long segmentSize;
+
+   /**
+    * Bytes written to all segments.
+    */
+   private long writtenPosition;
+
+   /**
+    * Bytes written to all segments and forced to the disk.
+    */
+   private long syncedPosition;
+
+   private boolean syncInProgress;
+
+   public SegmentedIndexTransactionService(final File storageDir) throws TransactionLogException
+   {
+      this(storageDir, DEFAULT_MAX_SEGMENT_SIZE);
+   }
+
+   /**
+    * @param storageDir directory of segments.
+    * @param maxSegmentSize size after which new segment is started.
+    * @throws TransactionLogException if log can't be read or new segment can't
+    *            be created.
+    */
+   public SegmentedIndexTransactionService(final File storageDir, final long maxSegmentSize)
+      throws TransactionLogException
+   {
+      this.storageDir = storageDir;
+      this.maxSegmentSize = maxSegmentSize;
+      synchronized (writeLock)
+      {
+         recover();
+         openSegment(segmentNumber + 1);
+         truncate();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public TransactionLog createTransactionLog(final Set<String> addedDocumentsUuids,
+      final Set<String> removedDocumentsUuids)
+   {
+      return new SegmentedTransactionLog(addedDocumentsUuids, removedDocumentsUuids);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public List<TransactionLog> getTransactionLogs()
+   {
+      synchronized (writeLock)
+      {
+         return new ArrayList<TransactionLog>(recoveredTransactions.values());
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean hasUncommitedTransactions()
+   {
+      synchronized (writeLock)
+      {
+         return !recoveredTransactions.isEmpty();
+      }
+   }
+
+   /**
+    * Force and close current segment.
+    * 
+    * @throws TransactionLogException
+    */
+   public void close() throws TransactionLogException
+   {
+      synchronized (writeLock)
+      {
+         closeSegment();
+      }
+   }
+
+   /**
+    * Append log record of transaction and wait until it is forced to the disk
+    * together with records of concurrent transactions.
+    * 
+    * @return transaction id
+    */
+   private long log(final Set<String> added, final Set<String> removed) throws TransactionLogException
+   {
+      long position;
+      long transactionId;
+      try
+      {
+         final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         final DataOutputStream out = new DataOutputStream(bytes);
+         writeSet(out, added);
+         writeSet(out, removed);
+         out.flush();
+         synchronized (writeLock)
+         {
+            transactionId = nextTransactionId++;
+            position = append(LOG_RECORD, transactionId, bytes.toByteArray());
+            liveTransactions.get(segmentNumber).add(transactionId);
+            transactionSegments.put(transactionId, segmentNumber);
+         }
+      }
+      catch (final IOException e)
+      {
+         throw new TransactionLogException("TransactionLog write exception: " + e.getMessage(), e);
+      }
+      sync(position);
+      return transactionId;
+   }
+
+   /**
+    * Mark transaction as removed. Remove record is not forced, transaction is
+    * recovered again if it is lost.
+    */
+   private void remove(final long transactionId) throws TransactionLogException
+   {
+      synchronized (writeLock)
+      {
+         final Long segment = transactionSegments.remove(transactionId);
+         if (segment == null)
+         {
+            if (LOG.isDebugEnabled())
+            {
+               LOG.debug("Transaction " + transactionId + " is already removed.");
+            }
+            return;
+         }
+         recoveredTransactions.remove(transactionId);
+         liveTransactions.get(segment).remove(transactionId);
+         try
+         {
+            append(REMOVE_RECORD, transactionId, new byte[0]);
+         }
+         catch (final IOException e)
+         {
+            throw new TransactionLogException("TransactionLog write exception: " + e.getMessage(), e);
+         }
+         truncate();
+      }
+   }
+
+   /**
+    * Wait until log is forced to the disk up to position. One of the waiting
+    * threads forces log, others wait for it.
+    */
+   private void sync(final long position) throws TransactionLogException
+   {
+      synchronized (syncMonitor)
+      {
+         while (syncedPosition < position && syncInProgress)
+         {
+            try
+            {
+               syncMonitor.wait();
+            }
+            catch (final InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+               throw new TransactionLogException("Interrupted while waiting for transaction log sync.", e);
+            }
+         }
+         if (syncedPosition >= position)
+         {
+            return;
+         }
+         syncInProgress = true;
+      }
+
+      long synced = position;
+      try
+      {
+         synchronized (writeLock)
+         {
+            synced = writtenPosition;
+            if (segmentChannel != null)
+            {
+               segmentChannel.force(false);
+            }
+         }
+      }
+      catch (final IOException e)
+      {
+         synced = 0;
+         throw new TransactionLogException("TransactionLog sync exception: " + e.getMessage(), e);
+      }
+      finally
+      {
+         synchronized (syncMonitor)
+         {
+            syncedPosition = Math.max(syncedPosition, synced);
+            syncInProgress = false;
+            syncMonitor.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Should be called with write lock.
+    * 
+    * @return written position after record
+    */
+   private long append(final byte type, final long transactionId, final byte[] payload) throws IOException,
+      TransactionLogException
+   {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream(BODY_HEADER_SIZE + payload.length + 12);
+      final DataOutputStream body = new DataOutputStream(bytes);
+      body.writeByte(type);
+      body.writeLong(transactionId);
+      body.write(payload);
+      body.flush();
+      final byte[] bodyBytes = bytes.toByteArray();
+
+      final CRC32 crc = new CRC32();
+      crc.update(bodyBytes);
+
+      final ByteBuffer record = ByteBuffer.allocate(12 + bodyBytes.length);
+      record.putInt(bodyBytes.length);
+      record.putLong(crc.getValue());
+      record.put(bodyBytes);
+      record.flip();
+
+      if (segmentSize > 0 && segmentSize + record.remaining() > maxSegmentSize)
+      {
+         closeSegment();
+         openSegment(segmentNumber + 1);
+      }
+
+      final int length = record.remaining();
+      while (record.hasRemaining())
+      {
+         segmentChannel.write(record);
+      }
+      segmentSize += length;
+      writtenPosition += length;
+      return writtenPosition;
+   }
+
+   /**
+    * Delete segments from the head of the log while all their transactions
+    * are removed. Should be called with write lock.
+    */
+   private void truncate()
+   {
+      for (final Iterator<Map.Entry<Long, Set<Long>>> it = liveTransactions.entrySet().iterator(); it.hasNext();)
+      {
+         final Map.Entry<Long, Set<Long>> entry = it.next();
+         if (entry.getKey() == segmentNumber || !entry.getValue().isEmpty())
+         {
+            break;
+         }
+         final File segment = segmentFile(entry.getKey());
+         if (!segment.delete())
+         {
+            LOG.warn("TransactionLog segment was not deleted " + segment.getAbsolutePath());
+            break;
+         }
+         it.remove();
+      }
+   }
+
+   /**
+    * Should be called with write lock.
+    */
+   private void openSegment(final long number) throws TransactionLogException
+   {
+      final File segment = segmentFile(number);
+      try
+      {
+         segmentStream = new FileOutputStream(segment, true);
+      }
+      catch (final IOException e)
+      {
+         throw new TransactionLogException("Unable create TransactionLog segment " + segment.getAbsolutePath(), e);
+      }
+      segmentChannel = segmentStream.getChannel();
+      segmentNumber = number;
+      segmentSize = 0;
+      liveTransactions.put(number, new HashSet<Long>());
+   }
+
+   /**
+    * Force and close current segment. Should be called with write lock.
+    */
+   private void closeSegment() throws TransactionLogException
+   {
+      if (segmentStream == null)
+      {
+         return;
+      }
+      try
+      {
+         segmentChannel.force(false);
+         segmentStream.close();
+      }
+      catch (final IOException e)
+      {
+         throw new TransactionLogException("TransactionLog sync exception: " + e.getMessage(), e);
+      }
+      finally
+      {
+         segmentStream = null;
+         segmentChannel = null;
+      }
+      synchronized (syncMonitor)
+      {
+         syncedPosition = Math.max(syncedPosition, writtenPosition);
+         syncMonitor.notifyAll();
+      }
+   }
+
+   /**
+    * Read all segments, collect not removed transactions. Should be called
+    * with write lock.
+    */
+   private void recover() throws TransactionLogException
+   {
+      final File[] files = storageDir.listFiles();
+      final List<Long> numbers = new ArrayList<Long>();
+      if (files != null)
+      {
+         for (final File file : files)
+         {
+            final String name = file.getName();
+            if (file.isFile() && name.endsWith(SEGMENT_SUFFIX))
+            {
+               try
+               {
+                  numbers.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+               }
+               catch (final NumberFormatException e)
+               {
+                  LOG.warn("Unknown file in TransactionLog directory " + file.getAbsolutePath());
+               }
+            }
+         }
+      }
+      final Long[] sorted = numbers.toArray(new Long[numbers.size()]);
+      Arrays.sort(sorted);
+      for (final Long number : sorted)
+      {
+         liveTransactions.put(number, new HashSet<Long>());
+         readSegment(number);
+         segmentNumber = number;
+      }
+   }
+
+   private void readSegment(final long number) throws TransactionLogException
+   {
+      final File segment = segmentFile(number);
+      DataInputStream in = null;
+      try
+      {
+         in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+         while (true)
+         {
+            final int length;
+            try
+            {
+               length = in.readInt();
+            }
+            catch (final EOFException e)
+            {
+               // end of segment
+               break;
+            }
+            if (length < BODY_HEADER_SIZE || length > maxSegmentSize)
+            {
+               LOG.warn("TransactionLog segment is corrupted, wrong record length " + length + ". Rest of "
+                  + segment.getAbsolutePath() + " is ignored.");
+               break;
+            }
+            final long checksum = in.readLong();
+            final byte[] body = new byte[length];
+            in.readFully(body);
+
+            final CRC32 crc = new CRC32();
+            crc.update(body);
+            if (crc.getValue() != checksum)
+            {
+               LOG.warn("TransactionLog segment is corrupted, wrong checksum. Rest of " + segment.getAbsolutePath()
+                  + " is ignored.");
+               break;
+            }
+            readRecord(number, new DataInputStream(new ByteArrayInputStream(body)));
+         }
+      }
+      catch (final EOFException e)
+      {
+         // record was not completely written
+         LOG.warn("TransactionLog segment is uncomplete: " + segment.getAbsolutePath());
+      }
+      catch (final IOException e)
+      {
+         throw new TransactionLogException("TransactionLog read exception: " + e.getMessage(), e);
+      }
+      finally
+      {
+         if (in != null)
+         {
+            try
+            {
+               in.close();
+            }
+            catch (final IOException e)
+            {
+               LOG.warn("Can not close log file " + segment.getAbsolutePath());
+            }
+         }
+      }
+   }
+
+   private void readRecord(final long number, final DataInputStream body) throws IOException,
+      TransactionLogException
+   {
+      final byte type = body.readByte();
+      final long transactionId = body.readLong();
+      nextTransactionId = Math.max(nextTransactionId, transactionId + 1);
+      switch (type)
+      {
+         case LOG_RECORD :
+            final Set<String> added = readSet(body);
+            final Set<String> removed = readSet(body);
+            recoveredTransactions.put(transactionId, new SegmentedTransactionLog(transactionId, added, removed));
+            liveTransactions.get(number).add(transactionId);
+            transactionSegments.put(transactionId, number);
+            break;
+         case REMOVE_RECORD :
+            final Long segment = transactionSegments.remove(transactionId);
+            if (segment != null)
+            {
+               recoveredTransactions.remove(transactionId);
+               liveTransactions.get(segment).remove(transactionId);
+            }
+            break;
+         default :
+            throw new TransactionLogException(" TransactionLog file is corrupted. Unexpected type of record " + type
+               + ". file : " + segmentFile(number).getAbsolutePath());
+      }
+   }
+
+   private File segmentFile(final long number)
+   {
+      return new File(storageDir, String.format("%019d", number) + SEGMENT_SUFFIX);
+   }
+
+   private void writeSet(final DataOutputStream out, final Set<String> keys) throws IOException
+   {
+      out.writeInt(keys.size());
+      for (final String key : keys)
+      {
+         out.writeUTF(key);
+      }
+   }
+
+   private Set<String> readSet(final DataInputStream in) throws IOException
+   {
+      final int size = in.readInt();
+      final Set<String> keys = new HashSet<String>(size);
+      for (int i = 0; i < size; i++)
+      {
+         keys.add(in.readUTF());
+      }
+      return keys;
+   }
+
+   /**
+    * Log of one transaction in the segmented log.
+    */
+   private class SegmentedTransactionLog implements TransactionLog
+   {
+      private final Set<String> addedDocumentsUuids;
+
+      private final Set<String> removedDocumentsUuids;
+
+      private long transactionId = -1;
+
+      SegmentedTransactionLog(final Set<String> addedDocumentsUuids, final Set<String> removedDocumentsUuids)
+      {
+         this.addedDocumentsUuids = addedDocumentsUuids;
+         this.removedDocumentsUuids = removedDocumentsUuids;
+      }
+
+      SegmentedTransactionLog(final long transactionId, final Set<String> addedDocumentsUuids,
+         final Set<String> removedDocumentsUuids)
+      {
+         this(addedDocumentsUuids, removedDocumentsUuids);
+         this.transactionId = transactionId;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public Set<String> getAddedList()
+      {
+         return addedDocumentsUuids;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public Set<String> getRemovedList()
+      {
+         return removedDocumentsUuids;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void load()
+      {
+         // records are read on start of the log
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void log() throws TransactionLogException
+      {
+         if (transactionId != -1)
+         {
+            throw new TransactionLogException("Transaction " + transactionId + " already logged.");
+         }
+         transactionId = SegmentedIndexTransactionService.this.log(addedDocumentsUuids, removedDocumentsUuids);
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public void removeLog() throws TransactionLogException
+      {
+         if (transactionId == -1)
+         {
+            throw new TransactionLogException("Transaction is not logged.");
+         }
+         remove(transactionId);
+      }
+   }
+}
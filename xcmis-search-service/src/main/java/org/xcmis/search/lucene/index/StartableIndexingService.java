@@ -155,6 +155,11 @@ public class StartableIndexingService extends LuceneIndexingService
       {
          return true;
       }
+      if (!indexRecoveryTool.isCurrentFormat())
+      {
+         LOG.info("Index has format of previous version and will be recovered.");
+         return true;
+      }
       final File flag = new File(indexDir, StartableIndexingService.REINDEX_RUN);
       return flag.exists();
 
@@ -176,16 +181,25 @@ public class StartableIndexingService extends LuceneIndexingService
       }
 
       final File flag = new File(indexDir, StartableIndexingService.REINDEX_RUN);
-      if (!flag.exists())
+      if (flag.exists() && indexRecoveryTool.hasCheckpoint())
+      {
+         // continue interrupted restore from checkpoint
+         LOG.info("Restore index resumed.");
+      }
+      else
       {
-         if (!flag.createNewFile())
+         if (!flag.exists())
          {
-            throw new IOException("Reindex flag file was not created.");
+            if (!flag.createNewFile())
+            {
+               throw new IOException("Reindex flag file was not created.");
+            }
          }
-      }
+         indexRecoveryTool.clearCheckpoint();
 
-      // clean persisted index
-      softCleanIndex();
+         // clean persisted index
+         softCleanIndex();
+      }
 
       indexRecoveryTool.recoverAll();
 
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.xcmis.search.config.ExtractionLimits;
+import org.xcmis.search.config.IndexConfiguration;
+import org.xcmis.search.config.ExtractionLimits.OverflowPolicy;
+import org.xcmis.search.content.Property.BinaryValue;
+import org.xcmis.search.lucene.content.ErrorReporter;
+import org.xcmis.spi.utils.Logger;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts text from the binary content with Tika in own thread pool, so
+ * contents of many entries are parsed in parallel. Extraction is stopped when
+ * the {@link ExtractionLimits} of the MIME type are exceeded. Failures are
+ * reported to the {@link ErrorReporter}.
+ */
+public class TextExtractor
+{
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(TextExtractor.class);
+
+   /**
+    * Default time in milliseconds to wait for the extraction in addition to
+    * the timeout of the limits, e.g. while extraction is queued.
+    */
+   public static final long DEFAULT_TIMEOUT_GRACE = 10 * 1000;
+
+   private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+
+   private final IndexConfiguration indexConfiguration;
+
+   private final AutoDetectParser parser;
+
+   private final ErrorReporter errorReporter;
+
+   private final ExecutorService executor;
+
+   private final long timeoutGrace;
+
+   /**
+    * @param indexConfiguration index configuration
+    * @param errorReporter receives messages about failed or limited
+    *           extractions
+    */
+   public TextExtractor(IndexConfiguration indexConfiguration, ErrorReporter errorReporter)
+   {
+      this(indexConfiguration, errorReporter, DEFAULT_TIMEOUT_GRACE);
+   }
+
+   /**
+    * @param indexConfiguration index configuration
+    * @param errorReporter receives messages about failed or limited
+    *           extractions
+    * @param timeoutGrace time in milliseconds to wait for the extraction in
+    *           addition to the timeout of the limits
+    */
+   public TextExtractor(IndexConfiguration indexConfiguration, ErrorReporter errorReporter, long timeoutGrace)
+   {
+      this.timeoutGrace = timeoutGrace;
+      this.indexConfiguration = indexConfiguration;
+      this.parser = new AutoDetectParser(indexConfiguration.getTikaConfiguration());
+      this.errorReporter = errorReporter;
+      this.executor =
+         Executors.newFixedThreadPool(Math.max(1, indexConfiguration.getExtractionThreads()), new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread thread = new Thread(r, "xcmis-text-extractor-" + THREAD_NUMBER.getAndIncrement());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+   }
+
+   /**
+    * Start text extraction. Stream of the value is closed when extraction is
+    * finished.
+    * 
+    * @param identifier identifier of the content entry
+    * @param propertyName name of the property
+    * @param value binary value
+    * @return extracted text or null if there is no text to index
+    */
+   public Future<String> extract(final String identifier, final String propertyName, final BinaryValue value)
+   {
+      return executor.submit(new Callable<String>()
+      {
+         public String call()
+         {
+            return extractText(identifier, propertyName, value);
+         }
+      });
+   }
+
+   /**
+    * Wait for the text extracted by {@link #extract(String, String, BinaryValue)}.
+    * Extraction which is not finished within the timeout of the limits plus
+    * grace time, e.g. blocked in reading of the content, is cancelled and
+    * reported.
+    * 
+    * @param text the result of {@link #extract(String, String, BinaryValue)}
+    * @param identifier identifier of the content entry
+    * @param propertyName name of the property
+    * @param value binary value
+    * @return extracted text or null if there is no text to index
+    * @throws InterruptedException if current thread is interrupted while
+    *            waiting
+    */
+   public String getText(Future<String> text, String identifier, String propertyName, BinaryValue value)
+      throws InterruptedException
+   {
+      ExtractionLimits limits = indexConfiguration.getExtractionLimits(value.getMimeType());
+      String location = "property " + propertyName + " of " + identifier + " (" + value.getMimeType() + ")";
+      try
+      {
+         return text.get(add(limits.getTimeout(), timeoutGrace), TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException e)
+      {
+         text.cancel(true);
+         report("Text of " + location + " is not indexed, extraction is not finished in time: " + limits, null);
+      }
+      catch (CancellationException e)
+      {
+         report("Text of " + location + " is not indexed, extraction is cancelled", null);
+      }
+      catch (ExecutionException e)
+      {
+         Exception cause = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+         report("Unable extract text of " + location + ". " + e.getCause(), cause);
+      }
+      return null;
+   }
+
+   /**
+    * Stop all extractions.
+    */
+   public void shutdown()
+   {
+      executor.shutdownNow();
+   }
+
+   private String extractText(String identifier, String propertyName, BinaryValue value)
+   {
+      ExtractionLimits limits = indexConfiguration.getExtractionLimits(value.getMimeType());
+      long deadline = add(System.currentTimeMillis(), limits.getTimeout());
+      LimitedTextHandler text = new LimitedTextHandler(limits.getMaxChars(), deadline);
+      DeadlineInputStream is = new DeadlineInputStream(value.getValue(), deadline);
+      Exception failure = null;
+      try
+      {
+         Metadata metadata = new Metadata();
+         metadata.set(Metadata.CONTENT_TYPE, value.getMimeType());
+         if (value.getEncoding() != null)
+         {
+            metadata.set(Metadata.CONTENT_ENCODING, value.getEncoding());
+         }
+         parser.parse(is, new BodyContentHandler(text), metadata);
+         return text.toString();
+      }
+      catch (IOException e)
+      {
+         failure = e;
+      }
+      catch (SAXException e)
+      {
+         failure = e;
+      }
+      catch (TikaException e)
+      {
+         failure = e;
+      }
+      catch (RuntimeException e)
+      {
+         failure = e;
+      }
+      finally
+      {
+         try
+         {
+            is.close();
+         }
+         catch (IOException e)
+         {
+            LOG.warn("Unable close content stream of " + identifier + ". " + e.getLocalizedMessage());
+         }
+      }
+
+      String location = "property " + propertyName + " of " + identifier + " (" + value.getMimeType() + ")";
+      if (text.isLimitReached() || is.isTimedOut() || text.isTimedOut())
+      {
+         String reason = text.isLimitReached() ? "size limit" : "time limit";
+         if (limits.getOverflowPolicy() == OverflowPolicy.TRUNCATE)
+         {
+            report("Text of " + location + " is truncated, " + reason + " is exceeded: " + limits, null);
+            return text.toString();
+         }
+         report("Text of " + location + " is not indexed, " + reason + " is exceeded: " + limits, null);
+         return null;
+      }
+      // no data - no index
+      report("Unable extract text of " + location + ". " + failure.getLocalizedMessage(), failure);
+      return null;
+   }
+
+   /**
+    * @return sum of not negative numbers, {@link Long#MAX_VALUE} on overflow
+    */
+   private static long add(long a, long b)
+   {
+      return a > Long.MAX_VALUE - b ? Long.MAX_VALUE : a + b;
+   }
+
+   private void report(String message, Exception e)
+   {
+      LOG.warn(message);
+      synchronized (errorReporter)
+      {
+         if (e == null)
+         {
+            errorReporter.reportMessage(message);
+         }
+         else
+         {
+            errorReporter.reportException(e);
+         }
+      }
+   }
+
+   /**
+    * Collects text until the max number of characters or the deadline is
+    * reached. Then parsing is stopped with {@link SAXException}.
+    */
+   private static class LimitedTextHandler extends DefaultHandler
+   {
+      private final StringBuilder text = new StringBuilder();
+
+      private final int maxChars;
+
+      private final long deadline;
+
+      private boolean limitReached;
+
+      private boolean timedOut;
+
+      LimitedTextHandler(int maxChars, long deadline)
+      {
+         this.maxChars = maxChars;
+         this.deadline = deadline;
+      }
+
+      @Override
+      public void characters(char[] ch, int start, int length) throws SAXException
+      {
+         if (System.currentTimeMillis() > deadline)
+         {
+            timedOut = true;
+            throw new SAXException("Time limit of text extraction is exceeded");
+         }
+         int free = maxChars - text.length();
+         if (length > free)
+         {
+            text.append(ch, start, free);
+            limitReached = true;
+            throw new SAXException("Size limit of text extraction is exceeded");
+         }
+         text.append(ch, start, length);
+      }
+
+      @Override
+      public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException
+      {
+         characters(ch, start, length);
+      }
+
+      boolean isLimitReached()
+      {
+         return limitReached;
+      }
+
+      boolean isTimedOut()
+      {
+         return timedOut;
+      }
+
+      @Override
+      public String toString()
+      {
+         return text.toString();
+      }
+   }
+
+   /**
+    * Fails reading after deadline, so parsers which read whole content before
+    * producing any text are stopped too.
+    */
+   private static class DeadlineInputStream extends FilterInputStream
+   {
+      private final long deadline;
+
+      private boolean timedOut;
+
+      DeadlineInputStream(InputStream in, long deadline)
+      {
+         super(in);
+         this.deadline = deadline;
+      }
+
+      @Override
+      public int read() throws IOException
+      {
+         checkDeadline();
+         return super.read();
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         checkDeadline();
+         return super.read(b, off, len);
+      }
+
+      @Override
+      public long skip(long n) throws IOException
+      {
+         checkDeadline();
+         return super.skip(n);
+      }
+
+      boolean isTimedOut()
+      {
+         return timedOut;
+      }
+
+      private void checkDeadline() throws IOException
+      {
+         if (System.currentTimeMillis() > deadline)
+         {
+            timedOut = true;
+            throw new IOException("Time limit of text extraction is exceeded");
+         }
+      }
+   }
+}
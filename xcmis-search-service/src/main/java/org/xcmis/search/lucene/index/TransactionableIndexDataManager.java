@@ -25,6 +25,7 @@ import org.xcmis.search.lucene.IndexRecoveryTool;
 import org.xcmis.spi.utils.Logger;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -40,6 +41,8 @@ public class TransactionableIndexDataManager extends CacheableIndexDataManager
 
    protected static final String TRANSACTION_LOG_STORAGE_NAME = "logs";
 
+   protected static final String TRANSACTION_JOURNAL_STORAGE_NAME = "journal";
+
    /**
     * Class logger.
     */
@@ -47,7 +50,13 @@ public class TransactionableIndexDataManager extends CacheableIndexDataManager
 
    private final IndexRecoveryTool indexRecoveryTool;
 
-   private final FSIndexTransactionService transactionService;
+   /**
+    * Log of transactions written by previous versions, used only for
+    * recovering.
+    */
+   private final FSIndexTransactionService legacyTransactionService;
+
+   private final SegmentedIndexTransactionService transactionService;
 
    public TransactionableIndexDataManager(IndexConfiguration indexConfuguration, IndexRecoveryTool indexRecoveryTool)
       throws IndexException, IndexConfigurationException
@@ -68,7 +77,15 @@ public class TransactionableIndexDataManager extends CacheableIndexDataManager
          throw new IndexException("Fail to create directory : " + storageDir.getAbsolutePath());
       }
 
-      this.transactionService = new FSIndexTransactionService(storageDir, new ReadWriteDirectoryFactory());
+      this.legacyTransactionService = new FSIndexTransactionService(storageDir, new ReadWriteDirectoryFactory());
+
+      final File journalDir = new File(indexDir, TRANSACTION_JOURNAL_STORAGE_NAME);
+      if (!journalDir.exists() && !journalDir.mkdirs())
+      {
+         throw new IndexException("Fail to create directory : " + journalDir.getAbsolutePath());
+      }
+
+      this.transactionService = new SegmentedIndexTransactionService(journalDir);
 
    }
 
@@ -109,10 +126,13 @@ public class TransactionableIndexDataManager extends CacheableIndexDataManager
       super.start();
       try
       {
-         if (this.transactionService.hasUncommitedTransactions())
+         if (this.transactionService.hasUncommitedTransactions()
+            || this.legacyTransactionService.hasUncommitedTransactions())
          {
             // get logs from storage
-            final List<TransactionLog> logs = this.transactionService.getTransactionLogs();
+            final List<TransactionLog> logs = new ArrayList<TransactionLog>();
+            logs.addAll(this.legacyTransactionService.getTransactionLogs());
+            logs.addAll(this.transactionService.getTransactionLogs());
 
             // load all logs
             final CompositeTransactionLog compositeTransactionLog = new CompositeTransactionLog(logs);
@@ -149,5 +169,13 @@ public class TransactionableIndexDataManager extends CacheableIndexDataManager
    public void stop()
    {
       super.stop();
+      try
+      {
+         this.transactionService.close();
+      }
+      catch (final TransactionLogException e)
+      {
+         log.error(e.getLocalizedMessage(), e);
+      }
    }
 }
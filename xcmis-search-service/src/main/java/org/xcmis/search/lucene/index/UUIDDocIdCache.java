@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.ReaderUtil;
+import org.xcmis.spi.utils.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Cache of the {@link FieldNames#UUID} field of index segments. Maps uuid to
+ * document number and back without enumerating terms. Cache is kept per
+ * segment reader, so after reopen of the reader only new segments and segments
+ * with new deletions are read. Segment core is not used as key, since deleted
+ * documents are not enumerated and readers of the same core may have different
+ * deletions.
+ */
+public class UUIDDocIdCache
+{
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(UUIDDocIdCache.class);
+
+   /**
+    * Uuids of segments by segment reader.
+    */
+   private static final Map<IndexReader, SegmentUUIDs> CACHE =
+      Collections.synchronizedMap(new WeakHashMap<IndexReader, SegmentUUIDs>());
+
+   private UUIDDocIdCache()
+   {
+   }
+
+   /**
+    * @param reader index reader
+    * @param uuid uuid of the document
+    * @return number of not deleted document with given uuid in the reader or
+    *         -1 if document is not found
+    * @throws IOException
+    */
+   public static int getDocId(IndexReader reader, String uuid) throws IOException
+   {
+      final List<IndexReader> segments = new ArrayList<IndexReader>();
+      ReaderUtil.gatherSubReaders(segments, reader);
+      int docBase = 0;
+      for (int i = 0; i < segments.size(); i++)
+      {
+         final IndexReader segment = segments.get(i);
+         final int doc = getSegmentUUIDs(segment).getDocId(uuid);
+         if (doc != -1 && !segment.isDeleted(doc))
+         {
+            return docBase + doc;
+         }
+         docBase += segment.maxDoc();
+      }
+      return -1;
+   }
+
+   /**
+    * @param reader index reader
+    * @param doc number of document in the reader
+    * @return uuid of the document
+    * @throws IOException
+    */
+   public static String getUUID(IndexReader reader, int doc) throws IOException
+   {
+      final List<IndexReader> segments = new ArrayList<IndexReader>();
+      ReaderUtil.gatherSubReaders(segments, reader);
+      int docBase = 0;
+      for (int i = 0; i < segments.size(); i++)
+      {
+         final IndexReader segment = segments.get(i);
+         if (doc < docBase + segment.maxDoc())
+         {
+            return getSegmentUUIDs(segment).uuids[doc - docBase];
+         }
+         docBase += segment.maxDoc();
+      }
+      throw new IllegalArgumentException("Document " + doc + " is out of reader bounds " + reader.maxDoc());
+   }
+
+   private static SegmentUUIDs getSegmentUUIDs(IndexReader segment) throws IOException
+   {
+      SegmentUUIDs result = CACHE.get(segment);
+      if (result == null)
+      {
+         // may be loaded twice by concurrent threads, both results are equal
+         result = new SegmentUUIDs(segment);
+         CACHE.put(segment, result);
+      }
+      return result;
+   }
+
+   /**
+    * Uuids of one segment. Uuid to document number is kept in open addressing
+    * hash table with primitive values.
+    */
+   private static class SegmentUUIDs
+   {
+      private final String[] uuids;
+
+      private final String[] keys;
+
+      private final int[] values;
+
+      private final int mask;
+
+      SegmentUUIDs(IndexReader segment) throws IOException
+      {
+         this.uuids = new String[segment.maxDoc()];
+         int capacity = 16;
+         while (capacity < segment.maxDoc() * 2)
+         {
+            capacity <<= 1;
+         }
+         this.keys = new String[capacity];
+         this.values = new int[capacity];
+         this.mask = capacity - 1;
+
+         final TermEnum terms = segment.terms(new Term(FieldNames.UUID, ""));
+         final TermDocs termDocs = segment.termDocs();
+         try
+         {
+            do
+            {
+               final Term term = terms.term();
+               if (term == null || term.field() != FieldNames.UUID)
+               {
+                  break;
+               }
+               final String uuid = term.text();
+               termDocs.seek(terms);
+               while (termDocs.next())
+               {
+                  final int doc = termDocs.doc();
+                  if (uuids[doc] == null)
+                  {
+                     uuids[doc] = uuid;
+                  }
+                  put(uuid, doc);
+               }
+            }
+            while (terms.next());
+         }
+         finally
+         {
+            terms.close();
+            termDocs.close();
+         }
+      }
+
+      int getDocId(String uuid)
+      {
+         int slot = uuid.hashCode() & mask;
+         while (keys[slot] != null)
+         {
+            if (keys[slot].equals(uuid))
+            {
+               return values[slot];
+            }
+            slot = (slot + 1) & mask;
+         }
+         return -1;
+      }
+
+      private void put(String uuid, int doc)
+      {
+         int slot = uuid.hashCode() & mask;
+         while (keys[slot] != null)
+         {
+            if (keys[slot].equals(uuid))
+            {
+               LOG.warn("More then one document found for uuid:" + uuid);
+               // newer document has greater number
+               values[slot] = Math.max(values[slot], doc);
+               return;
+            }
+            slot = (slot + 1) & mask;
+         }
+         keys[slot] = uuid;
+         values[slot] = doc;
+      }
+   }
+}
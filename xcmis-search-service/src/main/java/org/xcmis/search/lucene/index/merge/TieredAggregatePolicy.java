@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index.merge;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.util.Version;
+import org.xcmis.search.lucene.index.IndexException;
+import org.xcmis.search.lucene.index.LuceneIndexDataManager;
+import org.xcmis.spi.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Policy of the persistent index chains. Segments of the chain are merged in
+ * background by the tiered merge policy of Lucene, so adding new documents to
+ * the chain never rewrites the whole index. Chains are optimized only on
+ * explicit request.
+ */
+public class TieredAggregatePolicy extends IndexSizeAggregatePolicy
+{
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(TieredAggregatePolicy.class);
+
+   /**
+    * Allowed number of segments per tier.
+    */
+   public static final double DEFAULT_SEGMENTS_PER_TIER = 10;
+
+   /**
+    * Maximum number of segments merged at once.
+    */
+   public static final int DEFAULT_MAX_MERGE_AT_ONCE = 10;
+
+   /**
+    * Maximum size of merged segment, 5Gb.
+    */
+   public static final long DEFAULT_MAX_MERGED_SEGMENT_SIZE = 5L * 1024 * 1024 * 1024;
+
+   /**
+    * Maximum number of threads which merge segments.
+    */
+   public static final int DEFAULT_MAX_MERGE_THREADS = 1;
+
+   /**
+    * Merge write rate in Mb per second, 0 - not limited.
+    */
+   public static final double DEFAULT_MAX_MERGE_WRITE_RATE = 0;
+
+   private double segmentsPerTier;
+
+   private int maxMergeAtOnce;
+
+   private long maxMergedSegmentSize;
+
+   private int maxMergeThreads;
+
+   private double maxMergeWriteRate;
+
+   public TieredAggregatePolicy()
+   {
+      super();
+      this.segmentsPerTier = DEFAULT_SEGMENTS_PER_TIER;
+      this.maxMergeAtOnce = DEFAULT_MAX_MERGE_AT_ONCE;
+      this.maxMergedSegmentSize = DEFAULT_MAX_MERGED_SEGMENT_SIZE;
+      this.maxMergeThreads = DEFAULT_MAX_MERGE_THREADS;
+      this.maxMergeWriteRate = DEFAULT_MAX_MERGE_WRITE_RATE;
+   }
+
+   /**
+    * @return allowed number of segments per tier.
+    */
+   public double getSegmentsPerTier()
+   {
+      return segmentsPerTier;
+   }
+
+   /**
+    * @param segmentsPerTier allowed number of segments per tier.
+    */
+   public void setSegmentsPerTier(double segmentsPerTier)
+   {
+      this.segmentsPerTier = segmentsPerTier;
+   }
+
+   /**
+    * @return maximum number of segments merged at once.
+    */
+   public int getMaxMergeAtOnce()
+   {
+      return maxMergeAtOnce;
+   }
+
+   /**
+    * @param maxMergeAtOnce maximum number of segments merged at once.
+    */
+   public void setMaxMergeAtOnce(int maxMergeAtOnce)
+   {
+      this.maxMergeAtOnce = maxMergeAtOnce;
+   }
+
+   /**
+    * @return maximum size of merged segment in bytes.
+    */
+   public long getMaxMergedSegmentSize()
+   {
+      return maxMergedSegmentSize;
+   }
+
+   /**
+    * @param maxMergedSegmentSize maximum size of merged segment in bytes.
+    */
+   public void setMaxMergedSegmentSize(long maxMergedSegmentSize)
+   {
+      this.maxMergedSegmentSize = maxMergedSegmentSize;
+   }
+
+   /**
+    * @return maximum number of threads which merge segments.
+    */
+   public int getMaxMergeThreads()
+   {
+      return maxMergeThreads;
+   }
+
+   /**
+    * @param maxMergeThreads maximum number of threads which merge segments.
+    */
+   public void setMaxMergeThreads(int maxMergeThreads)
+   {
+      this.maxMergeThreads = maxMergeThreads;
+   }
+
+   /**
+    * @return merge write rate in Mb per second, 0 - not limited.
+    */
+   public double getMaxMergeWriteRate()
+   {
+      return maxMergeWriteRate;
+   }
+
+   /**
+    * @param maxMergeWriteRate merge write rate in Mb per second, 0 - not
+    *          limited.
+    */
+   public void setMaxMergeWriteRate(double maxMergeWriteRate)
+   {
+      this.maxMergeWriteRate = maxMergeWriteRate;
+   }
+
+   /**
+    * @return configuration of the writer which merges segments in background
+    *         threads by this policy.
+    */
+   public IndexWriterConfig createIndexWriterConfig()
+   {
+      TieredMergePolicy mergePolicy = new TieredMergePolicy();
+      mergePolicy.setSegmentsPerTier(segmentsPerTier);
+      mergePolicy.setMaxMergeAtOnce(maxMergeAtOnce);
+      mergePolicy.setMaxMergedSegmentMB(maxMergedSegmentSize / (1024d * 1024d));
+
+      ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+      mergeScheduler.setMaxThreadCount(maxMergeThreads);
+
+      IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, new StandardAnalyzer(Version.LUCENE_35));
+      config.setMergePolicy(mergePolicy);
+      config.setMergeScheduler(mergeScheduler);
+      return config;
+   }
+
+   /**
+    * Chains which have more then one segment.
+    */
+   @Override
+   public Collection<LuceneIndexDataManager> findIndexDataManagerToOptimize(
+      Collection<LuceneIndexDataManager> aggregateCandidat)
+   {
+      Collection<LuceneIndexDataManager> result = new ArrayList<LuceneIndexDataManager>();
+      for (LuceneIndexDataManager luceneIndexDataManager : aggregateCandidat)
+      {
+         try
+         {
+            IndexReader reader = luceneIndexDataManager.getIndexReader();
+            IndexReader[] segments = reader == null ? null : reader.getSequentialSubReaders();
+            if (segments != null && segments.length > 1)
+            {
+               result.add(luceneIndexDataManager);
+            }
+         }
+         catch (IndexException e)
+         {
+            LOG.error(e.getLocalizedMessage(), e);
+         }
+      }
+      return result;
+   }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.search;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.xcmis.search.lucene.index.FieldNames;
+
+/**
+ * Select all descendants of nodes returned by ancestor query. Descendants are
+ * selected by {@link FieldNames#ANCESTOR} field, so query is rewritten to the
+ * term query per ancestor. Index created without ancestor field is recovered
+ * on start, see {@link org.xcmis.search.lucene.IndexRecoveryTool#INDEX_FORMAT}.
+ * Too many ancestors are traversed by {@link ChildTraversingQueryNode}.
+ */
+public class AncestorQueryNode extends Query
+{
+   /**
+    * Serial version UID required for safe serialization.
+    */
+   private static final long serialVersionUID = -2894410839581265637L;
+
+   /**
+    * Query what return ancestor nodes.
+    */
+   private final Query ancestorQuery;
+
+   /**
+    * @param ancestorQuery - query what return ancestor nodes.
+    */
+   public AncestorQueryNode(Query ancestorQuery)
+   {
+      super();
+      this.ancestorQuery = ancestorQuery;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public Query rewrite(IndexReader reader) throws IOException
+   {
+      final Set<String> ancestors = ChildDocsFilter.getUUIDs(reader, ancestorQuery);
+      if (ancestors.size() == 1)
+      {
+         return new TermQuery(new Term(FieldNames.ANCESTOR, ancestors.iterator().next()));
+      }
+      if (ancestors.size() > BooleanQuery.getMaxClauseCount())
+      {
+         return new ChildTraversingQueryNode(ancestorQuery, true);
+      }
+      final BooleanQuery result = new BooleanQuery(true);
+      for (final String ancestor : ancestors)
+      {
+         result.add(new TermQuery(new Term(FieldNames.ANCESTOR, ancestor)), Occur.SHOULD);
+      }
+      return result;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void extractTerms(Set terms)
+   {
+      ancestorQuery.extractTerms(terms);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString(String field)
+   {
+      return "(AncestorQueryNode:" + ancestorQuery + ")";
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof AncestorQueryNode))
+      {
+         return false;
+      }
+      return ancestorQuery.equals(((AncestorQueryNode)obj).ancestorQuery);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int hashCode()
+   {
+      return 31 * ancestorQuery.hashCode() + getClass().hashCode();
+   }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+import org.xcmis.search.lucene.index.FieldNames;
+import org.xcmis.search.lucene.index.UUIDDocIdCache;
+import org.xcmis.search.query.QueryCache;
+
+/**
+ * Filter of the children of the given parents. Numbers of child documents are
+ * cached per segment reader and parent, so filter is built from cached arrays
+ * without stored fields loading. Cache of the segment reader is released with
+ * the reader and keeps at most {@link #MAX_CACHED_PARENTS} recently used
+ * parents. Segment core is not used as key, since deleted documents are not
+ * enumerated and readers of the same core may have different deletions.
+ */
+public class ChildDocsFilter extends Filter
+{
+   /**
+    * Serial version UID required for safe serialization.
+    */
+   private static final long serialVersionUID = 5096287326430547129L;
+
+   /**
+    * Empty children list.
+    */
+   private static final int[] NO_CHILDREN = new int[0];
+
+   /**
+    * Max number of parents which children are cached per segment reader.
+    */
+   public static final int MAX_CACHED_PARENTS = 1024;
+
+   /**
+    * Child documents by parent uuid by segment reader.
+    */
+   private static final Map<IndexReader, QueryCache<String, int[]>> CACHE =
+      Collections.synchronizedMap(new WeakHashMap<IndexReader, QueryCache<String, int[]>>());
+
+   /**
+    * Uuids of parents.
+    */
+   private final Set<String> parents;
+
+   /**
+    * @param parents uuids of parents
+    */
+   public ChildDocsFilter(Set<String> parents)
+   {
+      this.parents = parents;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public DocIdSet getDocIdSet(IndexReader reader) throws IOException
+   {
+      final OpenBitSet result = new OpenBitSet(reader.maxDoc());
+      final boolean hasDeletions = reader.hasDeletions();
+      for (final String parent : parents)
+      {
+         final int[] children = getChildren(reader, parent);
+         for (int i = 0; i < children.length; i++)
+         {
+            if (!hasDeletions || !reader.isDeleted(children[i]))
+            {
+               result.fastSet(children[i]);
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @return uuids of parents
+    */
+   public Set<String> getParents()
+   {
+      return parents;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof ChildDocsFilter))
+      {
+         return false;
+      }
+      return parents.equals(((ChildDocsFilter)obj).parents);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int hashCode()
+   {
+      return parents.hashCode();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String toString()
+   {
+      return "ChildDocsFilter(" + parents + ")";
+   }
+
+   /**
+    * @param reader top level index reader
+    * @param query query of nodes
+    * @return uuids of nodes returned by query
+    * @throws IOException
+    */
+   public static Set<String> getUUIDs(IndexReader reader, Query query) throws IOException
+   {
+      final Set<String> result = new LinkedHashSet<String>();
+      if (query instanceof TermQuery && ((TermQuery)query).getTerm().field() == FieldNames.UUID)
+      {
+         final String uuid = ((TermQuery)query).getTerm().text();
+         if (UUIDDocIdCache.getDocId(reader, uuid) != -1)
+         {
+            result.add(uuid);
+         }
+         return result;
+      }
+      new IndexSearcher(reader).search(query, new Collector()
+      {
+         private IndexReader segment;
+
+         @Override
+         public void setScorer(Scorer scorer)
+         {
+         }
+
+         @Override
+         public void collect(int doc) throws IOException
+         {
+            result.add(UUIDDocIdCache.getUUID(segment, doc));
+         }
+
+         @Override
+         public void setNextReader(IndexReader reader, int docBase)
+         {
+            this.segment = reader;
+         }
+
+         @Override
+         public boolean acceptsDocsOutOfOrder()
+         {
+            return true;
+         }
+      });
+      return result;
+   }
+
+   /**
+    * @param reader top level index reader
+    * @param roots uuids of roots of subtrees
+    * @return uuids of roots and all their descendants
+    * @throws IOException
+    */
+   public static Set<String> getSubtree(IndexReader reader, Set<String> roots) throws IOException
+   {
+      final List<IndexReader> segments = new ArrayList<IndexReader>();
+      ReaderUtil.gatherSubReaders(segments, reader);
+
+      final Set<String> result = new LinkedHashSet<String>(roots);
+      List<String> level = new ArrayList<String>(roots);
+      while (!level.isEmpty())
+      {
+         final List<String> nextLevel = new ArrayList<String>();
+         for (int i = 0; i < segments.size(); i++)
+         {
+            final IndexReader segment = segments.get(i);
+            for (int j = 0; j < level.size(); j++)
+            {
+               final int[] children = getChildren(segment, level.get(j));
+               for (int k = 0; k < children.length; k++)
+               {
+                  if (!segment.isDeleted(children[k]))
+                  {
+                     final String child = UUIDDocIdCache.getUUID(segment, children[k]);
+                     if (result.add(child))
+                     {
+                        nextLevel.add(child);
+                     }
+                  }
+               }
+            }
+         }
+         level = nextLevel;
+      }
+      return result;
+   }
+
+   /**
+    * @param segment segment reader
+    * @param parent uuid of parent
+    * @return numbers of not deleted child documents in segment
+    */
+   private static int[] getChildren(IndexReader segment, String parent) throws IOException
+   {
+      QueryCache<String, int[]> segmentCache;
+      synchronized (CACHE)
+      {
+         segmentCache = CACHE.get(segment);
+         if (segmentCache == null)
+         {
+            segmentCache = new QueryCache<String, int[]>(MAX_CACHED_PARENTS);
+            CACHE.put(segment, segmentCache);
+         }
+      }
+      int[] children = segmentCache.get(parent);
+      if (children == null)
+      {
+         children = loadChildren(segment, parent);
+         segmentCache.put(parent, children);
+      }
+      return children;
+   }
+
+   private static int[] loadChildren(IndexReader segment, String parent) throws IOException
+   {
+      final TermDocs termDocs = segment.termDocs(new Term(FieldNames.PARENT, parent));
+      try
+      {
+         int[] children = NO_CHILDREN;
+         int size = 0;
+         while (termDocs.next())
+         {
+            if (size == children.length)
+            {
+               final int[] grown = new int[Math.max(8, size * 2)];
+               System.arraycopy(children, 0, grown, 0, size);
+               children = grown;
+            }
+            children[size++] = termDocs.doc();
+         }
+         if (size < children.length)
+         {
+            final int[] trimmed = new int[size];
+            System.arraycopy(children, 0, trimmed, 0, size);
+            children = trimmed;
+         }
+         return children;
+      }
+      finally
+      {
+         termDocs.close();
+      }
+   }
+}
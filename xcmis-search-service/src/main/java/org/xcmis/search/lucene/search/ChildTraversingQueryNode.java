@@ -21,20 +21,9 @@ package org.xcmis.search.lucene.search;
 import java.io.IOException;
 import java.util.Set;
 
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Scorer;
-import org.apache.lucene.search.Searcher;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.Weight;
-import org.xcmis.search.lucene.index.FieldNames;
-import org.xcmis.spi.utils.Logger;
 
 /**
  * Created by The eXo Platform SAS.
@@ -49,46 +38,26 @@ public class ChildTraversingQueryNode extends Query
     */
    private static final long serialVersionUID = 7265002058181097050L;
 
-   /**
-    * Class logger.
-    */
-   private final static Logger log = Logger.getLogger(ChildTraversingQueryNode.class);
-
    /**
     * Query what return parent node.
     */
    private final Query parentQuery;
 
    /**
-    * If isDeep=true return only first level child.
+    * If isDeep=true return all descendants, otherwise only first level child.
     */
    private final boolean isDeep;
 
-   private final boolean isIncludeParent;
-
    /**
     * @param parentQuery - parent query.
-    * @param isDeep - if true return only first level child.
+    * @param isDeep - if true return all descendants, otherwise only first
+    *           level child.
     */
    public ChildTraversingQueryNode(Query parentQuery, boolean isDeep)
    {
       super();
       this.parentQuery = parentQuery;
       this.isDeep = isDeep;
-      this.isIncludeParent = false;
-   }
-
-   /**
-    * @param parentQuery - parent query.
-    * @param isDeep - if true return only first level child.
-    * @param isIncludeParent
-    */
-   private ChildTraversingQueryNode(Query parentQuery, boolean isDeep, boolean isIncludeParent)
-   {
-      super();
-      this.parentQuery = parentQuery;
-      this.isDeep = isDeep;
-      this.isIncludeParent = isIncludeParent;
    }
 
    /**
@@ -100,17 +69,20 @@ public class ChildTraversingQueryNode extends Query
    }
 
    /**
-    * {@inheritDoc}
+    * Parent query is executed against whole index, so parents and children
+    * may be in different segments. Result is constant score query of cached
+    * children of parents.
+    * 
+    * @see org.apache.lucene.search.Query#rewrite(org.apache.lucene.index.IndexReader)
     */
    public Query rewrite(IndexReader reader) throws IOException
    {
-      Query newParentQuery = parentQuery.rewrite(reader);
-      if (newParentQuery.equals(parentQuery))
+      Set<String> parents = ChildDocsFilter.getUUIDs(reader, parentQuery);
+      if (isDeep)
       {
-         return this;
+         parents = ChildDocsFilter.getSubtree(reader, parents);
       }
-
-      return new ChildTraversingQueryNode(newParentQuery, isDeep);
+      return new ConstantScoreQuery(new ChildDocsFilter(parents));
    }
 
    /**
@@ -121,9 +93,6 @@ public class ChildTraversingQueryNode extends Query
       return "(ChildTraversingQueryNode:" + parentQuery + "isDeep" + isDeep + ")";
    }
 
-   /**
-    * {@inheritDoc}
-    */
    /**
     * {@inheritDoc}
     */
@@ -136,238 +105,27 @@ public class ChildTraversingQueryNode extends Query
     * {@inheritDoc}
     */
    @Override
-   public Weight createWeight(Searcher searcher) throws IOException
-   {
-      return new ChildTraversingQueryNodeWeight(searcher);
-   }
-
-   /**
-    * Scorer for ChildTraversingQuery.
-    * 
-    */
-   private class ChildTraversingQueryNodeScorer extends Scorer
+   public boolean equals(Object obj)
    {
-      /**
-       * Query searcher.
-       */
-      private Searcher searcher;
-
-      /**
-       * Parent query scorer.
-       */
-      private Scorer parentScorer;
-
-      /**
-       * Query reader.
-       */
-      private IndexReader reader;
-
-      /**
-       * Child Scorer.
-       */
-      private Scorer childScorer;
-      
-      private boolean scoreDocsInOrder;
-      private boolean topScorer;
-
-      /**
-       * @param searcher - query searcher.
-       * @param parentScorer - parent query scorer.
-       * @param reader - query reader.
-       */
-      public ChildTraversingQueryNodeScorer(Searcher searcher, Scorer parentScorer, IndexReader reader, 
-              boolean scoreDocsInOrder, boolean topScorer)
-      {
-         super(searcher.getSimilarity());
-         this.searcher = searcher;
-         this.parentScorer = parentScorer;
-         this.reader = reader;
-         this.scoreDocsInOrder = scoreDocsInOrder;
-         this.topScorer = topScorer;
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public int docID()
-      {
-        return childScorer.docID();
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public int nextDoc() throws IOException
+      if (this == obj)
       {
-        // no parent selected
-        if (childScorer == null)
-        {
-          // search for parent
-          if (parentScorer == null || parentScorer.nextDoc() == Scorer.NO_MORE_DOCS)
-          {
-            if (log.isDebugEnabled())
-            {
-              log.debug("Childs not found");
-            }
-            return Scorer.NO_MORE_DOCS;
-          }
-          // load childs of current parent
-          reloadChildScorer();
-        }
-
-        return childScorer.nextDoc();
-
+         return true;
       }
-
-      /**
-       * {@inheritDoc}
-       */
-      public float score() throws IOException
+      if (!(obj instanceof ChildTraversingQueryNode))
       {
-         return childScorer.score();
+         return false;
       }
-
-      /**
-       * {@inheritDoc}
-       */
-      public int advance(int target) throws IOException
-      {
-         return childScorer.advance(target);
-      }
-
-      private Query createOrQuery(Query first, Query second)
-      {
-         if (first == null)
-         {
-            return second;
-         }
-         else if (second == null)
-         {
-            return first;
-         }
-         BooleanQuery bq = new BooleanQuery();
-         bq.add(first, Occur.SHOULD);
-         bq.add(second, Occur.SHOULD);
-         return bq;
-      }
-
-      /**
-       * Create childScorer according to the result of parent query.
-       * 
-       * @throws CorruptIndexException
-       * @throws IOException
-       */
-      private void reloadChildScorer() throws CorruptIndexException, IOException
-      {
-         Query childQuery = null;
-         do
-         {
-            int parentDoc = parentScorer.docID();
-            Document parentDocument = reader.document(parentDoc, new UUIDFieldSelector());
-
-            Query parentTermQuery = new TermQuery(new Term(FieldNames.PARENT, parentDocument.get(FieldNames.UUID)));
-
-            if (isDeep)
-            {
-
-               childQuery = createOrQuery(childQuery, new ChildTraversingQueryNode(parentTermQuery, true, true));
-
-               if (isIncludeParent)
-               {
-                  childQuery =
-                     createOrQuery(childQuery, new TermQuery(new Term(FieldNames.UUID, parentDocument
-                        .get(FieldNames.UUID))));
-               }
-            }
-            else
-            {
-               childQuery = createOrQuery(childQuery, parentTermQuery);
-            }
-         }
-         while (parentScorer.nextDoc() < Scorer.NO_MORE_DOCS);
-         if (log.isDebugEnabled())
-         {
-            log.debug("Sub query " + childQuery);
-         }
-         childScorer = childQuery.createWeight(searcher).scorer(reader, scoreDocsInOrder, topScorer);
-      }
-
+      ChildTraversingQueryNode other = (ChildTraversingQueryNode)obj;
+      return isDeep == other.isDeep && parentQuery.equals(other.parentQuery);
    }
 
    /**
-    * Weight for ChildTraversingQuery.
-    * 
+    * {@inheritDoc}
     */
-   private class ChildTraversingQueryNodeWeight extends Weight
+   @Override
+   public int hashCode()
    {
-
-      /**
-       * Serial version UID required for safe serialization.
-       */
-      private static final long serialVersionUID = -6839886829560442055L;
-
-      /**
-       * Query searcher.
-       */
-      private final Searcher searcher;
-
-      /**
-       * @param searcher - Query searcher.
-       */
-      public ChildTraversingQueryNodeWeight(Searcher searcher)
-      {
-         this.searcher = searcher;
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public Explanation explain(IndexReader reader, int doc) throws IOException
-      {
-         return new Explanation();
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public Query getQuery()
-      {
-         return ChildTraversingQueryNode.this;
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public float getValue()
-      {
-         return 1.0f;
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public void normalize(float norm)
-      {
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      @Override
-      public Scorer scorer(IndexReader reader, boolean scoreDocsInOrder, boolean topScorer) throws IOException
-      {
-         Scorer parentScorer = parentQuery.createWeight(searcher).scorer(reader, scoreDocsInOrder, topScorer);
-         return new ChildTraversingQueryNodeScorer(searcher, parentScorer, reader, scoreDocsInOrder, topScorer);
-      }
-
-      /**
-       * {@inheritDoc}
-       */
-      public float sumOfSquaredWeights() throws IOException
-      {
-         return 1.0f;
-      }
-
+      return 31 * parentQuery.hashCode() + (isDeep ? 1 : 0);
    }
 
 }
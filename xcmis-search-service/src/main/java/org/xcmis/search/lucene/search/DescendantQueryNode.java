@@ -21,19 +21,11 @@ package org.xcmis.search.lucene.search;
 import java.io.IOException;
 import java.util.Set;
 
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Scorer;
-import org.apache.lucene.search.Searcher;
-import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.Weight;
-import org.xcmis.search.lucene.index.FieldNames;
-import org.xcmis.spi.utils.Logger;
 
 /**
  * Created by The eXo Platform SAS.
@@ -47,17 +39,13 @@ public class DescendantQueryNode extends Query
    /** The serialVersionUID. */
    private static final long serialVersionUID = -6151493594236655389L;
 
-   /**
-    * Class logger.
-    */
-   private final static Logger log = Logger.getLogger(DescendantQueryNode.class);
-
    private final Query context;
 
    private final Query parentQuery;
 
    /**
-    * 
+    * @param context - query of children, may be <code>null</code>
+    * @param parentQuery - query of parents
     */
    public DescendantQueryNode(Query context, Query parentQuery)
    {
@@ -68,26 +56,31 @@ public class DescendantQueryNode extends Query
    @Override
    public void extractTerms(Set terms)
    {
-      context.extractTerms(terms);
+      if (context != null)
+      {
+         context.extractTerms(terms);
+      }
       parentQuery.extractTerms(terms);
    }
 
+   /**
+    * Parent query is executed against whole index. Result is intersection of
+    * context query with cached children of parents.
+    * 
+    * @see org.apache.lucene.search.Query#rewrite(org.apache.lucene.index.IndexReader)
+    */
    @Override
    public Query rewrite(IndexReader reader) throws IOException
    {
-      Query cQuery = null;
-      if (context != null)
-      {
-         cQuery = context.rewrite(reader);
-      }
-      Query pQuery = parentQuery.rewrite(reader);
-      if (((cQuery != null && cQuery.equals(context)) || (cQuery == null && context == null))
-         && pQuery.equals(parentQuery)
-         )
+      Query children = new ConstantScoreQuery(new ChildDocsFilter(ChildDocsFilter.getUUIDs(reader, parentQuery)));
+      if (context == null)
       {
-         return this;
+         return children;
       }
-      return new DescendantQueryNode(cQuery, pQuery);
+      BooleanQuery bq = new BooleanQuery();
+      bq.add(context, Occur.MUST);
+      bq.add(children, Occur.MUST);
+      return bq;
    }
 
    @Override
@@ -105,142 +98,31 @@ public class DescendantQueryNode extends Query
       return "(DescendantQueryNode Parent:" + parentQuery + " query:" + context + ")";
    }
 
+   /**
+    * {@inheritDoc}
+    */
    @Override
-   public Weight createWeight(Searcher searcher) throws IOException
-   {
-      return new DescendantQueryNodeWeight(searcher);
-   }
-
-   private Query getConetextQuery()
-   {
-      return context;
-   }
-
-   private class DescendantQueryNodeScorer extends Scorer
+   public boolean equals(Object obj)
    {
-      /**
-       * BitSet storing the id's of selected documents
-       */
-
-      private final IndexReader reader;
-
-      private final Searcher searcher;
-
-      private Scorer currentContextScorer;
-
-      private final Scorer parentScorer;
-      
-      private boolean scoreDocsInOrder;
-      
-      private boolean topScorer;
-
-      protected DescendantQueryNodeScorer(Searcher searcher, Scorer parentScorer, IndexReader reader, 
-              boolean scoreDocsInOrder, boolean topScorer)
-      {
-         super(searcher.getSimilarity());
-         this.parentScorer = parentScorer;
-         this.searcher = searcher;
-         this.reader = reader;
-         this.scoreDocsInOrder = scoreDocsInOrder;
-         this.topScorer = topScorer;
-      }
-
-      @Override
-      public int docID()
-      {
-         return currentContextScorer.docID();
-      }
-
-      @Override
-      public int nextDoc() throws IOException
-      {
-         if (currentContextScorer == null)
-         {
-            if (parentScorer == null || parentScorer.nextDoc() == Scorer.NO_MORE_DOCS)
-            {
-               log.error("parent not found");
-               return Scorer.NO_MORE_DOCS;
-            }
-
-            int parentDoc = parentScorer.docID();
-
-            Document parentDocument = reader.document(parentDoc, new UUIDFieldSelector());
-            if (context != null)
-            {
-               BooleanQuery bq = new BooleanQuery();
-               bq.add(context, Occur.MUST);
-               bq.add(new TermQuery(new Term(FieldNames.PARENT, parentDocument.get(FieldNames.UUID))), Occur.MUST);
-               if (log.isDebugEnabled())
-               {
-                  log.debug("Sub query " + bq);
-               }
-               currentContextScorer = bq.createWeight(searcher).scorer(reader, scoreDocsInOrder, topScorer);
-            }
-            else
-            {
-               TermQuery newQuery = new TermQuery(new Term(FieldNames.PARENT, parentDocument.get(FieldNames.UUID)));
-               log.debug("Sub query " + newQuery);
-               currentContextScorer = newQuery.createWeight(searcher).scorer(reader, scoreDocsInOrder, topScorer);
-            }
-
-         }
-
-         return currentContextScorer.nextDoc();
-      }
-
-      @Override
-      public float score() throws IOException
+      if (this == obj)
       {
-         return currentContextScorer.score();
+         return true;
       }
-
-      @Override
-      public int advance(int target) throws IOException
+      if (!(obj instanceof DescendantQueryNode))
       {
-         return currentContextScorer.advance(target);
+         return false;
       }
+      DescendantQueryNode other = (DescendantQueryNode)obj;
+      return (context == null ? other.context == null : context.equals(other.context))
+         && parentQuery.equals(other.parentQuery);
    }
 
-   private class DescendantQueryNodeWeight extends Weight
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public int hashCode()
    {
-
-      private final Searcher searcher;
-
-      public DescendantQueryNodeWeight(Searcher searcher)
-      {
-         this.searcher = searcher;
-      }
-
-      public Explanation explain(IndexReader reader, int doc) throws IOException
-      {
-         return new Explanation();
-      }
-
-      public Query getQuery()
-      {
-         return DescendantQueryNode.this;
-      }
-
-      public float getValue()
-      {
-         return 1.0f;
-      }
-
-      public void normalize(float norm)
-      {
-      }
-
-      @Override
-      public Scorer scorer(IndexReader reader, boolean scoreDocsInOrder, boolean topScorer) throws IOException
-      {
-         Scorer parentScorer = parentQuery.createWeight(searcher).scorer(reader, scoreDocsInOrder, topScorer);
-         return new DescendantQueryNodeScorer(searcher, parentScorer, reader, scoreDocsInOrder, topScorer);
-      }
-
-      public float sumOfSquaredWeights() throws IOException
-      {
-         return 1.0f;
-      }
-
+      return 31 * parentQuery.hashCode() + (context == null ? 0 : context.hashCode());
    }
 }
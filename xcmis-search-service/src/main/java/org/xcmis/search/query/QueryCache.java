@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe cache with least recently used eviction policy for the parsed
+ * queries and query execution plans. Cache counts hits and misses of the
+ * {@link #get(Object)} method.
+ * 
+ * @param <K> the type of keys
+ * @param <V> the type of cached values
+ */
+public class QueryCache<K, V>
+{
+   /**
+    * Default maximum number of the cached entries.
+    */
+   public static final int DEFAULT_MAX_SIZE = 256;
+
+   private final Map<K, V> entries;
+
+   private final AtomicLong hitCount;
+
+   private final AtomicLong missCount;
+
+   /**
+    * Create cache with {@link #DEFAULT_MAX_SIZE}.
+    */
+   public QueryCache()
+   {
+      this(DEFAULT_MAX_SIZE);
+   }
+
+   /**
+    * @param maxSize the maximum number of the cached entries
+    */
+   public QueryCache(final int maxSize)
+   {
+      this.entries = new LinkedHashMap<K, V>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         /**
+          * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+          */
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+         {
+            return size() > maxSize;
+         }
+      };
+      this.hitCount = new AtomicLong();
+      this.missCount = new AtomicLong();
+   }
+
+   /**
+    * @param key the key
+    * @return cached value or null if there is no value for the key
+    */
+   public V get(K key)
+   {
+      V value;
+      synchronized (entries)
+      {
+         value = entries.get(key);
+      }
+      if (value == null)
+      {
+         missCount.incrementAndGet();
+      }
+      else
+      {
+         hitCount.incrementAndGet();
+      }
+      return value;
+   }
+
+   /**
+    * @param key the key
+    * @param value the value to cache
+    */
+   public void put(K key, V value)
+   {
+      synchronized (entries)
+      {
+         entries.put(key, value);
+      }
+   }
+
+   /**
+    * Remove all cached entries. Hit and miss counters are not reset.
+    */
+   public void clear()
+   {
+      synchronized (entries)
+      {
+         entries.clear();
+      }
+   }
+
+   /**
+    * @return number of the cached entries
+    */
+   public int size()
+   {
+      synchronized (entries)
+      {
+         return entries.size();
+      }
+   }
+
+   /**
+    * @return number of the requests what found cached value
+    */
+   public long getHitCount()
+   {
+      return hitCount.get();
+   }
+
+   /**
+    * @return number of the requests what didn't find cached value
+    */
+   public long getMissCount()
+   {
+      return missCount.get();
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "QueryCache[size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount() + "]";
+   }
+}
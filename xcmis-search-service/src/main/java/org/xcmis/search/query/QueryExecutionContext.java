@@ -20,6 +20,7 @@ package org.xcmis.search.query;
 
 import org.xcmis.search.content.Schema;
 import org.xcmis.search.model.operand.BindVariableName;
+import org.xcmis.search.query.plan.CardinalityEstimator;
 
 import java.util.Map;
 
@@ -36,15 +37,28 @@ public class QueryExecutionContext
 
    private final QueryExecutionExceptions executionExceptions;
 
+   private final CardinalityEstimator cardinalityEstimator;
+
    /**
     * @param variables the mapping of variables and values, or null if there are no such variables
     */
    public QueryExecutionContext(Schema schema, QueryExecutionExceptions executionExceptions,
       Map<String, Object> variables)
+   {
+      this(schema, executionExceptions, variables, null);
+   }
+
+   /**
+    * @param variables the mapping of variables and values, or null if there are no such variables
+    * @param cardinalityEstimator the index statistics, or null if statistics is not available
+    */
+   public QueryExecutionContext(Schema schema, QueryExecutionExceptions executionExceptions,
+      Map<String, Object> variables, CardinalityEstimator cardinalityEstimator)
    {
       this.schema = schema;
       this.executionExceptions = executionExceptions;
       this.variables = variables;
+      this.cardinalityEstimator = cardinalityEstimator;
    }
 
    /**
@@ -81,4 +95,14 @@ public class QueryExecutionContext
       return variables;
    }
 
+   /**
+    * Get the statistics of the index used by cost based optimization.
+    * 
+    * @return the cardinalityEstimator; null if statistics is not available
+    */
+   public CardinalityEstimator getCardinalityEstimator()
+   {
+      return cardinalityEstimator;
+   }
+
 }
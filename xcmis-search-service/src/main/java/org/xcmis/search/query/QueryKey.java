@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query;
+
+import org.xcmis.search.model.Query;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Query and values of the bind variables. Used as key of the caches what
+ * keep data what depend on the values of the bind variables, e.g. optimized
+ * execution plans or results of the queries. Key may also contain generation
+ * of the index if cached data depend on the index content.
+ */
+public class QueryKey
+{
+   private final Query query;
+
+   private final Map<String, Object> bindVariablesValues;
+
+   private final long indexGeneration;
+
+   private final int hashCode;
+
+   /**
+    * @param query the query
+    * @param bindVariablesValues the values of the bind variables, may be null.
+    *           Map is copied.
+    */
+   public QueryKey(Query query, Map<String, Object> bindVariablesValues)
+   {
+      this(query, bindVariablesValues, 0);
+   }
+
+   /**
+    * @param query the query
+    * @param bindVariablesValues the values of the bind variables, may be null.
+    *           Map is copied.
+    * @param indexGeneration the generation of the index
+    */
+   @SuppressWarnings("unchecked")
+   public QueryKey(Query query, Map<String, Object> bindVariablesValues, long indexGeneration)
+   {
+      this.query = query;
+      this.bindVariablesValues =
+         bindVariablesValues == null ? Collections.EMPTY_MAP : new HashMap<String, Object>(bindVariablesValues);
+      this.indexGeneration = indexGeneration;
+      this.hashCode =
+         31 * (31 * query.hashCode() + this.bindVariablesValues.hashCode())
+            + (int)(indexGeneration ^ (indexGeneration >>> 32));
+   }
+
+   /**
+    * @return the query
+    */
+   public Query getQuery()
+   {
+      return query;
+   }
+
+   /**
+    * @return the values of the bind variables
+    */
+   public Map<String, Object> getBindVariablesValues()
+   {
+      return Collections.unmodifiableMap(bindVariablesValues);
+   }
+
+   /**
+    * @return the generation of the index
+    */
+   public long getIndexGeneration()
+   {
+      return indexGeneration;
+   }
+
+   /**
+    * @see java.lang.Object#hashCode()
+    */
+   @Override
+   public int hashCode()
+   {
+      return hashCode;
+   }
+
+   /**
+    * @see java.lang.Object#equals(java.lang.Object)
+    */
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (obj == this)
+      {
+         return true;
+      }
+      if (!(obj instanceof QueryKey))
+      {
+         return false;
+      }
+      QueryKey other = (QueryKey)obj;
+      return hashCode == other.hashCode && indexGeneration == other.indexGeneration && query.equals(other.query)
+         && bindVariablesValues.equals(other.bindVariablesValues);
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return query + " " + bindVariablesValues;
+   }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query;
+
+import org.xcmis.search.model.Query;
+import org.xcmis.search.result.LazyRowList;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe cache of the query results with least recently used eviction
+ * policy. Results are cached for the query and values of the bind variables and
+ * stamped with generation of the index they were read from, cached result is
+ * returned only while index generation is not changed. Cache is bounded by the
+ * number of cached results, by the total number of cached rows and by the
+ * estimated memory of the cached rows. Results with more than
+ * {@link #getMaxResultRows()} rows or a quarter of the memory limit are not
+ * cached at all.
+ * <p>
+ * {@link LazyRowList Lazy results} are not read by the cache. They are cached
+ * when the caller has read all their rows, so a caller what reads one page of
+ * the result doesn't load the rest of it.
+ * </p>
+ */
+public class QueryResultCache
+{
+   /**
+    * Default maximum number of the cached results.
+    */
+   public static final int DEFAULT_MAX_SIZE = 128;
+
+   /**
+    * Default maximum number of the rows in all cached results.
+    */
+   public static final int DEFAULT_MAX_ROWS = 100000;
+
+   /**
+    * Default maximum estimated memory of all cached results, in bytes.
+    */
+   public static final long DEFAULT_MAX_MEMORY = 32L * 1024 * 1024;
+
+   /**
+    * Estimated memory of the row without selectors: the row, its map and the
+    * table of the map.
+    */
+   private static final int ROW_MEMORY = 160;
+
+   /**
+    * Estimated memory of the selector of the row without identifier
+    * characters: the map entry and the identifier string.
+    */
+   private static final int NODE_MEMORY = 80;
+
+   private final int maxSize;
+
+   private final int maxRows;
+
+   private final int maxResultRows;
+
+   private final long maxMemory;
+
+   private final LinkedHashMap<QueryKey, Entry> entries;
+
+   /**
+    * Number of the rows in all cached results, guarded by entries.
+    */
+   private int rowCount;
+
+   /**
+    * Estimated memory of all cached results, guarded by entries.
+    */
+   private long memory;
+
+   private final AtomicLong hitCount;
+
+   private final AtomicLong missCount;
+
+   /**
+    * Create cache with {@link #DEFAULT_MAX_SIZE}, {@link #DEFAULT_MAX_ROWS}
+    * and {@link #DEFAULT_MAX_MEMORY}.
+    */
+   public QueryResultCache()
+   {
+      this(DEFAULT_MAX_SIZE, DEFAULT_MAX_ROWS);
+   }
+
+   /**
+    * Create cache with {@link #DEFAULT_MAX_MEMORY}.
+    * 
+    * @param maxSize the maximum number of the cached results
+    * @param maxRows the maximum number of the rows in all cached results
+    */
+   public QueryResultCache(int maxSize, int maxRows)
+   {
+      this(maxSize, maxRows, DEFAULT_MAX_MEMORY);
+   }
+
+   /**
+    * @param maxSize the maximum number of the cached results
+    * @param maxRows the maximum number of the rows in all cached results
+    * @param maxMemory the maximum estimated memory of all cached results, in
+    *           bytes
+    */
+   public QueryResultCache(int maxSize, int maxRows, long maxMemory)
+   {
+      this.maxSize = maxSize;
+      this.maxRows = maxRows;
+      this.maxMemory = maxMemory;
+      // single result may not push out more than a quarter of the cache
+      this.maxResultRows = Math.max(1, maxRows / 4);
+      this.entries = new LinkedHashMap<QueryKey, Entry>(16, 0.75f, true);
+      this.hitCount = new AtomicLong();
+      this.missCount = new AtomicLong();
+   }
+
+   /**
+    * @param query the query
+    * @param bindVariablesValues the values of the bind variables, may be null
+    * @param generation current generation of the index
+    * @return cached result or null if there is no result of the query read
+    *         from the index of the same generation
+    */
+   public List<ScoredRow> get(Query query, Map<String, Object> bindVariablesValues, long generation)
+   {
+      QueryKey key = new QueryKey(query, bindVariablesValues);
+      Entry entry;
+      synchronized (entries)
+      {
+         entry = entries.get(key);
+         if (entry != null && entry.generation != generation)
+         {
+            remove(key);
+            entry = null;
+         }
+      }
+      if (entry == null)
+      {
+         missCount.incrementAndGet();
+         return null;
+      }
+      hitCount.incrementAndGet();
+      entry.hits.incrementAndGet();
+      return entry.rows;
+   }
+
+   /**
+    * Cache the result of the query. Loaded result is copied and cached at
+    * once. Lazy result which is not loaded yet is wrapped, it is cached when
+    * all its rows are read through the returned list.
+    * 
+    * @param query the query
+    * @param bindVariablesValues the values of the bind variables, may be null
+    * @param generation generation of the index result was read from
+    * @param rows the result of the query
+    * @return the list what should be returned instead of the result, or the
+    *         result itself if it is too large to be cached
+    */
+   public List<ScoredRow> put(Query query, Map<String, Object> bindVariablesValues, long generation,
+      List<ScoredRow> rows)
+   {
+      if (rows.size() > maxResultRows)
+      {
+         return rows;
+      }
+      QueryKey key = new QueryKey(query, bindVariablesValues);
+      if (rows instanceof LazyRowList && !((LazyRowList)rows).isLoaded())
+      {
+         return new CachingRowList(key, generation, rows);
+      }
+      List<ScoredRow> copy = cache(key, generation, rows);
+      return copy == null ? rows : copy;
+   }
+
+   /**
+    * Remove all cached results. Hit and miss counters are not reset.
+    */
+   public void clear()
+   {
+      synchronized (entries)
+      {
+         entries.clear();
+         rowCount = 0;
+         memory = 0;
+      }
+   }
+
+   /**
+    * @return number of the cached results
+    */
+   public int size()
+   {
+      synchronized (entries)
+      {
+         return entries.size();
+      }
+   }
+
+   /**
+    * @return number of the rows in all cached results
+    */
+   public int getRowCount()
+   {
+      synchronized (entries)
+      {
+         return rowCount;
+      }
+   }
+
+   /**
+    * @return estimated memory of all cached results, in bytes
+    */
+   public long getMemory()
+   {
+      synchronized (entries)
+      {
+         return memory;
+      }
+   }
+
+   /**
+    * @return maximum number of the rows in result what may be cached
+    */
+   public int getMaxResultRows()
+   {
+      return maxResultRows;
+   }
+
+   /**
+    * @return number of the requests what found cached result
+    */
+   public long getHitCount()
+   {
+      return hitCount.get();
+   }
+
+   /**
+    * @return number of the requests what didn't find cached result
+    */
+   public long getMissCount()
+   {
+      return missCount.get();
+   }
+
+   /**
+    * Hits of the currently cached results. Hits of the results of the same
+    * query with different values of the bind variables are summed.
+    * 
+    * @return number of the hits per query
+    */
+   public Map<Query, Long> getQueryHitCounts()
+   {
+      Map<Query, Long> counts = new HashMap<Query, Long>();
+      synchronized (entries)
+      {
+         for (Map.Entry<QueryKey, Entry> entry : entries.entrySet())
+         {
+            Long count = counts.get(entry.getKey().getQuery());
+            long hits = entry.getValue().hits.get();
+            counts.put(entry.getKey().getQuery(), count == null ? hits : count + hits);
+         }
+      }
+      return counts;
+   }
+
+   /**
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "QueryResultCache[size=" + size() + " rows=" + getRowCount() + " hits=" + getHitCount() + " misses="
+         + getMissCount() + "]";
+   }
+
+   /**
+    * Copy loaded result and cache the copy.
+    * 
+    * @return cached copy or null if result is too large to be cached
+    */
+   private List<ScoredRow> cache(QueryKey key, long generation, List<ScoredRow> rows)
+   {
+      List<ScoredRow> copy = Collections.unmodifiableList(new ArrayList<ScoredRow>(rows));
+      long rowsMemory = 0;
+      for (ScoredRow row : copy)
+      {
+         rowsMemory += estimateMemory(row);
+      }
+      if (copy.size() > maxResultRows || rowsMemory > maxMemory / 4)
+      {
+         return null;
+      }
+      synchronized (entries)
+      {
+         remove(key);
+         entries.put(key, new Entry(copy, rowsMemory, generation));
+         rowCount += copy.size();
+         memory += rowsMemory;
+         Iterator<Map.Entry<QueryKey, Entry>> iterator = entries.entrySet().iterator();
+         while ((entries.size() > maxSize || rowCount > maxRows || memory > maxMemory) && iterator.hasNext())
+         {
+            Entry evicted = iterator.next().getValue();
+            rowCount -= evicted.rows.size();
+            memory -= evicted.memory;
+            iterator.remove();
+         }
+      }
+      return copy;
+   }
+
+   /**
+    * @return estimated memory of the row, in bytes
+    */
+   private static long estimateMemory(ScoredRow row)
+   {
+      long rowMemory = ROW_MEMORY;
+      for (String selectorName : row.getSelectorNames())
+      {
+         String identifier = row.getNodeIdentifer(selectorName);
+         rowMemory += NODE_MEMORY + (identifier == null ? 0 : 2 * identifier.length());
+      }
+      return rowMemory;
+   }
+
+   /**
+    * Remove entry, should be called under lock of entries.
+    */
+   private void remove(QueryKey key)
+   {
+      Entry removed = entries.remove(key);
+      if (removed != null)
+      {
+         rowCount -= removed.rows.size();
+         memory -= removed.memory;
+      }
+   }
+
+   /**
+    * Lazy result what is cached when all its rows are read. Like the wrapped
+    * result it is not thread safe.
+    */
+   private class CachingRowList extends AbstractList<ScoredRow> implements RandomAccess
+   {
+      private final QueryKey key;
+
+      private final long generation;
+
+      private final List<ScoredRow> rows;
+
+      private boolean cached;
+
+      CachingRowList(QueryKey key, long generation, List<ScoredRow> rows)
+      {
+         this.key = key;
+         this.generation = generation;
+         this.rows = rows;
+      }
+
+      /**
+       * @see java.util.AbstractList#get(int)
+       */
+      @Override
+      public ScoredRow get(int index)
+      {
+         ScoredRow row = rows.get(index);
+         cacheIfLoaded();
+         return row;
+      }
+
+      /**
+       * @see java.util.AbstractCollection#size()
+       */
+      @Override
+      public int size()
+      {
+         return rows.size();
+      }
+
+      /**
+       * @see java.util.AbstractList#iterator()
+       */
+      @Override
+      public Iterator<ScoredRow> iterator()
+      {
+         final Iterator<ScoredRow> iterator = rows.iterator();
+         return new Iterator<ScoredRow>()
+         {
+            public boolean hasNext()
+            {
+               boolean hasNext = iterator.hasNext();
+               if (!hasNext)
+               {
+                  cacheIfLoaded();
+               }
+               return hasNext;
+            }
+
+            public ScoredRow next()
+            {
+               ScoredRow row = iterator.next();
+               cacheIfLoaded();
+               return row;
+            }
+
+            public void remove()
+            {
+               throw new UnsupportedOperationException();
+            }
+         };
+      }
+
+      private void cacheIfLoaded()
+      {
+         if (!cached && ((LazyRowList)rows).isLoaded())
+         {
+            cached = true;
+            cache(key, generation, rows);
+         }
+      }
+   }
+
+   /**
+    * Cached result.
+    */
+   private static class Entry
+   {
+      private final List<ScoredRow> rows;
+
+      private final long memory;
+
+      private final long generation;
+
+      private final AtomicLong hits;
+
+      Entry(List<ScoredRow> rows, long memory, long generation)
+      {
+         this.rows = rows;
+         this.memory = memory;
+         this.generation = generation;
+         this.hits = new AtomicLong();
+      }
+   }
+}
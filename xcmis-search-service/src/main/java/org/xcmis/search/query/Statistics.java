@@ -18,8 +18,13 @@
  */
 package org.xcmis.search.query;
 
+import org.xcmis.search.query.plan.JoinAlgorithm;
+
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class Statistics implements Comparable<Statistics>, Serializable
@@ -36,6 +41,11 @@ public class Statistics implements Comparable<Statistics>, Serializable
 
    private final long executionMillis;
 
+   /**
+    * Join algorithms what was used during query execution.
+    */
+   private final List<JoinAlgorithm> joinAlgorithms;
+
    public Statistics()
    {
       this(0L, 0L, 0L, 0L);
@@ -47,11 +57,19 @@ public class Statistics implements Comparable<Statistics>, Serializable
    }
 
    public Statistics(long planningMillis, long optimizationMillis, long resultFormulationMillis, long executionMillis)
+   {
+      this(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis, Collections
+         .<JoinAlgorithm> emptyList());
+   }
+
+   public Statistics(long planningMillis, long optimizationMillis, long resultFormulationMillis,
+      long executionMillis, List<JoinAlgorithm> joinAlgorithms)
    {
       this.planningMillis = planningMillis;
       this.optimizationMillis = optimizationMillis;
       this.resultFormulationMillis = resultFormulationMillis;
       this.executionMillis = executionMillis;
+      this.joinAlgorithms = Collections.unmodifiableList(new ArrayList<JoinAlgorithm>(joinAlgorithms));
    }
 
    /**
@@ -120,6 +138,31 @@ public class Statistics implements Comparable<Statistics>, Serializable
       return unit.convert(totalTime(), TimeUnit.MILLISECONDS);
    }
 
+   /**
+    * Get the join algorithms what was used to execute the query, in the order
+    * of execution of the joins.
+    * 
+    * @return the join algorithms; never null but possibly empty
+    */
+   public List<JoinAlgorithm> getJoinAlgorithms()
+   {
+      return joinAlgorithms;
+   }
+
+   /**
+    * Create a new statistics object that has the supplied join algorithm
+    * appended to the list of used join algorithms.
+    * 
+    * @param joinAlgorithm the algorithm used to execute a join
+    * @return the new statistics object; never null
+    */
+   public Statistics withJoinAlgorithm(JoinAlgorithm joinAlgorithm)
+   {
+      List<JoinAlgorithm> algorithms = new ArrayList<JoinAlgorithm>(joinAlgorithms);
+      algorithms.add(joinAlgorithm);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis, algorithms);
+   }
+
    protected long totalTime()
    {
       return planningMillis + optimizationMillis + resultFormulationMillis + executionMillis;
@@ -136,7 +179,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
    {
       //can be < 0 in some systems. see CMIS-549
       //Validate.isTrue(planningMillis >= 0, "planningMillis should be >=0");
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -150,7 +194,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
    {
       //can be < 0 in some systems. see CMIS-549
       //Validate.isTrue(optimizationMillis >= 0, "optimizationMillis should be >=0");
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -164,7 +209,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
    {
       //can be < 0 in some systems. see CMIS-549
       //Validate.isTrue(resultFormulationMillis >= 0, "resultFormulationMillis should be >=0");
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -178,7 +224,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
    {
       //can be < 0 in some systems. see CMIS-549
       //Validate.isTrue(executionMillis >= 0, "executionMillis should be >=0");
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -195,7 +242,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
       //Validate.isTrue(planning >= 0, "planning should be >=0");
       //Validate.notNull(unit, "Unit should not be null");
       long planningMillis = TimeUnit.NANOSECONDS.convert(planning, unit);
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -212,7 +260,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
       //Validate.isTrue(optimization >= 0, "optimization should be >=0");
       //Validate.notNull(unit, "Unit should not be null");
       long optimizationMillis = TimeUnit.NANOSECONDS.convert(optimization, unit);
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -230,7 +279,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
       //Validate.notNull(unit, "Unit should not be null");
 
       long resultFormulationMillis = TimeUnit.MILLISECONDS.convert(resultFormulation, unit);
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -247,7 +297,8 @@ public class Statistics implements Comparable<Statistics>, Serializable
       //Validate.isTrue(execution >= 0, "execution should be >=0");
       //Validate.notNull(unit, "Unit should not be null");
       long executionMillis = TimeUnit.MILLISECONDS.convert(execution, unit);
-      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis);
+      return new Statistics(planningMillis, optimizationMillis, resultFormulationMillis, executionMillis,
+         joinAlgorithms);
    }
 
    /**
@@ -336,6 +387,10 @@ public class Statistics implements Comparable<Statistics>, Serializable
       {
          sb.append(')');
       }
+      if (!joinAlgorithms.isEmpty())
+      {
+         sb.append(" join=").append(joinAlgorithms);
+      }
       return sb.toString();
    }
 
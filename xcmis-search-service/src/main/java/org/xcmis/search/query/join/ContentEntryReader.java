@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.query.QueryExecutionException;
+
+/**
+ * Give access to the content entries referenced by the rows of the join
+ * sources. Used to resolve values of the join keys.
+ */
+public interface ContentEntryReader
+{
+   /**
+    * Read content entry by identifier.
+    * 
+    * @param identifier the identifier of the entry
+    * @return the entry or null if entry with given identifier doesn't exist
+    * @throws QueryExecutionException if entry can't be read
+    */
+   ContentEntry read(String identifier) throws QueryExecutionException;
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.Property;
+import org.xcmis.search.content.Property.ContentValue;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.model.source.join.ChildNodeJoinCondition;
+import org.xcmis.search.model.source.join.DescendantNodeJoinCondition;
+import org.xcmis.search.model.source.join.EquiJoinCondition;
+import org.xcmis.search.model.source.join.JoinCondition;
+import org.xcmis.search.model.source.join.SameNodeJoinCondition;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.value.PropertyType;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolve join keys of the rows from the left and right source of the join.
+ * Two rows satisfy join condition if they have at least one common key.
+ * <ul>
+ * <li>{@link EquiJoinCondition} - keys are the values of the joined
+ * properties</li>
+ * <li>{@link SameNodeJoinCondition} - keys are the identifiers of the
+ * nodes</li>
+ * <li>{@link ChildNodeJoinCondition} - key of the parent is it identifier,
+ * keys of the child are identifiers of it parents</li>
+ * <li>{@link DescendantNodeJoinCondition} - key of the ancestor is it
+ * identifier, keys of the descendant are identifiers of all it ancestors</li>
+ * </ul>
+ */
+public class JoinKeys
+{
+   private final KeyExtractor left;
+
+   private final KeyExtractor right;
+
+   /**
+    * @param left the key extractor for the left source
+    * @param right the key extractor for the right source
+    */
+   JoinKeys(KeyExtractor left, KeyExtractor right)
+   {
+      this.left = left;
+      this.right = right;
+   }
+
+   /**
+    * Create join keys for given join condition.
+    * 
+    * @param condition the join condition
+    * @param leftSelectors the selectors available in the left source
+    * @param reader the reader of the content entries
+    * @return the join keys; never null
+    * @throws QueryExecutionException if join condition is not supported
+    */
+   public static JoinKeys create(JoinCondition condition, Set<SelectorName> leftSelectors, ContentEntryReader reader)
+      throws QueryExecutionException
+   {
+      KeyExtractor first;
+      KeyExtractor second;
+      if (condition instanceof EquiJoinCondition)
+      {
+         EquiJoinCondition equiJoin = (EquiJoinCondition)condition;
+         first = new PropertyKeyExtractor(equiJoin.getSelector1Name(), equiJoin.getProperty1Name(), reader);
+         second = new PropertyKeyExtractor(equiJoin.getSelector2Name(), equiJoin.getProperty2Name(), reader);
+      }
+      else if (condition instanceof SameNodeJoinCondition)
+      {
+         SameNodeJoinCondition sameNode = (SameNodeJoinCondition)condition;
+         if (sameNode.getSelector2Path() != null)
+         {
+            throw new QueryExecutionException("Relative path in the same node join condition is not supported "
+               + condition);
+         }
+         first = new IdentifierKeyExtractor(sameNode.getSelector1Name());
+         second = new IdentifierKeyExtractor(sameNode.getSelector2Name());
+      }
+      else if (condition instanceof ChildNodeJoinCondition)
+      {
+         ChildNodeJoinCondition childNode = (ChildNodeJoinCondition)condition;
+         first = new IdentifierKeyExtractor(childNode.getParentSelectorName());
+         second = new ParentKeyExtractor(childNode.getChildSelectorName(), reader);
+      }
+      else if (condition instanceof DescendantNodeJoinCondition)
+      {
+         DescendantNodeJoinCondition descendantNode = (DescendantNodeJoinCondition)condition;
+         first = new IdentifierKeyExtractor(descendantNode.getAncestorSelectorName());
+         second = new AncestorKeyExtractor(descendantNode.getDescendantSelectorName(), reader);
+      }
+      else
+      {
+         throw new QueryExecutionException("Unsupported join condition " + condition);
+      }
+      if (leftSelectors.contains(first.getSelectorName()))
+      {
+         return new JoinKeys(first, second);
+      }
+      return new JoinKeys(second, first);
+   }
+
+   /**
+    * @return the selector of the left source used in join condition
+    */
+   public SelectorName getLeftSelectorName()
+   {
+      return left.getSelectorName();
+   }
+
+   /**
+    * @return the selector of the right source used in join condition
+    */
+   public SelectorName getRightSelectorName()
+   {
+      return right.getSelectorName();
+   }
+
+   /**
+    * @param row the row from left source
+    * @return the join keys of the row; never null but possibly empty
+    * @throws QueryExecutionException if keys can't be resolved
+    */
+   public Set<String> getLeftKeys(ScoredRow row) throws QueryExecutionException
+   {
+      return left.getKeys(row);
+   }
+
+   /**
+    * @param row the row from right source
+    * @return the join keys of the row; never null but possibly empty
+    * @throws QueryExecutionException if keys can't be resolved
+    */
+   public Set<String> getRightKeys(ScoredRow row) throws QueryExecutionException
+   {
+      return right.getKeys(row);
+   }
+
+   /**
+    * Convert property value to the join key. Values of the same type with equal
+    * value should give the same key.
+    * 
+    * @param value the property value
+    * @return the key
+    */
+   static String toKey(Object value)
+   {
+      if (value instanceof Calendar)
+      {
+         return Long.toString(((Calendar)value).getTimeInMillis());
+      }
+      if (value instanceof Number)
+      {
+         BigDecimal decimal =
+            value instanceof BigDecimal ? (BigDecimal)value : new BigDecimal(value.toString());
+         if (decimal.signum() == 0)
+         {
+            return "0";
+         }
+         return decimal.stripTrailingZeros().toPlainString();
+      }
+      return value.toString();
+   }
+
+   /**
+    * Extract keys of the one selector from the row.
+    */
+   abstract static class KeyExtractor
+   {
+      private final SelectorName selectorName;
+
+      KeyExtractor(SelectorName selectorName)
+      {
+         this.selectorName = selectorName;
+      }
+
+      /**
+       * @return the selectorName
+       */
+      SelectorName getSelectorName()
+      {
+         return selectorName;
+      }
+
+      Set<String> getKeys(ScoredRow row) throws QueryExecutionException
+      {
+         String identifier = row.getNodeIdentifer(selectorName.getName());
+         if (identifier == null)
+         {
+            // row produced by outer join
+            return Collections.emptySet();
+         }
+         return getKeys(identifier);
+      }
+
+      abstract Set<String> getKeys(String identifier) throws QueryExecutionException;
+   }
+
+   /**
+    * Node identifier is a key.
+    */
+   static class IdentifierKeyExtractor extends KeyExtractor
+   {
+      IdentifierKeyExtractor(SelectorName selectorName)
+      {
+         super(selectorName);
+      }
+
+      @Override
+      Set<String> getKeys(String identifier)
+      {
+         return Collections.singleton(identifier);
+      }
+   }
+
+   /**
+    * Values of the property are the keys.
+    */
+   static class PropertyKeyExtractor extends KeyExtractor
+   {
+      private final String propertyName;
+
+      private final ContentEntryReader reader;
+
+      PropertyKeyExtractor(SelectorName selectorName, String propertyName, ContentEntryReader reader)
+      {
+         super(selectorName);
+         this.propertyName = propertyName;
+         this.reader = reader;
+      }
+
+      @Override
+      Set<String> getKeys(String identifier) throws QueryExecutionException
+      {
+         ContentEntry entry = reader.read(identifier);
+         if (entry == null || entry.getProperties() == null)
+         {
+            return Collections.emptySet();
+         }
+         Set<String> keys = new LinkedHashSet<String>();
+         for (Property<?> property : entry.getProperties())
+         {
+            if (property.getType() != PropertyType.BINARY && propertyName.equals(property.getName()))
+            {
+               for (ContentValue<?> value : property.getValue())
+               {
+                  if (value.getValue() != null)
+                  {
+                     keys.add(toKey(value.getValue()));
+                  }
+               }
+            }
+         }
+         return keys;
+      }
+   }
+
+   /**
+    * Identifiers of the parents are the keys.
+    */
+   static class ParentKeyExtractor extends KeyExtractor
+   {
+      private final ContentEntryReader reader;
+
+      ParentKeyExtractor(SelectorName selectorName, ContentEntryReader reader)
+      {
+         super(selectorName);
+         this.reader = reader;
+      }
+
+      @Override
+      Set<String> getKeys(String identifier) throws QueryExecutionException
+      {
+         ContentEntry entry = reader.read(identifier);
+         if (entry == null || entry.getParentIdentifiers() == null)
+         {
+            return Collections.emptySet();
+         }
+         Set<String> keys = new LinkedHashSet<String>();
+         for (String parent : entry.getParentIdentifiers())
+         {
+            keys.add(parent);
+         }
+         return keys;
+      }
+   }
+
+   /**
+    * Identifiers of the all ancestors are the keys. Ancestors of the already
+    * visited nodes are cached, so every node of the tree is read only once.
+    */
+   static class AncestorKeyExtractor extends KeyExtractor
+   {
+      private final ContentEntryReader reader;
+
+      private final Map<String, Set<String>> ancestorsCache;
+
+      AncestorKeyExtractor(SelectorName selectorName, ContentEntryReader reader)
+      {
+         super(selectorName);
+         this.reader = reader;
+         this.ancestorsCache = new HashMap<String, Set<String>>();
+      }
+
+      @Override
+      Set<String> getKeys(String identifier) throws QueryExecutionException
+      {
+         Set<String> ancestors = ancestorsCache.get(identifier);
+         if (ancestors != null)
+         {
+            return ancestors;
+         }
+         ancestors = new LinkedHashSet<String>();
+         Set<String> visited = new HashSet<String>();
+         LinkedList<String> toVisit = new LinkedList<String>();
+         toVisit.add(identifier);
+         while (!toVisit.isEmpty())
+         {
+            String next = toVisit.removeFirst();
+            if (!visited.add(next))
+            {
+               continue;
+            }
+            Set<String> cached = next.equals(identifier) ? null : ancestorsCache.get(next);
+            if (cached != null)
+            {
+               ancestors.addAll(cached);
+               continue;
+            }
+            ContentEntry entry = reader.read(next);
+            if (entry == null || entry.getParentIdentifiers() == null)
+            {
+               continue;
+            }
+            for (String parent : entry.getParentIdentifiers())
+            {
+               if (parent.length() > 0)
+               {
+                  ancestors.add(parent);
+                  toVisit.add(parent);
+               }
+            }
+         }
+         ancestorsCache.put(identifier, ancestors);
+         return ancestors;
+      }
+   }
+}
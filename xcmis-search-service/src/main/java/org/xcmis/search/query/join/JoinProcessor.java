@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import org.xcmis.search.SearchServiceException;
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Join the rows of the two sources using one of the {@link JoinAlgorithm}.
+ * <ul>
+ * <li>{@link JoinAlgorithm#HASH} - build hash table over the keys of one
+ * source and probe it with the rows of the other source</li>
+ * <li>{@link JoinAlgorithm#MERGE} - used instead of the hash join if each row
+ * of the both sources has a single key, sources are already sorted by that
+ * key and order of the probe source doesn't have to be kept</li>
+ * <li>{@link JoinAlgorithm#NESTED_LOOP} - compare every pair of rows. Used
+ * only if the number of pairs is not bigger than
+ * {@link #getMaxNestedLoopComparisons()}, otherwise hash join is used</li>
+ * </ul>
+ * Rows of the result always contain nodes of the left source followed by the
+ * nodes of the right source.
+ */
+public class JoinProcessor
+{
+   /**
+    * Default upper limit of the row pairs that nested loop join may compare.
+    */
+   public static final long DEFAULT_MAX_NESTED_LOOP_COMPARISONS = 10000;
+
+   private final JoinKeys joinKeys;
+
+   private final JoinType joinType;
+
+   private final long maxNestedLoopComparisons;
+
+   private JoinAlgorithm usedAlgorithm;
+
+   /**
+    * @param joinKeys the resolver of the join keys
+    * @param joinType the join type
+    */
+   public JoinProcessor(JoinKeys joinKeys, JoinType joinType)
+   {
+      this(joinKeys, joinType, DEFAULT_MAX_NESTED_LOOP_COMPARISONS);
+   }
+
+   /**
+    * @param joinKeys the resolver of the join keys
+    * @param joinType the join type
+    * @param maxNestedLoopComparisons the upper limit of the row pairs that
+    *           nested loop join may compare
+    */
+   public JoinProcessor(JoinKeys joinKeys, JoinType joinType, long maxNestedLoopComparisons)
+   {
+      this.joinKeys = joinKeys;
+      this.joinType = joinType;
+      this.maxNestedLoopComparisons = maxNestedLoopComparisons;
+   }
+
+   /**
+    * @return the maxNestedLoopComparisons
+    */
+   public long getMaxNestedLoopComparisons()
+   {
+      return maxNestedLoopComparisons;
+   }
+
+   /**
+    * @return the algorithm what was used by the last {@link #join} call, or
+    *         null if join was not executed yet
+    */
+   public JoinAlgorithm getUsedAlgorithm()
+   {
+      return usedAlgorithm;
+   }
+
+   /**
+    * Join the rows of the left and right sources.
+    * 
+    * @param left the rows of the left source
+    * @param right the rows of the right source
+    * @param algorithm the algorithm chosen by planner
+    * @param buildLeft if true and hash join is used hash table will be built
+    *           over the left source, so the order of the right source will be
+    *           preserved, otherwise hash table will be built over the right
+    *           source and order of the left source will be preserved
+    * @return the joined rows
+    * @throws QueryExecutionException if join keys can't be resolved
+    */
+   public List<ScoredRow> join(List<ScoredRow> left, List<ScoredRow> right, JoinAlgorithm algorithm,
+      boolean buildLeft) throws QueryExecutionException
+   {
+      return join(left, right, algorithm, buildLeft, false);
+   }
+
+   /**
+    * Join the rows of the left and right sources.
+    * 
+    * @param left the rows of the left source
+    * @param right the rows of the right source
+    * @param algorithm the algorithm chosen by planner
+    * @param buildLeft if true and hash join is used hash table will be built
+    *           over the left source, so the order of the right source will be
+    *           preserved, otherwise hash table will be built over the right
+    *           source and order of the left source will be preserved
+    * @param keepOrder if true the order of the probe source is the order
+    *           requested by query, so merge join, which orders result by the
+    *           join key, is not used
+    * @return the joined rows
+    * @throws QueryExecutionException if join keys can't be resolved
+    */
+   public List<ScoredRow> join(List<ScoredRow> left, List<ScoredRow> right, JoinAlgorithm algorithm,
+      boolean buildLeft, boolean keepOrder) throws QueryExecutionException
+   {
+      List<Set<String>> leftKeys = new ArrayList<Set<String>>(left.size());
+      for (ScoredRow row : left)
+      {
+         leftKeys.add(joinKeys.getLeftKeys(row));
+      }
+      List<Set<String>> rightKeys = new ArrayList<Set<String>>(right.size());
+      for (ScoredRow row : right)
+      {
+         rightKeys.add(joinKeys.getRightKeys(row));
+      }
+
+      if (algorithm == JoinAlgorithm.NESTED_LOOP && (long)left.size() * right.size() > maxNestedLoopComparisons)
+      {
+         algorithm = JoinAlgorithm.HASH;
+      }
+      if (algorithm != JoinAlgorithm.NESTED_LOOP && !keepOrder && isSorted(leftKeys) && isSorted(rightKeys))
+      {
+         algorithm = JoinAlgorithm.MERGE;
+      }
+      else if (algorithm == JoinAlgorithm.MERGE)
+      {
+         // sources are not sorted on join key or their order must be kept
+         algorithm = JoinAlgorithm.HASH;
+      }
+
+      usedAlgorithm = algorithm;
+      switch (algorithm)
+      {
+         case NESTED_LOOP :
+            return nestedLoopJoin(left, leftKeys, right, rightKeys);
+         case MERGE :
+            return mergeJoin(left, leftKeys, right, rightKeys);
+         default :
+            return buildLeft ? hashJoin(right, rightKeys, left, leftKeys, false) : hashJoin(left, leftKeys, right,
+               rightKeys, true);
+      }
+   }
+
+   /**
+    * Hash join. Rows of the result follow the order of the probe rows.
+    */
+   private List<ScoredRow> hashJoin(List<ScoredRow> probe, List<Set<String>> probeKeys, List<ScoredRow> build,
+      List<Set<String>> buildKeys, boolean probeIsLeft) throws QueryExecutionException
+   {
+      Map<String, List<Integer>> table = new HashMap<String, List<Integer>>();
+      for (int i = 0; i < build.size(); i++)
+      {
+         for (String key : buildKeys.get(i))
+         {
+            List<Integer> rows = table.get(key);
+            if (rows == null)
+            {
+               rows = new ArrayList<Integer>(1);
+               table.put(key, rows);
+            }
+            rows.add(i);
+         }
+      }
+
+      boolean outerProbe = probeIsLeft ? joinType == JoinType.LEFT_OUTER : joinType == JoinType.RIGHT_OUTER;
+      boolean outerBuild = probeIsLeft ? joinType == JoinType.RIGHT_OUTER : joinType == JoinType.LEFT_OUTER;
+      boolean[] buildMatched = new boolean[build.size()];
+
+      List<ScoredRow> result = new ArrayList<ScoredRow>();
+      for (int i = 0; i < probe.size(); i++)
+      {
+         // the same build row can match several keys of the multi-valued probe row
+         Set<Integer> matched = new LinkedHashSet<Integer>();
+         for (String key : probeKeys.get(i))
+         {
+            List<Integer> rows = table.get(key);
+            if (rows != null)
+            {
+               matched.addAll(rows);
+            }
+         }
+         ScoredRow probeRow = probe.get(i);
+         for (Integer j : matched)
+         {
+            buildMatched[j] = true;
+            result.add(probeIsLeft ? merge(probeRow, build.get(j)) : merge(build.get(j), probeRow));
+         }
+         if (matched.isEmpty() && outerProbe)
+         {
+            result.add(probeRow);
+         }
+      }
+      if (outerBuild)
+      {
+         for (int j = 0; j < build.size(); j++)
+         {
+            if (!buildMatched[j])
+            {
+               result.add(build.get(j));
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Merge join of the sources sorted on the single valued key.
+    */
+   private List<ScoredRow> mergeJoin(List<ScoredRow> left, List<Set<String>> leftKeys, List<ScoredRow> right,
+      List<Set<String>> rightKeys) throws QueryExecutionException
+   {
+      List<ScoredRow> result = new ArrayList<ScoredRow>();
+      int i = 0;
+      int j = 0;
+      while (i < left.size() && j < right.size())
+      {
+         String leftKey = singleKey(leftKeys.get(i));
+         String rightKey = singleKey(rightKeys.get(j));
+         int compare = leftKey.compareTo(rightKey);
+         if (compare < 0)
+         {
+            if (joinType == JoinType.LEFT_OUTER)
+            {
+               result.add(left.get(i));
+            }
+            i++;
+         }
+         else if (compare > 0)
+         {
+            if (joinType == JoinType.RIGHT_OUTER)
+            {
+               result.add(right.get(j));
+            }
+            j++;
+         }
+         else
+         {
+            int leftEnd = i + 1;
+            while (leftEnd < left.size() && leftKey.equals(singleKey(leftKeys.get(leftEnd))))
+            {
+               leftEnd++;
+            }
+            int rightEnd = j + 1;
+            while (rightEnd < right.size() && rightKey.equals(singleKey(rightKeys.get(rightEnd))))
+            {
+               rightEnd++;
+            }
+            for (int l = i; l < leftEnd; l++)
+            {
+               for (int r = j; r < rightEnd; r++)
+               {
+                  result.add(merge(left.get(l), right.get(r)));
+               }
+            }
+            i = leftEnd;
+            j = rightEnd;
+         }
+      }
+      if (joinType == JoinType.LEFT_OUTER)
+      {
+         for (; i < left.size(); i++)
+         {
+            result.add(left.get(i));
+         }
+      }
+      if (joinType == JoinType.RIGHT_OUTER)
+      {
+         for (; j < right.size(); j++)
+         {
+            result.add(right.get(j));
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Nested loop join.
+    */
+   private List<ScoredRow> nestedLoopJoin(List<ScoredRow> left, List<Set<String>> leftKeys, List<ScoredRow> right,
+      List<Set<String>> rightKeys) throws QueryExecutionException
+   {
+      List<ScoredRow> result = new ArrayList<ScoredRow>();
+      boolean[] rightMatched = new boolean[right.size()];
+      for (int i = 0; i < left.size(); i++)
+      {
+         boolean matched = false;
+         for (int j = 0; j < right.size(); j++)
+         {
+            if (intersects(leftKeys.get(i), rightKeys.get(j)))
+            {
+               matched = true;
+               rightMatched[j] = true;
+               result.add(merge(left.get(i), right.get(j)));
+            }
+         }
+         if (!matched && joinType == JoinType.LEFT_OUTER)
+         {
+            result.add(left.get(i));
+         }
+      }
+      if (joinType == JoinType.RIGHT_OUTER)
+      {
+         for (int j = 0; j < right.size(); j++)
+         {
+            if (!rightMatched[j])
+            {
+               result.add(right.get(j));
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * @return true if every row has exactly one key and rows are sorted by key
+    */
+   private boolean isSorted(List<Set<String>> keys)
+   {
+      String previous = null;
+      for (Set<String> rowKeys : keys)
+      {
+         if (rowKeys.size() != 1)
+         {
+            return false;
+         }
+         String key = rowKeys.iterator().next();
+         if (previous != null && previous.compareTo(key) > 0)
+         {
+            return false;
+         }
+         previous = key;
+      }
+      return true;
+   }
+
+   private String singleKey(Set<String> keys)
+   {
+      return keys.iterator().next();
+   }
+
+   private boolean intersects(Set<String> first, Set<String> second)
+   {
+      if (first.size() > second.size())
+      {
+         Set<String> tmp = first;
+         first = second;
+         second = tmp;
+      }
+      for (String key : first)
+      {
+         if (second.contains(key))
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private ScoredRow merge(ScoredRow left, ScoredRow right) throws QueryExecutionException
+   {
+      try
+      {
+         return ScoredRow.merge(left, right, left.getScore() + right.getScore());
+      }
+      catch (SearchServiceException e)
+      {
+         throw new QueryExecutionException(e.getLocalizedMessage(), e);
+      }
+   }
+}
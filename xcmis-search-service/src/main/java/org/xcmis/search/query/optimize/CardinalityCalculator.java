@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimize;
+
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.model.source.join.SameNodeJoinCondition;
+import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.plan.CardinalityEstimator;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.SelectorExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.WhereExecutionPlan;
+
+import java.util.List;
+
+/**
+ * Estimate number of the rows produced by parts of the execution plan using
+ * {@link CardinalityEstimator} of the {@link QueryExecutionContext}.
+ * Constraints are assumed to be independent of each other.
+ */
+class CardinalityCalculator
+{
+   private final QueryExecutionContext context;
+
+   private final CardinalityEstimator estimator;
+
+   /**
+    * @param context the context with not null cardinality estimator
+    */
+   CardinalityCalculator(QueryExecutionContext context)
+   {
+      this.context = context;
+      this.estimator = context.getCardinalityEstimator();
+   }
+
+   /**
+    * @param where the constraint
+    * @return fraction of the content entries matched by constraint
+    * @throws QueryExecutionException if index statistics can't be read
+    */
+   double getSelectivity(WhereExecutionPlan where) throws QueryExecutionException
+   {
+      long total = estimator.getTotalCount();
+      if (total <= 0)
+      {
+         return 1;
+      }
+      long matched = estimator.estimateConstraintCardinality(where.getConstraint(), context.getVariables());
+      return Math.min(1, (double)matched / total);
+   }
+
+   /**
+    * Estimate number of the rows returned by source.
+    * 
+    * @param source the source plan
+    * @param constraints constraints what can be applied to the source, the
+    *           constraints what reference selectors out of the source are
+    *           ignored
+    * @return estimated number of the rows
+    * @throws QueryExecutionException if index statistics can't be read
+    */
+   long getCardinality(QueryExecutionPlan source, List<WhereExecutionPlan> constraints)
+      throws QueryExecutionException
+   {
+      if (source instanceof SelectorExecutionPlan)
+      {
+         double cardinality = estimator.estimateTableCardinality(((SelectorExecutionPlan)source).getName());
+         for (WhereExecutionPlan where : constraints)
+         {
+            if (!where.getSelectors().isEmpty() && source.getSelectors().containsAll(where.getSelectors()))
+            {
+               cardinality *= getSelectivity(where);
+            }
+         }
+         return (long)Math.ceil(cardinality);
+      }
+      else if (source instanceof JoinExecutionPlan)
+      {
+         JoinExecutionPlan join = (JoinExecutionPlan)source;
+         long left = getCardinality(join.getLeftPlan(), constraints);
+         long right = getCardinality(join.getRightPlan(), constraints);
+         // every row matches at most one row for same node join, for other
+         // joins assume the smaller source is referenced by the larger one
+         long cardinality =
+            join.getJoinCondition() instanceof SameNodeJoinCondition ? Math.min(left, right) : Math.max(left, right);
+         if (join.getJoinType() == JoinType.LEFT_OUTER)
+         {
+            cardinality = Math.max(cardinality, left);
+         }
+         else if (join.getJoinType() == JoinType.RIGHT_OUTER)
+         {
+            cardinality = Math.max(cardinality, right);
+         }
+         return cardinality;
+      }
+      return estimator.getTotalCount();
+   }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimize;
+
+import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.join.JoinProcessor;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.NestedExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.Type;
+import org.xcmis.search.query.plan.QueryExecutionPlan.WhereExecutionPlan;
+import org.xcmis.spi.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An {@link OptimizerCriteria optimizer criteria} that chooses join algorithm
+ * and the source to build hash table over for each JOIN node by estimated
+ * number of the rows of the joined sources. Estimation takes into account the
+ * WHERE nodes above the JOIN what reference only one of the sources. Plan is
+ * left unchanged if {@link QueryExecutionContext#getCardinalityEstimator()
+ * index statistics} is not available.
+ * <p>
+ * Nested loop join is chosen if the number of the row comparisons is not
+ * greater than the threshold, otherwise hash join is chosen. Hash table is
+ * built over the smaller source.
+ * </p>
+ */
+public class ChooseJoinAlgorithmCriteria implements OptimizerCriteria
+{
+   public static final ChooseJoinAlgorithmCriteria INSTANCE =
+      new ChooseJoinAlgorithmCriteria(JoinProcessor.DEFAULT_MAX_NESTED_LOOP_COMPARISONS);
+
+   /**
+    * Class logger.
+    */
+   private static final Logger LOG = Logger.getLogger(ChooseJoinAlgorithmCriteria.class);
+
+   private final long maxNestedLoopComparisons;
+
+   /**
+    * @param maxNestedLoopComparisons the maximum estimated number of the row
+    *           comparisons for nested loop join
+    */
+   public ChooseJoinAlgorithmCriteria(long maxNestedLoopComparisons)
+   {
+      this.maxNestedLoopComparisons = maxNestedLoopComparisons;
+   }
+
+   /**
+    * @see org.xcmis.search.query.optimize.OptimizerCriteria#execute(org.xcmis.search.query.QueryExecutionContext, org.xcmis.search.query.plan.QueryExecutionPlan, java.util.LinkedList)
+    */
+   public QueryExecutionPlan execute(QueryExecutionContext context, QueryExecutionPlan plan,
+      LinkedList<OptimizerCriteria> criteriaStack)
+   {
+      if (context.getCardinalityEstimator() != null)
+      {
+         try
+         {
+            choose(new CardinalityCalculator(context), plan, new ArrayList<WhereExecutionPlan>());
+         }
+         catch (QueryExecutionException e)
+         {
+            LOG.warn("Unable to choose join algorithm by index statistics: " + e.getLocalizedMessage());
+         }
+      }
+      return plan;
+   }
+
+   private void choose(CardinalityCalculator calculator, QueryExecutionPlan plan, List<WhereExecutionPlan> constraints)
+      throws QueryExecutionException
+   {
+      List<WhereExecutionPlan> applicable = new ArrayList<WhereExecutionPlan>(constraints);
+      QueryExecutionPlan next = plan;
+      while (next instanceof NestedExecutionPlan)
+      {
+         if (next.getType() == Type.WHERE)
+         {
+            applicable.add((WhereExecutionPlan)next);
+         }
+         next = ((NestedExecutionPlan)next).getChildPlan();
+      }
+      if (next instanceof JoinExecutionPlan)
+      {
+         JoinExecutionPlan join = (JoinExecutionPlan)next;
+         choose(calculator, join.getLeftPlan(), applicable);
+         choose(calculator, join.getRightPlan(), applicable);
+
+         long left = calculator.getCardinality(join.getLeftPlan(), applicable);
+         long right = calculator.getCardinality(join.getRightPlan(), applicable);
+         join.setBuildLeft(left < right);
+         if ((double)left * right <= maxNestedLoopComparisons)
+         {
+            join.setJoinAlgorithm(JoinAlgorithm.NESTED_LOOP);
+         }
+         else
+         {
+            join.setJoinAlgorithm(JoinAlgorithm.HASH);
+         }
+      }
+   }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimize;
+
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+
+import java.util.LinkedList;
+
+/**
+ * Optimizer what uses index statistics to choose join algorithms. Order of
+ * constraints is not changed, because all constraints of selector are
+ * executed by index as one query.
+ * 
+ * @see ChooseJoinAlgorithmCriteria
+ */
+public class CostBasedOptimizer extends CriteriaBasedOptimizer
+{
+
+   /**
+    * @see org.xcmis.search.query.optimize.CriteriaBasedOptimizer#populateCriteriaStack(java.util.LinkedList, org.xcmis.search.query.plan.QueryExecutionPlan)
+    */
+   @Override
+   protected void populateCriteriaStack(LinkedList<OptimizerCriteria> criteriaStack, QueryExecutionPlan plan)
+   {
+      criteriaStack.add(ChooseJoinAlgorithmCriteria.INSTANCE);
+   }
+
+}
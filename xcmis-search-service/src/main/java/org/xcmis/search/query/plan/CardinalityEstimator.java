@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.plan;
+
+import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.QueryExecutionException;
+
+import java.util.Map;
+
+/**
+ * Source of the index statistics used by cost based optimization. All
+ * returned values are estimates of the number of matching content entries and
+ * may differ from the real number of the query results.
+ */
+public interface CardinalityEstimator
+{
+   /**
+    * @return number of the content entries in the index
+    */
+   long getTotalCount();
+
+   /**
+    * Estimate number of the content entries of the table and all inherited
+    * tables.
+    * 
+    * @param tableName the name of the table
+    * @return estimated number of the entries
+    * @throws QueryExecutionException if index statistics can't be read
+    */
+   long estimateTableCardinality(SelectorName tableName) throws QueryExecutionException;
+
+   /**
+    * Estimate number of the content entries matched by constraint regardless
+    * of the table they belong to.
+    * 
+    * @param constraint the constraint
+    * @param bindVariablesValues the values of the bind variables
+    * @return estimated number of the entries
+    * @throws QueryExecutionException if index statistics can't be read
+    */
+   long estimateConstraintCardinality(Constraint constraint, Map<String, Object> bindVariablesValues)
+      throws QueryExecutionException;
+}
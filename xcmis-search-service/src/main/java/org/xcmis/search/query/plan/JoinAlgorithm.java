@@ -22,5 +22,20 @@ package org.xcmis.search.query.plan;
  * Implementation of join algorithm.
  */
 public enum JoinAlgorithm {
-   NESTED_LOOP, MERGE
+   /**
+    * Compare every row of the left source with every row of the right source.
+    * Used only when product of the both sources is small enough.
+    */
+   NESTED_LOOP,
+
+   /**
+    * Merge two sources what already sorted on the join key.
+    */
+   MERGE,
+
+   /**
+    * Build hash table over join key of the one source and probe it with
+    * the rows of the other source.
+    */
+   HASH
 }
@@ -217,6 +217,11 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
        */
       private SourceExecutionPlan rightPlan;
 
+      /**
+       * Build hash table over the left source.
+       */
+      private boolean buildLeft;
+
       /**
        * @param type
        */
@@ -242,6 +247,15 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
          return joinAlgorithm;
       }
 
+      /**
+       * @return true if hash table should be built over the left source and
+       *         the right source should be probed
+       */
+      public boolean isBuildLeft()
+      {
+         return buildLeft;
+      }
+
       /**
        * @return the joinCondition
        */
@@ -282,6 +296,14 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
          this.joinAlgorithm = joinAlgorithm;
       }
 
+      /**
+       * @param buildLeft the buildLeft to set
+       */
+      public void setBuildLeft(boolean buildLeft)
+      {
+         this.buildLeft = buildLeft;
+      }
+
       /**
        * @param joinCondition the joinCondition to set
        */
@@ -321,6 +343,8 @@ public abstract class QueryExecutionPlan implements Iterator<QueryExecutionPlan>
       protected void getRecursiveString(StringBuilder str, int indentLevel)
       {
          super.getRecursiveString(str, indentLevel);
+         str.append(getType().getSymbol() + "[" + joinType + " " + joinAlgorithm + " build="
+            + (buildLeft ? "left" : "right") + " " + joinCondition + "]");
          str.append("Left:" + leftPlan.toString());
          str.append("Right:" + rightPlan.toString());
       }
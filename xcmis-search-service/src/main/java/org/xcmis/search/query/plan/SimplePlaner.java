@@ -34,6 +34,8 @@ import org.xcmis.search.model.source.Join;
 import org.xcmis.search.model.source.Selector;
 import org.xcmis.search.model.source.SelectorName;
 import org.xcmis.search.model.source.Source;
+import org.xcmis.search.model.source.join.DescendantNodeJoinCondition;
+import org.xcmis.search.model.source.join.JoinCondition;
 import org.xcmis.search.query.QueryExecutionContext;
 import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
 import org.xcmis.search.query.plan.QueryExecutionPlan.LimitExecutionPlan;
@@ -169,7 +171,7 @@ public class SimplePlaner implements QueryExecutionPlaner
          {
             JoinExecutionPlan joinPlan = new JoinExecutionPlan();
             joinPlan.setJoinType(node.getType());
-            joinPlan.setJoinAlgorithm(JoinAlgorithm.NESTED_LOOP);
+            joinPlan.setJoinAlgorithm(chooseJoinAlgorithm(node.getJoinCondition()));
             joinPlan.setJoinCondition(node.getJoinCondition());
             //left plan
             node.getLeft().accept(this);
@@ -177,6 +179,9 @@ public class SimplePlaner implements QueryExecutionPlaner
             //right plan
             node.getRight().accept(this);
             joinPlan.setRightPlan((SourceExecutionPlan)stepsStack.pop());
+            joinPlan.addSelectors(joinPlan.getLeftPlan().getSelectors());
+            joinPlan.addSelectors(joinPlan.getRightPlan().getSelectors());
+            stepsStack.push(joinPlan);
 
          }
 
@@ -222,6 +227,24 @@ public class SimplePlaner implements QueryExecutionPlaner
       return stepsStack.pop();
    }
 
+   /**
+    * Choose algorithm for the join. Every supported join condition can be
+    * evaluated by comparing keys of the rows, so hash join is used by default.
+    * Descendant node join has to resolve all ancestors of each descendant row,
+    * so nested loop is preferred for it while sources are small.
+    * 
+    * @param joinCondition the join condition
+    * @return the join algorithm
+    */
+   protected JoinAlgorithm chooseJoinAlgorithm(JoinCondition joinCondition)
+   {
+      if (joinCondition instanceof DescendantNodeJoinCondition)
+      {
+         return JoinAlgorithm.NESTED_LOOP;
+      }
+      return JoinAlgorithm.HASH;
+   }
+
    /**
     * populate SORT node at top of executionPlan. The SORT may be pushed down to a source (or sources) if possible by the optimizer.
     * 
@@ -108,7 +108,7 @@ public class ScoredRow
          newNodesMap.put(names1[i], nodes1.getNodeIdentifer(names1[i]));
       }
       String[] names2 = nodes2.getSelectorNames();
-      for (int i = 0; i < names1.length; i++)
+      for (int i = 0; i < names2.length; i++)
       {
          newNodesMap.put(names2[i], nodes2.getNodeIdentifer(names2[i]));
       }
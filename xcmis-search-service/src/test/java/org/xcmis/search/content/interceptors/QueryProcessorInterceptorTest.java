@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.content.interceptors;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.InMemorySchema;
+import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.search.content.command.index.ModifyIndexCommand;
+import org.xcmis.search.content.command.query.ExecuteSelectorCommand;
+import org.xcmis.search.content.command.query.GetCardinalityEstimatorCommand;
+import org.xcmis.search.content.command.query.ProcessQueryCommand;
+import org.xcmis.search.lucene.content.VirtualTableResolver;
+import org.xcmis.search.model.Query;
+import org.xcmis.search.query.QueryBuilder;
+import org.xcmis.search.query.QueryCache;
+import org.xcmis.search.query.QueryKey;
+import org.xcmis.search.query.optimize.CostBasedOptimizer;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+import org.xcmis.search.query.plan.SimplePlaner;
+import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.value.CastSystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test execution of the cached plans by {@link QueryProcessorInterceptor}.
+ */
+public class QueryProcessorInterceptorTest
+{
+   private QueryCache<QueryKey, QueryExecutionPlan> planCache;
+
+   private QueryProcessorInterceptor interceptor;
+
+   private StubIndexInterceptor index;
+
+   private InvocationContext ctx;
+
+   private Query query;
+
+   @Before
+   public void beforeEach()
+   {
+      planCache = new QueryCache<QueryKey, QueryExecutionPlan>();
+      interceptor = new QueryProcessorInterceptor(new SimplePlaner(), new CostBasedOptimizer(), planCache);
+      index = new StubIndexInterceptor();
+      interceptor.setNext(index);
+      ctx =
+         new InvocationContext(InMemorySchema.createBuilder().addTable("my:mytype", "column1", "column2").build(),
+            mock(VirtualTableResolver.class));
+      query =
+         new QueryBuilder(mock(CastSystem.class)).selectStar().from("my:mytype").where().propertyValue("my:mytype",
+            "column1").isEqualToVariable("value").end().orderBy().ascending().propertyValue("my:mytype", "column2")
+            .end().query();
+   }
+
+   @Test
+   public void shouldExecuteCachedPlanRepeatedly() throws Throwable
+   {
+      for (int i = 0; i < 3; i++)
+      {
+         List<ScoredRow> rows = execute("a");
+         assertThat(rows.size(), is(1));
+         assertThat(index.lastCommand.getConstrains().size(), is(1));
+         assertThat(index.lastCommand.getOrderings().size(), is(1));
+      }
+      assertThat(planCache.size(), is(1));
+      assertThat(planCache.getMissCount(), is(1L));
+      assertThat(planCache.getHitCount(), is(2L));
+   }
+
+   @Test
+   public void shouldCachePlanPerBindVariablesValues() throws Throwable
+   {
+      execute("a");
+      execute("b");
+      execute("a");
+      assertThat(planCache.size(), is(2));
+      assertThat(planCache.getMissCount(), is(2L));
+      assertThat(planCache.getHitCount(), is(1L));
+   }
+
+   @Test
+   public void shouldExecuteCachedPlanConcurrently() throws Throwable
+   {
+      execute("a");
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try
+      {
+         List<Future<List<ScoredRow>>> results = new ArrayList<Future<List<ScoredRow>>>();
+         for (int i = 0; i < 200; i++)
+         {
+            results.add(executor.submit(new Callable<List<ScoredRow>>()
+            {
+               public List<ScoredRow> call() throws Exception
+               {
+                  try
+                  {
+                     return execute("a");
+                  }
+                  catch (Throwable e)
+                  {
+                     throw new Exception(e);
+                  }
+               }
+            }));
+         }
+         for (Future<List<ScoredRow>> result : results)
+         {
+            assertThat(result.get().size(), is(1));
+         }
+      }
+      finally
+      {
+         executor.shutdown();
+      }
+      assertThat(index.executions.get(), is(201));
+      assertThat(planCache.getMissCount(), is(1L));
+   }
+
+   @Test
+   public void shouldNotRequestStatisticsForSingleSelector() throws Throwable
+   {
+      execute("a");
+      execute("b");
+      assertThat(index.estimations.get(), is(0));
+   }
+
+   @Test
+   public void shouldReplanJoinAfterIndexModification() throws Throwable
+   {
+      Query join =
+         new QueryBuilder(mock(CastSystem.class)).selectStar().from("my:mytype AS a").join("my:mytype AS b")
+            .onSameNode("a", "b").query();
+      execute(join);
+      execute(join);
+      assertThat(planCache.getMissCount(), is(1L));
+      assertThat(planCache.getHitCount(), is(1L));
+
+      modifyIndex();
+      // join algorithm is chosen again by the new statistics
+      assertThat(execute(join).size(), is(1));
+      assertThat(planCache.getMissCount(), is(2L));
+      assertThat(planCache.getHitCount(), is(1L));
+   }
+
+   @Test
+   public void shouldKeepPlanOfSingleSelectorAfterIndexModification() throws Throwable
+   {
+      execute("a");
+      modifyIndex();
+      execute("a");
+      assertThat(planCache.getMissCount(), is(1L));
+      assertThat(planCache.getHitCount(), is(1L));
+   }
+
+   private void modifyIndex() throws Throwable
+   {
+      interceptor.visitModifyIndexCommand(ctx, new ModifyIndexCommand(Collections.<ContentEntry> emptyList(),
+         Collections.<String> emptySet()));
+   }
+
+   @SuppressWarnings("unchecked")
+   private List<ScoredRow> execute(Query query) throws Throwable
+   {
+      return (List<ScoredRow>)interceptor.visitProcessQueryCommand(ctx, new ProcessQueryCommand(query, Collections
+         .<String, Object> emptyMap()));
+   }
+
+   @SuppressWarnings("unchecked")
+   private List<ScoredRow> execute(String value) throws Throwable
+   {
+      Map<String, Object> bindVariablesValues = Collections.<String, Object> singletonMap("value", value);
+      return (List<ScoredRow>)interceptor.visitProcessQueryCommand(ctx, new ProcessQueryCommand(query,
+         bindVariablesValues));
+   }
+
+   /**
+    * Last interceptor of the chain what returns single row for any selector.
+    */
+   private static class StubIndexInterceptor extends CommandInterceptor
+   {
+      private final AtomicInteger executions = new AtomicInteger();
+
+      private final AtomicInteger estimations = new AtomicInteger();
+
+      private volatile ExecuteSelectorCommand lastCommand;
+
+      @Override
+      public Object visitExecuteSelectorCommand(InvocationContext ctx, ExecuteSelectorCommand command)
+         throws Throwable
+      {
+         executions.incrementAndGet();
+         lastCommand = command;
+         List<ScoredRow> rows = new ArrayList<ScoredRow>();
+         rows.add(new ScoredRow(command.getAlias().getName(), "id", 1));
+         return rows;
+      }
+
+      @Override
+      public Object visitModifyIndexCommand(InvocationContext ctx, ModifyIndexCommand command) throws Throwable
+      {
+         return null;
+      }
+
+      @Override
+      public Object visitGetCardinalityEstimatorCommand(InvocationContext ctx, GetCardinalityEstimatorCommand command)
+         throws Throwable
+      {
+         estimations.incrementAndGet();
+         return null;
+      }
+   }
+}
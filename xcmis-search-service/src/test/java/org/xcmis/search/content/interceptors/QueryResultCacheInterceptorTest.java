@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.content.interceptors;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.Property;
+import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.search.content.command.index.ModifyIndexCommand;
+import org.xcmis.search.content.command.query.ProcessQueryCommand;
+import org.xcmis.search.model.Query;
+import org.xcmis.search.model.source.Selector;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.query.QueryResultCache;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test that {@link QueryResultCacheInterceptor} never returns results read
+ * before the last completed {@link ModifyIndexCommand}.
+ */
+public class QueryResultCacheInterceptorTest
+{
+   private QueryResultCacheInterceptor interceptor;
+
+   private StubIndexInterceptor index;
+
+   private final Query query = new Query(new Selector(new SelectorName("cmis:document")));
+
+   @Before
+   public void beforeEach()
+   {
+      interceptor = new QueryResultCacheInterceptor(new QueryResultCache());
+      index = new StubIndexInterceptor();
+      interceptor.setNext(index);
+   }
+
+   @Test
+   public void shouldReturnCachedResultWhileIndexIsNotModified() throws Throwable
+   {
+      modify();
+      assertThat(execute().size(), is(1));
+      assertThat(execute().size(), is(1));
+      assertThat(index.queries.get(), is(1));
+   }
+
+   @Test
+   public void shouldNotReturnResultReadBeforeConcurrentModification() throws Throwable
+   {
+      final CountDownLatch read = new CountDownLatch(1);
+      final CountDownLatch modified = new CountDownLatch(1);
+      index.afterRead = new Runnable()
+      {
+         public void run()
+         {
+            read.countDown();
+            await(modified);
+         }
+      };
+      Thread reader = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               execute();
+            }
+            catch (Throwable e)
+            {
+               throw new RuntimeException(e);
+            }
+         }
+      };
+      reader.start();
+      await(read);
+      index.afterRead = null;
+      modify();
+      modified.countDown();
+      reader.join(5000);
+
+      assertThat(execute().size(), is(1));
+   }
+
+   @Test
+   public void shouldNotCacheResultReadDuringModification() throws Throwable
+   {
+      final List<ScoredRow> during = new ArrayList<ScoredRow>();
+      index.afterModify = new Runnable()
+      {
+         public void run()
+         {
+            // index is changed, but modification is not completed yet
+            try
+            {
+               during.addAll(execute());
+            }
+            catch (Throwable e)
+            {
+               throw new RuntimeException(e);
+            }
+         }
+      };
+      modify();
+      index.afterModify = null;
+
+      assertThat(during.size(), is(1));
+      assertThat(interceptor.getResultCache().size(), is(0));
+      assertThat(execute().size(), is(1));
+   }
+
+   @Test
+   public void shouldNeverReturnStaleResultUnderConcurrentModifications() throws Throwable
+   {
+      final AtomicBoolean done = new AtomicBoolean();
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      List<Thread> readers = new ArrayList<Thread>();
+      for (int t = 0; t < 4; t++)
+      {
+         Thread reader = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  while (!done.get())
+                  {
+                     execute();
+                  }
+               }
+               catch (Throwable e)
+               {
+                  errors.add(e);
+               }
+            }
+         };
+         readers.add(reader);
+         reader.start();
+      }
+      try
+      {
+         for (int i = 1; i <= 500; i++)
+         {
+            modify();
+            // all completed modifications must be visible
+            assertThat(execute().size(), is(i));
+         }
+      }
+      finally
+      {
+         done.set(true);
+         for (Thread reader : readers)
+         {
+            reader.join(5000);
+         }
+      }
+      assertThat(errors.toString(), errors.isEmpty(), is(true));
+   }
+
+   private List<ScoredRow> execute() throws Throwable
+   {
+      return (List<ScoredRow>)interceptor.visitProcessQueryCommand(mock(InvocationContext.class),
+         new ProcessQueryCommand(query, null));
+   }
+
+   private void modify() throws Throwable
+   {
+      ContentEntry entry = new ContentEntry("name", new String[]{"cmis:document"}, "id", new String[0], new Property[0]);
+      interceptor.visitModifyIndexCommand(mock(InvocationContext.class), new ModifyIndexCommand(Collections
+         .singletonList(entry), Collections.<String> emptySet()));
+   }
+
+   private static void await(CountDownLatch latch)
+   {
+      try
+      {
+         assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Index which result has one row per added entry.
+    */
+   private static class StubIndexInterceptor extends CommandInterceptor
+   {
+      private final AtomicInteger documents = new AtomicInteger();
+
+      private final AtomicInteger queries = new AtomicInteger();
+
+      private volatile Runnable afterRead;
+
+      private volatile Runnable afterModify;
+
+      @Override
+      public Object visitProcessQueryCommand(InvocationContext ctx, ProcessQueryCommand command) throws Throwable
+      {
+         queries.incrementAndGet();
+         int count = documents.get();
+         Runnable action = afterRead;
+         if (action != null)
+         {
+            action.run();
+         }
+         List<ScoredRow> rows = new ArrayList<ScoredRow>(count);
+         for (int i = 0; i < count; i++)
+         {
+            rows.add(new ScoredRow("cmis:document", "id" + i, 1));
+         }
+         return rows;
+      }
+
+      @Override
+      public Object visitModifyIndexCommand(InvocationContext ctx, ModifyIndexCommand command) throws Throwable
+      {
+         documents.addAndGet(command.getAddedDocuments().size());
+         Runnable action = afterModify;
+         if (action != null)
+         {
+            action.run();
+         }
+         return null;
+      }
+   }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.SearchService;
+import org.xcmis.search.config.IndexConfiguration;
+import org.xcmis.search.config.SearchServiceConfiguration;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.InMemorySchema;
+import org.xcmis.search.content.Property;
+import org.xcmis.search.content.Schema;
+import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.search.content.command.read.GetChildEntriesCommand;
+import org.xcmis.search.content.command.read.GetContentEntryCommand;
+import org.xcmis.search.content.command.read.GetUnfiledEntriesCommand;
+import org.xcmis.search.content.interceptors.ContentReaderInterceptor;
+import org.xcmis.search.lucene.content.SchemaTableResolver;
+import org.xcmis.search.model.Query;
+import org.xcmis.search.query.QueryBuilder;
+import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.value.CastSystem;
+import org.xcmis.search.value.ToStringNameConverter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test for {@link IndexRecoveryTool}.
+ */
+public class IndexRecoveryToolTest
+{
+   private static final String TABLE = "someTable";
+
+   private File tempDir;
+
+   private Schema schema;
+
+   private StubContentReader contentReader;
+
+   private SearchService searchService;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      tempDir = new File(System.getProperty("java.io.tmpdir"), "index-recovery");
+      if (tempDir.exists())
+      {
+         assertThat(FileUtils.deleteQuietly(tempDir), is(true));
+      }
+      assertThat(tempDir.mkdirs(), is(true));
+      schema = InMemorySchema.createBuilder().addTable(TABLE, "column1").build();
+      contentReader = new StubContentReader();
+      contentReader.add("rootUuid", null);
+      contentReader.add("folder", "rootUuid");
+      contentReader.add("doc1", "folder");
+   }
+
+   @After
+   public void afterEach() throws Exception
+   {
+      if (searchService != null)
+      {
+         searchService.stop();
+      }
+      FileUtils.deleteQuietly(tempDir);
+   }
+
+   @Test
+   public void shouldRecordFormatWhenAllContentIsRecovered() throws Exception
+   {
+      searchService = start();
+
+      assertThat(new File(tempDir, IndexRecoveryTool.FORMAT_FILE).exists(), is(true));
+      assertThat(descendants("folder"), is(set("doc1")));
+   }
+
+   @Test
+   public void shouldRecoverIndexOfPreviousFormat() throws Exception
+   {
+      searchService = start();
+      searchService.stop();
+      searchService = null;
+      // index of previous version has no format
+      assertThat(new File(tempDir, IndexRecoveryTool.FORMAT_FILE).delete(), is(true));
+      contentReader.add("doc2", "folder");
+
+      searchService = start();
+
+      assertThat(descendants("folder"), is(set("doc1", "doc2")));
+      assertThat(new File(tempDir, IndexRecoveryTool.FORMAT_FILE).exists(), is(true));
+   }
+
+   @Test
+   public void shouldNotRecoverIndexOfCurrentFormat() throws Exception
+   {
+      searchService = start();
+      searchService.stop();
+      searchService = null;
+      contentReader.add("doc2", "folder");
+
+      searchService = start();
+
+      assertThat(descendants("folder"), is(set("doc1")));
+   }
+
+   @Test
+   public void shouldResumeInterruptedRecoveryWithoutDuplicates() throws Exception
+   {
+      // children of 'large' fill the buffer, so they are saved and checkpointed
+      // before recovering is killed
+      contentReader.add("large", "rootUuid");
+      for (int i = 0; i < IndexRecoveryTool.BUFFER_MAX_SIZE + 10; i++)
+      {
+         contentReader.add("l" + i, "large");
+      }
+      contentReader.add("broken", "rootUuid");
+      contentReader.add("b1", "broken");
+      contentReader.add("b2", "b1");
+      contentReader.failOn = "broken";
+
+      searchService = start(1);
+      searchService.stop();
+      searchService = null;
+      assertThat(new File(tempDir, IndexRecoveryTool.CHECKPOINT_FILE).exists(), is(true));
+      assertThat(new File(tempDir, IndexRecoveryTool.FORMAT_FILE).exists(), is(false));
+
+      contentReader.failOn = null;
+      searchService = start(1);
+
+      assertNoDuplicatesAndNothingMissing();
+   }
+
+   @Test
+   public void shouldResumeInterruptedParallelRecoveryWithoutDuplicates() throws Exception
+   {
+      for (int f = 0; f < 4; f++)
+      {
+         contentReader.add("f" + f, "rootUuid");
+         for (int i = 0; i < IndexRecoveryTool.BUFFER_MAX_SIZE / 2; i++)
+         {
+            contentReader.add("f" + f + "-" + i, "f" + f);
+            contentReader.add("f" + f + "-" + i + "-0", "f" + f + "-" + i);
+         }
+      }
+      contentReader.failOn = "f3-400";
+
+      searchService = start(4);
+      searchService.stop();
+      searchService = null;
+      assertThat(new File(tempDir, IndexRecoveryTool.FORMAT_FILE).exists(), is(false));
+
+      contentReader.failOn = null;
+      searchService = start(4);
+
+      assertNoDuplicatesAndNothingMissing();
+   }
+
+   private void assertNoDuplicatesAndNothingMissing() throws Exception
+   {
+      List<String> rows = rows("rootUuid");
+      Set<String> expected = new HashSet<String>(contentReader.entries.keySet());
+      expected.remove("rootUuid");
+      assertThat(rows.size(), is(expected.size()));
+      assertThat(new HashSet<String>(rows), is(expected));
+      assertThat(new File(tempDir, IndexRecoveryTool.CHECKPOINT_FILE).exists(), is(false));
+      assertThat(new File(tempDir, IndexRecoveryTool.FORMAT_FILE).exists(), is(true));
+   }
+
+   private SearchService start() throws Exception
+   {
+      return start(Runtime.getRuntime().availableProcessors());
+   }
+
+   private SearchService start(int reindexThreads) throws Exception
+   {
+      IndexConfiguration indexConfiguration =
+         new IndexConfiguration(tempDir.getAbsolutePath(), "rootParentUuid", "rootUuid");
+      indexConfiguration.setReindexThreads(reindexThreads);
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(schema, new SchemaTableResolver(new ToStringNameConverter(), schema),
+            contentReader, indexConfiguration);
+      SearchService service = new SearchService(configuration);
+      service.start();
+      return service;
+   }
+
+   private Set<String> descendants(String ancestor) throws Exception
+   {
+      return new HashSet<String>(rows(ancestor));
+   }
+
+   private List<String> rows(String ancestor) throws Exception
+   {
+      Query query =
+         new QueryBuilder(mock(CastSystem.class)).selectStar().from(TABLE + " AS s").where().isBelowPath("s",
+            "[" + ancestor + "]").end().query();
+      List<String> result = new ArrayList<String>();
+      for (ScoredRow row : searchService.execute(query))
+      {
+         result.add(row.getNodeIdentifer("s"));
+      }
+      return result;
+   }
+
+   private static Set<String> set(String... identifiers)
+   {
+      Set<String> result = new HashSet<String>();
+      Collections.addAll(result, identifiers);
+      return result;
+   }
+
+   /**
+    * Content tree of entries without properties.
+    */
+   private static class StubContentReader extends ContentReaderInterceptor
+   {
+      /**
+       * Children of this entry can't be read, as if recovering is killed.
+       */
+      volatile String failOn;
+
+      private final Map<String, ContentEntry> entries = new LinkedHashMap<String, ContentEntry>();
+
+      private final Map<String, List<String>> children = new LinkedHashMap<String, List<String>>();
+
+      void add(String identifier, String parent)
+      {
+         entries.put(identifier, new ContentEntry(identifier, new String[]{TABLE}, identifier, parent == null
+            ? new String[0] : new String[]{parent}, new Property[0]));
+         children.put(identifier, new ArrayList<String>());
+         if (parent != null)
+         {
+            children.get(parent).add(identifier);
+         }
+      }
+
+      @Override
+      public Object visitChildEntriesCommand(InvocationContext ctx, GetChildEntriesCommand command) throws Throwable
+      {
+         if (command.getParentUuid().equals(failOn))
+         {
+            throw new IllegalStateException("Recovering is killed");
+         }
+         List<ContentEntry> result = new ArrayList<ContentEntry>();
+         for (String child : children.get(command.getParentUuid()))
+         {
+            result.add(entries.get(child));
+         }
+         return result;
+      }
+
+      @Override
+      public Object visitGetContentEntryCommand(InvocationContext ctx, GetContentEntryCommand command)
+         throws Throwable
+      {
+         return entries.get(command.getEntryUuid());
+      }
+
+      @Override
+      public Object visitGetUnfiledEntriesCommand(InvocationContext ctx, GetUnfiledEntriesCommand command)
+         throws Throwable
+      {
+         return Collections.<String> emptyList().iterator();
+      }
+   }
+}
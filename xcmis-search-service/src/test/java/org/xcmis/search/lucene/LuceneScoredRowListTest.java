@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.junit.Assert.assertThat;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.lucene.index.FieldNames;
+import org.xcmis.search.model.Limit;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test for {@link LuceneScoredRowList}
+ */
+public class LuceneScoredRowListTest
+{
+   private static final int DOCUMENTS = 100;
+
+   private RAMDirectory directory;
+
+   private IndexReader reader;
+
+   private SearcherManager searcherManager;
+
+   private IndexSearcher searcher;
+
+   private Sort sort;
+
+   private volatile long generation;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      directory = new RAMDirectory();
+      IndexWriter writer =
+         new IndexWriter(directory, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED);
+      for (int i = 0; i < DOCUMENTS; i++)
+      {
+         Document doc = new Document();
+         doc.add(new Field(FieldNames.UUID, String.format("%03d", i), Field.Store.YES, Field.Index.NOT_ANALYZED));
+         writer.addDocument(doc);
+      }
+      writer.close();
+      reader = IndexReader.open(directory);
+      searcherManager = new SearcherManager()
+      {
+         @Override
+         protected long getGeneration()
+         {
+            return generation;
+         }
+
+         @Override
+         protected IndexReader openIndexReader()
+         {
+            reader.incRef();
+            return reader;
+         }
+      };
+      searcher = searcherManager.acquire();
+      sort = new Sort(new SortField(FieldNames.UUID, SortField.STRING));
+   }
+
+   @After
+   public void afterEach() throws Exception
+   {
+      searcherManager.release(searcher);
+      searcherManager.close();
+      reader.close();
+      directory.close();
+   }
+
+   @Test
+   public void shouldFetchHitsOnDemand() throws Exception
+   {
+      LuceneScoredRowList rows =
+         new LuceneScoredRowList(searcher, searcherManager, new MatchAllDocsQuery(), sort, Limit.NONE, "s", 10);
+
+      assertThat(rows.size(), is(DOCUMENTS));
+      for (int i = 0; i < DOCUMENTS; i++)
+      {
+         assertThat(rows.get(i).getNodeIdentifer("s"), is(String.format("%03d", i)));
+      }
+   }
+
+   @Test
+   public void shouldApplyOffsetAndRowLimit() throws Exception
+   {
+      LuceneScoredRowList rows =
+         new LuceneScoredRowList(searcher, searcherManager, new MatchAllDocsQuery(), sort, new Limit(5, 90), "s", 2);
+
+      assertThat(rows.size(), is(5));
+      assertThat(rows.get(4).getNodeIdentifer("s"), is("094"));
+      assertThat(rows.get(0).getNodeIdentifer("s"), is("090"));
+   }
+
+   @Test
+   public void shouldLimitSizeByNumberOfHits() throws Exception
+   {
+      LuceneScoredRowList rows =
+         new LuceneScoredRowList(searcher, searcherManager, new MatchAllDocsQuery(), sort, new Limit(50, 80), "s", 10);
+
+      assertThat(rows.size(), is(20));
+      assertThat(rows.get(19).getNodeIdentifer("s"), is("099"));
+   }
+
+   @Test
+   public void shouldSkipHitsDeletedBetweenFetches() throws Exception
+   {
+      LuceneScoredRowList rows =
+         new LuceneScoredRowList(searcher, searcherManager, new MatchAllDocsQuery(), sort, Limit.NONE, "s", 10);
+      assertThat(rows.get(9).getNodeIdentifer("s"), is("009"));
+
+      // one of loaded hits and two hits of the next window
+      deleteDocuments(5, 10, 11);
+
+      List<String> identifiers = new ArrayList<String>();
+      for (ScoredRow row : rows)
+      {
+         assertThat(row, notNullValue());
+         identifiers.add(row.getNodeIdentifer("s"));
+      }
+      assertThat(identifiers.size(), is(DOCUMENTS - 2));
+      assertThat(rows.size(), is(DOCUMENTS - 2));
+      assertThat(identifiers.get(9), is("009"));
+      assertThat(identifiers.get(10), is("012"));
+      assertThat(identifiers.contains("010"), is(false));
+      assertThat(identifiers.get(DOCUMENTS - 3), is("099"));
+   }
+
+   @Test
+   public void shouldNotReturnNullForLastHitsDeletedBetweenFetches() throws Exception
+   {
+      LuceneScoredRowList rows =
+         new LuceneScoredRowList(searcher, searcherManager, new MatchAllDocsQuery(), sort, new Limit(20, 80), "s", 10);
+      assertThat(rows.size(), is(20));
+
+      deleteDocuments(95, 96);
+
+      List<ScoredRow> copy = new ArrayList<ScoredRow>(rows);
+      assertThat(copy.size(), is(18));
+      assertThat(copy.contains(null), is(false));
+      assertThat(copy.get(17).getNodeIdentifer("s"), is("099"));
+      assertThat(rows.size(), is(18));
+      assertThat(rows.get(15).getNodeIdentifer("s"), is("097"));
+   }
+
+   private void deleteDocuments(int... docs) throws Exception
+   {
+      IndexReader writableReader = IndexReader.open(directory, false);
+      for (int doc : docs)
+      {
+         writableReader.deleteDocument(doc);
+      }
+      writableReader.close();
+      IndexReader old = reader;
+      reader = IndexReader.open(directory);
+      old.close();
+      generation++;
+   }
+}
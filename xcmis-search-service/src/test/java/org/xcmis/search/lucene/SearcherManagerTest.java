@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriter.MaxFieldLength;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link SearcherManager}
+ */
+public class SearcherManagerTest
+{
+   private RAMDirectory directory;
+
+   private long generation;
+
+   private int opened;
+
+   private SearcherManager manager;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      directory = new RAMDirectory();
+      new IndexWriter(directory, new StandardAnalyzer(Version.LUCENE_35), MaxFieldLength.UNLIMITED).close();
+      manager = new SearcherManager()
+      {
+         @Override
+         protected long getGeneration()
+         {
+            return generation;
+         }
+
+         @Override
+         protected IndexReader openIndexReader()
+         {
+            opened++;
+            try
+            {
+               return IndexReader.open(directory);
+            }
+            catch (Exception e)
+            {
+               throw new RuntimeException(e);
+            }
+         }
+      };
+   }
+
+   @After
+   public void afterEach() throws Exception
+   {
+      manager.close();
+      directory.close();
+   }
+
+   @Test
+   public void shouldShareSearcherOfTheSameGeneration() throws Exception
+   {
+      IndexSearcher first = manager.acquire();
+      IndexSearcher second = manager.acquire();
+
+      assertThat(second, sameInstance(first));
+      assertThat(opened, is(1));
+
+      manager.release(first);
+      manager.release(second);
+   }
+
+   @Test
+   public void shouldRefreshSearcherOnNewGeneration() throws Exception
+   {
+      IndexSearcher first = manager.acquire();
+      generation++;
+      IndexSearcher second = manager.acquire();
+
+      assertThat(second, not(sameInstance(first)));
+      assertThat(opened, is(2));
+
+      manager.release(first);
+      manager.release(second);
+   }
+
+   @Test
+   public void shouldReleaseReplacedReaderWhenQueriesAreFinished() throws Exception
+   {
+      IndexSearcher first = manager.acquire();
+      IndexReader reader = first.getIndexReader();
+      // reference passed to the manager by the opener
+      assertThat(reader.getRefCount(), is(1));
+
+      generation++;
+      manager.release(manager.acquire());
+      assertThat(reader.getRefCount(), is(1));
+
+      manager.release(first);
+      assertThat(reader.getRefCount(), is(0));
+   }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.config.IndexConfiguration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test for snapshots of the memory chains of {@link CacheableIndexDataManager}.
+ */
+public class CacheableIndexDataManagerTest
+{
+   private File indexDir;
+
+   private TransactionableIndexDataManager manager;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      indexDir = File.createTempFile("index", "");
+      indexDir.delete();
+      manager = new TransactionableIndexDataManager(new IndexConfiguration(indexDir.getAbsolutePath(), "", "root"), null);
+      manager.start();
+   }
+
+   @After
+   public void afterEach()
+   {
+      manager.stop();
+      remove(indexDir);
+   }
+
+   @Test
+   public void shouldKeepReaderOfReplacedSnapshotOpen() throws Exception
+   {
+      save("a");
+      IndexReader reader = manager.acquireIndexReader();
+      for (int i = 0; i < 10; i++)
+      {
+         // chains are merged and disposed
+         save("b" + i);
+      }
+
+      assertThat(reader.numDocs(), is(1));
+      assertThat(reader.document(0).get(FieldNames.UUID), is("a"));
+      assertThat(manager.getIndexReader().numDocs(), is(11));
+      reader.decRef();
+   }
+
+   @Test
+   public void shouldReleaseReaderOfReplacedSnapshot() throws Exception
+   {
+      save("a");
+      save("b");
+      IndexReader reader = manager.acquireIndexReader();
+      // reference of the snapshot and reference of the caller
+      assertThat(reader.getRefCount(), is(2));
+
+      save("c");
+      assertThat(reader.getRefCount(), is(1));
+      reader.decRef();
+      assertThat(reader.getRefCount(), is(0));
+   }
+
+   @Test
+   public void shouldSearchWhileSnapshotsAreSwapped() throws Exception
+   {
+      final int documents = 300;
+      final AtomicBoolean done = new AtomicBoolean();
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      final CountDownLatch finished = new CountDownLatch(4);
+      for (int t = 0; t < 4; t++)
+      {
+         new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  while (!done.get())
+                  {
+                     IndexReader reader = manager.acquireIndexReader();
+                     try
+                     {
+                        IndexSearcher searcher = new IndexSearcher(reader);
+                        for (ScoreDoc hit : searcher.search(new MatchAllDocsQuery(), documents).scoreDocs)
+                        {
+                           searcher.doc(hit.doc).get(FieldNames.UUID);
+                        }
+                     }
+                     finally
+                     {
+                        reader.decRef();
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  errors.add(e);
+               }
+               finally
+               {
+                  finished.countDown();
+               }
+            }
+         }.start();
+      }
+      try
+      {
+         for (int i = 0; i < documents; i++)
+         {
+            save("d" + i);
+         }
+      }
+      finally
+      {
+         done.set(true);
+         finished.await();
+      }
+
+      assertThat(errors.toString(), errors.isEmpty(), is(true));
+      assertThat(manager.getIndexReader().numDocs(), is(documents));
+   }
+
+   private void save(String uuid) throws Exception
+   {
+      Document document = new Document();
+      document.add(new Field(FieldNames.UUID, uuid, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      Map<String, Document> added = new HashMap<String, Document>();
+      added.put(uuid, document);
+      manager.save(new LuceneIndexTransaction(added, new HashSet<String>()));
+   }
+
+   private static void remove(File file)
+   {
+      File[] files = file.listFiles();
+      if (files != null)
+      {
+         for (File child : files)
+         {
+            remove(child);
+         }
+      }
+      file.delete();
+   }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test for memory mapped chains of {@link InMemoryIndexDataKeeperFactory}.
+ */
+public class InMemoryIndexDataKeeperFactoryTest
+{
+   private File spillDir;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      spillDir = File.createTempFile("chains", "");
+      spillDir.delete();
+   }
+
+   @After
+   public void afterEach()
+   {
+      File[] chains = spillDir.listFiles();
+      if (chains != null)
+      {
+         for (File chain : chains)
+         {
+            File[] files = chain.listFiles();
+            if (files != null)
+            {
+               for (File file : files)
+               {
+                  file.delete();
+               }
+            }
+            chain.delete();
+         }
+      }
+      spillDir.delete();
+   }
+
+   @Test
+   public void shouldSpillLargeChain() throws Exception
+   {
+      InMemoryIndexDataKeeperFactory factory = new InMemoryIndexDataKeeperFactory(spillDir, 1);
+      LuceneIndexDataManager merged = factory.merge(Collections.singleton(chain("a", "b")));
+
+      assertThat(spillDir.list().length, is(1));
+      assertThat(merged.getDocumentCount(), is(2L));
+      assertThat(merged.getIndexReader().numDocs(), is(2));
+
+      merged.stop();
+      assertThat(spillDir.list().length, is(0));
+   }
+
+   @Test
+   public void shouldKeepReaderOfStoppedChainReadable() throws Exception
+   {
+      InMemoryIndexDataKeeperFactory factory = new InMemoryIndexDataKeeperFactory(spillDir, 1);
+      LuceneIndexDataManager merged = factory.merge(Collections.singleton(chain("a", "b")));
+
+      // reader is shared with the snapshot of the index used by search
+      IndexReader reader = merged.getIndexReader();
+      reader.incRef();
+      merged.stop();
+
+      Set<String> uuids = new HashSet<String>();
+      for (int i = 0; i < reader.maxDoc(); i++)
+      {
+         uuids.add(reader.document(i).get(FieldNames.UUID));
+      }
+      assertThat(uuids, is((Set<String>)new HashSet<String>(Arrays.asList("a", "b"))));
+      reader.decRef();
+   }
+
+   private LuceneIndexDataManager chain(String... uuids) throws Exception
+   {
+      Map<String, Document> documents = new HashMap<String, Document>();
+      for (String uuid : uuids)
+      {
+         Document document = new Document();
+         document.add(new Field(FieldNames.UUID, uuid, Field.Store.YES, Field.Index.NOT_ANALYZED));
+         documents.put(uuid, document);
+      }
+      return new ReducibleInMemoryIndexDataKeeper(new RAMDirectory(), documents, new HashMap<String, Document>(
+         documents), mock(TransactionLog.class));
+   }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.lucene.index.merge.TieredAggregatePolicy;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Test for reader and writer lifecycle of {@link PersistedIndex}.
+ */
+public class PersistedIndexTest
+{
+   private File indexDir;
+
+   private PersistedIndex index;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      indexDir = File.createTempFile("index", "");
+      indexDir.delete();
+      indexDir.mkdirs();
+   }
+
+   @After
+   public void afterEach()
+   {
+      if (index != null)
+      {
+         index.stop();
+      }
+      remove(indexDir);
+   }
+
+   @Test
+   public void shouldShareWriterBetweenModifications() throws Exception
+   {
+      index = new PersistedIndex(FSDirectory.open(indexDir));
+      save("a");
+      IndexWriter writer = index.getIndexWriter();
+      save("b");
+
+      assertThat(index.getIndexWriter(), sameInstance(writer));
+      assertThat(index.getDocumentCount(), is(2L));
+   }
+
+   @Test
+   public void shouldReleaseWriteLockOnStop() throws Exception
+   {
+      index = new PersistedIndex(FSDirectory.open(indexDir));
+      save("a");
+      index.stop();
+      index = null;
+
+      Directory directory = FSDirectory.open(indexDir);
+      assertThat(IndexWriter.isLocked(directory), is(false));
+      IndexReader reader = IndexReader.open(directory);
+      assertThat(reader.numDocs(), is(1));
+      reader.close();
+      directory.close();
+   }
+
+   @Test
+   public void shouldCloseReplacedReader() throws Exception
+   {
+      index = new PersistedIndex(FSDirectory.open(indexDir));
+      save("a");
+      IndexReader reader = index.getIndexReader();
+      save("b");
+
+      assertThat(index.getIndexReader(), not(sameInstance(reader)));
+      assertThat(reader.getRefCount(), is(0));
+   }
+
+   @Test
+   public void shouldKeepReplacedReaderOpenWhileReferenced() throws Exception
+   {
+      index = new PersistedIndex(FSDirectory.open(indexDir));
+      save("a");
+      IndexReader reader = index.getIndexReader();
+      reader.incRef();
+      save("b");
+
+      assertThat(index.getIndexReader().numDocs(), is(2));
+      assertThat(reader.getRefCount(), is(1));
+      assertThat(reader.numDocs(), is(1));
+      assertThat(reader.document(0).get(FieldNames.UUID), is("a"));
+      reader.decRef();
+      assertThat(reader.getRefCount(), is(0));
+   }
+
+   @Test
+   public void shouldMergeSegmentsSelectedByPolicy() throws Exception
+   {
+      createSegments(10);
+      TieredAggregatePolicy mergePolicy = new TieredAggregatePolicy();
+      mergePolicy.setSegmentsPerTier(2);
+      mergePolicy.setMaxMergeAtOnce(2);
+      index = new PersistedIndex(FSDirectory.open(indexDir), mergePolicy);
+      assertThat(index.getIndexReader().getSequentialSubReaders().length, is(10));
+
+      index.maybeMerge();
+      // waits for background merges
+      index.stop();
+      index = null;
+
+      Directory directory = FSDirectory.open(indexDir);
+      IndexReader reader = IndexReader.open(directory);
+      assertThat(reader.getSequentialSubReaders().length < 10, is(true));
+      assertThat(reader.numDocs(), is(10));
+      reader.close();
+      directory.close();
+   }
+
+   @Test
+   public void shouldOptimizeIndexToSingleSegment() throws Exception
+   {
+      createSegments(10);
+      index = new PersistedIndex(FSDirectory.open(indexDir));
+      IndexReader reader = index.getIndexReader();
+      assertThat(reader.getSequentialSubReaders().length, is(10));
+
+      index.optimize();
+
+      assertThat(index.getIndexReader().getSequentialSubReaders().length, is(1));
+      assertThat(index.getIndexReader().numDocs(), is(10));
+      assertThat(reader.getRefCount(), is(0));
+   }
+
+   /**
+    * Write one segment per document, which are not merged.
+    */
+   private void createSegments(int count) throws Exception
+   {
+      Directory directory = FSDirectory.open(indexDir);
+      IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, new WhitespaceAnalyzer(Version.LUCENE_35));
+      config.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+      IndexWriter writer = new IndexWriter(directory, config);
+      for (int i = 0; i < count; i++)
+      {
+         writer.addDocument(createDocument("s" + i));
+         writer.commit();
+      }
+      writer.close();
+      directory.close();
+   }
+
+   private void save(String uuid) throws Exception
+   {
+      Map<String, Document> added = new HashMap<String, Document>();
+      added.put(uuid, createDocument(uuid));
+      index.save(new LuceneIndexTransaction(added, new HashSet<String>()));
+   }
+
+   private static Document createDocument(String uuid)
+   {
+      Document document = new Document();
+      document.add(new Field(FieldNames.UUID, uuid, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      return document;
+   }
+
+   private static void remove(File file)
+   {
+      File[] files = file.listFiles();
+      if (files != null)
+      {
+         for (File child : files)
+         {
+            remove(child);
+         }
+      }
+      file.delete();
+   }
+}
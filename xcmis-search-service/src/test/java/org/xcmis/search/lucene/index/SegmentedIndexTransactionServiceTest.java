@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Test for {@link SegmentedIndexTransactionService}
+ */
+public class SegmentedIndexTransactionServiceTest
+{
+   private File storageDir;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      storageDir = File.createTempFile("journal", "");
+      storageDir.delete();
+      storageDir.mkdirs();
+   }
+
+   @After
+   public void afterEach()
+   {
+      for (File file : storageDir.listFiles())
+      {
+         file.delete();
+      }
+      storageDir.delete();
+   }
+
+   @Test
+   public void shouldRecoverNotRemovedTransactions() throws Exception
+   {
+      SegmentedIndexTransactionService service = new SegmentedIndexTransactionService(storageDir);
+      TransactionLog first = service.createTransactionLog(set("a", "b"), set("c"));
+      TransactionLog second = service.createTransactionLog(set("d"), set());
+      first.log();
+      second.log();
+      first.removeLog();
+      service.close();
+
+      service = new SegmentedIndexTransactionService(storageDir);
+      assertThat(service.hasUncommitedTransactions(), is(true));
+      List<TransactionLog> logs = service.getTransactionLogs();
+      assertThat(logs.size(), is(1));
+      assertThat(logs.get(0).getAddedList(), is(set("d")));
+      assertThat(logs.get(0).getRemovedList(), is(set()));
+
+      logs.get(0).removeLog();
+      assertThat(service.hasUncommitedTransactions(), is(false));
+      service.close();
+
+      service = new SegmentedIndexTransactionService(storageDir);
+      assertThat(service.hasUncommitedTransactions(), is(false));
+      service.close();
+   }
+
+   @Test
+   public void shouldDeleteSegmentsOfRemovedTransactions() throws Exception
+   {
+      SegmentedIndexTransactionService service = new SegmentedIndexTransactionService(storageDir, 64);
+      TransactionLog[] logs = new TransactionLog[10];
+      for (int i = 0; i < logs.length; i++)
+      {
+         logs[i] = service.createTransactionLog(set("document" + i), set());
+         logs[i].log();
+      }
+      assertThat(storageDir.listFiles().length > 1, is(true));
+
+      for (int i = 0; i < logs.length; i++)
+      {
+         logs[i].removeLog();
+      }
+      assertThat(storageDir.listFiles().length, is(1));
+      service.close();
+   }
+
+   @Test
+   public void shouldIgnoreCorruptedTail() throws Exception
+   {
+      SegmentedIndexTransactionService service = new SegmentedIndexTransactionService(storageDir);
+      service.createTransactionLog(set("a"), set()).log();
+      service.createTransactionLog(set("b"), set()).log();
+      service.close();
+
+      // damage last byte of the second record
+      File segment = storageDir.listFiles()[0];
+      RandomAccessFile file = new RandomAccessFile(segment, "rw");
+      try
+      {
+         file.seek(file.length() - 1);
+         int last = file.read();
+         file.seek(file.length() - 1);
+         file.write(last + 1);
+      }
+      finally
+      {
+         file.close();
+      }
+
+      service = new SegmentedIndexTransactionService(storageDir);
+      List<TransactionLog> logs = service.getTransactionLogs();
+      assertThat(logs.size(), is(1));
+      assertThat(logs.get(0).getAddedList(), is(set("a")));
+      service.close();
+   }
+
+   @Test
+   public void shouldShareSyncBetweenConcurrentTransactions() throws Exception
+   {
+      final SegmentedIndexTransactionService service = new SegmentedIndexTransactionService(storageDir);
+      Thread[] threads = new Thread[8];
+      final Exception[] errors = new Exception[threads.length];
+      for (int i = 0; i < threads.length; i++)
+      {
+         final int number = i;
+         threads[i] = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  for (int j = 0; j < 50; j++)
+                  {
+                     service.createTransactionLog(set("document" + number + "_" + j), set()).log();
+                  }
+               }
+               catch (Exception e)
+               {
+                  errors[number] = e;
+               }
+            }
+         };
+         threads[i].start();
+      }
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i].join();
+         assertThat(errors[i] == null, is(true));
+      }
+      service.close();
+
+      SegmentedIndexTransactionService recovered = new SegmentedIndexTransactionService(storageDir);
+      assertThat(recovered.getTransactionLogs().size(), is(threads.length * 50));
+      recovered.close();
+   }
+
+   private Set<String> set(String... values)
+   {
+      return new HashSet<String>(Arrays.asList(values));
+   }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.InvalidQueryException;
+import org.xcmis.search.config.ExtractionLimits;
+import org.xcmis.search.config.IndexConfiguration;
+import org.xcmis.search.config.ExtractionLimits.OverflowPolicy;
+import org.xcmis.search.content.Property.BinaryValue;
+import org.xcmis.search.lucene.content.ErrorReporter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test limits of the {@link TextExtractor}.
+ */
+public class TextExtractorTest
+{
+   private static final String TEXT = "hello world";
+
+   private IndexConfiguration indexConfiguration;
+
+   private List<String> messages;
+
+   private TextExtractor extractor;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      indexConfiguration = new IndexConfiguration("root");
+      messages = new ArrayList<String>();
+      extractor = new TextExtractor(indexConfiguration, new RecordingErrorReporter(), 100);
+   }
+
+   @After
+   public void afterEach()
+   {
+      extractor.shutdown();
+   }
+
+   @Test
+   public void shouldTruncateTooLongText() throws Exception
+   {
+      indexConfiguration.setExtractionLimits("text/plain", new ExtractionLimits(5, 60 * 1000,
+         OverflowPolicy.TRUNCATE));
+
+      assertThat(extract(text(TEXT)), is("hello"));
+      assertThat(messages.size(), is(1));
+      assertTrue(messages.get(0), messages.get(0).contains("truncated"));
+   }
+
+   @Test
+   public void shouldSkipTooLongText() throws Exception
+   {
+      indexConfiguration.setExtractionLimits("text/plain", new ExtractionLimits(5, 60 * 1000, OverflowPolicy.SKIP));
+
+      assertThat(extract(text(TEXT)), nullValue());
+      assertThat(messages.size(), is(1));
+      assertTrue(messages.get(0), messages.get(0).contains("not indexed"));
+   }
+
+   @Test
+   public void shouldExtractWithUnlimitedTimeout() throws Exception
+   {
+      indexConfiguration.setExtractionLimits("text/plain", new ExtractionLimits(100, Long.MAX_VALUE,
+         OverflowPolicy.SKIP));
+
+      assertThat(extract(text(TEXT)).trim(), is(TEXT));
+      assertThat(messages.size(), is(0));
+   }
+
+   @Test
+   public void shouldCancelBlockedExtraction() throws Exception
+   {
+      indexConfiguration.setExtractionLimits("text/plain", new ExtractionLimits(100, 100, OverflowPolicy.TRUNCATE));
+      final CountDownLatch interrupted = new CountDownLatch(1);
+      InputStream blocked = new InputStream()
+      {
+         @Override
+         public int read() throws IOException
+         {
+            try
+            {
+               // never returns until extraction is cancelled
+               new CountDownLatch(1).await();
+            }
+            catch (InterruptedException e)
+            {
+               interrupted.countDown();
+            }
+            throw new IOException("Interrupted");
+         }
+      };
+
+      long start = System.currentTimeMillis();
+      assertThat(extract(new BinaryValue(blocked, "text/plain", null, -1)), nullValue());
+      assertTrue(System.currentTimeMillis() - start < 10 * 1000);
+      assertThat(interrupted.await(10, TimeUnit.SECONDS), is(true));
+      assertThat(messages.size(), is(1));
+      assertTrue(messages.get(0), messages.get(0).contains("not finished in time"));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldRejectNotPositiveTimeout()
+   {
+      new ExtractionLimits(100, 0, OverflowPolicy.TRUNCATE);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void shouldRejectNotPositiveMaxChars()
+   {
+      new ExtractionLimits(-1, 100, OverflowPolicy.TRUNCATE);
+   }
+
+   private String extract(BinaryValue value) throws Exception
+   {
+      Future<String> text = extractor.extract("id", "content", value);
+      return extractor.getText(text, "id", "content", value);
+   }
+
+   private BinaryValue text(String text)
+   {
+      byte[] bytes = text.getBytes();
+      return new BinaryValue(new ByteArrayInputStream(bytes), "text/plain", null, bytes.length);
+   }
+
+   private class RecordingErrorReporter implements ErrorReporter
+   {
+      public InvalidQueryException getException()
+      {
+         return null;
+      }
+
+      public boolean hasErrors()
+      {
+         return !messages.isEmpty();
+      }
+
+      public void reportMessage(String msg)
+      {
+         messages.add(msg);
+      }
+
+      public void reportException(Exception e)
+      {
+         messages.add(e.getMessage());
+      }
+
+      public void clear()
+      {
+         messages.clear();
+      }
+   }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.index;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test for {@link UUIDDocIdCache}.
+ */
+public class UUIDDocIdCacheTest
+{
+   private RAMDirectory directory;
+
+   private IndexWriter writer;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      directory = new RAMDirectory();
+      IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, new WhitespaceAnalyzer(Version.LUCENE_35));
+      // keep segments, so documents are looked up in several of them
+      config.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+      writer = new IndexWriter(directory, config);
+   }
+
+   @After
+   public void afterEach() throws Exception
+   {
+      writer.close();
+      directory.close();
+   }
+
+   @Test
+   public void shouldMapUUIDsOfAllSegments() throws Exception
+   {
+      add("a", "1");
+      add("b", "1");
+      writer.commit();
+      add("c", "1");
+      writer.commit();
+      IndexReader reader = IndexReader.open(directory);
+
+      assertThat(reader.getSequentialSubReaders().length, is(2));
+      for (String uuid : new String[]{"a", "b", "c"})
+      {
+         int doc = UUIDDocIdCache.getDocId(reader, uuid);
+         assertThat(reader.document(doc).get(FieldNames.UUID), is(uuid));
+         assertThat(UUIDDocIdCache.getUUID(reader, doc), is(uuid));
+      }
+      assertThat(UUIDDocIdCache.getDocId(reader, "d"), is(-1));
+      reader.close();
+   }
+
+   @Test
+   public void shouldNotFindDeletedDocumentAfterReopen() throws Exception
+   {
+      add("a", "1");
+      add("b", "1");
+      writer.commit();
+      IndexReader reader = IndexReader.open(directory);
+      // segment is cached
+      assertThat(UUIDDocIdCache.getDocId(reader, "a"), is(0));
+
+      writer.deleteDocuments(new Term(FieldNames.UUID, "a"));
+      writer.commit();
+      IndexReader reopened = reader.reopen();
+
+      assertThat(UUIDDocIdCache.getDocId(reopened, "a"), is(-1));
+      assertThat(UUIDDocIdCache.getDocId(reopened, "b"), is(1));
+      // old reader still sees the document
+      assertThat(UUIDDocIdCache.getDocId(reader, "a"), is(0));
+      reopened.close();
+      reader.close();
+   }
+
+   @Test
+   public void shouldFindDocumentInOldReaderWhenReopenedOneIsReadFirst() throws Exception
+   {
+      add("a", "1");
+      add("b", "1");
+      writer.commit();
+      IndexReader reader = IndexReader.open(directory);
+
+      writer.deleteDocuments(new Term(FieldNames.UUID, "a"));
+      writer.commit();
+      IndexReader reopened = reader.reopen();
+
+      // reopened reader shares the segment core with the old one
+      assertThat(UUIDDocIdCache.getDocId(reopened, "a"), is(-1));
+      assertThat(UUIDDocIdCache.getDocId(reader, "a"), is(0));
+      assertThat(UUIDDocIdCache.getUUID(reader, 0), is("a"));
+      reopened.close();
+      reader.close();
+   }
+
+   @Test
+   public void shouldFindUpdatedDocumentInNewSegmentAfterReopen() throws Exception
+   {
+      add("a", "1");
+      add("b", "1");
+      writer.commit();
+      IndexReader reader = IndexReader.open(directory);
+      assertThat(UUIDDocIdCache.getDocId(reader, "a"), is(0));
+
+      writer.updateDocument(new Term(FieldNames.UUID, "a"), document("a", "2"));
+      writer.commit();
+      IndexReader reopened = reader.reopen();
+
+      int doc = UUIDDocIdCache.getDocId(reopened, "a");
+      assertThat(doc, is(2));
+      assertThat(reopened.document(doc).get("version"), is("2"));
+      assertThat(UUIDDocIdCache.getUUID(reopened, doc), is("a"));
+      reopened.close();
+      reader.close();
+   }
+
+   @Test
+   public void shouldFindLiveDocumentWhenSegmentHasDeletedOne() throws Exception
+   {
+      add("a", "1");
+      writer.updateDocument(new Term(FieldNames.UUID, "a"), document("a", "2"));
+      writer.commit();
+      IndexReader reader = IndexReader.open(directory);
+
+      assertThat(reader.getSequentialSubReaders().length, is(1));
+      int doc = UUIDDocIdCache.getDocId(reader, "a");
+      assertThat(reader.isDeleted(doc), is(false));
+      assertThat(reader.document(doc).get("version"), is("2"));
+      reader.close();
+   }
+
+   @Test
+   public void shouldMapUUIDsOfMergedSegment() throws Exception
+   {
+      add("a", "1");
+      writer.commit();
+      add("b", "1");
+      writer.commit();
+      IndexReader segmented = IndexReader.open(directory);
+      assertThat(UUIDDocIdCache.getDocId(segmented, "b"), is(1));
+      segmented.close();
+      writer.close();
+      writer =
+         new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_35, new WhitespaceAnalyzer(Version.LUCENE_35)));
+      writer.deleteDocuments(new Term(FieldNames.UUID, "a"));
+      writer.optimize();
+      writer.commit();
+      IndexReader reader = IndexReader.open(directory);
+
+      assertThat(reader.maxDoc(), is(1));
+      assertThat(UUIDDocIdCache.getDocId(reader, "a"), is(-1));
+      assertThat(UUIDDocIdCache.getDocId(reader, "b"), is(0));
+      reader.close();
+   }
+
+   private void add(String uuid, String version) throws Exception
+   {
+      writer.addDocument(document(uuid, version));
+   }
+
+   private static Document document(String uuid, String version)
+   {
+      Document document = new Document();
+      document.add(new Field(FieldNames.UUID, uuid, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      document.add(new Field("version", version, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      return document;
+   }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.lucene.search;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.lucene.index.FieldNames;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test for {@link ChildDocsFilter} over index where parents and children are
+ * in different segments.
+ */
+public class ChildDocsFilterTest
+{
+   private RAMDirectory directory;
+
+   private IndexWriter writer;
+
+   private IndexReader reader;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      directory = new RAMDirectory();
+      IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_35, new WhitespaceAnalyzer(Version.LUCENE_35));
+      config.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+      writer = new IndexWriter(directory, config);
+      // one segment per level of tree, and one child in the parent segment
+      writer.addDocument(document("p", "root"));
+      writer.addDocument(document("c1", "p"));
+      writer.commit();
+      writer.addDocument(document("c2", "p"));
+      writer.commit();
+      writer.addDocument(document("g", "c2"));
+      writer.commit();
+      reader = IndexReader.open(directory);
+   }
+
+   @After
+   public void afterEach() throws Exception
+   {
+      reader.close();
+      writer.close();
+      directory.close();
+   }
+
+   @Test
+   public void shouldFilterChildrenOfAllSegments() throws Exception
+   {
+      assertThat(reader.getSequentialSubReaders().length, is(3));
+      assertThat(filter(reader, "p"), is(set("c1", "c2")));
+      assertThat(filter(reader, "c2"), is(set("g")));
+      assertThat(filter(reader, "g"), is(set()));
+   }
+
+   @Test
+   public void shouldCollectSubtreeOfAllSegments() throws Exception
+   {
+      assertThat(ChildDocsFilter.getSubtree(reader, set("p")), is(set("p", "c1", "c2", "g")));
+      assertThat(ChildDocsFilter.getSubtree(reader, set("c2")), is(set("c2", "g")));
+   }
+
+   @Test
+   public void shouldFindUUIDsOfAllSegments() throws Exception
+   {
+      assertThat(ChildDocsFilter.getUUIDs(reader, new TermQuery(new Term(FieldNames.UUID, "g"))), is(set("g")));
+      assertThat(ChildDocsFilter.getUUIDs(reader, new TermQuery(new Term(FieldNames.UUID, "x"))), is(set()));
+      assertThat(ChildDocsFilter.getUUIDs(reader, new TermQuery(new Term(FieldNames.PARENT, "p"))), is(set("c1",
+         "c2")));
+   }
+
+   @Test
+   public void shouldSkipChildDeletedAfterChildrenAreCached() throws Exception
+   {
+      assertThat(filter(reader, "p"), is(set("c1", "c2")));
+
+      writer.deleteDocuments(new Term(FieldNames.UUID, "c2"));
+      writer.commit();
+      IndexReader reopened = reader.reopen();
+      try
+      {
+         assertThat(filter(reopened, "p"), is(set("c1")));
+         assertThat(ChildDocsFilter.getSubtree(reopened, set("p")), is(set("p", "c1")));
+         // replaced reader still sees child
+         assertThat(filter(reader, "p"), is(set("c1", "c2")));
+      }
+      finally
+      {
+         reopened.close();
+      }
+   }
+
+   @Test
+   public void shouldSeeDeletedChildInOldReaderWhenReopenedOneIsReadFirst() throws Exception
+   {
+      writer.deleteDocuments(new Term(FieldNames.UUID, "c2"));
+      writer.commit();
+      IndexReader reopened = reader.reopen();
+      try
+      {
+         // reopened reader shares the segment cores with the old one
+         assertThat(filter(reopened, "p"), is(set("c1")));
+         assertThat(filter(reader, "p"), is(set("c1", "c2")));
+         assertThat(ChildDocsFilter.getSubtree(reader, set("p")), is(set("p", "c1", "c2", "g")));
+      }
+      finally
+      {
+         reopened.close();
+      }
+   }
+
+   @Test
+   public void shouldFollowChildMovedToNewSegment() throws Exception
+   {
+      assertThat(filter(reader, "p"), is(set("c1", "c2")));
+
+      writer.updateDocument(new Term(FieldNames.UUID, "c1"), document("c1", "c2"));
+      writer.commit();
+      IndexReader reopened = reader.reopen();
+      try
+      {
+         assertThat(filter(reopened, "p"), is(set("c2")));
+         assertThat(filter(reopened, "c2"), is(set("c1", "g")));
+         assertThat(ChildDocsFilter.getSubtree(reopened, set("p")), is(set("p", "c1", "c2", "g")));
+      }
+      finally
+      {
+         reopened.close();
+      }
+   }
+
+   private static Set<String> filter(IndexReader reader, String parent) throws Exception
+   {
+      IndexSearcher searcher = new IndexSearcher(reader);
+      Set<String> result = new HashSet<String>();
+      for (ScoreDoc hit : searcher.search(new MatchAllDocsQuery(), new ChildDocsFilter(set(parent)), 100).scoreDocs)
+      {
+         result.add(searcher.doc(hit.doc).get(FieldNames.UUID));
+      }
+      return result;
+   }
+
+   private static Document document(String uuid, String parent)
+   {
+      Document document = new Document();
+      document.add(new Field(FieldNames.UUID, uuid, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      document.add(new Field(FieldNames.PARENT, parent, Field.Store.YES, Field.Index.NOT_ANALYZED));
+      return document;
+   }
+
+   private static Set<String> set(String... uuids)
+   {
+      Set<String> result = new HashSet<String>();
+      Collections.addAll(result, uuids);
+      return result;
+   }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.SearchService;
+import org.xcmis.search.config.IndexConfiguration;
+import org.xcmis.search.config.SearchServiceConfiguration;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.InMemorySchema;
+import org.xcmis.search.content.Property;
+import org.xcmis.search.content.Schema;
+import org.xcmis.search.content.Property.SimpleValue;
+import org.xcmis.search.content.interceptors.ContentReaderInterceptor;
+import org.xcmis.search.lucene.content.SchemaTableResolver;
+import org.xcmis.search.model.Query;
+import org.xcmis.search.result.ScoredRow;
+import org.xcmis.search.value.CastSystem;
+import org.xcmis.search.value.PropertyType;
+import org.xcmis.search.value.ToStringNameConverter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Test for ORDER BY on typed sort fields. Values are chosen so that sorting
+ * by their string terms gives another order.
+ */
+public class OrderByTest
+{
+   private static final String TABLE = "sortTable";
+
+   private QueryBuilder builder;
+
+   private SearchService searchService;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      builder = new QueryBuilder(mock(CastSystem.class));
+
+      Schema schema =
+         InMemorySchema.createBuilder().addTable(TABLE,
+            new String[]{"longProp", "doubleProp", "dateProp", "stringProp"},
+            new PropertyType[]{PropertyType.LONG, PropertyType.DOUBLE, PropertyType.DATE, PropertyType.STRING})
+            .build();
+      SchemaTableResolver tableResolver = new SchemaTableResolver(new ToStringNameConverter(), schema);
+
+      //index configuration
+      IndexConfiguration indexConfuration = new IndexConfiguration("rootParentUuid", "rootUuid");
+
+      //search service configuration
+      SearchServiceConfiguration configuration =
+         new SearchServiceConfiguration(schema, tableResolver, mock(ContentReaderInterceptor.class), indexConfuration);
+      searchService = new SearchService(configuration);
+      searchService.start();
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      searchService.stop();
+   }
+
+   @Test
+   public void shouldOrderByLong() throws Exception
+   {
+      index(entry("nine", "/nine", new Property<Long>(PropertyType.LONG, "longProp", new SimpleValue<Long>(9L))),
+         entry("ten", "/ten", new Property<Long>(PropertyType.LONG, "longProp", new SimpleValue<Long>(10L))),
+         entry("minusFive", "/minusFive", new Property<Long>(PropertyType.LONG, "longProp",
+            new SimpleValue<Long>(-5L))),
+         entry("hundred", "/hundred", new Property<Long>(PropertyType.LONG, "longProp", new SimpleValue<Long>(100L))));
+
+      assertThat(execute(builder.selectStar().from(TABLE + " AS " + TABLE).orderBy().ascending().propertyValue(
+         TABLE, "longProp").end().query()), is(Arrays.asList("minusFive", "nine", "ten", "hundred")));
+      assertThat(execute(builder.clear().selectStar().from(TABLE + " AS " + TABLE).orderBy().descending()
+         .propertyValue(TABLE, "longProp").end().query()), is(Arrays.asList("hundred", "ten", "nine", "minusFive")));
+   }
+
+   @Test
+   public void shouldOrderByDouble() throws Exception
+   {
+      index(entry("twoAndHalf", "/twoAndHalf", new Property<Double>(PropertyType.DOUBLE, "doubleProp",
+         new SimpleValue<Double>(2.5))), entry("ten", "/ten", new Property<Double>(PropertyType.DOUBLE, "doubleProp",
+         new SimpleValue<Double>(10.25))), entry("minusOneAndHalf", "/minusOneAndHalf", new Property<Double>(
+         PropertyType.DOUBLE, "doubleProp", new SimpleValue<Double>(-1.5))), entry("minusTen", "/minusTen",
+         new Property<Double>(PropertyType.DOUBLE, "doubleProp", new SimpleValue<Double>(-10.0))));
+
+      assertThat(execute(builder.selectStar().from(TABLE + " AS " + TABLE).orderBy().ascending().propertyValue(
+         TABLE, "doubleProp").end().query()), is(Arrays.asList("minusTen", "minusOneAndHalf", "twoAndHalf", "ten")));
+      assertThat(execute(builder.clear().selectStar().from(TABLE + " AS " + TABLE).orderBy().descending()
+         .propertyValue(TABLE, "doubleProp").end().query()), is(Arrays.asList("ten", "twoAndHalf",
+         "minusOneAndHalf", "minusTen")));
+   }
+
+   @Test
+   public void shouldOrderByDate() throws Exception
+   {
+      // epoch millis have different number of digits and sign
+      index(entry("dayBeforeEpoch", "/dayBeforeEpoch", date(-86400000L)), entry("dayAfterEpoch", "/dayAfterEpoch",
+         date(86400000L)), entry("1973", "/1973", date(100000000000L)), entry("2001", "/2001", date(1000000000000L)));
+
+      assertThat(execute(builder.selectStar().from(TABLE + " AS " + TABLE).orderBy().ascending().propertyValue(
+         TABLE, "dateProp").end().query()), is(Arrays.asList("dayBeforeEpoch", "dayAfterEpoch", "1973", "2001")));
+      assertThat(execute(builder.clear().selectStar().from(TABLE + " AS " + TABLE).orderBy().descending()
+         .propertyValue(TABLE, "dateProp").end().query()), is(Arrays.asList("2001", "1973", "dayAfterEpoch",
+         "dayBeforeEpoch")));
+   }
+
+   @Test
+   public void shouldOrderByLength() throws Exception
+   {
+      index(entry("three", "/three", string("ccc")), entry("ten", "/ten", string("aaaaaaaaaa")), entry("two", "/two",
+         string("bb")));
+
+      assertThat(execute(builder.selectStar().from(TABLE + " AS " + TABLE).orderBy().ascending().length(TABLE,
+         "stringProp").end().query()), is(Arrays.asList("two", "three", "ten")));
+      assertThat(execute(builder.clear().selectStar().from(TABLE + " AS " + TABLE).orderBy().descending().length(
+         TABLE, "stringProp").end().query()), is(Arrays.asList("ten", "three", "two")));
+   }
+
+   @Test
+   public void shouldOrderByNodeDepth() throws Exception
+   {
+      index(entry("one", "/a", string("x")), entry("ten", "/a/b/c/d/e/f/g/h/i/j", string("x")), entry("two", "/a/b",
+         string("x")));
+
+      assertThat(execute(builder.selectStar().from(TABLE + " AS " + TABLE).orderBy().ascending().depth(TABLE).end()
+         .query()), is(Arrays.asList("one", "two", "ten")));
+      assertThat(execute(builder.clear().selectStar().from(TABLE + " AS " + TABLE).orderBy().descending().depth(
+         TABLE).end().query()), is(Arrays.asList("ten", "two", "one")));
+   }
+
+   private List<String> execute(Query query) throws Exception
+   {
+      List<String> result = new ArrayList<String>();
+      for (ScoredRow row : searchService.execute(query))
+      {
+         result.add(row.getNodeIdentifer(TABLE));
+      }
+      return result;
+   }
+
+   private void index(ContentEntry... entries) throws Exception
+   {
+      searchService.update(Arrays.asList(entries), new HashSet<String>());
+   }
+
+   private ContentEntry entry(String identifier, String path, Property<?> property)
+   {
+      return new ContentEntry(identifier, new String[]{TABLE}, identifier, new String[]{"rootUuid"},
+         new Property[]{property}, path);
+   }
+
+   private Property<Calendar> date(long millis)
+   {
+      Calendar date = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+      date.setTimeInMillis(millis);
+      return new Property<Calendar>(PropertyType.DATE, "dateProp", new SimpleValue<Calendar>(date));
+   }
+
+   private Property<String> string(String value)
+   {
+      return new Property<String>(PropertyType.STRING, "stringProp", new SimpleValue<String>(value));
+   }
+}
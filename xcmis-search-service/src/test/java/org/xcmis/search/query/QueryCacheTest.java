@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link QueryCache}
+ */
+public class QueryCacheTest
+{
+   @Test
+   public void shouldCountHitsAndMisses() throws Exception
+   {
+      QueryCache<String, String> cache = new QueryCache<String, String>(2);
+      assertThat(cache.get("a"), nullValue());
+      cache.put("a", "A");
+      assertThat(cache.get("a"), is("A"));
+      assertThat(cache.get("a"), is("A"));
+
+      assertThat(cache.getHitCount(), is(2L));
+      assertThat(cache.getMissCount(), is(1L));
+   }
+
+   @Test
+   public void shouldEvictLeastRecentlyUsedEntry() throws Exception
+   {
+      QueryCache<String, String> cache = new QueryCache<String, String>(2);
+      cache.put("a", "A");
+      cache.put("b", "B");
+      cache.get("a");
+      cache.put("c", "C");
+
+      assertThat(cache.size(), is(2));
+      assertThat(cache.get("a"), is("A"));
+      assertThat(cache.get("b"), nullValue());
+      assertThat(cache.get("c"), is("C"));
+   }
+
+   @Test
+   public void shouldRemoveAllEntriesOnClear() throws Exception
+   {
+      QueryCache<String, String> cache = new QueryCache<String, String>();
+      cache.put("a", "A");
+      cache.clear();
+
+      assertThat(cache.size(), is(0));
+      assertThat(cache.get("a"), nullValue());
+   }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.xcmis.search.model.Query;
+import org.xcmis.search.model.source.Selector;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.result.LazyRowList;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Test for {@link QueryResultCache}
+ */
+public class QueryResultCacheTest
+{
+   private final Query query = new Query(new Selector(new SelectorName("cmis:document")));
+
+   @Test
+   public void shouldReturnResultOfSameGeneration() throws Exception
+   {
+      QueryResultCache cache = new QueryResultCache();
+      assertThat(cache.get(query, null, 1), nullValue());
+      cache.put(query, null, 1, rows(2));
+
+      assertThat(cache.get(query, Collections.<String, Object> emptyMap(), 1).size(), is(2));
+      assertThat(cache.get(query, null, 2), nullValue());
+      assertThat(cache.size(), is(0));
+      assertThat(cache.getHitCount(), is(1L));
+      assertThat(cache.getMissCount(), is(2L));
+   }
+
+   @Test
+   public void shouldSeparateBindVariablesValues() throws Exception
+   {
+      QueryResultCache cache = new QueryResultCache();
+      Map<String, Object> a = new HashMap<String, Object>();
+      a.put("name", "a");
+      Map<String, Object> b = new HashMap<String, Object>();
+      b.put("name", "b");
+      cache.put(query, a, 1, rows(1));
+      cache.put(query, b, 1, rows(2));
+
+      assertThat(cache.get(query, a, 1).size(), is(1));
+      assertThat(cache.get(query, b, 1).size(), is(2));
+      assertThat(cache.get(query, b, 1).size(), is(2));
+      assertThat(cache.getQueryHitCounts().get(query), is(3L));
+   }
+
+   @Test
+   public void shouldEvictByNumberOfRows() throws Exception
+   {
+      QueryResultCache cache = new QueryResultCache(10, 8);
+      Query other = new Query(new Selector(new SelectorName("cmis:folder")));
+      cache.put(query, null, 1, rows(2));
+      cache.put(other, null, 1, rows(2));
+      cache.get(query, null, 1);
+      cache.put(query, Collections.<String, Object> singletonMap("v", 1), 1, rows(2));
+      cache.put(other, Collections.<String, Object> singletonMap("v", 1), 1, rows(2));
+      cache.put(other, Collections.<String, Object> singletonMap("v", 2), 1, rows(2));
+
+      assertThat(cache.getRowCount(), is(8));
+      assertThat(cache.get(other, null, 1), nullValue());
+      assertThat(cache.get(query, null, 1).size(), is(2));
+   }
+
+   @Test
+   public void shouldNotCacheLargeResult() throws Exception
+   {
+      QueryResultCache cache = new QueryResultCache(10, 8);
+      List<ScoredRow> rows = rows(3);
+      assertThat(cache.put(query, null, 1, rows) == rows, is(true));
+      assertThat(cache.size(), is(0));
+   }
+
+   @Test
+   public void shouldNotReadLazyResult() throws Exception
+   {
+      QueryResultCache cache = new QueryResultCache();
+      LazyRows lazy = new LazyRows(rows(10));
+      List<ScoredRow> result = cache.put(query, null, 1, lazy);
+
+      assertThat(lazy.loaded, is(0));
+      assertThat(result.get(0).getNodeIdentifer("cmis:document"), is("id0"));
+      assertThat(lazy.loaded, is(1));
+      assertThat(cache.size(), is(0));
+      assertThat(cache.get(query, null, 1), nullValue());
+   }
+
+   @Test
+   public void shouldCacheLazyResultWhenAllRowsAreRead() throws Exception
+   {
+      QueryResultCache cache = new QueryResultCache();
+      LazyRows lazy = new LazyRows(rows(3));
+      List<ScoredRow> result = cache.put(query, null, 1, lazy);
+      int count = 0;
+      for (ScoredRow row : result)
+      {
+         assertThat(row.getNodeIdentifer("cmis:document"), is("id" + count++));
+      }
+
+      assertThat(count, is(3));
+      assertThat(cache.size(), is(1));
+      assertThat(cache.get(query, null, 1).size(), is(3));
+      assertThat(lazy.loaded, is(3));
+   }
+
+   @Test
+   public void shouldEvictByMemory() throws Exception
+   {
+      // each result of three rows takes less than a quarter of the memory
+      QueryResultCache cache = new QueryResultCache(10, 1000, 3000);
+      Query other = new Query(new Selector(new SelectorName("cmis:folder")));
+      cache.put(query, null, 1, rows(3));
+      cache.put(other, null, 1, rows(3));
+      for (int i = 0; i < 3; i++)
+      {
+         cache.put(query, Collections.<String, Object> singletonMap("v", i), 1, rows(3));
+      }
+
+      assertThat(cache.size(), is(4));
+      assertThat(cache.getMemory() <= 3000, is(true));
+      assertThat(cache.get(query, null, 1), nullValue());
+      assertThat(cache.get(other, null, 1).size(), is(3));
+   }
+
+   @Test
+   public void shouldNotCacheResultLargerThanQuarterOfMemory() throws Exception
+   {
+      QueryResultCache cache = new QueryResultCache(10, 1000, 2000);
+      List<ScoredRow> rows = rows(3);
+      assertThat(cache.put(query, null, 1, rows) == rows, is(true));
+      assertThat(cache.size(), is(0));
+      assertThat(cache.getMemory(), is(0L));
+   }
+
+   private List<ScoredRow> rows(int count)
+   {
+      List<ScoredRow> rows = new ArrayList<ScoredRow>();
+      for (int i = 0; i < count; i++)
+      {
+         rows.add(new ScoredRow("cmis:document", "id" + i, 1));
+      }
+      return rows;
+   }
+
+   /**
+    * Lazy result what counts loaded rows. Rows are loaded in order.
+    */
+   private static class LazyRows extends AbstractList<ScoredRow> implements LazyRowList
+   {
+      private final List<ScoredRow> rows;
+
+      private int loaded;
+
+      LazyRows(List<ScoredRow> rows)
+      {
+         this.rows = rows;
+      }
+
+      @Override
+      public ScoredRow get(int index)
+      {
+         loaded = Math.max(loaded, index + 1);
+         return rows.get(index);
+      }
+
+      @Override
+      public int size()
+      {
+         return rows.size();
+      }
+
+      public boolean isLoaded()
+      {
+         return loaded == rows.size();
+      }
+   }
+}
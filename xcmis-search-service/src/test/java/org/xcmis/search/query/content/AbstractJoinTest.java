@@ -16,6 +16,18 @@
  */
 package org.xcmis.search.query.content;
 
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import org.xcmis.search.InvalidQueryException;
+import org.xcmis.search.model.Query;
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.query.QueryBuilder;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * <code>AbstractJoinTest</code> provides utility methods for join related
@@ -24,242 +36,62 @@ package org.xcmis.search.query.content;
 public abstract class AbstractJoinTest extends AbstractQOMTest
 {
 
-   //   /**
-   //    * Name of the left selector.
-   //    */
-   //   protected static final String LEFT = "left";
-   //
-   //   /**
-   //    * Name of the right selector.
-   //    */
-   //   protected static final String RI//
-   //// /**
-   //// * Binds the given <code>value</code> to the variable named
-   //// * <code>var</code>.
-   //// *
-   //// * @param q     the query
-   //// * @param var   name of variable in query
-   //// * @param value value to bind
-   //// * @throws IllegalArgumentException if <code>var</code> is not a valid
-   //// *                                  variable in this query.
-   //// * @throws RepositoryException      if an error occurs.
-   //// */
-   ////protected void bindVariableValue(Query q, String var, Object value) throws RepositoryException
-   ////{
-   ////   q.bindValue(var, value);
-   ////}
-   ////
-   ////protected void checkResultOrder(QueryObjectModel qom, String[] selectorNames, Node[][] nodes)
-   ////   throws RepositoryException
-   ////{
-   ////   checkResultOrder(qom.execute(), selectorNames, nodes);
-   ////   checkResultOrder(qm.createQuery(qom.getStatement(), Query.JCR_SQL2).execute(), selectorNames, nodes);
-   ////}
-   ////
-   ////protected void checkResultOrder(QueryResult result, String[] selectorNames, Node[][] nodes)
-   ////   throws RepositoryException
-   ////{
-   ////   // collect rows
-   ////   List expectedPaths = new ArrayList();
-   ////   log.println("expected:");
-   ////   for (int i = 0; i < nodes.length; i++)
-   ////   {
-   ////      StringBuffer aggregatedPaths = new StringBuffer();
-   ////      for (int j = 0; j < nodes[i].length; j++)
-   ////      {
-   ////         aggregatedPaths.append(getPath(nodes[i][j]));
-   ////         aggregatedPaths.append("|");
-   ////      }
-   ////      expectedPaths.add(aggregatedPaths.toString());
-   ////      log.println(aggregatedPaths.toString());
-   ////   }
-   ////
-   ////   List resultPaths = new ArrayList();
-   ////   log.println("result:");
-   ////   for (RowIterator it = result.getRows(); it.hasNext();)
-   ////   {
-   ////      Row r = it.nextRow();
-   ////      StringBuffer aggregatedPaths = new StringBuffer();
-   ////      for (int i = 0; i < selectorNames.length; i++)
-   ////      {
-   ////         aggregatedPaths.append(getPath(r.getNode(selectorNames[i])));
-   ////         aggregatedPaths.append("|");
-   ////      }
-   ////      resultPaths.add(aggregatedPaths.toString());
-   ////      log.println(aggregatedPaths.toString());
-   ////   }
-   ////
-   ////   assertEquals("wrong result order", expectedPaths, resultPaths);
-   ////}
-   ////
-   /////**
-   //// * Checks the query object model by executing it directly and matching the
-   //// * result against the given <code>nodes</code>. Then the QOM is executed
-   //// * again using {@link QueryObjectModel#getStatement()} with {@link
-   //// * Query#JCR_SQL2}.
-   //// *
-   //// * @param qom   the query object model to check.
-   //// * @param nodes the result nodes.
-   //// * @throws RepositoryException if an error occurs while executing the
-   //// *                             query.
-   //// */
-   ////protected void checkQOM(QueryObjectModel qom, Node[] nodes) throws RepositoryException
-   ////{
-   ////   checkResult(qom.execute(), nodes);
-   ////   checkResult(qm.createQuery(qom.getStatement(), Query.JCR_SQL2).execute(), nodes);
-   ////}
-   ////
-   /////**
-   //// * Checks the query object model by executing it directly and matching the
-   //// * result against the given <code>nodes</code>. Then the QOM is executed
-   //// * again using {@link QueryObjectModel#getStatement()} with
-   //// * {@link Query#JCR_SQL2}.
-   //// *
-   //// * @param qom           the query object model to check.
-   //// * @param selectorNames the selector names of the qom.
-   //// * @param nodes         the result nodes.
-   //// * @throws RepositoryException if an error occurs while executing the
-   //// *                             query.
-   //// */
-   ////protected void checkQOM(QueryObjectModel qom, String[] selectorNames, Node[][] nodes) throws RepositoryException
-   ////{
-   ////   checkResult(qom.execute(), selectorNames, nodes);
-   ////   checkResult(qm.createQuery(qom.getStatement(), Query.JCR_SQL2).execute(), selectorNames, nodes);
-   ////}
-   ////
-   ////protected void checkResult(QueryResult result, String[] selectorNames, Node[][] nodes) throws RepositoryException
-   ////{
-   ////   // collect rows
-   ////   Set expectedPaths = new HashSet();
-   ////   log.println("expected:");
-   ////   for (int i = 0; i < nodes.length; i++)
-   ////   {
-   ////      StringBuffer aggregatedPaths = new StringBuffer();
-   ////      for (int j = 0; j < nodes[i].length; j++)
-   ////      {
-   ////         aggregatedPaths.append(getPath(nodes[i][j]));
-   ////         aggregatedPaths.append("|");
-   ////      }
-   ////      expectedPaths.add(aggregatedPaths.toString());
-   ////      log.println(aggregatedPaths.toString());
-   ////   }
-   ////
-   ////   Set resultPaths = new HashSet();
-   ////   log.println("result:");
-   ////   for (RowIterator it = result.getRows(); it.hasNext();)
-   ////   {
-   ////      Row r = it.nextRow();
-   ////      StringBuffer aggregatedPaths = new StringBuffer();
-   ////      for (int i = 0; i < selectorNames.length; i++)
-   ////      {
-   ////         aggregatedPaths.append(getPath(r.getNode(selectorNames[i])));
-   ////         aggregatedPaths.append("|");
-   ////      }
-   ////      resultPaths.add(aggregatedPaths.toString());
-   ////      log.println(aggregatedPaths.toString());
-   ////   }
-   ////
-   ////   // check if all expected are in result
-   ////   for (Iterator it = expectedPaths.iterator(); it.hasNext();)
-   ////   {
-   ////      String path = (String)it.next();
-   ////      assertTrue(path + " is not part of the result set", resultPaths.contains(path));
-   ////   }
-   ////   // check result does not contain more than expected
-   ////   for (Iterator it = resultPaths.iterator(); it.hasNext();)
-   ////   {
-   ////      String path = (String)it.next();
-   ////      assertTrue(path + " is not expected to be part of the result set", expectedPaths.contains(path));
-   ////   }
-   ////}
-   ////
-   /////**
-   //// * Returns the path of the <code>node</code> or an empty string if
-   //// * <code>node</code> is <code>null</code>.
-   //// *
-   //// * @param node a node or <code>null</code>.
-   //// * @return the path of the node or an empty string if <code>node</code> is
-   //// *         <code>null</code>.
-   //// * @throws RepositoryException if an error occurs while reading from the
-   //// *                             repository.
-   //// */
-   ////protected static String getPath(Node node) throws RepositoryException
-   ////{
-   ////   if (node != null)
-   ////   {
-   ////      return node.getPath();
-   ////   }
-   ////   else
-   ////   {
-   ////      return "";
-   ////   }
-   ////}
-   ////
-   /////**
-   //// * Calls back the <code>callable</code> first with the <code>qom</code> and
-   //// * then a JCR_SQL2 query created from {@link QueryObjectModel#getStatement()}.
-   //// *
-   //// * @param qom      a query object model.
-   //// * @param callable the callback.
-   //// * @throws RepositoryException if an error occurs.
-   //// */
-   ////protected void forQOMandSQL2(QueryObjectModel qom, Callable callable) throws RepositoryException
-   ////{
-   ////   List queries = new ArrayList();
-   ////   queries.add(qom);
-   ////   queries.add(qm.createQuery(qom.getStatement(), Query.JCR_SQL2));
-   ////   for (Iterator it = queries.iterator(); it.hasNext();)
-   ////   {
-   ////      callable.call((Query)it.next());
-   ////   }
-   ////}
-   //GHT = "right";
-   //
-   //   /**
-   //    * The selector names for the join.
-   //    */
-   //   protected static final String[] SELECTOR_NAMES = new String[]{LEFT, RIGHT};
-   //
-   //   //--------------------------< utilities >-----------------------------------
-   //
-   //   protected void checkQOM(QueryObjectModel qom, Node[][] nodes) throws RepositoryException
-   //   {
-   //      checkQOM(qom, SELECTOR_NAMES, nodes);
-   //   }
-   //
-   //   protected void checkResult(QueryResult result, Node[][] nodes) throws RepositoryException
-   //   {
-   //      checkResult(result, SELECTOR_NAMES, nodes);
-   //   }
-   //
-   //   protected QueryObjectModel createQuery(String joinType, JoinCondition condition) throws RepositoryException
-   //   {
-   //      return createQuery(joinType, condition, null, null);
-   //   }
-   //
-   //   protected QueryObjectModel createQuery(String joinType, JoinCondition condition, Constraint left, Constraint right)
-   //      throws RepositoryException
-   //   {
-   //      // only consider nodes under test root
-   //      Constraint constraint;
-   //      if (QueryObjectModelConstants.JCR_JOIN_TYPE_LEFT_OUTER.equals(joinType))
-   //      {
-   //         constraint = qf.descendantNode(LEFT, testRoot);
-   //      }
-   //      else
-   //      {
-   //         constraint = qf.descendantNode(RIGHT, testRoot);
-   //      }
-   //
-   //      if (left != null)
-   //      {
-   //         constraint = qf.and(constraint, left);
-   //      }
-   //      if (right != null)
-   //      {
-   //         constraint = qf.and(constraint, right);
-   //      }
-   //      Join join = qf.join(qf.selector(testNodeType, LEFT), qf.selector(testNodeType, RIGHT), joinType, condition);
-   //      return qf.createQuery(join, constraint, null, null);
-   //   }
+   /**
+    * Name of the left selector.
+    */
+   protected static final String LEFT = "left";
+
+   /**
+    * Name of the right selector.
+    */
+   protected static final String RIGHT = "right";
+
+   /**
+    * Start the join of two selectors of {@link #testNodeType}.
+    *
+    * @param joinType the join type
+    * @return the join clause to add join condition
+    */
+   protected QueryBuilder.JoinClause join(JoinType joinType)
+   {
+      QueryBuilder builder = qf.selectStar().from(testNodeType + " AS " + LEFT);
+      String right = testNodeType + " AS " + RIGHT;
+      switch (joinType)
+      {
+         case LEFT_OUTER :
+            return builder.leftOuterJoin(right);
+         case RIGHT_OUTER :
+            return builder.rightOuterJoin(right);
+         default :
+            return builder.innerJoin(right);
+      }
+   }
+
+   /**
+    * Execute the join query and check that its rows contain exactly given
+    * pairs of the nodes.
+    *
+    * @param query the join query
+    * @param nodes the pairs of the left and right nodes, null if row has no
+    *           node of the selector
+    */
+   protected void checkQOM(Query query, Node[][] nodes) throws QueryExecutionException, InvalidQueryException
+   {
+      Set<String> expected = new HashSet<String>();
+      for (Node[] row : nodes)
+      {
+         expected.add(identifier(row[0]) + "|" + identifier(row[1]));
+      }
+      Set<String> result = new HashSet<String>();
+      for (ScoredRow row : searchService.execute(query))
+      {
+         result.add(row.getNodeIdentifer(LEFT) + "|" + row.getNodeIdentifer(RIGHT));
+      }
+      assertThat(result, is(expected));
+   }
+
+   private String identifier(Node node)
+   {
+      return node == null ? null : node.getIdentifier();
+   }
 }
@@ -36,6 +36,10 @@ import org.xcmis.search.content.Property;
 import org.xcmis.search.content.Schema;
 import org.xcmis.search.content.InMemorySchema.Builder;
 import org.xcmis.search.content.Property.SimpleValue;
+import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.search.content.command.read.GetChildEntriesCommand;
+import org.xcmis.search.content.command.read.GetContentEntryCommand;
+import org.xcmis.search.content.command.read.GetUnfiledEntriesCommand;
 import org.xcmis.search.content.interceptors.ContentReaderInterceptor;
 import org.xcmis.search.lucene.content.SchemaTableResolver;
 import org.xcmis.search.model.Query;
@@ -135,6 +139,8 @@ public abstract class AbstractQueryTest
 
    protected SearchService searchService;
 
+   private SavedNodesReader contentReader;
+
    private String testRoot;
 
    /**
@@ -176,8 +182,11 @@ public abstract class AbstractQueryTest
          new IndexConfiguration(testRootNode.getParentIdentifiers()[0], testRootNode.getIdentifier());
 
       //search service configuration
+      // joins read the saved nodes
+      contentReader = new SavedNodesReader();
+      contentReader.save(testRootNode);
       SearchServiceConfiguration configuration =
-         new SearchServiceConfiguration(schema, tableResolver, mock(ContentReaderInterceptor.class), indexConfuration);
+         new SearchServiceConfiguration(schema, tableResolver, contentReader, indexConfuration);
       searchService = new SearchService(configuration);
       searchService.start();
 
@@ -409,6 +418,7 @@ public abstract class AbstractQueryTest
 
    protected void save(Node node) throws IndexModificationException
    {
+      contentReader.save(node);
       searchService.update(node.getTree(), Collections.EMPTY_SET);
    }
 
@@ -495,6 +505,49 @@ public abstract class AbstractQueryTest
    //      return Arrays.asList(qm.getSupportedQueryLanguages()).contains(language);
    //   }
 
+   /**
+    * Reads the nodes passed to {@link AbstractQueryTest#save(Node)}.
+    */
+   private static class SavedNodesReader extends ContentReaderInterceptor
+   {
+      private final Map<String, Node> nodes = new HashMap<String, Node>();
+
+      void save(Node node)
+      {
+         nodes.put(node.getIdentifier(), node);
+         for (Node child : node.childNodes)
+         {
+            save(child);
+         }
+      }
+
+      @Override
+      public Object visitChildEntriesCommand(InvocationContext ctx, GetChildEntriesCommand command) throws Throwable
+      {
+         List<ContentEntry> children = new ArrayList<ContentEntry>();
+         Node parent = nodes.get(command.getParentUuid());
+         if (parent != null)
+         {
+            children.addAll(parent.childNodes);
+         }
+         return children;
+      }
+
+      @Override
+      public Object visitGetContentEntryCommand(InvocationContext ctx, GetContentEntryCommand command)
+         throws Throwable
+      {
+         return nodes.get(command.getEntryUuid());
+      }
+
+      @Override
+      public Object visitGetUnfiledEntriesCommand(InvocationContext ctx, GetUnfiledEntriesCommand command)
+         throws Throwable
+      {
+         return Collections.<String> emptyList().iterator();
+      }
+   }
+
    public static class Node extends ContentEntry
    {
       public static final String ROOT_PARENT_UUID = "";
@@ -16,73 +16,80 @@
  */
 package org.xcmis.search.query.content;
 
-import org.junit.Ignore;
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.model.source.join.JoinType;
 
 /**
  * <code>EquiJoinConditionTest</code> contains test cases that cover
  * <code>EquiJoinCondition</code>.
  */
-@Ignore
 public class EquiJoinConditionTest extends AbstractJoinTest
 {
-   //
-   //   private Node n1;
-   //
-   //   private Node n2;
-   //
-   //   protected void setUp() throws Exception
-   //   {
-   //      super.setUp();
-   //      String value = createRandomString(10);
-   //      n1 = testRootNode.addNode(nodeName1, testNodeType);
-   //      n1.setProperty(propertyName1, value);
-   //
-   //      n2 = n1.addNode(nodeName2, testNodeType);
-   //      n2.setProperty(propertyName1, value);
-   //      n2.setProperty(propertyName2, value);
-   //      ensureMixinType(n2, mixReferenceable);
-   //      superuser.save();
-   //   }
-   //
-   //   public void testInnerJoin1() throws RepositoryException
-   //   {
-   //      JoinCondition c = qf.equiJoinCondition(LEFT, propertyName1, RIGHT, propertyName2);
-   //      QueryObjectModel qom = createQuery(QueryObjectModelConstants.JCR_JOIN_TYPE_INNER, c);
-   //      checkQOM(qom, new Node[][]{{n1, n2}, {n2, n2}});
-   //   }
-   //
-   //   public void testInnerJoin2() throws RepositoryException
-   //   {
-   //      JoinCondition c = qf.equiJoinCondition(LEFT, propertyName2, RIGHT, propertyName1);
-   //      QueryObjectModel qom = createQuery(QueryObjectModelConstants.JCR_JOIN_TYPE_INNER, c);
-   //      checkQOM(qom, new Node[][]{{n2, n1}, {n2, n2}});
-   //   }
-   //
-   //   public void testRightOuterJoin1() throws RepositoryException
-   //   {
-   //      JoinCondition c = qf.equiJoinCondition(LEFT, propertyName1, RIGHT, propertyName2);
-   //      QueryObjectModel qom = createQuery(QueryObjectModelConstants.JCR_JOIN_TYPE_RIGHT_OUTER, c);
-   //      checkQOM(qom, new Node[][]{{null, n1}, {n1, n2}, {n2, n2}});
-   //   }
-   //
-   //   public void testRightOuterJoin2() throws RepositoryException
-   //   {
-   //      JoinCondition c = qf.equiJoinCondition(LEFT, propertyName2, RIGHT, propertyName1);
-   //      QueryObjectModel qom = createQuery(QueryObjectModelConstants.JCR_JOIN_TYPE_RIGHT_OUTER, c);
-   //      checkQOM(qom, new Node[][]{{n2, n1}, {n2, n2}});
-   //   }
-   //
-   //   public void testLeftOuterJoin1() throws RepositoryException
-   //   {
-   //      JoinCondition c = qf.equiJoinCondition(LEFT, propertyName1, RIGHT, propertyName2);
-   //      QueryObjectModel qom = createQuery(QueryObjectModelConstants.JCR_JOIN_TYPE_LEFT_OUTER, c);
-   //      checkQOM(qom, new Node[][]{{n1, n2}, {n2, n2}});
-   //   }
-   //
-   //   public void testLeftOuterJoin2() throws RepositoryException
-   //   {
-   //      JoinCondition c = qf.equiJoinCondition(LEFT, propertyName2, RIGHT, propertyName1);
-   //      QueryObjectModel qom = createQuery(QueryObjectModelConstants.JCR_JOIN_TYPE_LEFT_OUTER, c);
-   //      checkQOM(qom, new Node[][]{{n1, null}, {n2, n1}, {n2, n2}});
-   //   }
+
+   private Node n1;
+
+   private Node n2;
+
+   @Override
+   @Before
+   public void setUp() throws Exception
+   {
+      super.setUp();
+      String value = "value";
+      n1 = testRootNode.addNode(nodeName1, testNodeType);
+      n1.setProperty(propertyName1, value);
+
+      n2 = n1.addNode(nodeName2, testNodeType);
+      n2.setProperty(propertyName1, value);
+      n2.setProperty(propertyName2, value);
+      save(testRootNode);
+   }
+
+   @Test
+   public void testInnerJoin1() throws Exception
+   {
+      checkQOM(join(JoinType.INNER).on(condition(propertyName1, propertyName2)).query(), new Node[][]{{n1, n2},
+         {n2, n2}});
+   }
+
+   @Test
+   public void testInnerJoin2() throws Exception
+   {
+      checkQOM(join(JoinType.INNER).on(condition(propertyName2, propertyName1)).query(), new Node[][]{{n2, n1},
+         {n2, n2}});
+   }
+
+   @Test
+   public void testRightOuterJoin1() throws Exception
+   {
+      checkQOM(join(JoinType.RIGHT_OUTER).on(condition(propertyName1, propertyName2)).query(), new Node[][]{
+         {null, n1}, {n1, n2}, {n2, n2}});
+   }
+
+   @Test
+   public void testRightOuterJoin2() throws Exception
+   {
+      checkQOM(join(JoinType.RIGHT_OUTER).on(condition(propertyName2, propertyName1)).query(), new Node[][]{
+         {n2, n1}, {n2, n2}});
+   }
+
+   @Test
+   public void testLeftOuterJoin1() throws Exception
+   {
+      checkQOM(join(JoinType.LEFT_OUTER).on(condition(propertyName1, propertyName2)).query(), new Node[][]{
+         {n1, n2}, {n2, n2}});
+   }
+
+   @Test
+   public void testLeftOuterJoin2() throws Exception
+   {
+      checkQOM(join(JoinType.LEFT_OUTER).on(condition(propertyName2, propertyName1)).query(), new Node[][]{
+         {n1, null}, {n2, n1}, {n2, n2}});
+   }
+
+   private String condition(String leftProperty, String rightProperty)
+   {
+      return LEFT + "." + leftProperty + "=" + RIGHT + "." + rightProperty;
+   }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.join;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.model.source.join.SameNodeJoinCondition;
+import org.xcmis.search.query.QueryExecutionException;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.result.ScoredRow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test join algorithms.
+ *
+ */
+public class JoinProcessorTest
+{
+   private static final SelectorName LEFT = new SelectorName("left");
+
+   private static final SelectorName RIGHT = new SelectorName("right");
+
+   private JoinKeys joinKeys;
+
+   @Before
+   public void beforeEach() throws Exception
+   {
+      joinKeys =
+         JoinKeys.create(new SameNodeJoinCondition(LEFT, RIGHT), Collections.singleton(LEFT),
+            new ContentEntryReader()
+            {
+               public ContentEntry read(String identifier) throws QueryExecutionException
+               {
+                  throw new QueryExecutionException("Content should not be read for same node join");
+               }
+            });
+   }
+
+   @Test
+   public void shouldUseHashJoinForUnsortedSources() throws Exception
+   {
+      JoinProcessor processor = new JoinProcessor(joinKeys, JoinType.INNER);
+      List<ScoredRow> result =
+         processor.join(rows(LEFT, "3", "1", "2"), rows(RIGHT, "2", "3", "4"), JoinAlgorithm.HASH, false);
+
+      assertThat(processor.getUsedAlgorithm(), is(JoinAlgorithm.HASH));
+      assertThat(result.size(), is(2));
+      assertRow(result.get(0), "3", "3");
+      assertRow(result.get(1), "2", "2");
+   }
+
+   @Test
+   public void shouldPreserveOrderOfRightSourceIfBuildLeft() throws Exception
+   {
+      JoinProcessor processor = new JoinProcessor(joinKeys, JoinType.INNER);
+      List<ScoredRow> result =
+         processor.join(rows(LEFT, "3", "1", "2"), rows(RIGHT, "2", "3", "4"), JoinAlgorithm.HASH, true);
+
+      assertThat(result.size(), is(2));
+      assertRow(result.get(0), "2", "2");
+      assertRow(result.get(1), "3", "3");
+   }
+
+   @Test
+   public void shouldUseMergeJoinForSortedSources() throws Exception
+   {
+      JoinProcessor processor = new JoinProcessor(joinKeys, JoinType.INNER);
+      List<ScoredRow> result =
+         processor.join(rows(LEFT, "1", "2", "3"), rows(RIGHT, "2", "3", "4"), JoinAlgorithm.HASH, false);
+
+      assertThat(processor.getUsedAlgorithm(), is(JoinAlgorithm.MERGE));
+      assertThat(result.size(), is(2));
+      assertRow(result.get(0), "2", "2");
+      assertRow(result.get(1), "3", "3");
+   }
+
+   @Test
+   public void shouldNotUseMergeJoinIfOrderOfProbeSourceMustBeKept() throws Exception
+   {
+      JoinProcessor processor = new JoinProcessor(joinKeys, JoinType.INNER);
+      List<ScoredRow> result =
+         processor.join(rows(LEFT, "1", "2", "3"), rows(RIGHT, "2", "3", "4"), JoinAlgorithm.MERGE, true, true);
+
+      // sources are sorted on the join key, but right one is sorted for the query
+      assertThat(processor.getUsedAlgorithm(), is(JoinAlgorithm.HASH));
+      assertThat(result.size(), is(2));
+      assertRow(result.get(0), "2", "2");
+      assertRow(result.get(1), "3", "3");
+   }
+
+   @Test
+   public void shouldSwitchNestedLoopToHashJoinForLargeSources() throws Exception
+   {
+      JoinProcessor processor = new JoinProcessor(joinKeys, JoinType.INNER, 4);
+      List<ScoredRow> result =
+         processor.join(rows(LEFT, "3", "1", "2"), rows(RIGHT, "2", "3", "4"), JoinAlgorithm.NESTED_LOOP, false);
+
+      assertThat(processor.getUsedAlgorithm(), is(JoinAlgorithm.HASH));
+      assertThat(result.size(), is(2));
+   }
+
+   @Test
+   public void shouldKeepUnmatchedRowsOfLeftOuterJoin() throws Exception
+   {
+      JoinAlgorithm[] algorithms =
+         new JoinAlgorithm[]{JoinAlgorithm.NESTED_LOOP, JoinAlgorithm.HASH, JoinAlgorithm.MERGE};
+      for (JoinAlgorithm algorithm : algorithms)
+      {
+         JoinProcessor processor = new JoinProcessor(joinKeys, JoinType.LEFT_OUTER);
+         List<ScoredRow> result = processor.join(rows(LEFT, "1", "2"), rows(RIGHT, "2", "3"), algorithm, false);
+
+         assertThat(result.size(), is(2));
+         assertThat(result.get(0).getNodeIdentifer(LEFT.getName()), is("1"));
+         assertThat(result.get(0).getNodeIdentifer(RIGHT.getName()), nullValue());
+         assertRow(result.get(1), "2", "2");
+      }
+   }
+
+   private void assertRow(ScoredRow row, String leftIdentifier, String rightIdentifier)
+   {
+      assertThat(row.getNodeIdentifer(LEFT.getName()), is(leftIdentifier));
+      assertThat(row.getNodeIdentifer(RIGHT.getName()), is(rightIdentifier));
+      assertThat(row.getScore(), is(2.0f));
+   }
+
+   private List<ScoredRow> rows(SelectorName selectorName, String... identifiers)
+   {
+      List<ScoredRow> rows = new ArrayList<ScoredRow>(identifiers.length);
+      for (String identifier : identifiers)
+      {
+         rows.add(new ScoredRow(selectorName.getName(), identifier, 1.0f));
+      }
+      return rows;
+   }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xcmis.search.query.optimizer;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xcmis.search.content.Schema;
+import org.xcmis.search.model.constraint.Constraint;
+import org.xcmis.search.model.constraint.PropertyExistence;
+import org.xcmis.search.model.source.SelectorName;
+import org.xcmis.search.model.source.join.EquiJoinCondition;
+import org.xcmis.search.model.source.join.JoinType;
+import org.xcmis.search.query.QueryExecutionContext;
+import org.xcmis.search.query.QueryExecutionExceptions;
+import org.xcmis.search.query.optimize.ChooseJoinAlgorithmCriteria;
+import org.xcmis.search.query.optimize.OptimizerCriteria;
+import org.xcmis.search.query.plan.CardinalityEstimator;
+import org.xcmis.search.query.plan.JoinAlgorithm;
+import org.xcmis.search.query.plan.QueryExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.JoinExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.SelectorExecutionPlan;
+import org.xcmis.search.query.plan.QueryExecutionPlan.WhereExecutionPlan;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Test for {@link ChooseJoinAlgorithmCriteria}
+ */
+public class CostBasedCriteriaTest
+{
+   private static final SelectorName DOCUMENT = new SelectorName("cmis:document");
+
+   private static final SelectorName FOLDER = new SelectorName("cmis:folder");
+
+   private Map<String, Long> tableCardinalities;
+
+   private Map<Constraint, Long> constraintCardinalities;
+
+   private QueryExecutionContext context;
+
+   @Before
+   public void beforeEach()
+   {
+      tableCardinalities = new HashMap<String, Long>();
+      constraintCardinalities = new HashMap<Constraint, Long>();
+      context =
+         new QueryExecutionContext(mock(Schema.class), new QueryExecutionExceptions(), Collections
+            .<String, Object> emptyMap(), new StubCardinalityEstimator());
+   }
+
+   @Test
+   public void shouldBuildHashTableOverSmallerSource() throws Exception
+   {
+      tableCardinalities.put(DOCUMENT.getName(), 100000L);
+      tableCardinalities.put(FOLDER.getName(), 500L);
+
+      JoinExecutionPlan join = join(selector(DOCUMENT), selector(FOLDER));
+      execute(ChooseJoinAlgorithmCriteria.INSTANCE, join);
+
+      assertThat(join.getJoinAlgorithm(), is(JoinAlgorithm.HASH));
+      assertThat(join.isBuildLeft(), is(false));
+
+      join = join(selector(FOLDER), selector(DOCUMENT));
+      execute(ChooseJoinAlgorithmCriteria.INSTANCE, join);
+
+      assertThat(join.getJoinAlgorithm(), is(JoinAlgorithm.HASH));
+      assertThat(join.isBuildLeft(), is(true));
+   }
+
+   @Test
+   public void shouldUseNestedLoopForSelectiveConstraints() throws Exception
+   {
+      Constraint narrow = new PropertyExistence(DOCUMENT, "custom:rare");
+      constraintCardinalities.put(narrow, 10L);
+      tableCardinalities.put(DOCUMENT.getName(), 100000L);
+      tableCardinalities.put(FOLDER.getName(), 500L);
+
+      JoinExecutionPlan join = join(selector(DOCUMENT), selector(FOLDER));
+      execute(ChooseJoinAlgorithmCriteria.INSTANCE, where(narrow, join));
+
+      assertThat(join.getJoinAlgorithm(), is(JoinAlgorithm.NESTED_LOOP));
+      assertThat(join.isBuildLeft(), is(true));
+   }
+
+   @Test
+   public void shouldNotChangePlanWithoutStatistics() throws Exception
+   {
+      context = new QueryExecutionContext(mock(Schema.class), new QueryExecutionExceptions(), null);
+      JoinExecutionPlan join = join(selector(DOCUMENT), selector(FOLDER));
+      join.setJoinAlgorithm(JoinAlgorithm.MERGE);
+
+      execute(ChooseJoinAlgorithmCriteria.INSTANCE, join);
+
+      assertThat(join.getJoinAlgorithm(), is(JoinAlgorithm.MERGE));
+   }
+
+   private QueryExecutionPlan execute(OptimizerCriteria criteria, QueryExecutionPlan plan)
+   {
+      return criteria.execute(context, plan, new LinkedList<OptimizerCriteria>());
+   }
+
+   private SelectorExecutionPlan selector(SelectorName name)
+   {
+      SelectorExecutionPlan plan = new SelectorExecutionPlan();
+      plan.setName(name);
+      plan.setAlias(name);
+      plan.addSelector(name);
+      return plan;
+   }
+
+   private WhereExecutionPlan where(Constraint constraint, QueryExecutionPlan child)
+   {
+      WhereExecutionPlan plan = new WhereExecutionPlan(child);
+      plan.setConstraint(constraint);
+      plan.addSelector(DOCUMENT);
+      return plan;
+   }
+
+   private JoinExecutionPlan join(SelectorExecutionPlan left, SelectorExecutionPlan right)
+   {
+      JoinExecutionPlan plan = new JoinExecutionPlan();
+      plan.setJoinType(JoinType.INNER);
+      plan.setJoinAlgorithm(JoinAlgorithm.HASH);
+      plan.setJoinCondition(new EquiJoinCondition(left.getName(), "cmis:parentId", right.getName(),
+         "cmis:objectId"));
+      plan.setLeftPlan(left);
+      plan.setRightPlan(right);
+      plan.addSelectors(left.getSelectors());
+      plan.addSelectors(right.getSelectors());
+      return plan;
+   }
+
+   private class StubCardinalityEstimator implements CardinalityEstimator
+   {
+      public long getTotalCount()
+      {
+         return 1000000L;
+      }
+
+      public long estimateTableCardinality(SelectorName tableName)
+      {
+         Long cardinality = tableCardinalities.get(tableName.getName());
+         return cardinality == null ? 0 : cardinality;
+      }
+
+      public long estimateConstraintCardinality(Constraint constraint, Map<String, Object> bindVariablesValues)
+      {
+         Long cardinality = constraintCardinalities.get(constraint);
+         return cardinality == null ? getTotalCount() : cardinality;
+      }
+   }
+}
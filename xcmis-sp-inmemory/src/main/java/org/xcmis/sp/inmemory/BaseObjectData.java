@@ -135,6 +135,12 @@ abstract class BaseObjectData implements ObjectData
 
    protected final Entry entry;
 
+   /**
+    * TRUE if object was renamed after last save. Paths of descendants of
+    * renamed folder must be updated in index.
+    */
+   private boolean renamed;
+
    public BaseObjectData(Entry entry, TypeDefinition type, StorageImpl storage)
    {
       this.entry = entry;
@@ -656,17 +662,15 @@ abstract class BaseObjectData implements ObjectData
                return false;
             }
 
-            for (FolderData parent : getParents())
+            String oldName = getName();
+            if (!storage.renameObjectIfAbsent(entry, oldName, name))
             {
-               for (ItemsIterator<ObjectData> iterator = parent.getChildren(null); iterator.hasNext();)
-               {
-                  if (name.equals(iterator.next().getName()))
-                  {
-                     throw new NameConstraintViolationException("Object with name " + name
-                        + " already exists in parent folder.");
-                  }
-               }
+               throw new NameConstraintViolationException("Object with name " + name
+                  + " already exists in parent folder.");
             }
+            entry.setProperty(property);
+            renamed = true;
+            return true;
          }
 
          entry.setProperty(property);
@@ -815,6 +819,14 @@ abstract class BaseObjectData implements ObjectData
 
       storage.entries.put(entry.getId(), entry);
       storage.indexListener.updated(this);
+      if (renamed)
+      {
+         renamed = false;
+         if (getBaseType() == BaseType.FOLDER)
+         {
+            storage.indexListener.relocated((FolderData)this);
+         }
+      }
    }
 
 }
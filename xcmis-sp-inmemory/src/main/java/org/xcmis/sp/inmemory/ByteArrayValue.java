@@ -19,29 +19,110 @@
 
 package org.xcmis.sp.inmemory;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Immutable content. The same instance may be shared between versions of
+ * document and private working copy, new content always replaces value in
+ * entry and never changes existed one. Content read from stream of unknown
+ * length is kept in chunks as it was read. Number of stored entries which
+ * refer to the value is tracked only to add its size to the total content
+ * size of storage once, memory itself is reclaimed by garbage collector.
+ *
  * @author <a href="mailto:andrew00x@gmail.com">Andrey Parfonov</a>
  * @version $Id$
  */
 public class ByteArrayValue extends Value
 {
 
-   private final byte[] values;
+   /**
+    * Size of the first chunk used to read content of unknown length.
+    */
+   private static final int CHUNK_SIZE = 8 * 1024;
+
+   /**
+    * Maximal size of the chunk used to read content of unknown length.
+    */
+   private static final int MAX_CHUNK_SIZE = 8 * 1024 * 1024;
+
+   /**
+    * Content chunks. All of them are filled completely.
+    */
+   private final byte[][] chunks;
+
+   private final long length;
+
+   /**
+    * Number of stored entries which refer to this value.
+    */
+   private final AtomicInteger references = new AtomicInteger();
 
    public ByteArrayValue(byte[] a)
    {
-      this.values = new byte[a.length];
-      System.arraycopy(a, 0, this.values, 0, a.length);
+      this(new byte[][]{a.clone()}, a.length);
+   }
+
+   /**
+    * @param chunks the content chunks, value owns them, they must not be
+    *        changed after that
+    * @param length total length of chunks
+    */
+   private ByteArrayValue(byte[][] chunks, long length)
+   {
+      this.chunks = chunks;
+      this.length = length;
    }
 
+   /**
+    * {@inheritDoc} If content is kept in one chunk returned array is shared and
+    * must not be changed. Content kept in several chunks is copied in new
+    * array, use {@link #getStream()} to read it without copying.
+    */
    @Override
    public byte[] getBytes()
    {
-      return values;
+      if (chunks.length == 1)
+      {
+         return chunks[0];
+      }
+      if (length > Integer.MAX_VALUE)
+      {
+         throw new IllegalStateException("Content is too large to be stored in array.");
+      }
+      byte[] bytes = new byte[(int)length];
+      int pos = 0;
+      for (byte[] chunk : chunks)
+      {
+         System.arraycopy(chunk, 0, bytes, pos, chunk.length);
+         pos += chunk.length;
+      }
+      return bytes;
+   }
+
+   /**
+    * @return stream over content, content is not copied
+    */
+   public InputStream getStream()
+   {
+      if (chunks.length == 1)
+      {
+         return new ByteArrayInputStream(chunks[0]);
+      }
+      return new ChunksInputStream(chunks);
+   }
+
+   /**
+    * @return length of content in bytes
+    */
+   public long length()
+   {
+      return length;
    }
 
    @Override
@@ -50,22 +131,173 @@ public class ByteArrayValue extends Value
       return true;
    }
 
+   /**
+    * Register new reference from stored entry.
+    *
+    * @return number of references after registration
+    */
+   int retain()
+   {
+      return references.incrementAndGet();
+   }
+
+   /**
+    * Remove reference from stored entry.
+    *
+    * @return number of references after removing
+    */
+   int release()
+   {
+      return references.decrementAndGet();
+   }
+
    public static ByteArrayValue fromStream(InputStream stream) throws IOException
+   {
+      return fromStream(stream, -1);
+   }
+
+   /**
+    * Read content from stream. If length of content is known and is not
+    * greater than maximal chunk size it is read directly in array of this
+    * size, otherwise it is read in growing chunks which are kept as they are.
+    * Expected length is not trusted, memory is allocated only for the read
+    * bytes plus at most one chunk.
+    *
+    * @param stream the stream, closed after reading
+    * @param length the expected length of content or -1 if it is unknown
+    * @return value
+    * @throws IOException if stream can't be read
+    */
+   public static ByteArrayValue fromStream(InputStream stream, long length) throws IOException
    {
       if (stream == null)
       {
-         return new ByteArrayValue(new byte[0]);
+         return new ByteArrayValue(new byte[][]{new byte[0]}, 0);
+      }
+      try
+      {
+         byte[] chunk = new byte[length >= 0 ? (int)Math.min(length, MAX_CHUNK_SIZE) : CHUNK_SIZE];
+         int size = 0;
+         List<byte[]> chunks = new ArrayList<byte[]>();
+         long total = 0;
+         while (true)
+         {
+            if (size == chunk.length)
+            {
+               // Check end of stream before allocating of the next chunk.
+               int b = stream.read();
+               if (b == -1)
+               {
+                  break;
+               }
+               chunks.add(chunk);
+               total += chunk.length;
+               long remaining = length - total;
+               chunk =
+                  new byte[(int)Math.min(length >= 0 && remaining > 0 ? remaining : Math.max(total, CHUNK_SIZE),
+                     MAX_CHUNK_SIZE)];
+               chunk[0] = (byte)b;
+               size = 1;
+            }
+            int r = stream.read(chunk, size, chunk.length - size);
+            if (r == -1)
+            {
+               break;
+            }
+            size += r;
+         }
+         if (size > 0 || chunks.isEmpty())
+         {
+            // Only the last chunk may be filled partially.
+            chunks.add(size == chunk.length ? chunk : Arrays.copyOf(chunk, size));
+            total += size;
+         }
+         return new ByteArrayValue(chunks.toArray(new byte[chunks.size()][]), total);
+      }
+      finally
+      {
+         stream.close();
+      }
+   }
+
+   /**
+    * Stream over content chunks.
+    */
+   private static class ChunksInputStream extends InputStream
+   {
+      private final byte[][] chunks;
+
+      /**
+       * Index of the current chunk.
+       */
+      private int chunk;
+
+      /**
+       * Position in the current chunk.
+       */
+      private int pos;
+
+      ChunksInputStream(byte[][] chunks)
+      {
+         this.chunks = chunks;
       }
-      ByteArrayOutputStream bout = new ByteArrayOutputStream();
-      byte[] buf = new byte[1024];
-      int r = -1;
-      while ((r = stream.read(buf)) != -1)
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int read()
+      {
+         if (!nextChunk())
+         {
+            return -1;
+         }
+         return chunks[chunk][pos++] & 0xFF;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int read(byte[] b, int off, int len)
+      {
+         if (len == 0)
+         {
+            return 0;
+         }
+         if (!nextChunk())
+         {
+            return -1;
+         }
+         int r = Math.min(len, chunks[chunk].length - pos);
+         System.arraycopy(chunks[chunk], pos, b, off, r);
+         pos += r;
+         return r;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int available()
+      {
+         return nextChunk() ? chunks[chunk].length - pos : 0;
+      }
+
+      /**
+       * Move to the next chunk if current one is read.
+       *
+       * @return <code>false</code> if end of content is reached
+       */
+      private boolean nextChunk()
       {
-         bout.write(buf, 0, r);
+         while (chunk < chunks.length && pos == chunks[chunk].length)
+         {
+            chunk++;
+            pos = 0;
+         }
+         return chunk < chunks.length;
       }
-      stream.close();
-      byte[] bytes = bout.toByteArray();
-      return new ByteArrayValue(bytes);
    }
 
 }
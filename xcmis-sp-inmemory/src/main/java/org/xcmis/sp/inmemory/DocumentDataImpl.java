@@ -73,14 +73,15 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
             return;
          }
 
+         String pwcName = storage.entries.get(pwcId).getValue(CmisConstants.NAME).getStrings()[0];
          for (String parent : storage.parents.get(pwcId))
          {
-            storage.children.get(parent).remove(pwcId);
+            storage.removeChild(parent, pwcId, pwcName);
          }
          storage.parents.remove(pwcId);
          storage.unfiled.remove(pwcId);
          storage.workingCopies.remove(vsId);
-         storage.entries.remove(pwcId);
+         storage.removeEntry(pwcId);
 
          for (Iterator<String> iterator = storage.versions.get(getVersionSeriesId()).iterator(); iterator.hasNext();)
          {
@@ -208,13 +209,8 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
          ByteArrayValue contentValue = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
          if (contentValue != null)
          {
-            // check is max memory size reached
-            byte[] src = contentValue.getBytes();
-            storage.validateMemSize(src);
-
-            byte[] bytes = new byte[src.length];
-            System.arraycopy(src, 0, bytes, 0, bytes.length);
-            pwc.setValue(PropertyDefinitions.CONTENT, new ByteArrayValue(bytes));
+            // content is immutable, so PWC shares it until new content is set
+            pwc.setValue(PropertyDefinitions.CONTENT, contentValue);
 
             String mimeType = getContentStreamMimeType();
             if (mimeType != null)
@@ -228,7 +224,8 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
                pwc.setValue(CmisConstants.CHARSET, new StringValue(charset));
             }
 
-            pwc.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(bytes.length)));
+            pwc.setValue(CmisConstants.CONTENT_STREAM_LENGTH,
+               new IntegerValue(BigInteger.valueOf(contentValue.length())));
             pwc.setValue(CmisConstants.CONTENT_STREAM_ID, new StringValue(pwcId));
             pwc.setValue(CmisConstants.CONTENT_STREAM_FILE_NAME, new StringValue(getName()));
          }
@@ -242,24 +239,16 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
             ventry.setValue(CmisConstants.VERSION_SERIES_CHECKED_OUT_BY, new StringValue(userId));
          }
 
-         storage.entries.put(pwcId, pwc);
+         storage.putEntry(pwc);
          for (String parent : storage.parents.get(getObjectId()))
          {
-            storage.children.get(parent).add(pwcId);
+            storage.addChild(parent, pwcId, getName());
          }
          storage.parents.put(pwcId, new CopyOnWriteArraySet<String>(storage.parents.get(getObjectId())));
 
          storage.workingCopies.put(getVersionSeriesId(), pwcId);
 
-         DocumentDataImpl pwcObject =
-            new DocumentDataImpl(pwc, //
-               new TypeDefinition(type.getId(), type.getBaseId(), type.getQueryName(), type.getLocalName(), type
-                  .getLocalNamespace(), type.getParentId(), type.getDisplayName(), type.getDescription(), type
-                  .isCreatable(), type.isFileable(), type.isQueryable(), type.isFulltextIndexed(), type
-                  .isIncludedInSupertypeQuery(), type.isControllablePolicy(), type.isControllableACL(), type
-                  .isVersionable(), type.getAllowedSourceTypes(), type.getAllowedTargetTypes(), type
-                  .getContentStreamAllowed(), PropertyDefinitions.getAll(getTypeId())), //
-               storage);
+         DocumentDataImpl pwcObject = new DocumentDataImpl(pwc, type, storage);
 
          return pwcObject;
       }
@@ -271,7 +260,7 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
    public ContentStream getContentStream()
    {
       ByteArrayValue contentValue = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
-      if (contentValue != null/* && contentValue.getBytes().length > 0*/)
+      if (contentValue != null/* && contentValue.length() > 0*/)
       {
          MimeType mimeType = MimeType.fromString(getString(CmisConstants.CONTENT_STREAM_MIME_TYPE));
          String charset = getString(CmisConstants.CHARSET);
@@ -279,7 +268,8 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
          {
             mimeType.getParameters().put(CmisConstants.CHARSET, charset);
          }
-         return new BaseContentStream(contentValue.getBytes(), getContentStreamFileName(), mimeType);
+         return new BaseContentStream(contentValue.getStream(), contentValue.length(), getContentStreamFileName(),
+            mimeType);
       }
       return null;
    }
@@ -366,7 +356,7 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
    public boolean hasContent()
    {
       ByteArrayValue cv = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
-      return cv != null && cv.getBytes().length > 0;
+      return cv != null && cv.length() > 0;
    }
 
    /**
@@ -426,7 +416,7 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
    {
       if (contentStream == null || contentStream.getStream() == null)
       {
-         entry.setValue(PropertyDefinitions.CONTENT, null);
+         storage.setContent(entry, null);
          entry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, null);
          entry.setValue(CmisConstants.CHARSET, null);
          entry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(0)));
@@ -435,19 +425,19 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
       }
       else
       {
-         ByteArrayValue cv = ByteArrayValue.fromStream(contentStream.getStream());
-         storage.validateMemSize(cv.getBytes());
+         storage.validateMemSize(contentStream.length());
+         ByteArrayValue cv = ByteArrayValue.fromStream(contentStream.getStream(), contentStream.length());
+         storage.validateMemSize(cv.length());
 
          MimeType mimeType = contentStream.getMediaType();
-         entry.setValue(PropertyDefinitions.CONTENT, cv);
+         storage.setContent(entry, cv);
          entry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, new StringValue(mimeType.getBaseType()));
          String charset = mimeType.getParameter(CmisConstants.CHARSET);
          if (charset != null)
          {
             entry.setValue(CmisConstants.CHARSET, new StringValue(charset));
          }
-         entry
-            .setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(cv.getBytes().length)));
+         entry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(cv.length())));
          entry.setValue(CmisConstants.CONTENT_STREAM_ID, new StringValue(getObjectId()));
          entry.setValue(CmisConstants.CONTENT_STREAM_FILE_NAME, new StringValue(getName()));
       }
@@ -472,22 +462,22 @@ class DocumentDataImpl extends BaseObjectData implements DocumentData
       {
          String objectId = getObjectId();
          String vsId = getVersionSeriesId();
-         storage.entries.remove(objectId);
+         storage.removeEntry(objectId);
          for (String parent : storage.parents.get(objectId))
          {
-            storage.children.get(parent).remove(objectId);
+            storage.removeChild(parent, objectId, getName());
          }
          storage.parents.remove(objectId);
          storage.unfiled.remove(objectId);
          for (String version : storage.versions.get(getVersionSeriesId()))
          {
-            storage.entries.remove(version);
+            storage.removeEntry(version);
          }
          storage.versions.remove(vsId);
          String pwcId = storage.workingCopies.remove(vsId);
          if (pwcId != null)
          {
-            storage.entries.remove(pwcId);
+            storage.removeEntry(pwcId);
          }
       }
    }
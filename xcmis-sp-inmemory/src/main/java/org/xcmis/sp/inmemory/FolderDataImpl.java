@@ -19,21 +19,19 @@
 
 package org.xcmis.sp.inmemory;
 
-import org.xcmis.spi.BaseItemsIterator;
 import org.xcmis.spi.CmisConstants;
 import org.xcmis.spi.CmisRuntimeException;
 import org.xcmis.spi.ConstraintException;
 import org.xcmis.spi.ContentStream;
-import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
 import org.xcmis.spi.ItemsIterator;
+import org.xcmis.spi.LazyIterator;
 import org.xcmis.spi.ObjectData;
 import org.xcmis.spi.ObjectNotFoundException;
 import org.xcmis.spi.RelationshipData;
 import org.xcmis.spi.StorageException;
 import org.xcmis.spi.UpdateConflictException;
 import org.xcmis.spi.VersioningException;
-import org.xcmis.spi.model.BaseType;
 import org.xcmis.spi.model.RelationshipDirection;
 import org.xcmis.spi.model.TypeDefinition;
 import org.xcmis.spi.utils.Logger;
@@ -42,7 +40,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 /**
  * @author <a href="mailto:andrew00x@gmail.com">Andrey Parfonov</a>
@@ -64,7 +62,7 @@ class FolderDataImpl extends BaseObjectData implements FolderData
     */
    public void addObject(ObjectData object) throws ConstraintException
    {
-      storage.children.get(getObjectId()).add(object.getObjectId());
+      storage.addChild(getObjectId(), object.getObjectId(), object.getName());
       storage.parents.get(object.getObjectId()).add(getObjectId());
       storage.unfiled.remove(object.getObjectId());
       storage.indexListener.updated(object);
@@ -75,29 +73,7 @@ class FolderDataImpl extends BaseObjectData implements FolderData
     */
    public ItemsIterator<ObjectData> getChildren(String orderBy)
    {
-
-      Set<String> childrenIds = storage.children.get(getObjectId());
-      List<ObjectData> children = new ArrayList<ObjectData>(childrenIds.size());
-      for (String ch : childrenIds)
-      {
-         ObjectData object = null;
-         try
-         {
-            object = storage.getObjectById(ch);
-         }
-         catch (ObjectNotFoundException e)
-         {
-            LOG.warn("Object " + ch + " not found in storage.");
-            continue;
-         }
-         if (object.getBaseType() == BaseType.DOCUMENT && !((DocumentData)object).isLatestVersion())
-         {
-            continue;
-         }
-         children.add(object);
-      }
-
-      return new BaseItemsIterator<ObjectData>(children);
+      return new ChildrenIterator(new ArrayList<String>(storage.children.get(getObjectId())));
    }
 
    /**
@@ -152,7 +128,7 @@ class FolderDataImpl extends BaseObjectData implements FolderData
     */
    public void removeObject(ObjectData object)
    {
-      storage.children.get(getObjectId()).remove(object.getObjectId());
+      storage.removeChild(getObjectId(), object.getObjectId(), object.getName());
       storage.parents.get(object.getObjectId()).remove(getObjectId());
       if (storage.parents.get(object.getObjectId()).size() == 0)
       {
@@ -218,13 +194,117 @@ class FolderDataImpl extends BaseObjectData implements FolderData
       }
 
       String objectId = getObjectId();
-      storage.entries.remove(objectId);
+      storage.removeEntry(objectId);
       for (String parent : storage.parents.get(objectId))
       {
-         storage.children.get(parent).remove(objectId);
+         storage.removeChild(parent, objectId, getName());
       }
       storage.parents.remove(objectId);
       storage.children.remove(objectId);
+      storage.childNames.remove(objectId);
+   }
+
+   /**
+    * Iterator over children of folder. Children are read from storage only
+    * when iterator reaches them, skipped children are not read at all.
+    */
+   private class ChildrenIterator extends LazyIterator<ObjectData>
+   {
+      private final List<String> ids;
+
+      /**
+       * Index of the id to be fetched next.
+       */
+      private int position;
+
+      private int size = -1;
+
+      ChildrenIterator(List<String> ids)
+      {
+         this.ids = ids;
+         fetchNext();
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public int size()
+      {
+         if (size < 0)
+         {
+            int count = 0;
+            for (String id : ids)
+            {
+               if (storage.isVisibleChild(id))
+               {
+                  count++;
+               }
+            }
+            size = count;
+         }
+         return size;
+      }
+
+      /**
+       * Skipped children are not read from storage.
+       * 
+       * {@inheritDoc}
+       */
+      @Override
+      public void skip(int skip) throws NoSuchElementException
+      {
+         if (skip <= 0)
+         {
+            return;
+         }
+         if (next == null)
+         {
+            throw new NoSuchElementException();
+         }
+         // current next child is skipped by fetching the next one
+         for (int i = 1; i < skip; i++)
+         {
+            while (position < ids.size() && !storage.isVisibleChild(ids.get(position)))
+            {
+               position++;
+            }
+            if (position == ids.size())
+            {
+               next = null;
+               throw new NoSuchElementException();
+            }
+            position++;
+         }
+         fetchNext();
+         if (next == null)
+         {
+            throw new NoSuchElementException();
+         }
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      protected void fetchNext()
+      {
+         next = null;
+         while (next == null && position < ids.size())
+         {
+            String id = ids.get(position++);
+            if (!storage.isVisibleChild(id))
+            {
+               continue;
+            }
+            try
+            {
+               next = storage.getObjectById(id);
+            }
+            catch (ObjectNotFoundException e)
+            {
+               LOG.warn("Object " + id + " not found in storage.");
+            }
+         }
+      }
    }
 
 }
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory;
+
+import org.xcmis.spi.model.BaseType;
+import org.xcmis.spi.model.ContentStreamAllowed;
+import org.xcmis.spi.model.PropertyDefinition;
+import org.xcmis.spi.model.TypeDefinition;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of type definition which can't be changed. Storage shares the same
+ * snapshot between all objects of the type and replaces it when type is added
+ * or removed.
+ *
+ * @version $Id$
+ */
+final class ImmutableTypeDefinition extends TypeDefinition
+{
+
+   /**
+    * @param type the type definition
+    * @param propertyDefinitions the property definitions of type or
+    *        <code>null</code> if snapshot must not contain property
+    *        definitions
+    */
+   ImmutableTypeDefinition(TypeDefinition type, Map<String, PropertyDefinition<?>> propertyDefinitions)
+   {
+      super(type.getId(), type.getBaseId(), type.getQueryName(), type.getLocalName(), type.getLocalNamespace(), type
+         .getParentId(), type.getDisplayName(), type.getDescription(), type.isCreatable(), type.isFileable(), type
+         .isQueryable(), type.isFulltextIndexed(), type.isIncludedInSupertypeQuery(), type.isControllablePolicy(), type
+         .isControllableACL(), type.isVersionable(), copy(type.getAllowedSourceTypes()), copy(type
+         .getAllowedTargetTypes()), type.getContentStreamAllowed(), propertyDefinitions == null ? null : Collections
+         .unmodifiableMap(new HashMap<String, PropertyDefinition<?>>(propertyDefinitions)));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String[] getAllowedSourceTypes()
+   {
+      return copy(super.getAllowedSourceTypes());
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public String[] getAllowedTargetTypes()
+   {
+      return copy(super.getAllowedTargetTypes());
+   }
+
+   @Override
+   public void setId(String id)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setBaseId(BaseType baseId)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setQueryName(String queryName)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setLocalName(String localName)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setLocalNamespace(String localNamespace)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setParentId(String parentId)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setDisplayName(String displayName)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setDescription(String description)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setCreatable(boolean creatable)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setFileable(boolean fileable)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setQueryable(boolean queryable)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setFulltextIndexed(boolean fulltextIndexed)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setIncludedInSupertypeQuery(boolean includedInSupertypeQuery)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setControllablePolicy(boolean controllablePolicy)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setControllableACL(boolean controllableACL)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setVersionable(boolean versionable)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setAllowedSourceTypes(String[] allowedSourceTypes)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setAllowedTargetTypes(String[] allowedTargetTypes)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setContentStreamAllowed(ContentStreamAllowed contentStreamAllowed)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setPropertyDefinitions(Map<String, PropertyDefinition<?>> propertyDefinitions)
+   {
+      throw new UnsupportedOperationException();
+   }
+
+   private static String[] copy(String[] array)
+   {
+      return array == null ? null : array.clone();
+   }
+}
@@ -109,6 +109,6 @@ class PolicyDataImpl extends BaseObjectData implements PolicyData
             + "Object is source or target at least one Relationship.");
       }
 
-      storage.entries.remove(objectId);
+      storage.removeEntry(objectId);
    }
 }
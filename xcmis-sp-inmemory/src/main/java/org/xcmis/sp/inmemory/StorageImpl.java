@@ -27,10 +27,14 @@ import org.xcmis.search.SearchServiceException;
 import org.xcmis.search.Visitors;
 import org.xcmis.search.config.IndexConfiguration;
 import org.xcmis.search.config.SearchServiceConfiguration;
+import org.xcmis.search.content.IndexModificationException;
+import org.xcmis.search.model.Limit;
 import org.xcmis.search.model.column.Column;
+import org.xcmis.search.model.source.Selector;
 import org.xcmis.search.model.source.SelectorName;
 import org.xcmis.search.parser.CmisQueryParser;
 import org.xcmis.search.parser.QueryParser;
+import org.xcmis.search.query.QueryCache;
 import org.xcmis.search.query.QueryExecutionException;
 import org.xcmis.search.result.ScoredRow;
 import org.xcmis.search.value.ToStringNameConverter;
@@ -113,12 +117,15 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * In-memory implementation of xCMIS storage. This is storage is limited in
@@ -155,8 +162,31 @@ public class StorageImpl implements Storage
 
    final Map<String, Set<String>> children;
 
+   /**
+    * Names of the children of the folders: folder id -> name -> ids of the
+    * children filed with this name. Updated together with {@link #children}
+    * under lock of the folder's names map.
+    */
+   final Map<String, Map<String, Set<String>>> childNames;
+
    final Map<String, Set<String>> parents;
 
+   /**
+    * Number of the objects of each type, type id -> number of entries.
+    */
+   final Map<String, AtomicInteger> typeInstances;
+
+   /**
+    * Names of the policies and relationships which must be unique within base
+    * type: base type -> name -> ids of the objects with this name.
+    */
+   final Map<BaseType, Map<String, Set<String>>> baseTypeNames;
+
+   /**
+    * Total size in bytes of content of all entries in storage.
+    */
+   private final AtomicLong contentSize;
+
    final Set<String> unfiled;
 
    final Map<String, Set<String>> relationships;
@@ -167,6 +197,14 @@ public class StorageImpl implements Storage
 
    final Map<String, TypeDefinition> types;
 
+   /**
+    * Immutable snapshots of the types returned by
+    * {@link #getTypeDefinition(String, boolean)}: type id -> snapshots with and
+    * without property definitions. Snapshot is replaced when type is added or
+    * removed.
+    */
+   private final Map<String, TypeDefinition[]> typeSnapshots;
+
    final Map<String, Set<String>> typeChildren;
 
    final IndexListener indexListener;
@@ -177,6 +215,9 @@ public class StorageImpl implements Storage
    /** Cmis query parser. */
    final QueryParser cmisQueryParser;
 
+   /** Parsed queries keyed by statement. */
+   final QueryCache<String, org.xcmis.search.model.Query> parsedQueryCache;
+
    final List<ChangeEvent> changes;
 
    RenditionManager renditionManager;
@@ -201,12 +242,19 @@ public class StorageImpl implements Storage
 
       this.entries = new ConcurrentHashMap<String, Entry>();
       this.children = new ConcurrentHashMap<String, Set<String>>();
+      this.childNames = new ConcurrentHashMap<String, Map<String, Set<String>>>();
       this.parents = new ConcurrentHashMap<String, Set<String>>();
+      this.typeInstances = new ConcurrentHashMap<String, AtomicInteger>();
+      this.baseTypeNames = new ConcurrentHashMap<BaseType, Map<String, Set<String>>>();
+      this.contentSize = new AtomicLong();
+      this.baseTypeNames.put(BaseType.POLICY, new ConcurrentHashMap<String, Set<String>>());
+      this.baseTypeNames.put(BaseType.RELATIONSHIP, new ConcurrentHashMap<String, Set<String>>());
       this.versions = new ConcurrentHashMap<String, List<String>>();
       this.workingCopies = new ConcurrentHashMap<String, String>();
       this.unfiled = new CopyOnWriteArraySet<String>();
       this.relationships = new ConcurrentHashMap<String, Set<String>>();
       this.types = new ConcurrentHashMap<String, TypeDefinition>();
+      this.typeSnapshots = new ConcurrentHashMap<String, TypeDefinition[]>();
       this.changes = new CopyOnWriteArrayList<ChangeEvent>();
 
       PermissionMapping permissionMapping = new PermissionMapping();
@@ -324,6 +372,10 @@ public class StorageImpl implements Storage
       typeChildren.put("cmis:folder", new HashSet<String>());
       typeChildren.put("cmis:policy", new HashSet<String>());
       typeChildren.put("cmis:relationship", new HashSet<String>());
+      for (String typeId : types.keySet())
+      {
+         updateTypeSnapshot(typeId);
+      }
 
       Map<String, Value> root = new ConcurrentHashMap<String, Value>();
       root.put(CmisConstants.NAME, new StringValue(""));
@@ -342,13 +394,15 @@ public class StorageImpl implements Storage
 
       Entry rootEntry = new Entry(root, null, pm);
 
-      entries.put(rootEntry.getId(), rootEntry);
+      putEntry(rootEntry);
       parents.put(ROOT_FOLDER_ID, EMPTY_PARENTS);
       children.put(ROOT_FOLDER_ID, new CopyOnWriteArraySet<String>());
+      childNames.put(ROOT_FOLDER_ID, new ConcurrentHashMap<String, Set<String>>());
 
       this.searchService = getInitializedSearchService();
       this.indexListener = new IndexListener(searchService);
       this.cmisQueryParser = new CmisQueryParser();
+      this.parsedQueryCache = new QueryCache<String, org.xcmis.search.model.Query>();
    }
 
    /**
@@ -424,16 +478,9 @@ public class StorageImpl implements Storage
          throw new NameConstraintViolationException("Name for new document must be provided.");
       }
 
-      if (parent != null)
+      if (parent != null && hasChild(parent.getObjectId(), name))
       {
-         for (ItemsIterator<ObjectData> iterator = parent.getChildren(null); iterator.hasNext();)
-         {
-            if (name.equals(iterator.next().getName()))
-            {
-               throw new NameConstraintViolationException("Object with name " + name
-                  + " already exists in parent folder.");
-            }
-         }
+         throw new NameConstraintViolationException("Object with name " + name + " already exists in parent folder.");
       }
 
       Entry docEntry = new Entry();
@@ -464,7 +511,9 @@ public class StorageImpl implements Storage
 
       if (content != null)
       {
-         ByteArrayValue cv = ByteArrayValue.fromStream(content.getStream());
+         validateMemSize(content.length());
+         ByteArrayValue cv = ByteArrayValue.fromStream(content.getStream(), content.length());
+         validateMemSize(cv.length());
          docEntry.setValue(PropertyDefinitions.CONTENT, cv);
          MimeType mimeType = content.getMediaType();
          docEntry.setValue(CmisConstants.CONTENT_STREAM_MIME_TYPE, new StringValue(mimeType.getBaseType()));
@@ -473,8 +522,7 @@ public class StorageImpl implements Storage
          {
             docEntry.setValue(CmisConstants.CHARSET, new StringValue(charset));
          }
-         docEntry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger
-            .valueOf(cv.getBytes().length)));
+         docEntry.setValue(CmisConstants.CONTENT_STREAM_LENGTH, new IntegerValue(BigInteger.valueOf(cv.length())));
          docEntry.setValue(CmisConstants.CONTENT_STREAM_ID, new StringValue(docId));
 
          Property<?> contentFileNameProperty = properties.get(CmisConstants.CONTENT_STREAM_FILE_NAME);
@@ -514,7 +562,12 @@ public class StorageImpl implements Storage
 
       if (parent != null)
       {
-         children.get(parent.getObjectId()).add(docId);
+         // name might be taken concurrently since it was checked
+         if (!addChildIfAbsent(parent.getObjectId(), docId, name))
+         {
+            throw new NameConstraintViolationException("Object with name " + name
+               + " already exists in parent folder.");
+         }
          Set<String> set = new CopyOnWriteArraySet<String>();
          set.add(parent.getObjectId());
          parents.put(docId, set);
@@ -527,7 +580,7 @@ public class StorageImpl implements Storage
       List<String> set = new CopyOnWriteArrayList<String>();
       set.add(docId);
       versions.put(verSerId, set);
-      entries.put(docId, docEntry);
+      putEntry(docEntry);
 
       DocumentDataImpl document = new DocumentDataImpl(docEntry, typeDefinition, this);
       indexListener.created(document);
@@ -560,12 +613,9 @@ public class StorageImpl implements Storage
          throw new NameConstraintViolationException("Name for new folder must be provided.");
       }
 
-      for (ItemsIterator<ObjectData> iterator = parent.getChildren(null); iterator.hasNext();)
+      if (hasChild(parent.getObjectId(), name))
       {
-         if (name.equals(iterator.next().getName()))
-         {
-            throw new NameConstraintViolationException("Object with name " + name + " already exists in parent folder.");
-         }
+         throw new NameConstraintViolationException("Object with name " + name + " already exists in parent folder.");
       }
 
       Entry folderEntry = new Entry();
@@ -604,12 +654,17 @@ public class StorageImpl implements Storage
          CmisUtils.addAclToPermissionMap(folderEntry.getPermissions(), acl);
       }
 
-      children.get(parent.getObjectId()).add(folderId);
+      // name might be taken concurrently since it was checked
+      if (!addChildIfAbsent(parent.getObjectId(), folderId, name))
+      {
+         throw new NameConstraintViolationException("Object with name " + name + " already exists in parent folder.");
+      }
       Set<String> set = new CopyOnWriteArraySet<String>();
       set.add(parent.getObjectId());
       parents.put(folderId, set);
-      entries.put(folderId, folderEntry);
+      putEntry(folderEntry);
       children.put(folderId, new CopyOnWriteArraySet<String>());
+      childNames.put(folderId, new ConcurrentHashMap<String, Set<String>>());
 
       FolderDataImpl folder = new FolderDataImpl(folderEntry, typeDefinition, this);
       indexListener.created(folder);
@@ -637,25 +692,9 @@ public class StorageImpl implements Storage
          throw new NameConstraintViolationException("Name for new policy must be provided.");
       }
 
-      for (Entry next : entries.values())
+      if (hasObject(BaseType.POLICY, name))
       {
-         String typeId = next.getTypeId();
-         try
-         {
-            TypeDefinition type = getTypeDefinition(typeId, false);
-            if (type.getBaseId() == BaseType.POLICY)
-            {
-               String name1 = next.getValue(CmisConstants.NAME).getStrings()[0];
-               if (name.equals(name1))
-               {
-                  throw new NameConstraintViolationException("Policy with name " + name + " already exists.");
-               }
-            }
-         }
-         catch (TypeNotFoundException e)
-         {
-            // Should never thrown thins we have objects of this type.
-         }
+         throw new NameConstraintViolationException("Policy with name " + name + " already exists.");
       }
 
       Entry policyEntry = new Entry();
@@ -695,7 +734,7 @@ public class StorageImpl implements Storage
       }
 
       parents.put(policyId, EMPTY_PARENTS);
-      entries.put(policyId, policyEntry);
+      putEntry(policyEntry);
 
       PolicyDataImpl policy = new PolicyDataImpl(policyEntry, typeDefinition, this);
       indexListener.created(policy);
@@ -723,25 +762,9 @@ public class StorageImpl implements Storage
          throw new NameConstraintViolationException("Name for new relationship must be provided.");
       }
 
-      for (Entry next : entries.values())
+      if (hasObject(BaseType.RELATIONSHIP, name))
       {
-         String typeId = next.getTypeId();
-         try
-         {
-            TypeDefinition type = getTypeDefinition(typeId, false);
-            if (type.getBaseId() == BaseType.RELATIONSHIP)
-            {
-               String name1 = next.getValue(CmisConstants.NAME).getStrings()[0];
-               if (name.equals(name1))
-               {
-                  throw new NameConstraintViolationException("Relationship with name " + name + " already exists.");
-               }
-            }
-         }
-         catch (TypeNotFoundException e)
-         {
-            // Should never thrown thins we have objects of this type.
-         }
+         throw new NameConstraintViolationException("Relationship with name " + name + " already exists.");
       }
 
       Entry relationshipEntry = new Entry();
@@ -783,7 +806,7 @@ public class StorageImpl implements Storage
       }
 
       parents.put(relationshipId, EMPTY_PARENTS);
-      entries.put(relationshipId, relationshipEntry);
+      putEntry(relationshipEntry);
       Set<String> sourceRels = relationships.get(source.getObjectId());
       if (sourceRels == null)
       {
@@ -1035,25 +1058,22 @@ public class StorageImpl implements Storage
             break;
          }
          String segName = tokenizer.nextToken();
-         Set<String> childrenIds = children.get(point);
-         if (childrenIds == null || childrenIds.isEmpty())
-         {
-            point = null;
-         }
-         else
+         Map<String, Set<String>> names = childNames.get(point);
+         Set<String> ids = names == null ? null : names.get(segName);
+         String next = null;
+         if (ids != null)
          {
-            for (String id : childrenIds)
+            for (String id : ids)
             {
-               ObjectData seg = getObjectById(id);
-               String name = seg.getName();
-               if ((BaseType.FOLDER == seg.getBaseType() || !tokenizer.hasMoreElements()) && segName.equals(name))
+               Entry seg = entries.get(id);
+               if (seg != null && (BaseType.FOLDER == seg.getBaseTypeId() || !tokenizer.hasMoreElements()))
                {
-                  point = id;
+                  next = id;
                   break;
                }
-               point = null;
             }
          }
+         point = next;
       }
 
       if (point == null)
@@ -1098,19 +1118,15 @@ public class StorageImpl implements Storage
       throws UpdateConflictException, VersioningException, NameConstraintViolationException, StorageException
    {
       String name = object.getName();
-      for (ItemsIterator<ObjectData> iterator = target.getChildren(null); iterator.hasNext();)
-      {
-         if (name.equals(iterator.next().getName()))
-         {
-            throw new NameConstraintViolationException("Object with name " + name
-               + " already exists in destination folder.");
-         }
-      }
       String objectid = object.getObjectId();
       String sourceId = source.getObjectId();
       String targetId = target.getObjectId();
-      children.get(sourceId).remove(objectid);
-      children.get(targetId).add(objectid);
+      if (!addChildIfAbsent(targetId, objectid, name))
+      {
+         throw new NameConstraintViolationException("Object with name " + name
+            + " already exists in destination folder.");
+      }
+      removeChild(sourceId, objectid, name);
       parents.get(object.getObjectId()).remove(sourceId);
       parents.get(object.getObjectId()).add(targetId);
       try
@@ -1122,6 +1138,10 @@ public class StorageImpl implements Storage
          throw new CmisRuntimeException("Unable get object after moving.");
       }
       indexListener.updated(object);
+      if (object.getBaseType() == BaseType.FOLDER)
+      {
+         indexListener.relocated((FolderData)object);
+      }
       return object;
    }
 
@@ -1132,16 +1152,58 @@ public class StorageImpl implements Storage
    {
       try
       {
-         org.xcmis.search.model.Query qom = cmisQueryParser.parseQuery(query.getStatement());
+         // results must reflect all changes made before
+         if (!indexListener.waitForIndexing(IndexListener.DEFAULT_WAIT_TIMEOUT))
+         {
+            LOG.warn("Indexing is not completed in " + IndexListener.DEFAULT_WAIT_TIMEOUT
+               + " ms. Query results may miss latest changes.");
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new CmisRuntimeException("Interrupted while waiting for indexing.", e);
+      }
+      catch (IndexModificationException e)
+      {
+         throw new CmisRuntimeException("Unable to execute query. " + e.getMessage(), e);
+      }
+      try
+      {
+         org.xcmis.search.model.Query qom = parsedQueryCache.get(query.getStatement());
+         if (qom == null)
+         {
+            qom = cmisQueryParser.parseQuery(query.getStatement());
+            parsedQueryCache.put(query.getStatement(), qom);
+         }
+         int maxItems = query.getMaxItems();
+         int skipCount = Math.max(query.getSkipCount(), 0);
+         // Results of single selector are sorted by the index, also in default
+         // document order. Document order of joins is applied after the search.
+         boolean orderedByIndex = qom.getOrderings().size() > 0 || qom.getSource() instanceof Selector;
+         // Paging may be pushed down to the index only if results are ordered by the index.
+         if (maxItems >= 0 && orderedByIndex && qom.getLimits().isUnlimited())
+         {
+            // one extra row to find out is there more items after requested page
+            Limit limit = new Limit((int)Math.min((long)maxItems + 1, Integer.MAX_VALUE), skipCount);
+            org.xcmis.search.model.Query pagedQom =
+               new org.xcmis.search.model.Query(qom.getSource(), qom.getConstraint(), qom.getOrderings(), qom
+                  .getColumns(), limit);
+            List<ScoredRow> rows = searchService.execute(pagedQom);
+            int size = rows.size() <= maxItems && (rows.size() > 0 || skipCount == 0) ? skipCount + rows.size() : -1;
+            return new QueryResultIterator(rows, qom, skipCount, size);
+         }
          List<ScoredRow> rows = searchService.execute(qom);
          //check if needed default sorting
-         if (qom.getOrderings().size() == 0)
+         if (!orderedByIndex)
          {
             Set<SelectorName> selectorsReferencedBy = Visitors.getSelectorsReferencedBy(qom);
+            // result of the search service is read only
+            rows = new ArrayList<ScoredRow>(rows);
             Collections.sort(rows, new DocumentOrderResultSorter(selectorsReferencedBy.iterator().next().getName(),
                this));
          }
-         return new QueryResultIterator(rows, qom);
+         return new QueryResultIterator(rows, qom, 0, rows.size());
       }
       catch (InvalidQueryException e)
       {
@@ -1162,7 +1224,7 @@ public class StorageImpl implements Storage
       Set<String> parentIds = parents.get(object.getObjectId());
       for (String id : parentIds)
       {
-         children.get(id).remove(objectId);
+         removeChild(id, objectId, object.getName());
       }
       parentIds.clear();
       unfiled.add(objectId);
@@ -1245,6 +1307,8 @@ public class StorageImpl implements Storage
       typeChildren.get(superType.getId()).add(type.getId());
       typeChildren.put(type.getId(), new HashSet<String>());
       PropertyDefinitions.putAll(type.getId(), m);
+      updateTypeSnapshot(type.getId());
+      invalidateQueryCaches();
 
       return type.getId();
    }
@@ -1284,20 +1348,32 @@ public class StorageImpl implements Storage
    public TypeDefinition getTypeDefinition(String typeId, boolean includePropertyDefinition)
       throws TypeNotFoundException, CmisRuntimeException
    {
-      TypeDefinition type = types.get(typeId);
-      if (type == null)
+      TypeDefinition[] snapshot = typeSnapshots.get(typeId);
+      if (snapshot == null)
       {
          throw new TypeNotFoundException("Type '" + typeId + "' does not exist.");
       }
-      TypeDefinition copy =
-         new TypeDefinition(type.getId(), type.getBaseId(), type.getQueryName(), type.getLocalName(), type
-            .getLocalNamespace(), type.getParentId(), type.getDisplayName(), type.getDescription(), type.isCreatable(),
-            type.isFileable(), type.isQueryable(), type.isFulltextIndexed(), type.isIncludedInSupertypeQuery(), type
-               .isControllablePolicy(), type.isControllableACL(), type.isVersionable(), type.getAllowedSourceTypes(),
-            type.getAllowedTargetTypes(), type.getContentStreamAllowed(), includePropertyDefinition
-               ? PropertyDefinitions.getAll(typeId) : null);
+      return includePropertyDefinition ? snapshot[0] : snapshot[1];
+   }
 
-      return copy;
+   /**
+    * Replace snapshots of the type after its change.
+    *
+    * @param typeId the type id
+    */
+   private void updateTypeSnapshot(String typeId)
+   {
+      TypeDefinition type = types.get(typeId);
+      if (type == null)
+      {
+         typeSnapshots.remove(typeId);
+      }
+      else
+      {
+         typeSnapshots.put(typeId, new TypeDefinition[]{
+            new ImmutableTypeDefinition(type, PropertyDefinitions.getAll(typeId)),
+            new ImmutableTypeDefinition(type, null)});
+      }
    }
 
    public Collection<TypeDefinition> getSubTypes(String typeId, boolean includePropertyDefinitions)
@@ -1339,17 +1415,451 @@ public class StorageImpl implements Storage
          throw new ConstraintException("Unable remove type " + typeId + ". Type has descendant types.");
       }
 
-      for (Entry entry : entries.values())
+      AtomicInteger instances = typeInstances.get(typeId);
+      if (instances != null && instances.get() > 0)
       {
-         if (typeId.equals(entry.getTypeId()))
-         {
-            throw new ConstraintException("Unable remove type definition if at least one object of this type exists.");
-         }
+         throw new ConstraintException("Unable remove type definition if at least one object of this type exists.");
       }
       types.remove(typeId);
+      updateTypeSnapshot(typeId);
       typeChildren.get(type.getParentId()).remove(typeId);
 
       PropertyDefinitions.removeAll(typeId);
+      invalidateQueryCaches();
+   }
+
+   /**
+    * Index the changes which wait for indexing and stop the search service.
+    * Storage must not be used after this call.
+    */
+   public void close()
+   {
+      try
+      {
+         if (!indexListener.stop(IndexListener.DEFAULT_WAIT_TIMEOUT))
+         {
+            LOG.warn("Indexing is not completed in " + IndexListener.DEFAULT_WAIT_TIMEOUT + " ms.");
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         LOG.warn("Interrupted while waiting for indexing.");
+      }
+      if (searchService != null)
+      {
+         searchService.stop();
+      }
+   }
+
+   /**
+    * Remove parsed queries, query plans and query results what may refer to
+    * the changed types.
+    */
+   private void invalidateQueryCaches()
+   {
+      parsedQueryCache.clear();
+      if (searchService != null)
+      {
+         searchService.getQueryPlanCache().clear();
+         searchService.getQueryResultCache().clear();
+      }
+   }
+
+   /**
+    * Add new entry to the storage.
+    * 
+    * @param entry the entry
+    */
+   void putEntry(Entry entry)
+   {
+      synchronized (entry)
+      {
+         if (entries.put(entry.getId(), entry) != null)
+         {
+            return;
+         }
+         retainContent(entry);
+      }
+      AtomicInteger instances = typeInstances.get(entry.getTypeId());
+      if (instances == null)
+      {
+         synchronized (typeInstances)
+         {
+            instances = typeInstances.get(entry.getTypeId());
+            if (instances == null)
+            {
+               instances = new AtomicInteger();
+               typeInstances.put(entry.getTypeId(), instances);
+            }
+         }
+      }
+      instances.incrementAndGet();
+      Map<String, Set<String>> names = baseTypeNames.get(entry.getBaseTypeId());
+      String name = getName(entry);
+      if (names != null && name != null)
+      {
+         synchronized (names)
+         {
+            Set<String> ids = names.get(name);
+            if (ids == null)
+            {
+               ids = new CopyOnWriteArraySet<String>();
+               names.put(name, ids);
+            }
+            ids.add(entry.getId());
+         }
+      }
+   }
+
+   /**
+    * Remove entry from the storage.
+    * 
+    * @param id the id of the entry
+    * @return removed entry or null if there is no entry with specified id
+    */
+   Entry removeEntry(String id)
+   {
+      Entry entry = entries.remove(id);
+      if (entry == null)
+      {
+         return null;
+      }
+      synchronized (entry)
+      {
+         releaseContent(entry);
+      }
+      AtomicInteger instances = typeInstances.get(entry.getTypeId());
+      if (instances != null)
+      {
+         instances.decrementAndGet();
+      }
+      Map<String, Set<String>> names = baseTypeNames.get(entry.getBaseTypeId());
+      String name = getName(entry);
+      if (names != null && name != null)
+      {
+         removeName(names, name, id);
+      }
+      return entry;
+   }
+
+   /**
+    * Update name of the object in the indexes of names.
+    * 
+    * @param entry the entry of the object
+    * @param oldName the previous name of the object
+    * @param newName the new name of the object
+    */
+   void renameObject(Entry entry, String oldName, String newName)
+   {
+      renameChild(entry.getId(), oldName, newName);
+      Map<String, Set<String>> names = baseTypeNames.get(entry.getBaseTypeId());
+      if (names != null)
+      {
+         synchronized (names)
+         {
+            if (oldName != null)
+            {
+               removeName(names, oldName, entry.getId());
+            }
+            Set<String> ids = names.get(newName);
+            if (ids == null)
+            {
+               ids = new CopyOnWriteArraySet<String>();
+               names.put(newName, ids);
+            }
+            ids.add(entry.getId());
+         }
+      }
+   }
+
+   /**
+    * Rename object if none of folders it is filed in has child with the new
+    * name. Check and renaming are done under locks of names of all the
+    * folders, the same as {@link #addChildIfAbsent(String, String, String)}
+    * does, so concurrent filing or renaming of objects with the same name
+    * can't both succeed.
+    * 
+    * @param entry the entry of the object
+    * @param oldName the previous name of the object
+    * @param newName the new name of the object
+    * @return <code>true</code> if object is renamed and <code>false</code> if
+    *         some folder already contains child with the new name
+    */
+   boolean renameObjectIfAbsent(Entry entry, String oldName, String newName)
+   {
+      List<String> folderIds = new ArrayList<String>(parents.get(entry.getId()));
+      // concurrent renames take locks in the same order
+      Collections.sort(folderIds);
+      return renameObjectIfAbsent(entry, oldName, newName, folderIds, 0);
+   }
+
+   private boolean renameObjectIfAbsent(Entry entry, String oldName, String newName, List<String> folderIds,
+      int locked)
+   {
+      if (locked < folderIds.size())
+      {
+         synchronized (childNames.get(folderIds.get(locked)))
+         {
+            return renameObjectIfAbsent(entry, oldName, newName, folderIds, locked + 1);
+         }
+      }
+      for (String folderId : folderIds)
+      {
+         if (hasChild(folderId, newName))
+         {
+            return false;
+         }
+      }
+      renameObject(entry, oldName, newName);
+      return true;
+   }
+
+   /**
+    * Check is there policy or relationship with specified name.
+    * 
+    * @param baseType the base type, {@link BaseType#POLICY} or
+    *        {@link BaseType#RELATIONSHIP}
+    * @param name the name
+    * @return <code>true</code> if object with the name exists
+    */
+   boolean hasObject(BaseType baseType, String name)
+   {
+      Set<String> ids = baseTypeNames.get(baseType).get(name);
+      return ids != null && !ids.isEmpty();
+   }
+
+   private static void removeName(Map<String, Set<String>> names, String name, String id)
+   {
+      synchronized (names)
+      {
+         Set<String> ids = names.get(name);
+         if (ids != null)
+         {
+            ids.remove(id);
+            if (ids.isEmpty())
+            {
+               names.remove(name);
+            }
+         }
+      }
+   }
+
+   /**
+    * Set content of entry and update total size of content in storage if
+    * entry is already stored.
+    *
+    * @param entry the entry
+    * @param content the new content or <code>null</code> to remove content
+    */
+   void setContent(Entry entry, ByteArrayValue content)
+   {
+      synchronized (entry)
+      {
+         boolean stored = entries.get(entry.getId()) == entry;
+         if (stored)
+         {
+            releaseContent(entry);
+         }
+         entry.setValue(PropertyDefinitions.CONTENT, content);
+         if (stored)
+         {
+            retainContent(entry);
+         }
+      }
+   }
+
+   /**
+    * Content shared between entries, e.g. versions and private working copy,
+    * is counted once.
+    */
+   private void retainContent(Entry entry)
+   {
+      ByteArrayValue content = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
+      if (content != null && content.retain() == 1)
+      {
+         contentSize.addAndGet(content.length());
+      }
+   }
+
+   private void releaseContent(Entry entry)
+   {
+      ByteArrayValue content = (ByteArrayValue)entry.getValue(PropertyDefinitions.CONTENT);
+      if (content != null && content.release() == 0)
+      {
+         contentSize.addAndGet(-content.length());
+      }
+   }
+
+   /**
+    * @return total size in bytes of content of all objects in storage
+    */
+   public long getContentSize()
+   {
+      return contentSize.get();
+   }
+
+   /**
+    * @return number of objects in storage, including all versions of documents
+    */
+   public int getItemsNumber()
+   {
+      return entries.size();
+   }
+
+   private static String getName(Entry entry)
+   {
+      Value value = entry.getValue(CmisConstants.NAME);
+      if (value != null && value.getStrings().length > 0)
+      {
+         return value.getStrings()[0];
+      }
+      return null;
+   }
+
+   /**
+    * File object in folder.
+    * 
+    * @param folderId the id of the folder
+    * @param objectId the id of the object
+    * @param name the name of the object
+    */
+   void addChild(String folderId, String objectId, String name)
+   {
+      Map<String, Set<String>> names = childNames.get(folderId);
+      synchronized (names)
+      {
+         children.get(folderId).add(objectId);
+         Set<String> ids = names.get(name);
+         if (ids == null)
+         {
+            ids = new CopyOnWriteArraySet<String>();
+            names.put(name, ids);
+         }
+         ids.add(objectId);
+      }
+   }
+
+   /**
+    * File object in folder if folder has no child with the same name. Check
+    * and filing are done under lock of the folder names, so concurrent
+    * creation or moving of objects with the same name can't both succeed.
+    * 
+    * @param folderId the id of the folder
+    * @param objectId the id of the object
+    * @param name the name of the object
+    * @return <code>true</code> if object is filed and <code>false</code> if
+    *         folder already contains child with the name
+    * @see #hasChild(String, String)
+    */
+   boolean addChildIfAbsent(String folderId, String objectId, String name)
+   {
+      Map<String, Set<String>> names = childNames.get(folderId);
+      synchronized (names)
+      {
+         if (hasChild(folderId, name))
+         {
+            return false;
+         }
+         addChild(folderId, objectId, name);
+         return true;
+      }
+   }
+
+   /**
+    * Unfile object from folder.
+    * 
+    * @param folderId the id of the folder
+    * @param objectId the id of the object
+    * @param name the name of the object
+    */
+   void removeChild(String folderId, String objectId, String name)
+   {
+      Map<String, Set<String>> names = childNames.get(folderId);
+      synchronized (names)
+      {
+         children.get(folderId).remove(objectId);
+         Set<String> ids = names.get(name);
+         if (ids != null)
+         {
+            ids.remove(objectId);
+            if (ids.isEmpty())
+            {
+               names.remove(name);
+            }
+         }
+      }
+   }
+
+   /**
+    * Update name of the object in all folders it is filed in.
+    * 
+    * @param objectId the id of the object
+    * @param oldName the previous name of the object
+    * @param newName the new name of the object
+    */
+   void renameChild(String objectId, String oldName, String newName)
+   {
+      for (String folderId : parents.get(objectId))
+      {
+         Map<String, Set<String>> names = childNames.get(folderId);
+         synchronized (names)
+         {
+            removeChild(folderId, objectId, oldName);
+            addChild(folderId, objectId, newName);
+         }
+      }
+   }
+
+   /**
+    * Check is there child with specified name in folder. The same as
+    * {@link FolderDataImpl#getChildren(String)} does not take into account
+    * not latest versions of documents, e.g. private working copies.
+    * 
+    * @param folderId the id of the folder
+    * @param name the name
+    * @return <code>true</code> if folder contains child with the name
+    */
+   boolean hasChild(String folderId, String name)
+   {
+      Set<String> ids = childNames.get(folderId).get(name);
+      if (ids != null)
+      {
+         for (String id : ids)
+         {
+            if (isVisibleChild(id))
+            {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Check is object with specified id may be listed as child of folder.
+    * Object must exist and must not be non-latest version of document.
+    * 
+    * @param id object id
+    * @return <code>true</code> if object is visible in folder and
+    *         <code>false</code> otherwise
+    */
+   boolean isVisibleChild(String id)
+   {
+      Entry entry = entries.get(id);
+      if (entry == null)
+      {
+         return false;
+      }
+      if (entry.getBaseTypeId() == BaseType.DOCUMENT)
+      {
+         Value latest = entry.getValue(CmisConstants.IS_LATEST_VERSION);
+         if (latest != null && latest.getBooleans().length > 0 && !latest.getBooleans()[0])
+         {
+            return false;
+         }
+      }
+      return true;
    }
 
    protected String getCurrentUser()
@@ -1371,21 +1881,27 @@ public class StorageImpl implements Storage
 
    void validateMemSize(byte[] content) throws StorageException
    {
-      if (content == null || content.length == 0)
+      if (content != null)
       {
-         return;
+         validateMemSize(content.length);
       }
-      long size = 0;
-      for (Entry c : entries.values())
+   }
+
+   /**
+    * Check is there enough memory for the content of specified length. It
+    * should be checked before reading of the content with known length.
+    *
+    * @param length length of content, -1 if it is unknown
+    * @throws StorageException if max allowed memory size is reached
+    */
+   void validateMemSize(long length) throws StorageException
+   {
+      if (length <= 0)
       {
-         ByteArrayValue contentValue = (ByteArrayValue)c.getValue(PropertyDefinitions.CONTENT);
-         if (contentValue != null)
-         {
-            size += contentValue.getBytes().length;
-         }
+         return;
       }
       long maxMem = configuration.getMaxMem();
-      if (maxMem > -1 && size + content.length > maxMem)
+      if (maxMem > -1 && contentSize.get() + length > maxMem)
       {
          throw new StorageException("Unable add new object in storage. Max allowed memory size '" + maxMem
             + "' bytes is reached." + " Increase or set storage configuration property 'org.xcmis.inmemory.maxmem'.");
@@ -1545,7 +2061,7 @@ public class StorageImpl implements Storage
     */
    private class QueryResultIterator extends LazyIterator<Result>
    {
-      private final Iterator<ScoredRow> rows;
+      private final List<ScoredRow> rows;
 
       private final Set<SelectorName> selectors;
 
@@ -1553,10 +2069,28 @@ public class StorageImpl implements Storage
 
       private final org.xcmis.search.model.Query qom;
 
-      QueryResultIterator(List<ScoredRow> rows, org.xcmis.search.model.Query qom)
+      /**
+       * Index of the row to be fetched next.
+       */
+      private int position;
+
+      /**
+       * Number of results before the first row which were not collected by
+       * the search. They must be skipped before reading results.
+       */
+      private int unloaded;
+
+      /**
+       * @param rows rows of the results starting from <code>offset</code>
+       * @param qom query
+       * @param offset number of results before the first row
+       * @param size total number of results or -1 if it is unknown
+       */
+      QueryResultIterator(List<ScoredRow> rows, org.xcmis.search.model.Query qom, int offset, int size)
       {
-         this.size = rows.size();
-         this.rows = rows.iterator();
+         this.size = size;
+         this.unloaded = offset;
+         this.rows = rows;
          this.selectors = Visitors.getSelectorsReferencedBy(qom);
          this.qom = qom;
          fetchNext();
@@ -1570,15 +2104,51 @@ public class StorageImpl implements Storage
          return size;
       }
 
+      /**
+       * Results which were not collected by the search are skipped without
+       * reading, the rest are skipped one by one so that rows removed from
+       * index are not counted.
+       * 
+       * {@inheritDoc}
+       */
+      @Override
+      public void skip(int skip) throws NoSuchElementException
+      {
+         if (skip <= 0)
+         {
+            return;
+         }
+         if (unloaded > 0)
+         {
+            int n = Math.min(skip, unloaded);
+            unloaded -= n;
+            skip -= n;
+            if (next == null)
+            {
+               throw new NoSuchElementException();
+            }
+            if (skip == 0)
+            {
+               return;
+            }
+         }
+         super.skip(skip);
+      }
+
       /**
        * To fetch next <code>Result</code>.
        */
       protected void fetchNext()
       {
          next = null;
-         while (next == null && rows.hasNext())
+         while (next == null && position < rows.size())
          {
-            ScoredRow row = rows.next();
+            ScoredRow row = rows.get(position++);
+            if (row == null)
+            {
+               // removed from index while results were read
+               continue;
+            }
             for (SelectorName selectorName : selectors)
             {
                String objectId = row.getNodeIdentifer(selectorName.getName());
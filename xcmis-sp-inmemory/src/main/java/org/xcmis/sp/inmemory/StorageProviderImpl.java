@@ -75,6 +75,17 @@ public class StorageProviderImpl implements StorageProvider
       return new InmemConnection(storageImpl);
    }
 
+   /**
+    * Close the storage. Provider must not be used after this call.
+    */
+   public void close()
+   {
+      if (storageImpl != null)
+      {
+         storageImpl.close();
+      }
+   }
+
    /**
     * @see org.xcmis.spi.StorageProvider#getStorageID()
     */
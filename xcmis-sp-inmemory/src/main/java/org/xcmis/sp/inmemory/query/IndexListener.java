@@ -21,6 +21,7 @@ package org.xcmis.sp.inmemory.query;
 
 import org.xcmis.search.SearchService;
 import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.ContentModificationListener;
 import org.xcmis.search.content.IndexModificationException;
 import org.xcmis.search.content.Property;
 import org.xcmis.search.content.Property.BinaryValue;
@@ -31,20 +32,46 @@ import org.xcmis.spi.CmisConstants;
 import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
+import org.xcmis.spi.ItemsIterator;
 import org.xcmis.spi.ObjectData;
 import org.xcmis.spi.PolicyData;
 import org.xcmis.spi.RelationshipData;
+import org.xcmis.spi.model.BaseType;
 import org.xcmis.spi.utils.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Passes changes of the storage to the {@link SearchService}. Changes are
+ * queued and indexed in batches by the background worker, so storage
+ * mutations don't wait for text extraction and index commit. Entries are built
+ * by the caller outside of the queue lock. Repeated changes of the same object
+ * which are not indexed yet are coalesced, object created and removed before
+ * indexing is not indexed at all. If queue is full then callers wait until
+ * worker takes the next batch. Use {@link #waitForIndexing(long)} to see all
+ * changes made before in query results.
+ * Batch which fails is retried, changes of it are indexed one by one after
+ * the failure. Change which fails {@link #DEFAULT_MAX_ATTEMPTS} times is
+ * dropped and reported to the callers of {@link #waitForIndexing(long)}.
+ * Descendants of renamed or moved folder are indexed again with new paths by
+ * the worker, their content is not extracted again, see
+ * {@link #relocated(FolderData)}.
+ * Call {@link #stop(long)} to terminate the worker.
+ *
  * @author <a href="mailto:andrew00x@gmail.com">Andrey Parfonov</a>
  * @version $Id: IndexListener.java 1261 2010-06-09 09:52:06Z andrew00x $
  */
@@ -53,78 +80,578 @@ public class IndexListener
 
    private static final Logger LOG = Logger.getLogger(IndexListener.class);
 
+   /**
+    * Default max number of the objects which wait for indexing.
+    */
+   public static final int DEFAULT_MAX_PENDING = 1000;
+
+   /**
+    * Default max number of the objects indexed by one index modification.
+    */
+   public static final int DEFAULT_BATCH_SIZE = 100;
+
+   /**
+    * Default max time in milliseconds to wait for indexing of changes.
+    */
+   public static final long DEFAULT_WAIT_TIMEOUT = 30000;
+
+   /**
+    * Max number of attempts to index a change.
+    */
+   public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+   /**
+    * Delay in milliseconds before the next attempt to index a failed change,
+    * multiplied by the number of failed attempts.
+    */
+   private static final long RETRY_DELAY = 100;
+
+   /**
+    * Prefix of the queue key of folder relocation. Object ids don't contain
+    * it, so relocation doesn't replace change of the folder itself.
+    */
+   private static final String RELOCATION_KEY = "\u0000relocated:";
+
    /**
     * Index storage.
     */
-   private final SearchService searchService;
+   private final ContentModificationListener searchService;
 
    private final ContentEntryAdapter contentEntryAdapter;
 
-   public IndexListener(SearchService searchService)
+   /**
+    * Changes which wait for indexing in order of arrival. Also used as monitor
+    * for the queue state.
+    */
+   private final Map<String, PendingChange> pending;
+
+   private final int maxPending;
+
+   private final int batchSize;
+
+   private final ExecutorService worker;
+
+   /**
+    * TRUE if worker is indexing changes. Guarded by {@link #pending}.
+    */
+   private boolean indexing;
+
+   /**
+    * TRUE if listener doesn't accept changes anymore. Guarded by
+    * {@link #pending}.
+    */
+   private boolean stopped;
+
+   /**
+    * Sequence number of the last queued change. Guarded by {@link #pending}.
+    */
+   private long enqueued;
+
+   /**
+    * Lowest sequence number of the changes which worker is indexing now, or
+    * {@link Long#MAX_VALUE} if worker is idle. Guarded by {@link #pending}.
+    */
+   private long inFlight = Long.MAX_VALUE;
+
+   /**
+    * Highest sequence number of the changes which were dropped after the
+    * last failed attempt. Guarded by {@link #pending}.
+    */
+   private long failed;
+
+   /**
+    * Error of the last dropped change. Guarded by {@link #pending}.
+    */
+   private Throwable failure;
+
+   private final Runnable indexTask = new Runnable()
+   {
+      public void run()
+      {
+         indexPending();
+      }
+   };
+
+   public IndexListener(ContentModificationListener searchService)
+   {
+      this(searchService, DEFAULT_MAX_PENDING, DEFAULT_BATCH_SIZE);
+   }
+
+   /**
+    * @param searchService search service
+    * @param maxPending max number of the objects which wait for indexing
+    * @param batchSize max number of the objects indexed by one index
+    *        modification
+    */
+   public IndexListener(ContentModificationListener searchService, int maxPending, int batchSize)
    {
       if (searchService == null)
          throw new IllegalArgumentException("The searchService argument may not be null");
+      if (maxPending < 1 || batchSize < 1)
+         throw new IllegalArgumentException("The maxPending and batchSize arguments must be positive");
       this.searchService = searchService;
       this.contentEntryAdapter = new ContentEntryAdapter();
+      this.maxPending = maxPending;
+      this.batchSize = batchSize;
+      this.pending = new LinkedHashMap<String, PendingChange>();
+      this.worker = Executors.newSingleThreadExecutor(new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread thread = new Thread(r, "xcmis-index-listener");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
    }
 
    public void created(ObjectData object)
    {
-      try
+      enqueue(object.getObjectId(), object, false);
+   }
+
+   public void removed(Set<String> removed)
+   {
+      for (String id : removed)
       {
-         searchService.update(contentEntryAdapter.createEntry(object), null);
+         enqueue(id, null, true);
       }
-      catch (IndexModificationException e)
+   }
+
+   public void updated(ObjectData object)
+   {
+      enqueue(object.getObjectId(), object, true);
+   }
+
+   /**
+    * Update paths of all descendants of folder which was renamed or moved.
+    * Only one change is queued, the worker traverses the subtree when indexes
+    * it, so caller doesn't wait for it. Content of descendants is not changed,
+    * so text extracted from it before is reused by index. The folder itself
+    * must be passed to {@link #updated(ObjectData)}.
+    *
+    * @param folder renamed or moved folder
+    */
+   public void relocated(FolderData folder)
+   {
+      String key = RELOCATION_KEY + folder.getObjectId();
+      synchronized (pending)
       {
-         if (LOG.isDebugEnabled())
+         if (!awaitSpace(key))
          {
-            LOG.debug(e.getLocalizedMessage());
+            return;
          }
+         // subtree is traversed once for the latest location
+         pending.remove(key);
+         pending.put(key, new PendingChange(folder, null, true, true, ++enqueued, 0));
+         startWorker();
       }
-      catch (IOException e)
+   }
+
+   /**
+    * Wait until all changes passed to this listener before this call are
+    * indexed. Changes which arrive while waiting are not awaited, so caller is
+    * not starved by concurrent writers.
+    *
+    * @param timeout max time to wait in milliseconds
+    * @return TRUE if changes are indexed and FALSE if timeout elapsed before
+    * @throws InterruptedException if current thread is interrupted while
+    *         waiting
+    * @throws IndexModificationException if some of the changes were not
+    *         indexed after {@link #DEFAULT_MAX_ATTEMPTS} attempts
+    */
+   public boolean waitForIndexing(long timeout) throws InterruptedException, IndexModificationException
+   {
+      long deadline = System.currentTimeMillis() + timeout;
+      synchronized (pending)
       {
-         if (LOG.isDebugEnabled())
+         long from = getIndexed();
+         long target = enqueued;
+         while (getIndexed() < target)
+         {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+            {
+               return false;
+            }
+            pending.wait(remaining);
+         }
+         if (failed > from)
          {
-            LOG.debug(e.getLocalizedMessage());
+            throw new IndexModificationException("Some changes are not indexed. " + failure.getLocalizedMessage(),
+               failure);
          }
+         return true;
       }
    }
 
-   public void removed(Set<String> removed)
+   /**
+    * Stop accepting changes and wait until the queued ones are indexed. Worker
+    * thread terminates when queue is empty, even if timeout elapsed before.
+    *
+    * @param timeout max time to wait in milliseconds
+    * @return TRUE if queued changes are indexed and FALSE if timeout elapsed
+    *         before
+    * @throws InterruptedException if current thread is interrupted while
+    *         waiting
+    */
+   public boolean stop(long timeout) throws InterruptedException
    {
-      try
+      synchronized (pending)
       {
-         searchService.update(Collections.EMPTY_LIST, removed);
+         stopped = true;
+         pending.notifyAll();
       }
-      catch (IndexModificationException e)
+      worker.shutdown();
+      return worker.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Add change to the queue. Entry is built before queue lock is taken.
+    *
+    * @param id object id
+    * @param object changed object or null if object was removed
+    * @param replace TRUE if object may be already in index
+    */
+   private void enqueue(String id, ObjectData object, boolean replace)
+   {
+      ContentEntry entry = null;
+      if (object != null)
       {
-         if (LOG.isDebugEnabled())
+         try
          {
-            LOG.debug(e.getLocalizedMessage());
+            entry = contentEntryAdapter.createEntry(object, false);
          }
+         catch (IOException e)
+         {
+            LOG.error("Unable index object " + id + ". " + e.getLocalizedMessage(), e);
+            return;
+         }
+      }
+      synchronized (pending)
+      {
+         if (!awaitSpace(id))
+         {
+            return;
+         }
+         PendingChange previous = pending.remove(id);
+         if (previous != null && !previous.replace && entry == null)
+         {
+            // object is removed before it was indexed
+            pending.notifyAll();
+            return;
+         }
+         // index may contain only the entry older than previous change
+         boolean replaceIndexed = previous == null ? replace : previous.replace;
+         // latest change of object goes to the end of queue
+         pending.put(id, new PendingChange(object, entry, replaceIndexed, false, ++enqueued, 0));
+         startWorker();
       }
    }
 
-   public void updated(ObjectData object)
+   /**
+    * Should be called under lock of {@link #pending}.
+    */
+   private void startWorker()
+   {
+      if (!indexing)
+      {
+         indexing = true;
+         worker.execute(indexTask);
+      }
+   }
+
+   /**
+    * Wait while queue is full and doesn't contain change of object. Should be
+    * called under lock of {@link #pending}.
+    *
+    * @param id object id
+    * @return FALSE if listener is stopped
+    */
+   private boolean awaitSpace(String id)
    {
+      while (!stopped && pending.size() >= maxPending && !pending.containsKey(id))
+      {
+         try
+         {
+            pending.wait();
+         }
+         catch (InterruptedException e)
+         {
+            // exceed limit rather than lose change
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+      if (stopped)
+      {
+         LOG.warn("Index listener is stopped. Change of object " + id + " is not indexed.");
+      }
+      return !stopped;
+   }
+
+   /**
+    * All changes with sequence number up to returned one are indexed or
+    * dropped. Should be called under lock of {@link #pending}.
+    */
+   private long getIndexed()
+   {
+      long lowest = inFlight;
+      if (!pending.isEmpty())
+      {
+         // queue is ordered by sequence numbers
+         lowest = Math.min(lowest, pending.values().iterator().next().sequence);
+      }
+      return lowest == Long.MAX_VALUE ? enqueued : lowest - 1;
+   }
+
+   /**
+    * Index queued changes by batches until queue is empty.
+    */
+   private void indexPending()
+   {
+      while (true)
+      {
+         Map<String, PendingChange> batch = new LinkedHashMap<String, PendingChange>();
+         synchronized (pending)
+         {
+            if (pending.isEmpty())
+            {
+               indexing = false;
+               return;
+            }
+            Iterator<Map.Entry<String, PendingChange>> iterator = pending.entrySet().iterator();
+            // failed changes are at the head of queue, each of them is retried
+            // alone, so it doesn't fail other changes
+            PendingChange head = pending.values().iterator().next();
+            int size = head.attempts > 0 || head.relocation ? 1 : batchSize;
+            while (batch.size() < size && iterator.hasNext())
+            {
+               Map.Entry<String, PendingChange> change = iterator.next();
+               if (change.getValue().relocation && !batch.isEmpty())
+               {
+                  // relocation is indexed in own batches
+                  break;
+               }
+               iterator.remove();
+               batch.put(change.getKey(), change.getValue());
+               inFlight = Math.min(inFlight, change.getValue().sequence);
+            }
+            // free space for waiting producers
+            pending.notifyAll();
+         }
+         Throwable error = index(batch);
+         synchronized (pending)
+         {
+            inFlight = Long.MAX_VALUE;
+            if (error != null)
+            {
+               requeue(batch, error);
+            }
+            pending.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * @param batch changes to index
+    * @return error or null if changes are indexed
+    */
+   private Throwable index(Map<String, PendingChange> batch)
+   {
+      List<ContentEntry> added = new ArrayList<ContentEntry>();
+      Set<String> removed = new HashSet<String>();
       try
       {
-         searchService.update(contentEntryAdapter.createEntry(object), object.getObjectId());
+         for (Map.Entry<String, PendingChange> change : batch.entrySet())
+         {
+            PendingChange pendingChange = change.getValue();
+            ContentEntry entry = pendingChange.entry;
+            if (pendingChange.attempts > 0)
+            {
+               Thread.sleep(RETRY_DELAY * pendingChange.attempts);
+               if (pendingChange.object != null && !pendingChange.relocation)
+               {
+                  // content of the entry was read by the failed attempt
+                  entry = contentEntryAdapter.createEntry(pendingChange.object, false);
+               }
+            }
+            if (pendingChange.relocation)
+            {
+               // batch contains only relocation
+               indexDescendants((FolderData)pendingChange.object);
+               return null;
+            }
+            if (pendingChange.replace)
+            {
+               removed.add(change.getKey());
+            }
+            if (entry != null)
+            {
+               added.add(entry);
+            }
+         }
+         searchService.update(added, removed);
+         return null;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return e;
+      }
+      catch (IOException e)
+      {
+         LOG.error("Unable index objects. " + e.getLocalizedMessage(), e);
+         return e;
       }
       catch (IndexModificationException e)
       {
-         if (LOG.isDebugEnabled())
+         LOG.error("Unable index objects. " + e.getLocalizedMessage(), e);
+         return e;
+      }
+      catch (RuntimeException e)
+      {
+         LOG.error("Unable index objects. " + e.getLocalizedMessage(), e);
+         return e;
+      }
+   }
+
+   /**
+    * Index all descendants of relocated folder by batches. Descendants which
+    * have own change in queue are skipped, since that change is newer than
+    * relocation and so has actual path.
+    *
+    * @param folder relocated folder
+    * @throws IOException if entry can't be created
+    * @throws IndexModificationException if index modification failed
+    */
+   private void indexDescendants(FolderData folder) throws IOException, IndexModificationException
+   {
+      List<ContentEntry> added = new ArrayList<ContentEntry>();
+      Set<String> removed = new HashSet<String>();
+      LinkedList<FolderData> folders = new LinkedList<FolderData>();
+      folders.add(folder);
+      while (!folders.isEmpty())
+      {
+         for (ItemsIterator<ObjectData> children = folders.removeLast().getChildren(null); children.hasNext();)
          {
-            LOG.debug(e.getLocalizedMessage());
+            ObjectData child = children.next();
+            if (child.getBaseType() == BaseType.FOLDER)
+            {
+               folders.add((FolderData)child);
+            }
+            synchronized (pending)
+            {
+               if (pending.containsKey(child.getObjectId()))
+               {
+                  continue;
+               }
+            }
+            added.add(contentEntryAdapter.createEntry(child, true));
+            removed.add(child.getObjectId());
+            if (added.size() >= batchSize)
+            {
+               searchService.update(added, removed);
+               added = new ArrayList<ContentEntry>();
+               removed = new HashSet<String>();
+            }
          }
       }
-      catch (IOException e)
+      if (!added.isEmpty())
       {
-         if (LOG.isDebugEnabled())
+         searchService.update(added, removed);
+      }
+   }
+
+   /**
+    * Return failed changes to the head of queue or drop them if they failed
+    * too many times. Should be called under lock of {@link #pending}.
+    *
+    * @param batch failed changes
+    * @param error error of the last attempt
+    */
+   private void requeue(Map<String, PendingChange> batch, Throwable error)
+   {
+      Map<String, PendingChange> retried = new LinkedHashMap<String, PendingChange>();
+      for (Map.Entry<String, PendingChange> change : batch.entrySet())
+      {
+         String id = change.getKey();
+         PendingChange failedChange = change.getValue();
+         PendingChange newer = pending.remove(id);
+         if (newer != null)
+         {
+            // newer change replaces failed one but keeps its place in queue
+            retried.put(id, new PendingChange(newer.object, newer.entry, newer.replace || failedChange.replace,
+               newer.relocation, failedChange.sequence, 0));
+         }
+         else if (failedChange.attempts + 1 < DEFAULT_MAX_ATTEMPTS)
+         {
+            retried.put(id, new PendingChange(failedChange.object, failedChange.entry, failedChange.replace,
+               failedChange.relocation, failedChange.sequence, failedChange.attempts + 1));
+         }
+         else
          {
-            LOG.debug(e.getLocalizedMessage());
+            String what =
+               failedChange.relocation ? "descendants of folder " + failedChange.object.getObjectId() : "object " + id;
+            LOG.error("Unable index " + what + " in " + DEFAULT_MAX_ATTEMPTS + " attempts. Change is dropped.");
+            failed = Math.max(failed, failedChange.sequence);
+            failure = error;
          }
       }
+      if (!retried.isEmpty())
+      {
+         retried.putAll(pending);
+         pending.clear();
+         pending.putAll(retried);
+      }
+   }
+
+   /**
+    * Change of object which waits for indexing.
+    */
+   private static class PendingChange
+   {
+      /**
+       * Changed object, relocated folder or null if object was removed.
+       */
+      final ObjectData object;
+
+      /**
+       * New entry or null if object was removed.
+       */
+      final ContentEntry entry;
+
+      /**
+       * TRUE if previous entry of object must be removed from index.
+       */
+      final boolean replace;
+
+      /**
+       * TRUE if descendants of folder {@link #object} must be indexed with new
+       * paths.
+       */
+      final boolean relocation;
+
+      /**
+       * Order of change arrival.
+       */
+      final long sequence;
+
+      /**
+       * Number of failed attempts to index change.
+       */
+      final int attempts;
+
+      PendingChange(ObjectData object, ContentEntry entry, boolean replace, boolean relocation, long sequence,
+         int attempts)
+      {
+         this.object = object;
+         this.entry = entry;
+         this.replace = replace;
+         this.relocation = relocation;
+         this.sequence = sequence;
+         this.attempts = attempts;
+      }
    }
 
    /**
@@ -141,13 +668,27 @@ public class IndexListener
        * @throws IOException
        */
       public ContentEntry createEntry(ObjectData objectData) throws IOException
+      {
+         return createEntry(objectData, false);
+      }
+
+      /**
+       * Convert {@link ObjectData} to {@link ContentEntry}.
+       *
+       * @param objectData ObjectData
+       * @param contentUnchanged TRUE if content of document was not changed
+       *        since it was indexed last time
+       * @return contentEntry ContentEntry
+       * @throws IOException
+       */
+      public ContentEntry createEntry(ObjectData objectData, boolean contentUnchanged) throws IOException
       {
          if (objectData != null)
          {
             switch (objectData.getBaseType())
             {
                case DOCUMENT :
-                  return createFromDocument((DocumentData)objectData);
+                  return createFromDocument((DocumentData)objectData, contentUnchanged);
                case FOLDER :
                   return createFromFolder((FolderData)objectData);
                case POLICY :
@@ -172,7 +713,7 @@ public class IndexListener
          //mark parent of root as parent
          mockEntry.parentIdentifiers.add("");
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getProperties(), mockEntry.path);
       }
 
       /**
@@ -185,7 +726,7 @@ public class IndexListener
          //mark parent of root as parent
          mockEntry.parentIdentifiers.add("");
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getProperties(), mockEntry.path);
       }
 
       private MockContentEntry fillCommonInformation(ObjectData objectData)
@@ -194,6 +735,7 @@ public class IndexListener
          contentEntry.tableNames.add(objectData.getTypeDefinition().getQueryName());
          contentEntry.identifier = objectData.getObjectId();
          contentEntry.name = objectData.getName();
+         contentEntry.path = getPath(objectData);
          for (FolderData folder : objectData.getParents())
          {
             contentEntry.parentIdentifiers.add(folder.getObjectId());
@@ -209,6 +751,27 @@ public class IndexListener
          return contentEntry;
       }
 
+      /**
+       * Return comparable location of the object. It defines document order
+       * of query results.
+       *
+       * @param objectData ObjectData
+       * @return location of the object
+       */
+      private String getPath(ObjectData objectData)
+      {
+         if (objectData.getBaseType() == BaseType.FOLDER && ((FolderData)objectData).isRoot())
+         {
+            return objectData.getName();
+         }
+         Collection<FolderData> parents = objectData.getParents();
+         if (parents.size() == 0)
+         {
+            return objectData.getName();
+         }
+         return parents.iterator().next().getPath() + "/" + objectData.getName();
+      }
+
       private <G> Property<G> convertProperty(org.xcmis.spi.model.Property<G> property)
       {
          Collection<ContentValue<G>> value = new ArrayList<ContentValue<G>>();
@@ -230,17 +793,19 @@ public class IndexListener
       {
          MockContentEntry mockEntry = fillCommonInformation(objectData);
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getProperties(), mockEntry.path);
       }
 
       /**
        * Convert {@link DocumentData} to {@link ContentEntry}.
        *
        * @param objectData DocumentData
+       * @param contentUnchanged TRUE if content was not changed since it was
+       *        indexed last time
        * @return contentEntry ContentEntry.
        * @throws IOException
        */
-      private ContentEntry createFromDocument(DocumentData objectData) throws IOException
+      private ContentEntry createFromDocument(DocumentData objectData, boolean contentUnchanged) throws IOException
       {
          MockContentEntry mockEntry = fillCommonInformation(objectData);
          ContentStream cs = objectData.getContentStream();
@@ -248,12 +813,12 @@ public class IndexListener
          {
             List<ContentValue<InputStream>> vals = new ArrayList<ContentValue<InputStream>>(1);
             vals.add(new BinaryValue(cs.getStream(), cs.getMediaType().getBaseType(), cs.getMediaType().getParameter(
-               CmisConstants.CHARSET), cs.length()));
+               CmisConstants.CHARSET), cs.length(), contentUnchanged));
             //TODO add constant for property name content
             mockEntry.properties.add(new Property<InputStream>(PropertyType.BINARY, "content", vals));
          }
          return new ContentEntry(mockEntry.name, mockEntry.getTableNames(), mockEntry.identifier, mockEntry
-            .getParentIdentifiers(), mockEntry.getProperties());
+            .getParentIdentifiers(), mockEntry.getProperties(), mockEntry.path);
       }
    }
 
@@ -274,6 +839,11 @@ public class IndexListener
        */
       List<String> parentIdentifiers;
 
+      /**
+       * Location of the entry.
+       */
+      String path;
+
       /**
        * Entry identifier.
        */
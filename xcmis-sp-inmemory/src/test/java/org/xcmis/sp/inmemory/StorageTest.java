@@ -24,16 +24,26 @@ import org.xcmis.spi.ContentStream;
 import org.xcmis.spi.DocumentData;
 import org.xcmis.spi.FolderData;
 import org.xcmis.spi.ItemsIterator;
+import org.xcmis.spi.NameConstraintViolationException;
 import org.xcmis.spi.ObjectData;
+import org.xcmis.spi.PermissionService;
+import org.xcmis.spi.PolicyData;
+import org.xcmis.spi.RenditionManager;
+import org.xcmis.spi.StorageException;
 import org.xcmis.spi.model.AccessControlEntry;
 import org.xcmis.spi.model.ChangeEvent;
 import org.xcmis.spi.model.ChangeType;
 import org.xcmis.spi.model.Property;
 import org.xcmis.spi.model.PropertyDefinition;
+import org.xcmis.spi.model.TypeDefinition;
 import org.xcmis.spi.model.VersioningState;
 import org.xcmis.spi.model.impl.StringProperty;
 import org.xcmis.spi.utils.MimeType;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -43,7 +53,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author <a href="mailto:Sergey.Kabashnyuk@exoplatform.org">Sergey
@@ -132,6 +145,47 @@ public class StorageTest extends BaseTest
       assertEquals(2, chs.size());
    }
 
+   public void testChildrenPaging() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "childrenPagingFolderTest");
+      for (int i = 0; i < 5; i++)
+      {
+         createDocument(folder, "child" + i, documentTypeDefinition, null, null);
+      }
+
+      List<String> all = new ArrayList<String>();
+      for (ItemsIterator<ObjectData> children = folder.getChildren(null); children.hasNext();)
+      {
+         all.add(children.next().getObjectId());
+      }
+      assertEquals(5, all.size());
+
+      ItemsIterator<ObjectData> children = folder.getChildren(null);
+      assertEquals(5, children.size());
+      children.skip(2);
+      List<String> page = new ArrayList<String>();
+      while (children.hasNext())
+      {
+         page.add(children.next().getObjectId());
+      }
+      assertEquals(all.subList(2, 5), page);
+
+      children = folder.getChildren(null);
+      children.skip(4);
+      assertEquals(all.get(4), children.next().getObjectId());
+      assertFalse(children.hasNext());
+
+      try
+      {
+         folder.getChildren(null).skip(5);
+         fail("NoSuchElementException must be thrown.");
+      }
+      catch (NoSuchElementException e)
+      {
+         // ok
+      }
+   }
+
    public void testMultifiling() throws Exception
    {
       DocumentData document = createDocument(rootFolder, "multifilingDocumentTest", documentTypeDefinition, null, null);
@@ -216,6 +270,355 @@ public class StorageTest extends BaseTest
 
    }
 
+   public void testChildNames() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "childNamesFolderTest");
+      FolderData target = createFolder(rootFolder, "childNamesTargetTest");
+      DocumentData document = createDocument(folder, "childNamesDocumentTest", documentTypeDefinition, null, null);
+      try
+      {
+         createDocument(folder, "childNamesDocumentTest", documentTypeDefinition, null, null);
+         fail("NameConstraintViolationException must be thrown.");
+      }
+      catch (NameConstraintViolationException e)
+      {
+         // ok
+      }
+
+      PropertyDefinition<?> def = PropertyDefinitions.getPropertyDefinition("cmis:document", CmisConstants.NAME);
+      document.setProperty(new StringProperty(def.getId(), def.getQueryName(), def.getLocalName(), def
+         .getDisplayName(), "childNamesRenamedTest"));
+      assertEquals(document.getObjectId(), storage.getObjectByPath("/childNamesFolderTest/childNamesRenamedTest")
+         .getObjectId());
+      createDocument(folder, "childNamesDocumentTest", documentTypeDefinition, null, null);
+
+      storage.moveObject(document, target, folder);
+      assertEquals(document.getObjectId(), storage.getObjectByPath("/childNamesTargetTest/childNamesRenamedTest")
+         .getObjectId());
+      createDocument(folder, "childNamesRenamedTest", documentTypeDefinition, null, null);
+   }
+
+   public void testConcurrentCreateWithSameName() throws Exception
+   {
+      final FolderData folder = createFolder(rootFolder, "concurrentCreateTest");
+      final int names = 20;
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 8; t++)
+      {
+         final boolean folders = t % 2 == 0;
+         Thread thread = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  for (int i = 0; i < names; i++)
+                  {
+                     try
+                     {
+                        if (folders)
+                        {
+                           createFolder(folder, "name" + i);
+                        }
+                        else
+                        {
+                           createDocument(folder, "name" + i, documentTypeDefinition, null, null);
+                        }
+                     }
+                     catch (NameConstraintViolationException e)
+                     {
+                        // name is taken by other thread
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  errors.add(e);
+               }
+            }
+         };
+         threads.add(thread);
+         thread.start();
+      }
+      start.countDown();
+      for (Thread thread : threads)
+      {
+         thread.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      for (ItemsIterator<ObjectData> children = folder.getChildren(null); children.hasNext();)
+      {
+         String name = children.next().getName();
+         Integer count = counts.get(name);
+         counts.put(name, count == null ? 1 : count + 1);
+      }
+      assertEquals(names, counts.size());
+      for (Map.Entry<String, Integer> count : counts.entrySet())
+      {
+         assertEquals(count.getKey(), Integer.valueOf(1), count.getValue());
+      }
+   }
+
+   public void testConcurrentMoveWithSameName() throws Exception
+   {
+      final FolderData target = createFolder(rootFolder, "concurrentMoveTargetTest");
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      final AtomicInteger moved = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 8; t++)
+      {
+         final FolderData source = createFolder(rootFolder, "concurrentMoveSourceTest" + t);
+         final DocumentData document = createDocument(source, "movedTest", documentTypeDefinition, null, null);
+         Thread thread = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  storage.moveObject(document, target, source);
+                  moved.incrementAndGet();
+               }
+               catch (NameConstraintViolationException e)
+               {
+                  // name is taken by other thread
+               }
+               catch (Throwable e)
+               {
+                  errors.add(e);
+               }
+            }
+         };
+         threads.add(thread);
+         thread.start();
+      }
+      start.countDown();
+      for (Thread thread : threads)
+      {
+         thread.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertEquals(1, moved.get());
+      int children = 0;
+      for (ItemsIterator<ObjectData> iterator = target.getChildren(null); iterator.hasNext(); iterator.next())
+      {
+         children++;
+      }
+      assertEquals(1, children);
+   }
+
+   public void testConcurrentRenameWithSameName() throws Exception
+   {
+      FolderData folder = createFolder(rootFolder, "concurrentRenameTest");
+      final PropertyDefinition<?> def =
+         PropertyDefinitions.getPropertyDefinition("cmis:document", CmisConstants.NAME);
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      final AtomicInteger renamed = new AtomicInteger();
+      final CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 8; t++)
+      {
+         final DocumentData document = createDocument(folder, "renameTest" + t, documentTypeDefinition, null, null);
+         Thread thread = new Thread()
+         {
+            @Override
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  document.setProperty(new StringProperty(def.getId(), def.getQueryName(), def.getLocalName(), def
+                     .getDisplayName(), "renamedTest"));
+                  renamed.incrementAndGet();
+               }
+               catch (NameConstraintViolationException e)
+               {
+                  // name is taken by other thread
+               }
+               catch (Throwable e)
+               {
+                  errors.add(e);
+               }
+            }
+         };
+         threads.add(thread);
+         thread.start();
+      }
+      start.countDown();
+      for (Thread thread : threads)
+      {
+         thread.join();
+      }
+      assertTrue(errors.toString(), errors.isEmpty());
+      assertEquals(1, renamed.get());
+      int children = 0;
+      for (ItemsIterator<ObjectData> iterator = folder.getChildren(null); iterator.hasNext();)
+      {
+         if ("renamedTest".equals(iterator.next().getName()))
+         {
+            children++;
+         }
+      }
+      assertEquals(1, children);
+   }
+
+   public void testPolicyNames() throws Exception
+   {
+      TypeDefinition policyType = storage.getTypeDefinition("cmis:policy", true);
+      PropertyDefinition<?> def = PropertyDefinitions.getPropertyDefinition("cmis:policy", CmisConstants.NAME);
+      Map<String, Property<?>> properties = new HashMap<String, Property<?>>();
+      properties.put(CmisConstants.NAME, new StringProperty(def.getId(), def.getQueryName(), def.getLocalName(), def
+         .getDisplayName(), "policyNamesTest"));
+
+      PolicyData policy = storage.createPolicy(null, policyType, properties, null, null);
+      try
+      {
+         storage.createPolicy(null, policyType, properties, null, null);
+         fail("NameConstraintViolationException must be thrown.");
+      }
+      catch (NameConstraintViolationException e)
+      {
+         // ok
+      }
+
+      storage.deleteObject(policy, true);
+      storage.createPolicy(null, policyType, properties, null, null);
+   }
+
+   public void testTypeDefinitionSnapshot() throws Exception
+   {
+      TypeDefinition type = storage.getTypeDefinition("cmis:document", true);
+      assertSame(type, storage.getTypeDefinition("cmis:document", true));
+      assertNotNull(type.getPropertyDefinition(CmisConstants.NAME));
+      assertNull(storage.getTypeDefinition("cmis:document", false).getPropertyDefinitions());
+      try
+      {
+         type.setDisplayName("changed");
+         fail("UnsupportedOperationException must be thrown.");
+      }
+      catch (UnsupportedOperationException e)
+      {
+         // ok
+      }
+      DocumentData document = createDocument(rootFolder, "typeDefinitionSnapshotTest", type, null, null);
+      assertSame(type, storage.getObjectById(document.getObjectId()).getTypeDefinition());
+   }
+
+   public void testContentSize() throws Exception
+   {
+      long size = storage.getContentSize();
+      ContentStream cs = new BaseContentStream("to be or not to be".getBytes(), null, new MimeType("text", "plain"));
+      DocumentData document = createDocument(rootFolder, "contentSizeTest", documentTypeDefinition, cs, null);
+      assertEquals(size + 18, storage.getContentSize());
+
+      document.setContentStream(new BaseContentStream("to be".getBytes(), null, new MimeType("text", "plain")));
+      assertEquals(size + 5, storage.getContentSize());
+
+      storage.deleteObject(document, true);
+      assertEquals(size, storage.getContentSize());
+   }
+
+   public void testCheckoutSharesContent() throws Exception
+   {
+      ContentStream cs = new BaseContentStream("to be or not to be".getBytes(), null, new MimeType("text", "plain"));
+      DocumentData document =
+         createDocument(rootFolder, "checkoutSharesContentTest", documentTypeDefinition, cs, VersioningState.MAJOR);
+      long size = storage.getContentSize();
+
+      DocumentData pwc = document.checkout();
+      assertSame(storage.entries.get(document.getObjectId()).getValue(PropertyDefinitions.CONTENT), storage.entries
+         .get(pwc.getObjectId()).getValue(PropertyDefinitions.CONTENT));
+      assertEquals(size, storage.getContentSize());
+
+      pwc.setContentStream(new BaseContentStream("to be".getBytes(), null, new MimeType("text", "plain")));
+      assertEquals(size + 5, storage.getContentSize());
+      assertEquals(18, document.getContentStream().length());
+   }
+
+   public void testReadContentFromStream() throws Exception
+   {
+      byte[] bytes = new byte[100000];
+      for (int i = 0; i < bytes.length; i++)
+      {
+         bytes[i] = (byte)i;
+      }
+      assertTrue(Arrays.equals(bytes, ByteArrayValue.fromStream(new ByteArrayInputStream(bytes), -1).getBytes()));
+      assertTrue(Arrays.equals(bytes, ByteArrayValue.fromStream(new ByteArrayInputStream(bytes), bytes.length)
+         .getBytes()));
+      assertTrue(Arrays.equals(bytes, ByteArrayValue.fromStream(new ByteArrayInputStream(bytes), 10).getBytes()));
+      assertTrue(Arrays.equals(bytes, ByteArrayValue.fromStream(new ByteArrayInputStream(bytes), 200000)
+         .getBytes()));
+      assertEquals(0, ByteArrayValue.fromStream(new ByteArrayInputStream(new byte[0]), -1).getBytes().length);
+      // declared length is not preallocated
+      assertTrue(Arrays.equals(bytes, ByteArrayValue.fromStream(new ByteArrayInputStream(bytes),
+         Integer.MAX_VALUE - 8).getBytes()));
+      assertTrue(Arrays.equals(bytes, ByteArrayValue.fromStream(new ByteArrayInputStream(bytes), Long.MAX_VALUE)
+         .getBytes()));
+      // content of unknown length is kept in chunks and read without joining
+      ByteArrayValue chunked = ByteArrayValue.fromStream(new ByteArrayInputStream(bytes), -1);
+      assertEquals(bytes.length, chunked.length());
+      assertTrue(Arrays.equals(bytes, readAll(chunked.getStream())));
+   }
+
+   public void testMaxMemCheckedBeforeReadingContent() throws Exception
+   {
+      StorageImpl limited =
+         new StorageImpl(new StorageConfiguration("maxMemTest", "maxMemTest", null, 1000, -1), RenditionManager
+            .getInstance(), new PermissionService());
+      try
+      {
+         FolderData root = (FolderData)limited.getObjectById(limited.getRepositoryInfo().getRootFolderId());
+
+         PropertyDefinition<?> def = PropertyDefinitions.getPropertyDefinition("cmis:document", CmisConstants.NAME);
+         Map<String, Property<?>> properties = new HashMap<String, Property<?>>();
+         properties.put(CmisConstants.NAME, new StringProperty(def.getId(), def.getQueryName(), def.getLocalName(), def
+            .getDisplayName(), "maxMemTest"));
+         InputStream unreadable = new InputStream()
+         {
+            @Override
+            public int read() throws IOException
+            {
+               throw new IOException("Content must not be read.");
+            }
+         };
+         ContentStream cs = new BaseContentStream(unreadable, 1L << 40, null, new MimeType("text", "plain"));
+         try
+         {
+            limited.createDocument(root, documentTypeDefinition, properties, cs, null, null, VersioningState.MAJOR);
+            fail("StorageException must be thrown.");
+         }
+         catch (StorageException e)
+         {
+            // ok
+         }
+         assertEquals(0, limited.getContentSize());
+      }
+      finally
+      {
+         limited.close();
+      }
+   }
+
+   private byte[] readAll(InputStream in) throws IOException
+   {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[1000];
+      int r;
+      while ((r = in.read(buf)) != -1)
+      {
+         out.write(buf, 0, r);
+      }
+      return out.toByteArray();
+   }
+
    private int getSize(Iterator<String> iterator)
    {
       int result = 0;
@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2010 eXo Platform SAS.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xcmis.sp.inmemory.query;
+
+import org.xcmis.search.content.ContentEntry;
+import org.xcmis.search.content.ContentModificationListener;
+import org.xcmis.search.content.IndexModificationException;
+import org.xcmis.search.content.command.InvocationContext;
+import org.xcmis.sp.inmemory.BaseTest;
+import org.xcmis.spi.FolderData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks queue of {@link IndexListener}.
+ *
+ * @version $Id$
+ */
+public class IndexListenerTest extends BaseTest
+{
+
+   private RecordingListener recorder;
+
+   private List<IndexListener> listeners;
+
+   private FolderData a;
+
+   private FolderData b;
+
+   private FolderData c;
+
+   private FolderData d;
+
+   @Override
+   public void setUp() throws Exception
+   {
+      super.setUp();
+      recorder = new RecordingListener();
+      listeners = new ArrayList<IndexListener>();
+      a = createFolder(rootFolder, "a");
+      b = createFolder(rootFolder, "b");
+      c = createFolder(rootFolder, "c");
+      d = createFolder(rootFolder, "d");
+   }
+
+   @Override
+   protected void tearDown() throws Exception
+   {
+      // don't leave worker blocked
+      recorder.gate.countDown();
+      for (IndexListener listener : listeners)
+      {
+         listener.stop(5000);
+      }
+      super.tearDown();
+   }
+
+   public void testCoalesceChangesOfSameObject() throws Exception
+   {
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.updated(b);
+      listener.updated(b);
+      listener.updated(b);
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(a), ids(b)), recorder.batches);
+   }
+
+   public void testIndexLatestChangeInOrderOfArrival() throws Exception
+   {
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.updated(b);
+      listener.updated(c);
+      listener.updated(b);
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(a), ids(c, b)), recorder.batches);
+   }
+
+   public void testSplitQueueByBatchSize() throws Exception
+   {
+      IndexListener listener = newListener(10, 2);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.updated(b);
+      listener.updated(c);
+      listener.updated(d);
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(a), ids(b, c), ids(d)), recorder.batches);
+   }
+
+   public void testWaitForWorkerWhenQueueIsFull() throws Exception
+   {
+      final IndexListener listener = newListener(1, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.updated(b);
+      Thread producer = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            listener.updated(c);
+         }
+      };
+      producer.start();
+      producer.join(200);
+      assertTrue("Producer must wait while queue is full", producer.isAlive());
+      // change of queued object is coalesced and doesn't wait
+      listener.updated(b);
+      recorder.gate.countDown();
+      producer.join(5000);
+      assertFalse(producer.isAlive());
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(a), ids(b), ids(c)), recorder.batches);
+   }
+
+   public void testWaitForIndexingTimeout() throws Exception
+   {
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      assertFalse(listener.waitForIndexing(100));
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+   }
+
+   public void testWaitForIndexingUnderConcurrentWrites() throws Exception
+   {
+      recorder.gate.countDown();
+      final IndexListener listener = newListener(10, 1);
+      final CountDownLatch stop = new CountDownLatch(1);
+      Thread writer = new Thread()
+      {
+         @Override
+         public void run()
+         {
+            while (stop.getCount() > 0)
+            {
+               listener.updated(a);
+               listener.updated(b);
+            }
+         }
+      };
+      writer.start();
+      try
+      {
+         listener.updated(c);
+         // writer keeps worker busy all the time, but earlier changes are awaited only
+         assertTrue(listener.waitForIndexing(5000));
+         assertTrue(recorder.batches.contains(ids(c)));
+      }
+      finally
+      {
+         stop.countDown();
+         writer.join(5000);
+      }
+   }
+
+   public void testRetryFailedBatch() throws Exception
+   {
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.updated(b);
+      listener.updated(c);
+      recorder.failures.set(1);
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      // failed change is retried alone before the others
+      assertEquals(Arrays.asList(ids(a), ids(b, c)), recorder.batches);
+   }
+
+   public void testReportDroppedChange() throws Exception
+   {
+      recorder.gate.countDown();
+      recorder.failures.set(IndexListener.DEFAULT_MAX_ATTEMPTS);
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      try
+      {
+         listener.waitForIndexing(5000);
+         fail("IndexModificationException must be thrown.");
+      }
+      catch (IndexModificationException e)
+      {
+         // ok
+      }
+      listener.updated(b);
+      // dropped change is reported once
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(b)), recorder.batches);
+   }
+
+   public void testUpdateOfCreatedObjectDoesNotRemoveIt() throws Exception
+   {
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.created(b);
+      listener.updated(b);
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(a), ids(b)), recorder.batches);
+      assertFalse(recorder.removed.contains(b.getObjectId()));
+   }
+
+   public void testSkipObjectRemovedBeforeIndexing() throws Exception
+   {
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.created(b);
+      listener.removed(Collections.singleton(b.getObjectId()));
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(a)), recorder.batches);
+      assertFalse(recorder.removed.contains(b.getObjectId()));
+   }
+
+   public void testStopIndexesQueuedChanges() throws Exception
+   {
+      IndexListener listener = newListener(10, 10);
+      listener.created(a);
+      recorder.awaitUpdate();
+      listener.updated(b);
+      recorder.gate.countDown();
+      assertTrue(listener.stop(5000));
+      // stopped listener doesn't accept changes
+      listener.updated(c);
+      assertEquals(Arrays.asList(ids(a), ids(b)), recorder.batches);
+   }
+
+   public void testIndexDescendantsOfRelocatedFolderByWorker() throws Exception
+   {
+      FolderData x = createFolder(a, "x");
+      FolderData y = createFolder(x, "y");
+      FolderData z = createFolder(y, "z");
+      IndexListener listener = newListener(10, 2);
+      listener.created(b);
+      recorder.awaitUpdate();
+      // one change is queued for the whole subtree
+      listener.relocated(a);
+      listener.updated(c);
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(b), ids(x, y), ids(z), ids(c)), recorder.batches);
+   }
+
+   public void testSkipDescendantChangedAfterRelocation() throws Exception
+   {
+      FolderData x = createFolder(a, "x");
+      FolderData y = createFolder(x, "y");
+      IndexListener listener = newListener(10, 10);
+      listener.created(b);
+      recorder.awaitUpdate();
+      listener.relocated(a);
+      listener.updated(x);
+      recorder.gate.countDown();
+      assertTrue(listener.waitForIndexing(5000));
+      assertEquals(Arrays.asList(ids(b), ids(y), ids(x)), recorder.batches);
+   }
+
+   private IndexListener newListener(int maxPending, int batchSize)
+   {
+      IndexListener listener = new IndexListener(recorder, maxPending, batchSize);
+      listeners.add(listener);
+      return listener;
+   }
+
+   private static List<String> ids(FolderData... folders)
+   {
+      List<String> ids = new ArrayList<String>(folders.length);
+      for (FolderData folder : folders)
+      {
+         ids.add(folder.getObjectId());
+      }
+      return ids;
+   }
+
+   /**
+    * Records identifiers of added entries per batch. Worker is blocked in
+    * update until gate is opened, then update fails given number of times.
+    */
+   private static class RecordingListener implements ContentModificationListener
+   {
+      final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+
+      final CountDownLatch gate = new CountDownLatch(1);
+
+      final Set<String> removed = Collections.synchronizedSet(new HashSet<String>());
+
+      final Semaphore updates = new Semaphore(0);
+
+      final AtomicInteger failures = new AtomicInteger();
+
+      void awaitUpdate() throws InterruptedException
+      {
+         assertTrue("Worker is not started", updates.tryAcquire(5, TimeUnit.SECONDS));
+      }
+
+      public void update(List<ContentEntry> addedEntries, Set<String> removedEntries)
+         throws IndexModificationException
+      {
+         updates.release();
+         try
+         {
+            gate.await();
+         }
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         if (failures.getAndDecrement() > 0)
+         {
+            throw new IndexModificationException("Index is not available.");
+         }
+         List<String> ids = new ArrayList<String>(addedEntries.size());
+         for (ContentEntry entry : addedEntries)
+         {
+            ids.add(entry.getIdentifier());
+         }
+         batches.add(ids);
+         removed.addAll(removedEntries);
+      }
+
+      public void update(List<ContentEntry> addedEntries, Set<String> removedEntries,
+         InvocationContext invocationContext) throws IndexModificationException
+      {
+         update(addedEntries, removedEntries);
+      }
+
+      public void update(ContentEntry addedEntry, String removedEntry) throws IndexModificationException
+      {
+         update(addedEntry == null ? Collections.<ContentEntry> emptyList() : Collections.singletonList(addedEntry),
+            removedEntry == null ? Collections.<String> emptySet() : Collections.singleton(removedEntry));
+      }
+   }
+}
@@ -42,6 +42,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Created by The eXo Platform SAS. <br/>
@@ -636,6 +637,66 @@ public class QueryUsecasesTest extends BaseQueryTest
 
    }
 
+   /**
+    * Test paging of ordered results at window boundaries. Paging is done by
+    * the index, one extra row shows are there more results after the page.
+    *
+    * @throws Exception if an unexpected error occurs
+    */
+   public void testOrderByFieldPaging() throws Exception
+   {
+      List<DocumentData> docs = new ArrayList<DocumentData>();
+      for (int i = 0; i < 7; i++)
+      {
+         docs.add(createAppoloMission(testRoot, "Mission " + i, "Commander " + i, "pilot", "pilot", "Saturn V", 1, 0,
+            "objectives"));
+      }
+      String statement = "SELECT * FROM " + NASA_DOCUMENT + " ORDER BY " + PROPERTY_COMMANDER;
+
+      // more results after page, total is unknown
+      checkPage(statement, 3, 0, docs.subList(0, 3), -1);
+      checkPage(statement, 3, 3, docs.subList(3, 6), -1);
+      // page ends exactly at the last result
+      checkPage(statement, 3, 4, docs.subList(4, 7), 7);
+      // page is cut by the last result
+      checkPage(statement, 3, 6, docs.subList(6, 7), 7);
+      checkPage(statement, 10, 0, docs, 7);
+      checkPage(statement, 0, 0, new ArrayList<DocumentData>(), -1);
+      try
+      {
+         checkPage(statement, 3, 7, new ArrayList<DocumentData>(), -1);
+         fail("NoSuchElementException must be thrown, skipCount is greater then number of results.");
+      }
+      catch (NoSuchElementException e)
+      {
+         // ok
+      }
+   }
+
+   /**
+    * Read page of results in the same way as Connection does.
+    */
+   private void checkPage(String statement, int maxItems, int skipCount, List<DocumentData> expected, int size)
+   {
+      ItemsIterator<Result> result = storage.query(new Query(statement, true, maxItems, skipCount));
+      if (skipCount > 0)
+      {
+         result.skip(skipCount);
+      }
+      List<String> ids = new ArrayList<String>();
+      for (int count = 0; result.hasNext() && count < maxItems; count++)
+      {
+         ids.add(result.next().getObjectId());
+      }
+      List<String> expectedIds = new ArrayList<String>();
+      for (DocumentData document : expected)
+      {
+         expectedIds.add(document.getObjectId());
+      }
+      assertEquals(expectedIds, ids);
+      assertEquals(size, result.size());
+   }
+
    /**
     * Test ORDER BY default.
     * <p>
@@ -674,6 +735,76 @@ public class QueryUsecasesTest extends BaseQueryTest
 
    }
 
+   /**
+    * Test default document order after folder is renamed.
+    * <p>
+    * Initial data: folder1/doc1, folder2/doc2
+    * <p>
+    * Query : Select all documents in tree, then rename folder1 to folder3 and
+    * select them again.
+    * <p>
+    * Expected result: doc1, doc2 before rename, doc2, doc1 after it
+    *
+    * @throws Exception if an unexpected error occurs
+    */
+   public void testOrderByDefaultAfterRename() throws Exception
+   {
+      FolderData folder1 = createFolder(testRoot, "folder1");
+      FolderData folder2 = createFolder(testRoot, "folder2");
+      DocumentData doc1 =
+         createDocument(folder1, "doc1", nasaDocumentTypeDefinition, "first moon landing".getBytes(), MimeType
+            .fromString("text/plain"));
+      DocumentData doc2 =
+         createDocument(folder2, "doc2", nasaDocumentTypeDefinition, "second moon landing".getBytes(), MimeType
+            .fromString("text/plain"));
+
+      String statement = "SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + testRoot.getObjectId() + "')";
+      checkResultOrder(storage.query(new Query(statement, true)), new DocumentData[]{doc1, doc2});
+
+      folder1.setProperty(new StringProperty(CmisConstants.NAME, CmisConstants.NAME, CmisConstants.NAME,
+         CmisConstants.NAME, "folder3"));
+
+      checkResultOrder(storage.query(new Query(statement, true)), new DocumentData[]{doc2, doc1});
+      // text of content is still indexed
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE CONTAINS(\"first\")", new DocumentData[]{doc1});
+   }
+
+   /**
+    * Test default document order after folder is moved.
+    * <p>
+    * Initial data: folder1/doc1, folder2/doc2, folder0
+    * <p>
+    * Query : Select all documents in tree, then move folder2 to folder0 and
+    * select them again.
+    * <p>
+    * Expected result: doc1, doc2 before move, doc2, doc1 after it
+    *
+    * @throws Exception if an unexpected error occurs
+    */
+   public void testOrderByDefaultAfterMove() throws Exception
+   {
+      FolderData folder0 = createFolder(testRoot, "folder0");
+      FolderData folder1 = createFolder(testRoot, "folder1");
+      FolderData folder2 = createFolder(testRoot, "folder2");
+      FolderData folder21 = createFolder(folder2, "folder21");
+      DocumentData doc1 =
+         createDocument(folder1, "doc1", nasaDocumentTypeDefinition, "first moon landing".getBytes(), MimeType
+            .fromString("text/plain"));
+      DocumentData doc2 =
+         createDocument(folder21, "doc2", nasaDocumentTypeDefinition, "second moon landing".getBytes(), MimeType
+            .fromString("text/plain"));
+
+      String statement = "SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + testRoot.getObjectId() + "')";
+      checkResultOrder(storage.query(new Query(statement, true)), new DocumentData[]{doc1, doc2});
+
+      storage.moveObject(folder2, folder0, testRoot);
+
+      checkResultOrder(storage.query(new Query(statement, true)), new DocumentData[]{doc2, doc1});
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE IN_TREE('" + folder0.getObjectId() + "')",
+         new DocumentData[]{doc2});
+      checkResult("SELECT * FROM " + NASA_DOCUMENT + " WHERE CONTAINS(\"second\")", new DocumentData[]{doc2});
+   }
+
    /**
     * Test ORDER BY SCORE().
     * <p>
@@ -2820,7 +2820,8 @@ public abstract class Connection
          throw new InvalidArgumentException("skipCount parameter is negative.");
       }
 
-      ItemsIterator<Result> iterator = storage.query(new Query(statement, searchAllVersions));
+      ItemsIterator<Result> iterator =
+         storage.query(new Query(statement, searchAllVersions, maxItems, skipCount));
       try
       {
          if (skipCount > 0)
@@ -343,6 +343,10 @@ public interface Storage extends TypeManager
     * supports query Capability (capabilityQuery != none)). Otherwise,
     * {@link NotSupportedException} should be thrown.
     *
+    * Paging parameters of <code>query</code> are hints. Storage may collect
+    * only results of requested page, then items before
+    * {@link Query#getSkipCount()} are not available and caller must skip them
+    * with {@link ItemsIterator#skip(int)} before reading results.
     *
     * @param query SQL query
     * @return set of query results
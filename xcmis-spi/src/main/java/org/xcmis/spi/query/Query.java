@@ -32,10 +32,28 @@ public class Query
 
    private final String statement;
 
+   private final int maxItems;
+
+   private final int skipCount;
+
    public Query(String statement, boolean searchAllVersion)
+   {
+      this(statement, searchAllVersion, -1, 0);
+   }
+
+   /**
+    * @param statement SQL statement
+    * @param searchAllVersion TRUE if all versions must be searched
+    * @param maxItems max number of items caller is going to read, -1 if not
+    *        limited
+    * @param skipCount number of items caller is going to skip
+    */
+   public Query(String statement, boolean searchAllVersion, int maxItems, int skipCount)
    {
       this.statement = statement;
       this.searchAllVersions = searchAllVersion;
+      this.maxItems = maxItems;
+      this.skipCount = skipCount;
    }
 
    /**
@@ -54,5 +72,24 @@ public class Query
    {
       return searchAllVersions;
    }
-   
+
+   /**
+    * @return max number of items caller is going to read or -1 if number of
+    *         items is not limited
+    */
+   public int getMaxItems()
+   {
+      return maxItems;
+   }
+
+   /**
+    * @return number of items caller is going to skip with
+    *         {@link org.xcmis.spi.ItemsIterator#skip(int)} before reading
+    *         results
+    */
+   public int getSkipCount()
+   {
+      return skipCount;
+   }
+
 }